@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * A {@link ScheduledTaskListener} doing nothing, to override the callbacks of interest only.
+ */
+public abstract class AbstractScheduledTaskListener<T>
+    implements ScheduledTaskListener<T>
+{
+    public void taskStateChanged( final ScheduledTask<T> task, final TaskState oldState, final TaskState newState )
+    {
+        // nothing
+    }
+
+    public void runCompleted( final ScheduledTask<T> task, final T result, final Throwable failure )
+    {
+        // nothing
+    }
+}
@@ -1,7 +1,9 @@
 package org.sonatype.scheduling;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.slf4j.Logger;
@@ -49,4 +51,20 @@ public abstract class AbstractSchedulerTask<T>
     {
         TaskUtil.checkInterruption();
     }
+
+    /**
+     * Runs the chunks of this task's work in parallel on the scheduler's worker threads, by as many threads as there
+     * are processors, and returns their results in order of the chunks, to be merged by the caller. See
+     * {@link ParallelSubtasks} for details.
+     * 
+     * @param name
+     * @param chunks
+     * @return
+     * @throws Exception the failure of the first failed chunk.
+     */
+    protected <R> List<R> callInParallel( final String name, final List<? extends Callable<R>> chunks )
+        throws Exception
+    {
+        return new ParallelSubtasks<R>( name, chunks, Runtime.getRuntime().availableProcessors() ).call();
+    }
 }
@@ -0,0 +1,498 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the count of pending tasks: tasks submitted for immediate execution but not yet started running, globally,
+ * per task type and per task priority. Tasks scheduled for later are not admitted, hence they neither take room nor
+ * get dropped. A task is counted against the limit of the priority it had when admitted. Once the pending task starts
+ * running (or is cancelled), it leaves room for a new one. What happens to a task not fitting in the limits is decided
+ * by the admission policy.
+ */
+public class AdmissionControl
+{
+    /**
+     * The task is refused with {@link RejectedExecutionException}.
+     */
+    public static final String ADMISSION_POLICY_REJECT = "reject";
+
+    /**
+     * The submitting thread is blocked until there is room for the task, or the timeout elapses, and the task is
+     * refused then.
+     */
+    public static final String ADMISSION_POLICY_BLOCK = "block";
+
+    /**
+     * The submitting thread runs the task right away, slowing the submitter down. Only the tasks the caller is able to
+     * run (see {@link #admit(ScheduledTask, boolean)}) are run by the caller, others are refused.
+     */
+    public static final String ADMISSION_POLICY_CALLER_RUNS = "caller-runs";
+
+    /**
+     * The oldest pending task (of the type or priority having no room, if that is the case) is cancelled to make room
+     * for the new one.
+     */
+    public static final String ADMISSION_POLICY_DROP_OLDEST = "drop-oldest";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final int limit;
+
+    private final Map<String, Integer> typeLimits;
+
+    private final Map<TaskPriority, Integer> priorityLimits;
+
+    private final String policy;
+
+    private final long timeoutMillis;
+
+    private final ReentrantLock lock;
+
+    private final Condition released;
+
+    /**
+     * The pending tasks in order of admission, with the priority they were admitted with. Guarded by {@link #lock}.
+     */
+    private final LinkedHashMap<ScheduledTask<?>, TaskPriority> pending;
+
+    /**
+     * The pending tasks by type. Guarded by {@link #lock}.
+     */
+    private final Map<String, Set<ScheduledTask<?>>> pendingByType;
+
+    /**
+     * The pending tasks by priority. Guarded by {@link #lock}.
+     */
+    private final EnumMap<TaskPriority, Set<ScheduledTask<?>>> pendingByPriority;
+
+    /**
+     * The tasks admitted, to release the ones not pending cheaply.
+     */
+    private final ConcurrentHashMap<ScheduledTask<?>, Boolean> admitted;
+
+    private final AtomicLong rejectedCount;
+
+    private final AtomicLong droppedCount;
+
+    private final AtomicLong callerRunsCount;
+
+    /**
+     * Creates an admission control.
+     *
+     * @param limit the count of pending tasks, zero means no limit.
+     * @param typeLimits the count of pending tasks per type, types not listed are not limited.
+     * @param priorityLimits the count of pending tasks per priority, priorities not listed are not limited.
+     * @param policy
+     * @param timeoutMillis the timeout of {@link #ADMISSION_POLICY_BLOCK} policy, in milliseconds.
+     */
+    public AdmissionControl( final int limit, final Map<String, Integer> typeLimits,
+                             final Map<TaskPriority, Integer> priorityLimits, final String policy,
+                             final long timeoutMillis )
+    {
+        if ( !ADMISSION_POLICY_REJECT.equals( policy ) && !ADMISSION_POLICY_BLOCK.equals( policy )
+            && !ADMISSION_POLICY_CALLER_RUNS.equals( policy ) && !ADMISSION_POLICY_DROP_OLDEST.equals( policy ) )
+        {
+            throw new IllegalArgumentException( "Unknown admission policy: " + policy );
+        }
+
+        if ( limit < 0 )
+        {
+            throw new IllegalArgumentException( "Admission limit cannot be negative: " + limit );
+        }
+
+        for ( Map.Entry<String, Integer> entry : typeLimits.entrySet() )
+        {
+            if ( entry.getValue() < 1 )
+            {
+                throw new IllegalArgumentException( "Admission limit of type \"" + entry.getKey()
+                    + "\" must be positive: " + entry.getValue() );
+            }
+        }
+
+        for ( Map.Entry<TaskPriority, Integer> entry : priorityLimits.entrySet() )
+        {
+            if ( entry.getValue() < 1 )
+            {
+                throw new IllegalArgumentException( "Admission limit of priority " + entry.getKey()
+                    + " must be positive: " + entry.getValue() );
+            }
+        }
+
+        this.limit = limit;
+        this.typeLimits = new HashMap<String, Integer>( typeLimits );
+        this.priorityLimits = new EnumMap<TaskPriority, Integer>( TaskPriority.class );
+        this.priorityLimits.putAll( priorityLimits );
+        this.policy = policy;
+        this.timeoutMillis = timeoutMillis;
+        this.lock = new ReentrantLock();
+        this.released = lock.newCondition();
+        this.pending = new LinkedHashMap<ScheduledTask<?>, TaskPriority>();
+        this.pendingByType = new HashMap<String, Set<ScheduledTask<?>>>();
+        this.pendingByPriority = new EnumMap<TaskPriority, Set<ScheduledTask<?>>>( TaskPriority.class );
+        for ( TaskPriority priority : TaskPriority.values() )
+        {
+            pendingByPriority.put( priority, new LinkedHashSet<ScheduledTask<?>>() );
+        }
+        this.admitted = new ConcurrentHashMap<ScheduledTask<?>, Boolean>();
+        this.rejectedCount = new AtomicLong( 0 );
+        this.droppedCount = new AtomicLong( 0 );
+        this.callerRunsCount = new AtomicLong( 0 );
+    }
+
+    public String getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Admits the new task as pending, applying the admission policy if there is no room for it.
+     *
+     * @param task
+     * @param runnableByCaller whether the task can be run by the caller right away.
+     * @return {@code true} if the task got admitted, {@code false} if it is to be run by the caller.
+     * @throws RejectedExecutionException if the task is refused.
+     */
+    public boolean admit( final ScheduledTask<?> task, final boolean runnableByCaller )
+        throws RejectedExecutionException
+    {
+        final String type = task.getType();
+
+        final TaskPriority priority = task.getPriority();
+
+        final List<ScheduledTask<?>> dropped = new ArrayList<ScheduledTask<?>>();
+
+        lock.lock();
+
+        try
+        {
+            Set<ScheduledTask<?>> full = getFullScope( type, priority );
+
+            if ( full != null )
+            {
+                if ( ADMISSION_POLICY_CALLER_RUNS.equals( policy ) && runnableByCaller )
+                {
+                    callerRunsCount.incrementAndGet();
+
+                    return false;
+                }
+                else if ( ADMISSION_POLICY_BLOCK.equals( policy ) )
+                {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+
+                    while ( full != null && nanos > 0 )
+                    {
+                        nanos = released.awaitNanos( nanos );
+
+                        full = getFullScope( type, priority );
+                    }
+                }
+                else if ( ADMISSION_POLICY_DROP_OLDEST.equals( policy ) )
+                {
+                    while ( full != null && !full.isEmpty() )
+                    {
+                        final ScheduledTask<?> oldest = full.iterator().next();
+
+                        remove( oldest );
+
+                        dropped.add( oldest );
+
+                        full = getFullScope( type, priority );
+                    }
+                }
+
+                if ( full != null )
+                {
+                    rejectedCount.incrementAndGet();
+
+                    throw new RejectedExecutionException( "Task \"" + task.getName() + "\" of type \"" + type
+                        + "\" is refused, too many tasks are pending (" + pending.size() + ")." );
+                }
+            }
+
+            pending.put( task, priority );
+
+            Set<ScheduledTask<?>> typePending = pendingByType.get( type );
+
+            if ( typePending == null )
+            {
+                typePending = new LinkedHashSet<ScheduledTask<?>>();
+
+                pendingByType.put( type, typePending );
+            }
+
+            typePending.add( task );
+
+            pendingByPriority.get( priority ).add( task );
+
+            admitted.put( task, Boolean.TRUE );
+
+            return true;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            rejectedCount.incrementAndGet();
+
+            throw new RejectedExecutionException( "Interrupted while waiting for admission of task \""
+                + task.getName() + "\".", e );
+        }
+        finally
+        {
+            lock.unlock();
+
+            // outside of the lock, as cancelling calls back to release
+            for ( ScheduledTask<?> droppedTask : dropped )
+            {
+                droppedCount.incrementAndGet();
+
+                logger.info( "Pending task \"{}\" of type \"{}\" is dropped to make room for new ones.",
+                             droppedTask.getName(), droppedTask.getType() );
+
+                droppedTask.cancel();
+            }
+        }
+    }
+
+    /**
+     * Releases the room of task that is no more pending. Does nothing if the task is not pending.
+     *
+     * @param task
+     */
+    public void release( final ScheduledTask<?> task )
+    {
+        if ( admitted.remove( task ) == null )
+        {
+            return;
+        }
+
+        lock.lock();
+
+        try
+        {
+            remove( task );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the count of pending tasks.
+     *
+     * @return
+     */
+    public int getPendingCount()
+    {
+        lock.lock();
+
+        try
+        {
+            return pending.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the count of pending tasks of given type.
+     *
+     * @param type
+     * @return
+     */
+    public int getPendingCount( final String type )
+    {
+        lock.lock();
+
+        try
+        {
+            final Set<ScheduledTask<?>> typePending = pendingByType.get( type );
+
+            return typePending == null ? 0 : typePending.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the count of pending tasks admitted with given priority.
+     *
+     * @param priority
+     * @return
+     */
+    public int getPendingCount( final TaskPriority priority )
+    {
+        lock.lock();
+
+        try
+        {
+            return pendingByPriority.get( priority ).size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the count of pending tasks per type.
+     *
+     * @return
+     */
+    public Map<String, Integer> getPendingCountsByType()
+    {
+        lock.lock();
+
+        try
+        {
+            final Map<String, Integer> result = new HashMap<String, Integer>( pendingByType.size() );
+
+            for ( Map.Entry<String, Set<ScheduledTask<?>>> entry : pendingByType.entrySet() )
+            {
+                result.put( entry.getKey(), entry.getValue().size() );
+            }
+
+            return Collections.unmodifiableMap( result );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the count of tasks refused so far.
+     *
+     * @return
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the count of pending tasks dropped so far by {@link #ADMISSION_POLICY_DROP_OLDEST} policy.
+     *
+     * @return
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the count of tasks run by the caller so far by {@link #ADMISSION_POLICY_CALLER_RUNS} policy.
+     *
+     * @return
+     */
+    public long getCallerRunsCount()
+    {
+        return callerRunsCount.get();
+    }
+
+    // ==
+
+    /**
+     * Returns the pending tasks of the first scope (all, type or priority) having no room for a new task of given type
+     * and priority, or {@code null} if all of them have room. Must be called while holding {@link #lock}.
+     *
+     * @param type
+     * @param priority
+     * @return
+     */
+    protected Set<ScheduledTask<?>> getFullScope( final String type, final TaskPriority priority )
+    {
+        if ( limit > 0 && pending.size() >= limit )
+        {
+            return pending.keySet();
+        }
+
+        final Integer typeLimit = typeLimits.get( type );
+
+        if ( typeLimit != null )
+        {
+            final Set<ScheduledTask<?>> typePending = pendingByType.get( type );
+
+            if ( typePending != null && typePending.size() >= typeLimit )
+            {
+                return typePending;
+            }
+        }
+
+        final Integer priorityLimit = priorityLimits.get( priority );
+
+        if ( priorityLimit != null && pendingByPriority.get( priority ).size() >= priorityLimit )
+        {
+            return pendingByPriority.get( priority );
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the task from pending ones, must be called while holding {@link #lock}.
+     *
+     * @param task
+     */
+    protected void remove( final ScheduledTask<?> task )
+    {
+        final TaskPriority priority = pending.remove( task );
+
+        if ( priority == null )
+        {
+            return;
+        }
+
+        admitted.remove( task );
+
+        final Set<ScheduledTask<?>> typePending = pendingByType.get( task.getType() );
+
+        if ( typePending != null )
+        {
+            typePending.remove( task );
+
+            if ( typePending.isEmpty() )
+            {
+                pendingByType.remove( task.getType() );
+            }
+        }
+
+        pendingByPriority.get( priority ).remove( task );
+
+        released.signalAll();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Configuration of a bulkhead: a dedicated {@link BulkheadExecutor} running the tasks of one type, as set up in the
+ * {@code <bulkheads>} element of scheduler configuration:
+ *
+ * <pre>
+ * &lt;bulkheads&gt;
+ *   &lt;bulkhead&gt;
+ *     &lt;type&gt;ReindexTask&lt;/type&gt;
+ *     &lt;threads&gt;2&lt;/threads&gt;
+ *     &lt;queue-capacity&gt;100&lt;/queue-capacity&gt;
+ *     &lt;rejection-policy&gt;discard-oldest&lt;/rejection-policy&gt;
+ *   &lt;/bulkhead&gt;
+ * &lt;/bulkheads&gt;
+ * </pre>
+ */
+public class Bulkhead
+{
+    /**
+     * The task type (or lane key) having its runs isolated in the bulkhead.
+     */
+    private String type;
+
+    /**
+     * The count of threads of the bulkhead.
+     */
+    private int threads = 5;
+
+    /**
+     * The count of due runs that may wait for a free thread of the bulkhead. Zero means no queueing at all.
+     */
+    private int queueCapacity = 100;
+
+    /**
+     * What to do with a due run when the bulkhead is saturated: {@link BulkheadExecutor#REJECTION_POLICY_ABORT},
+     * {@link BulkheadExecutor#REJECTION_POLICY_DISCARD_OLDEST} or
+     * {@link BulkheadExecutor#REJECTION_POLICY_CALLER_RUNS}.
+     */
+    private String rejectionPolicy = BulkheadExecutor.REJECTION_POLICY_ABORT;
+
+    public Bulkhead()
+    {
+    }
+
+    public Bulkhead( final String type, final int threads, final int queueCapacity,
+                     final String rejectionPolicy )
+    {
+        this.type = type;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public void setType( final String type )
+    {
+        this.type = type;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads( final int threads )
+    {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity( final int queueCapacity )
+    {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getRejectionPolicy()
+    {
+        return rejectionPolicy;
+    }
+
+    public void setRejectionPolicy( final String rejectionPolicy )
+    {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+}
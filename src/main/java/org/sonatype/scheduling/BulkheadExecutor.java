@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded executor dedicated to the runs of one task type, isolating them from the others: a type blocking on slow
+ * I/O exhausts the threads of it's own bulkhead only, not the shared worker threads.
+ */
+public class BulkheadExecutor
+    implements Executor
+{
+    /**
+     * The run is dropped, and the task moves on to its next run (a task having no next run is cancelled). Commands not
+     * being runs of a task (like the ones of lanes) are refused, and handed over again later by the caller.
+     */
+    public static final String REJECTION_POLICY_ABORT = "abort";
+
+    /**
+     * The oldest waiting run is dropped to make room for the new one, and its task moves on to its next run as with
+     * {@link #REJECTION_POLICY_ABORT}.
+     */
+    public static final String REJECTION_POLICY_DISCARD_OLDEST = "discard-oldest";
+
+    /**
+     * The run overflows to the shared worker threads, as if the scheduler (the caller of the bulkhead) ran it. It is
+     * never run by the thread handing it over, as that is usually the timer thread.
+     */
+    public static final String REJECTION_POLICY_CALLER_RUNS = "caller-runs";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final String type;
+
+    private final String rejectionPolicy;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Executor overflowExecutor;
+
+    private final AtomicLong rejectedCount;
+
+    /**
+     * @param configuration
+     * @param threadFactory
+     * @param overflowExecutor the executor the runs overflow to with {@link #REJECTION_POLICY_CALLER_RUNS}, usually the
+     *            shared worker threads.
+     */
+    public BulkheadExecutor( final Bulkhead configuration, final ThreadFactory threadFactory,
+                             final Executor overflowExecutor )
+    {
+        if ( configuration.getType() == null )
+        {
+            throw new IllegalArgumentException( "Bulkhead type must be set!" );
+        }
+
+        if ( !REJECTION_POLICY_ABORT.equals( configuration.getRejectionPolicy() )
+            && !REJECTION_POLICY_DISCARD_OLDEST.equals( configuration.getRejectionPolicy() )
+            && !REJECTION_POLICY_CALLER_RUNS.equals( configuration.getRejectionPolicy() ) )
+        {
+            throw new IllegalArgumentException( "Unknown rejection policy of bulkhead \"" + configuration.getType()
+                + "\": " + configuration.getRejectionPolicy() );
+        }
+
+        this.type = configuration.getType();
+        this.rejectionPolicy = configuration.getRejectionPolicy();
+
+        final BlockingQueue<Runnable> queue;
+
+        if ( configuration.getQueueCapacity() > 0 )
+        {
+            queue = new ArrayBlockingQueue<Runnable>( configuration.getQueueCapacity() );
+        }
+        else
+        {
+            queue = new SynchronousQueue<Runnable>();
+        }
+
+        this.executor =
+            new ThreadPoolExecutor( configuration.getThreads(), configuration.getThreads(), 60L, TimeUnit.SECONDS,
+                                    queue, threadFactory, new RejectionHandler() );
+        this.overflowExecutor = overflowExecutor;
+        this.rejectedCount = new AtomicLong( 0 );
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public String getRejectionPolicy()
+    {
+        return rejectionPolicy;
+    }
+
+    public void execute( final Runnable command )
+        throws RejectedExecutionException
+    {
+        executor.execute( command );
+    }
+
+    /**
+     * Returns the count of threads of this bulkhead running a task.
+     *
+     * @return
+     */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Returns the count of due runs waiting for a free thread of this bulkhead.
+     *
+     * @return
+     */
+    public int getQueuedCount()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the count of due runs that did not fit into this bulkhead, and were handled by it's rejection policy.
+     *
+     * @return
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    public void shutdownNow()
+    {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination( final long timeout, final TimeUnit unit )
+        throws InterruptedException
+    {
+        return executor.awaitTermination( timeout, unit );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Bulkhead(" + type + "): active=" + getActiveCount() + ", queued=" + getQueuedCount() + ", rejected="
+            + getRejectedCount();
+    }
+
+    // ==
+
+    protected class RejectionHandler
+        implements RejectedExecutionHandler
+    {
+        public void rejectedExecution( final Runnable command, final ThreadPoolExecutor executor )
+        {
+            if ( executor.isShutdown() )
+            {
+                throw new RejectedExecutionException( "Bulkhead \"" + type + "\" is shut down!" );
+            }
+
+            rejectedCount.incrementAndGet();
+
+            if ( REJECTION_POLICY_DISCARD_OLDEST.equals( rejectionPolicy ) )
+            {
+                final Runnable oldest = pollOldestSkippable( executor );
+
+                if ( oldest != null )
+                {
+                    logger.warn( "Bulkhead \"{}\" saturated, the oldest waiting run skipped.", type );
+
+                    DefaultScheduler.PrioritizedCommand.skip( oldest );
+
+                    executor.execute( command );
+
+                    return;
+                }
+            }
+            else if ( REJECTION_POLICY_CALLER_RUNS.equals( rejectionPolicy ) )
+            {
+                overflowExecutor.execute( command );
+
+                return;
+            }
+
+            if ( DefaultScheduler.PrioritizedCommand.skip( command ) )
+            {
+                logger.warn( "Bulkhead \"{}\" saturated, the due run skipped.", type );
+
+                return;
+            }
+
+            throw new RejectedExecutionException( "Bulkhead \"" + type + "\" saturated!" );
+        }
+
+        /**
+         * Takes the oldest waiting run of a task out of the queue, leaving the other commands (like the ones of lanes)
+         * queued.
+         */
+        protected Runnable pollOldestSkippable( final ThreadPoolExecutor executor )
+        {
+            for ( Runnable queued : executor.getQueue() )
+            {
+                if ( DefaultScheduler.PrioritizedCommand.isSkippable( queued ) && executor.getQueue().remove( queued ) )
+                {
+                    return queued;
+                }
+            }
+
+            return null;
+        }
+    }
+}
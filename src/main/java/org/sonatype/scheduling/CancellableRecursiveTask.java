@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A {@link RecursiveTask} to split the work of a task into subtasks, run (and stolen) by the threads of a fork/join
+ * pool. The subtask inherits the current {@link ProgressListener} of the thread creating it, hence cancelling the task
+ * reaches the subtasks run by other threads too: {@link TaskUtil#checkInterruption()} and
+ * {@link TaskUtil#getCurrentProgressListener()} called from {@link #doCompute()} behave as in the task body, and a
+ * subtask of a cancelled task does not start computing at all.
+ * <p>
+ * Subtasks must be created by the task body (or by other subtasks), as they capture the progress listener on creation.
+ * The scheduler runs the task bodies themselves on a fork/join pool in
+ * {@link DefaultScheduler#WORKER_MODE_FORK_JOIN} worker mode, making the worker threads available for stealing.
+ */
+public abstract class CancellableRecursiveTask<V>
+    extends RecursiveTask<V>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient ProgressListener progressListener;
+
+    public CancellableRecursiveTask()
+    {
+        this.progressListener = TaskUtil.getCurrentProgressListener();
+    }
+
+    @Override
+    protected final V compute()
+    {
+        // a joined subtask may be run by the joining thread, hence it's listener is restored afterwards
+        final ProgressListener previous = TaskUtil.swapCurrent( progressListener );
+
+        try
+        {
+            TaskUtil.checkInterruption();
+
+            return doCompute();
+        }
+        finally
+        {
+            TaskUtil.swapCurrent( previous );
+        }
+    }
+
+    /**
+     * The computation of this subtask.
+     * 
+     * @return
+     * @throws TaskInterruptedException if the task got cancelled.
+     */
+    protected abstract V doCompute()
+        throws TaskInterruptedException;
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * A task (the callable submitted to scheduler) whose duplicate submissions are coalesced: submitting it for immediate
+ * execution while an enabled task of the same type, lane and coalescing key is SUBMITTED or WAITING (not yet running)
+ * with a run pending no later than the first run of the submitted one does not create a new task, but returns the
+ * handle of that task instead, and the submitted callable is dropped. The task gets the priority of the submission, if
+ * that is higher. Tasks scheduled for later are never coalesced.
+ */
+public interface CoalescingTask
+{
+    /**
+     * Returns the key telling apart the duplicates of this task within its type. Returning {@code null} means the key
+     * is derived from the parameters of the task (see {@link ScheduledTask#getTaskParams()}), hence tasks of same type
+     * and parameters are duplicates.
+     *
+     * @return
+     */
+    String getCoalescingKey();
+}
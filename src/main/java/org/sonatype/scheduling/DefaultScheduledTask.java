@@ -12,15 +12,22 @@
  */
 package org.sonatype.scheduling;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.sonatype.scheduling.iterators.NoopSchedulerIterator;
 import org.sonatype.scheduling.iterators.SchedulerIterator;
@@ -38,40 +45,120 @@ public class DefaultScheduledTask<T>
 
     private final DefaultScheduler scheduler;
 
-    private final Callable<T> callable;
+    /**
+     * The callable, {@code null} until instantiated for the tasks initialized lazily.
+     */
+    private volatile Callable<T> callable;
 
-    private TaskState taskState;
+    /**
+     * The factory instantiating the callable, and the parameters to instantiate it with, {@code null} unless the task
+     * was initialized lazily and the callable is not instantiated yet. The instantiation is guarded by the parameters.
+     */
+    private volatile TaskConfigManager taskFactory;
 
-    private Date scheduledAt;
+    private volatile Map<String, String> lazyTaskParams;
 
-    private Future<T> future;
+    private final String laneKey;
 
-    private Throwable throwable;
+    private volatile TaskPriority priority;
 
-    private boolean enabled;
+    private volatile TaskState taskState;
 
-    private Date lastRun;
+    private volatile Date scheduledAt;
 
-    private Date nextRun;
+    private volatile Future<T> future;
 
-    private List<T> results;
+    private volatile Throwable throwable;
 
-    private Schedule schedule;
+    private volatile boolean enabled;
 
-    private SchedulerIterator scheduleIterator;
+    private volatile Date lastRun;
+
+    private volatile Date nextRun;
+
+    private volatile ResultBuffer<T> results;
+
+    private volatile Schedule schedule;
+
+    private volatile SchedulerIterator scheduleIterator;
 
     private volatile ProgressListener progressListener;
 
-    boolean manualRun;
+    private final AtomicBoolean manualRun = new AtomicBoolean( false );
+
+    /**
+     * The time the pending manual run was asked for, to tell how late it started.
+     */
+    private volatile long manualRunRequested;
+
+    private volatile long duration;
+
+    private volatile TaskState lastStatus;
+
+    private volatile boolean toBeRemoved = false;
 
-    private long duration;
+    /**
+     * Count of consecutive runs blocked by other tasks.
+     */
+    private int sleepCount = 0;
 
-    private TaskState lastStatus;
+    /**
+     * The key duplicate submissions of this task are coalesced by, or {@code null}.
+     */
+    private volatile String coalescingKey;
 
-    private boolean toBeRemoved = false;
+    private final List<ScheduledTaskListener<T>> listeners = new CopyOnWriteArrayList<ScheduledTaskListener<T>>();
+
+    /**
+     * The state transitions made but not yet notified to the listeners, as { old state, new state } pairs in order.
+     */
+    private final Queue<TaskState[]> stateChanges = new ConcurrentLinkedQueue<TaskState[]>();
+
+    /**
+     * True while a thread notifies the listeners of the queued state transitions.
+     */
+    private final AtomicBoolean notifyingStateChanges = new AtomicBoolean( false );
+
+    /**
+     * The completion of the run ending next, created when first asked for.
+     */
+    private final AtomicReference<RunCompletion<T>> runCompletion = new AtomicReference<RunCompletion<T>>();
+
+    /**
+     * True while a run is executed, up to taking it's completion.
+     */
+    private volatile boolean runInProgress = false;
+
+    /**
+     * Wakes this task up when it's queued resource locks get granted.
+     */
+    private final Runnable wakeUpCommand = new Runnable()
+    {
+        public void run()
+        {
+            wakeUp();
+        }
+    };
+
+    /**
+     * Hands over the due runs of this task to the workers, with priority decided when due.
+     */
+    private final Executor dispatcher = new Executor()
+    {
+        public void execute( final Runnable command )
+        {
+            getScheduler().dispatch( command, getType(), getDispatchPriority(), DefaultScheduledTask.this );
+        }
+    };
 
     public DefaultScheduledTask( String id, String name, String type, DefaultScheduler scheduler, Callable<T> callable,
                                  Schedule schedule )
+    {
+        this( id, name, type, scheduler, callable, schedule, null );
+    }
+
+    public DefaultScheduledTask( String id, String name, String type, DefaultScheduler scheduler, Callable<T> callable,
+                                 Schedule schedule, String laneKey )
     {
         super();
 
@@ -85,19 +172,54 @@ public class DefaultScheduledTask<T>
 
         this.callable = callable;
 
+        this.laneKey = laneKey;
+
+        this.priority = TaskPriority.NORMAL;
+
         this.taskState = TaskState.SUBMITTED;
 
         this.enabled = true;
 
-        this.results = new ArrayList<T>();
+        this.results = new ResultBuffer<T>( ResultRetention.unlimited() );
 
         this.schedule = schedule;
 
         this.scheduleIterator = null;
 
         this.nextRun = null;
+    }
+
+    /**
+     * Creates a task initialized lazily: the callable is instantiated by the factory only when first needed, that is
+     * when it fires or the callable is asked for. Meant for the tasks loaded up on startup, most of them not firing for
+     * long.
+     * 
+     * @param id
+     * @param name
+     * @param type
+     * @param scheduler
+     * @param taskFactory
+     * @param taskParams the parameters to instantiate the callable with.
+     * @param schedule
+     */
+    public DefaultScheduledTask( String id, String name, String type, DefaultScheduler scheduler,
+                                 TaskConfigManager taskFactory, Map<String, String> taskParams, Schedule schedule )
+    {
+        this( id, name, type, scheduler, null, schedule, null );
 
-        this.manualRun = false;
+        this.lazyTaskParams = new HashMap<String, String>( taskParams );
+
+        this.taskFactory = taskFactory;
+    }
+
+    /**
+     * Returns true if the callable of this task is instantiated, always true unless the task was initialized lazily.
+     * 
+     * @return
+     */
+    public boolean isInstantiated()
+    {
+        return lazyTaskParams == null;
     }
 
     public SchedulerTask<T> getSchedulerTask()
@@ -121,7 +243,7 @@ public class DefaultScheduledTask<T>
 
     public Callable<T> getTask()
     {
-        return callable;
+        return getCallable();
     }
 
     protected void start()
@@ -131,6 +253,46 @@ public class DefaultScheduledTask<T>
         setFuture( reschedule() );
     }
 
+    /**
+     * Starts this task loaded up on startup, but leaves scheduling its first run to the caller, to schedule the runs of
+     * many tasks at once. The configuration is not written, as it was just loaded.
+     * 
+     * @return true if the first run is to be scheduled after {@link #getNextRunDelay()}, false if there is none.
+     */
+    protected boolean startLoaded()
+    {
+        this.scheduledAt = new Date();
+
+        if ( !advanceNextRun() )
+        {
+            return false;
+        }
+
+        getScheduler().fireTaskEvent( TaskEvent.Type.RESCHEDULED, this, nextRun, null );
+
+        return true;
+    }
+
+    /**
+     * Starts this task by running it's first run by the calling thread right away, for tasks submitted for immediate
+     * execution only.
+     */
+    protected void startByCaller()
+    {
+        this.scheduledAt = new Date();
+
+        // consume the only run of the schedule, as start() would
+        nextRun = getScheduleIterator().next();
+
+        getScheduler().taskRescheduled( this );
+
+        final FutureTask<T> run = new FutureTask<T>( this );
+
+        setFuture( run );
+
+        run.run();
+    }
+
     protected Future<T> getFuture()
     {
         return future;
@@ -146,12 +308,92 @@ public class DefaultScheduledTask<T>
         return scheduler;
     }
 
-    protected void setTaskState( TaskState state )
+    /**
+     * Moves this task into given state, if that is a valid transition from it's current state.
+     * 
+     * @param state
+     * @return true if the transition happened.
+     */
+    protected boolean setTaskState( TaskState state )
     {
-        if ( !getTaskState().isEndingState() )
+        final boolean result;
+
+        synchronized ( this )
         {
-            this.taskState = state;
+            result = transition( this.taskState, state );
         }
+
+        fireTaskStateChanges();
+
+        return result;
+    }
+
+    /**
+     * Moves this task into given state, if it is still in the expected state and that is a valid transition from it.
+     * Used for the transitions decided by looking at the current state, to not to lose a transition made meanwhile by
+     * an other thread. The transitions are serialized by the monitor of this task (while the state is read without
+     * locking), as the scheduler is notified of them in order. The listeners are notified once the monitor is left.
+     * 
+     * @param expectedState
+     * @param state
+     * @return true if the transition happened.
+     */
+    protected boolean compareAndSetTaskState( TaskState expectedState, TaskState state )
+    {
+        final boolean result;
+
+        synchronized ( this )
+        {
+            result = this.taskState == expectedState && transition( expectedState, state );
+        }
+
+        fireTaskStateChanges();
+
+        return result;
+    }
+
+    /**
+     * Tells whether a refused {@link #compareAndSetTaskState(TaskState, TaskState)} is worth deciding again: only if
+     * this task moved on from the expected state meanwhile, as an invalid transition would be refused forever.
+     * 
+     * @param expectedState
+     * @param state
+     * @return
+     */
+    protected boolean movedOnFrom( final TaskState expectedState, final TaskState state )
+    {
+        if ( getTaskState() != expectedState )
+        {
+            return true;
+        }
+
+        getScheduler().getLogger().warn( "Task \"{}\" cannot transition from {} to {}.",
+                                         new Object[] { getName(), expectedState, state } );
+
+        return false;
+    }
+
+    private boolean transition( final TaskState oldState, final TaskState state )
+    {
+        if ( !oldState.canTransitionTo( state ) )
+        {
+            if ( !oldState.isEndingState() )
+            {
+                getScheduler().getLogger().debug( "Task \"{}\" refused transition from {} to {}.",
+                                                  new Object[] { getName(), oldState, state } );
+            }
+
+            return false;
+        }
+
+        this.taskState = state;
+
+        getScheduler().taskStateChanged( this, oldState, state );
+
+        // the listeners are notified once the monitor is left, see fireTaskStateChanges()
+        stateChanges.offer( new TaskState[] { oldState, state } );
+
+        return true;
     }
 
     protected void setBrokenCause( Throwable e )
@@ -161,7 +403,64 @@ public class DefaultScheduledTask<T>
 
     protected Callable<T> getCallable()
     {
-        return callable;
+        final Callable<T> result = callable;
+
+        return result != null ? result : instantiateCallable();
+    }
+
+    /**
+     * Instantiates the callable of this lazily initialized task. If the factory fails, a callable failing the run is
+     * returned instead, and the instantiation is retried when the callable is needed again.
+     * 
+     * @return
+     */
+    @SuppressWarnings( "unchecked" )
+    protected Callable<T> instantiateCallable()
+    {
+        final Map<String, String> params = lazyTaskParams;
+
+        if ( params == null )
+        {
+            // instantiated meanwhile, it is set before the parameters are cleared
+            return callable;
+        }
+
+        synchronized ( params )
+        {
+            if ( callable != null )
+            {
+                return callable;
+            }
+
+            final SchedulerTask<?> instance;
+
+            try
+            {
+                instance = taskFactory.createTaskInstance( getType() );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                return new InstantiationFailure<T>( getType(), e );
+            }
+
+            if ( instance == null )
+            {
+                return new InstantiationFailure<T>( getType(), null );
+            }
+
+            for ( Map.Entry<String, String> param : params.entrySet() )
+            {
+                instance.addParameter( param.getKey(), param.getValue() );
+            }
+
+            callable = (Callable<T>) instance;
+
+            lazyTaskParams = null;
+
+            taskFactory = null;
+
+            return callable;
+        }
     }
 
     protected boolean isManualRunScheduled()
@@ -179,6 +478,69 @@ public class DefaultScheduledTask<T>
         return type;
     }
 
+    public TaskPriority getPriority()
+    {
+        return priority;
+    }
+
+    public void setPriority( TaskPriority priority )
+    {
+        if ( priority == null )
+        {
+            throw new NullPointerException( "Task priority cannot be null!" );
+        }
+
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the priority of the current due run: runs requested manually are of at least {@link TaskPriority#HIGH}
+     * priority, as someone is waiting for them.
+     * 
+     * @return
+     */
+    protected TaskPriority getDispatchPriority()
+    {
+        final TaskPriority priority = getPriority();
+
+        if ( manualRun.get() && priority.compareTo( TaskPriority.HIGH ) < 0 )
+        {
+            return TaskPriority.HIGH;
+        }
+
+        return priority;
+    }
+
+    protected Executor getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the key of the lane this task runs in, or {@code null} if it is not bound to any lane.
+     * 
+     * @return
+     */
+    public String getLaneKey()
+    {
+        return laneKey;
+    }
+
+    /**
+     * Returns the key duplicate submissions of this task are coalesced by, or {@code null} if they are not coalesced.
+     * 
+     * @return
+     */
+    public String getCoalescingKey()
+    {
+        return coalescingKey;
+    }
+
+    protected void setCoalescingKey( final String coalescingKey )
+    {
+        this.coalescingKey = coalescingKey;
+    }
+
     public TaskState getTaskState()
     {
         return taskState;
@@ -207,12 +569,24 @@ public class DefaultScheduledTask<T>
     public void cancel( boolean interrupt, boolean removeTask )
     {
         final ProgressListener progressListener = getProgressListener();
-        TaskState originalState = getTaskState();
+        final TaskState originalState = getTaskState();
 
         // only go into cancelling state if task is actually doing something
         if ( originalState.isExecuting() || originalState.equals( TaskState.SLEEPING ) )
         {
-            setTaskState( TaskState.CANCELLING );
+            // the run in progress must know what to do by the time it sees the task CANCELLING
+            setToBeRemoved( removeTask );
+
+            if ( !compareAndSetTaskState( originalState, TaskState.CANCELLING ) )
+            {
+                // the task moved on meanwhile (like ended its run), cancel it in its new state
+                if ( movedOnFrom( originalState, TaskState.CANCELLING ) )
+                {
+                    cancel( interrupt, removeTask );
+                }
+
+                return;
+            }
 
             if ( progressListener != null )
             {
@@ -227,8 +601,11 @@ public class DefaultScheduledTask<T>
 
             if ( originalState.equals( TaskState.SLEEPING ) )
             {
+                // give up the resource locks it waits for (or got granted but not used yet)
+                getScheduler().getResourceLockManager().release( this );
+
                 // manualRun would be reset on transition to RUNNING, so we need to do that here as well
-                manualRun = false;
+                manualRun.set( false );
                 // NEXUS-4681 set last run to identify we tried to run this
                 setLastRun( new Date() );
 
@@ -240,7 +617,7 @@ public class DefaultScheduledTask<T>
                 else if ( !removeTask )
                 {
                     // only reschedule/set new state if task is not to be removed
-                    // (maintain correct state transitions, e.g. SUBMITTED -> CANCELLED not allowed)
+                    // (the CANCELLING task moves on to its next run, see the transitions in TaskState)
                     reschedule();
                     TaskState newState = isManualRunScheduled() ? TaskState.SUBMITTED : TaskState.WAITING;
                     setTaskState( newState );
@@ -252,7 +629,21 @@ public class DefaultScheduledTask<T>
         // if this task is not executing, it can be immediately removed from task map
         if ( removeTask && !originalState.isExecuting() )
         {
-            setTaskState( TaskState.CANCELLED );
+            if ( originalState.equals( TaskState.SLEEPING ) || originalState.isEndingState() )
+            {
+                setTaskState( TaskState.CANCELLED );
+            }
+            else if ( !compareAndSetTaskState( originalState, TaskState.CANCELLED ) )
+            {
+                // the task moved on meanwhile (like started running), cancel it in its new state
+                if ( movedOnFrom( originalState, TaskState.CANCELLED ) )
+                {
+                    cancel( interrupt, removeTask );
+                }
+
+                return;
+            }
+
             getScheduler().removeFromTasksMap( this );
         }
     }
@@ -311,115 +702,319 @@ public class DefaultScheduledTask<T>
         }
     }
 
-    protected void setLastRun( Date lastRun )
+    /**
+     * Returns the completion of the run of this task ending next, see {@link RunCompletion#getRunCompletion}.
+     * 
+     * @return
+     */
+    protected RunCompletion<T> getPendingRunCompletion()
     {
-        this.lastRun = new Date( lastRun.getTime() + 20 );
+        while ( true )
+        {
+            final RunCompletion<T> completion = runCompletion.get();
+
+            if ( completion != null )
+            {
+                return completion;
+            }
+
+            final RunCompletion<T> created = new RunCompletion<T>();
+
+            if ( runCompletion.compareAndSet( null, created ) )
+            {
+                // no run is to come if the task already ended
+                if ( getTaskState().isEndingState() && !runInProgress )
+                {
+                    cancelRunCompletion();
+                }
+
+                return created;
+            }
+        }
     }
 
-    protected void setLastStatus( TaskState lastStatus )
+    public void addListener( ScheduledTaskListener<T> listener )
     {
-        this.lastStatus = lastStatus;
+        if ( listener == null )
+        {
+            throw new NullPointerException( "Task listener cannot be null!" );
+        }
+
+        listeners.add( listener );
     }
 
-    protected void setDuration( long duration )
+    public void removeListener( ScheduledTaskListener<T> listener )
     {
-        this.duration = duration;
+        listeners.remove( listener );
     }
 
-    protected Future<T> reschedule()
+    /**
+     * Notifies the listeners of the queued state transitions in order, and cancels the pending run completion if the
+     * task ended. Does nothing while the calling thread holds the monitor of this task, as the listeners may call into
+     * other tasks or block; the transitions are then notified by the holder once it left the monitor.
+     */
+    protected void fireTaskStateChanges()
     {
-        if ( !isManualRunScheduled() )
+        if ( Thread.holdsLock( this ) )
         {
-            SchedulerIterator iter = getScheduleIterator();
+            return;
+        }
 
-            if ( iter != null && !iter.isFinished() )
+        // one thread notifies at a time to keep the order, and it checks again for changes queued while it finished
+        while ( !stateChanges.isEmpty() && notifyingStateChanges.compareAndSet( false, true ) )
+        {
+            try
             {
-                nextRun = iter.next();
-
-                long nextTime = 0;
-
-                if ( nextRun != null )
-                {
-                    nextTime = nextRun.getTime();
-                }
-                else
+                for ( TaskState[] change = stateChanges.poll(); change != null; change = stateChanges.poll() )
                 {
-                    nextTime = System.currentTimeMillis();
+                    fireTaskStateChanged( change[0], change[1] );
+
+                    // the run in progress, if any, completes the pending completion on it's own
+                    if ( change[1].isEndingState() && !runInProgress )
+                    {
+                        cancelRunCompletion();
+                    }
                 }
+            }
+            finally
+            {
+                notifyingStateChanges.set( false );
+            }
+        }
+    }
+
+    protected void fireTaskStateChanged( final TaskState oldState, final TaskState newState )
+    {
+        for ( ScheduledTaskListener<T> listener : listeners )
+        {
+            try
+            {
+                listener.taskStateChanged( this, oldState, newState );
+            }
+            catch ( RuntimeException e )
+            {
+                getScheduler().getLogger().warn( "Listener of task \"" + getName() + "\" failed!", e );
+            }
+        }
+    }
 
-                getScheduler().taskRescheduled( this );
+    /**
+     * Notifies the listeners and completes the completion (if any was asked for) of the run that just ended.
+     * 
+     * @param completion
+     * @param result
+     * @param failure
+     */
+    protected void runCompleted( final RunCompletion<T> completion, final T result, final Throwable failure )
+    {
+        for ( ScheduledTaskListener<T> listener : listeners )
+        {
+            try
+            {
+                listener.runCompleted( this, result, failure );
+            }
+            catch ( RuntimeException e )
+            {
+                getScheduler().getLogger().warn( "Listener of task \"" + getName() + "\" failed!", e );
+            }
+        }
 
-                return getScheduler().getScheduledExecutorService().schedule( this,
-                                                                              nextTime - System.currentTimeMillis(),
-                                                                              TimeUnit.MILLISECONDS );
+        if ( completion != null )
+        {
+            if ( failure != null )
+            {
+                completion.failed( failure );
             }
             else
             {
-                nextRun = null;
-
-                return null;
+                completion.completed( result );
             }
         }
-        else
+    }
+
+    /**
+     * Completes the pending completion exceptionally, as there is no run to come.
+     */
+    protected void cancelRunCompletion()
+    {
+        final RunCompletion<T> completion = runCompletion.getAndSet( null );
+
+        if ( completion != null )
         {
-            nextRun = null;
+            completion.cancelled();
+        }
+    }
+
+    protected void setLastRun( Date lastRun )
+    {
+        this.lastRun = new Date( lastRun.getTime() + 20 );
+    }
+
+    protected void setLastStatus( TaskState lastStatus )
+    {
+        this.lastStatus = lastStatus;
+    }
 
+    protected void setDuration( long duration )
+    {
+        this.duration = duration;
+    }
+
+    protected Future<T> reschedule()
+    {
+        if ( !advanceNextRun() )
+        {
             return null;
         }
+
+        getScheduler().taskRescheduled( this );
+
+        return getScheduler().scheduleExecution( this, getNextRunDelay() );
+    }
+
+    /**
+     * Moves the next run of this task to the next one of its schedule.
+     * 
+     * @return false if there is no next run (the schedule is finished, or a manual run is scheduled instead).
+     */
+    protected boolean advanceNextRun()
+    {
+        final SchedulerIterator iter = getScheduleIterator();
+
+        if ( !isManualRunScheduled() && iter != null && !iter.isFinished() )
+        {
+            nextRun = iter.next();
+
+            return true;
+        }
+
+        nextRun = null;
+
+        return false;
+    }
+
+    /**
+     * Returns the delay in milliseconds until the next run of this task, that is due right away if it has no time.
+     * 
+     * @return
+     */
+    protected long getNextRunDelay()
+    {
+        return nextRun != null ? nextRun.getTime() - System.currentTimeMillis() : 0;
     }
 
     public void runNow()
     {
         // if we are not RUNNING
-        if ( !TaskState.RUNNING.equals( getTaskState() ) && !manualRun )
+        if ( !TaskState.RUNNING.equals( getTaskState() ) && manualRun.compareAndSet( false, true ) )
         {
-            manualRun = true;
+            manualRunRequested = System.currentTimeMillis();
 
-            getScheduler().getScheduledExecutorService().schedule( this, 0, TimeUnit.MILLISECONDS );
+            getScheduler().scheduleExecution( this, 0 );
         }
     }
 
     public T call()
         throws Exception
     {
+        final Callable<T> callable = getCallable();
+
+        final ProgressListener progressListener =
+            new LoggingProgressListener( callable.getClass().getSimpleName() );
+
+        boolean executed = false;
+
+        boolean locked = false;
+
+        long runStart = 0;
+
+        long runQueueDelay = 0;
+
+        T runResult = null;
+
+        Throwable runFailure = null;
+
         try
         {
-            this.progressListener = new LoggingProgressListener( getCallable().getClass().getSimpleName() );
+            this.progressListener = progressListener;
+
+            TaskUtil.setCurrent( progressListener );
 
-            TaskUtil.setCurrent( this.progressListener );
+            TaskUtil.swapCurrentExecutor( getScheduler().getSubtaskExecutor() );
 
             T result = null;
 
-            if ( getCallable() instanceof SchedulerTask )
+            Collection<ResourceLock> resourceLocks = null;
+
+            if ( callable instanceof ResourceLockingTask )
             {
-                // check for execution
-                if ( !( (SchedulerTask<?>) getCallable() ).allowConcurrentExecution( getScheduler().getActiveTasks() ) )
+                resourceLocks = ( (ResourceLockingTask) callable ).getResourceLocks();
+            }
+
+            if ( resourceLocks != null )
+            {
+                final ResourceLockManager lockManager = getScheduler().getResourceLockManager();
+
+                // check for execution: park until the locks are granted, and poll with backoff as fallback
+                if ( !lockManager.acquire( this, resourceLocks, wakeUpCommand ) )
                 {
-                    if ( nextRun != null )
+                    if ( !sleep() )
                     {
-                        // simply reschedule itself for 10sec
-                        nextRun = new Date( nextRun.getTime() + 10000 );
+                        lockManager.release( this );
+
+                        return result;
                     }
 
-                    setFuture( getScheduler().getScheduledExecutorService().schedule( this, 10000,
-                                                                                      TimeUnit.MILLISECONDS ) );
+                    // the locks may have been granted before this task went SLEEPING, and missed the wake up
+                    if ( lockManager.isGranted( this ) )
+                    {
+                        wakeUp();
+                    }
+
+                    return result;
+                }
+
+                locked = true;
+            }
+            else if ( callable instanceof SchedulerTask )
+            {
+                final SchedulerTask<?> schedulerTask = (SchedulerTask<?>) callable;
 
-                    setTaskState( TaskState.SLEEPING );
+                final long finishedExecutions = getScheduler().getFinishedExecutionCount();
+
+                // check for execution
+                if ( !schedulerTask.allowConcurrentExecution( getScheduler().getActiveTasksView() ) )
+                {
+                    // park until some execution finishes, and poll with backoff as fallback
+                    if ( sleep() )
+                    {
+                        getScheduler().taskSleeping( this, finishedExecutions );
+                    }
 
                     return result;
                 }
             }
 
+            sleepCount = 0;
+
             Future<T> nextFuture = null;
             Date peekBefore = null;
             Date peekAfter = null;
 
-            if ( ( isEnabled() || manualRun ) && getTaskState().isRunnable() )
+            final TaskState runnableState = getTaskState();
+
+            // a task cancelled since is not run
+            if ( ( isEnabled() || manualRun.get() ) && runnableState.isRunnable()
+                && compareAndSetTaskState( runnableState, TaskState.RUNNING ) )
             {
-                setTaskState( TaskState.RUNNING );
+                runInProgress = true;
+
+                executed = true;
 
                 Date startDate = new Date();
 
+                runStart = startDate.getTime();
+
                 try
                 {
                     // Note that we need to do this prior to starting, so that the next run time will be updated
@@ -427,15 +1022,20 @@ public class DefaultScheduledTask<T>
                     // Rather than having to wait for the task to finish
 
                     // If manually running, just grab the previous future and use that or create a new one
-                    if ( manualRun )
+                    if ( manualRun.getAndSet( false ) )
                     {
-                        nextFuture = getFuture();
+                        runQueueDelay = runStart - manualRunRequested;
 
-                        manualRun = false;
+                        nextFuture = getFuture();
                     }
                     // Otherwise, grab the next one
                     else
                     {
+                        // the run was due at the next run time, not yet moved on
+                        final Date dueDate = nextRun;
+
+                        runQueueDelay = dueDate == null ? 0 : runStart - dueDate.getTime();
+
                         nextFuture = reschedule();
                     }
 
@@ -443,12 +1043,14 @@ public class DefaultScheduledTask<T>
 
                     // keep track of the next run times so that if they change during schedule run, will get proper one
                     peekBefore = getScheduleIterator().peekNext();
-                    result = getCallable().call();
+                    result = callable.call();
                     peekAfter = getScheduleIterator().peekNext();
 
+                    runResult = result;
+
                     if ( result != null )
                     {
-                        results.add( result );
+                        addResult( result );
                     }
                     setLastStatus( TaskState.FINISHED );
                 }
@@ -459,18 +1061,26 @@ public class DefaultScheduledTask<T>
                         peekAfter = getScheduleIterator().peekNext();
                     }
                     
-                    manualRun = false;
+                    manualRun.set( false );
+
+                    runFailure = e;
 
                     setBrokenCause( e );
 
                     setLastStatus( TaskState.BROKEN );
-                    if ( isToBeRemoved() )
-                    {
-                        setTaskState( TaskState.CANCELLED );
-                    }
-                    else
+
+                    // decide again if the task got cancelled meanwhile
+                    while ( true )
                     {
-                        setTaskState( TaskState.BROKEN );
+                        final TaskState failedState = getTaskState();
+
+                        final TaskState brokenState = isToBeRemoved() ? TaskState.CANCELLED : TaskState.BROKEN;
+
+                        if ( failedState.isEndingState() || compareAndSetTaskState( failedState, brokenState )
+                            || !movedOnFrom( failedState, brokenState ) )
+                        {
+                            break;
+                        }
                     }
 
                     if ( ( !isManualRunScheduled() && nextFuture == null && isEnabled() ) || isToBeRemoved() )
@@ -507,59 +1117,243 @@ public class DefaultScheduledTask<T>
                 }
             }
 
-            if ( TaskState.BROKEN == getTaskState() )
+            // the next run got dropped meanwhile as the workers were saturated (see runSkipped), move on to the one after
+            if ( nextFuture != null && nextFuture.isCancelled() && !isToBeRemoved() )
             {
-                // do nothing, let user fix or delete it
+                nextFuture = reschedule();
             }
-            else if ( isToBeRemoved() )
+
+            // decide the state following this run, and decide again if the task got cancelled meanwhile
+            while ( true )
             {
-                setTaskState( TaskState.CANCELLED );
+                final TaskState ranState = getTaskState();
+
+                final TaskState nextState;
+
+                boolean rescheduleDisabled = false;
+
+                if ( TaskState.BROKEN == ranState || ranState.isEndingState() )
+                {
+                    // do nothing, let user fix or delete it
+                    break;
+                }
+                else if ( isToBeRemoved() )
+                {
+                    nextState = TaskState.CANCELLED;
+                }
+                // If manually running or having future, park this task to submitted
+                else if ( isManualRunScheduled() )
+                {
+                    nextState = TaskState.SUBMITTED;
+                }
+                else if ( nextFuture != null )
+                {
+                    nextState = TaskState.WAITING;
+                }
+                // If disabled (and not manually run),
+                // put to waiting and reschedule for next time
+                // user may want to enable at some point,
+                // so still seeing the next run time may be handy
+                else if ( !isEnabled() )
+                {
+                    nextState = TaskState.WAITING;
+
+                    rescheduleDisabled = true;
+                }
+                // this execution was the last execution (no other if-clause triggered)
+                else if ( TaskState.CANCELLING.equals( ranState ) )
+                {
+                    nextState = TaskState.CANCELLED;
+                }
+                else
+                {
+                    nextState = TaskState.FINISHED;
+                }
+
+                if ( compareAndSetTaskState( ranState, nextState ) )
+                {
+                    if ( rescheduleDisabled )
+                    {
+                        nextFuture = reschedule();
+                    }
+
+                    if ( TaskState.WAITING.equals( nextState ) )
+                    {
+                        setFuture( nextFuture );
+                    }
+
+                    break;
+                }
+
+                if ( !movedOnFrom( ranState, nextState ) )
+                {
+                    break;
+                }
             }
-            // If manually running or having future, park this task to submitted
-            else if ( isManualRunScheduled() )
+
+            if ( getTaskState().isEndingState() /* FINISHED or CANCELLED */)
             {
-                setTaskState( TaskState.SUBMITTED );
+                getScheduler().removeFromTasksMap( this );
             }
-            else if ( nextFuture != null )
-            {
-                setTaskState( TaskState.WAITING );
 
-                setFuture( nextFuture );
-            }
-            // If disabled (and not manually run),
-            // put to waiting and reschedule for next time
-            // user may want to enable at some point,
-            // so still seeing the next run time may be handy
-            else if ( !isEnabled() )
+            return result;
+        }
+        finally
+        {
+            // a woken up run may already have replaced it
+            if ( this.progressListener == progressListener )
             {
-                setTaskState( TaskState.WAITING );
+                this.progressListener = null;
+            }
 
-                nextFuture = reschedule();
+            TaskUtil.setCurrent( null );
 
-                setFuture( nextFuture );
-            }
-            // this execution was the last execution (no other if-clause triggered)
-            else if ( TaskState.CANCELLING.equals( getTaskState() ) )
+            TaskUtil.swapCurrentExecutor( null );
+
+            if ( locked )
             {
-                setTaskState( TaskState.CANCELLED );
+                getScheduler().getResourceLockManager().release( this );
             }
-            else
+
+            if ( executed )
             {
-                setTaskState( TaskState.FINISHED );
+                getScheduler().recordExecution( this, runStart, runQueueDelay, runFailure );
+
+                getScheduler().executionFinished( this, runFailure );
+
+                // the completions asked for from now on are of the next run
+                final RunCompletion<T> completion = runCompletion.getAndSet( null );
+
+                runInProgress = false;
+
+                if ( getTaskState().isEndingState() )
+                {
+                    cancelRunCompletion();
+                }
+
+                runCompleted( completion, runResult, runFailure );
             }
+        }
+    }
 
-            if ( getTaskState().isEndingState() /* FINISHED or CANCELLED */)
+    /**
+     * Puts this task to SLEEPING state, and schedules it's next try with backoff delay.
+     * 
+     * @return false if the task got cancelled meanwhile, hence it was not put to sleep.
+     */
+    private boolean sleep()
+    {
+        final long delay = getScheduler().getSleepingBackoffDelay( ++sleepCount );
+
+        if ( nextRun != null )
+        {
+            // the retry is due after the backoff delay from now, whenever the blocked run was due
+            nextRun = new Date( System.currentTimeMillis() + delay );
+        }
+
+        final boolean slept;
+
+        synchronized ( this )
+        {
+            // the cancel takes care of the task, like rescheduling it
+            if ( TaskState.CANCELLING.equals( getTaskState() ) || getTaskState().isEndingState() )
             {
-                getScheduler().removeFromTasksMap( this );
+                return false;
             }
 
-            return result;
+            setFuture( getScheduler().scheduleExecution( this, delay ) );
+
+            slept = setTaskState( TaskState.SLEEPING );
+        }
+
+        fireTaskStateChanges();
+
+        return slept;
+    }
+
+    /**
+     * Skips a due run of this task that got dropped before it started, as the workers of its type were saturated: the
+     * task moves on to its next run as if the dropped one ran, or gets cancelled if there is no next run. A dropped
+     * manual run is simply not done, the schedule of the task is kept.
+     * 
+     * @param run the future of the dropped run.
+     */
+    protected void runSkipped( final Future<?> run )
+    {
+        if ( !run.cancel( false ) )
+        {
+            // cancelled meanwhile, nothing to skip
+            return;
+        }
+
+        getScheduler().getLogger().info( "Due run of task \"{}\" skipped, as the workers are saturated.", getName() );
+
+        try
+        {
+            synchronized ( this )
+            {
+                final TaskState state = getTaskState();
+
+                // a run in progress moves on to the next run itself, see call()
+                if ( state.isEndingState() || state.isExecuting() )
+                {
+                    return;
+                }
+
+                if ( run != getFuture() || isManualRunScheduled() )
+                {
+                    manualRun.set( false );
+
+                    // a blocked manual run is not retried either
+                    if ( run == getFuture() )
+                    {
+                        setFuture( null );
+
+                        compareAndSetTaskState( TaskState.SLEEPING, TaskState.SUBMITTED );
+                    }
+
+                    return;
+                }
+
+                final Future<T> nextFuture = reschedule();
+
+                if ( nextFuture != null )
+                {
+                    setFuture( nextFuture );
+
+                    if ( TaskState.SUBMITTED.equals( state ) || TaskState.SLEEPING.equals( state ) )
+                    {
+                        compareAndSetTaskState( state, TaskState.WAITING );
+                    }
+
+                    return;
+                }
+            }
         }
         finally
         {
-            this.progressListener = null;
+            fireTaskStateChanges();
+        }
 
-            TaskUtil.setCurrent( null );
+        // the dropped run was the last one, like the only run of a task submitted for immediate execution
+        cancel();
+    }
+
+    /**
+     * Makes a SLEEPING task to re-evaluate whether it may run now, instead of waiting for it's backoff delay to pass.
+     */
+    protected synchronized void wakeUp()
+    {
+        final Future<T> sleepingFuture = getFuture();
+
+        if ( TaskState.SLEEPING.equals( getTaskState() ) && sleepingFuture != null && sleepingFuture.cancel( false ) )
+        {
+            if ( nextRun != null )
+            {
+                nextRun = new Date();
+            }
+
+            setFuture( getScheduler().scheduleExecution( this, 0 ) );
         }
     }
 
@@ -585,6 +1379,23 @@ public class DefaultScheduledTask<T>
         return nextRun;
     }
 
+    /**
+     * Returns the time of the earliest pending run: the manual run requested, or the next scheduled run.
+     * 
+     * @return the time in milliseconds, or -1 if no run is pending.
+     */
+    protected long getPendingRunTime()
+    {
+        if ( manualRun.get() )
+        {
+            return manualRunRequested;
+        }
+
+        final Date next = nextRun;
+
+        return next == null ? -1 : next.getTime();
+    }
+
     public boolean isEnabled()
     {
         return enabled;
@@ -597,7 +1408,27 @@ public class DefaultScheduledTask<T>
 
     public List<T> getResults()
     {
-        return results;
+        return results.toList();
+    }
+
+    protected synchronized void addResult( T result )
+    {
+        results.add( result );
+    }
+
+    public ResultRetention getResultRetention()
+    {
+        return results.getRetention();
+    }
+
+    public synchronized void setResultRetention( ResultRetention resultRetention )
+    {
+        if ( resultRetention == null )
+        {
+            throw new NullPointerException( "Result retention cannot be null!" );
+        }
+
+        this.results = results.withRetention( resultRetention );
     }
 
     // ScheduledTask
@@ -642,6 +1473,15 @@ public class DefaultScheduledTask<T>
 
     public Map<String, String> getTaskParams()
     {
+        final Map<String, String> params = lazyTaskParams;
+
+        // not instantiating the callable for it's parameters, they are handed over to it once instantiated, hence they
+        // cannot be changed meanwhile
+        if ( params != null )
+        {
+            return Collections.unmodifiableMap( params );
+        }
+
         if ( SchedulerTask.class.isAssignableFrom( getCallable().getClass() ) )
         {
             return ( (SchedulerTask<?>) getCallable() ).getParameters();
@@ -659,4 +1499,30 @@ public class DefaultScheduledTask<T>
     {
         this.toBeRemoved = toBeRemoved;
     }
+
+    // ==
+
+    /**
+     * Stands in for the callable of a lazily initialized task the factory failed to instantiate: running it fails the
+     * run, hence the task gets broken as any failing task.
+     */
+    protected static class InstantiationFailure<T>
+        implements Callable<T>
+    {
+        private final String type;
+
+        private final IllegalArgumentException cause;
+
+        public InstantiationFailure( final String type, final IllegalArgumentException cause )
+        {
+            this.type = type;
+            this.cause = cause;
+        }
+
+        public T call()
+            throws TaskExecutionException
+        {
+            throw new TaskExecutionException( "Cannot instantiate task of type \"" + type + "\"!", cause );
+        }
+    }
 }
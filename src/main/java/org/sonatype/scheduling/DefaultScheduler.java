@@ -12,31 +12,58 @@
  */
 package org.sonatype.scheduling;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.component.annotations.Configuration;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonatype.scheduling.schedules.RunNowSchedule;
 import org.sonatype.scheduling.schedules.Schedule;
+import org.sonatype.scheduling.timers.ExecutorTaskTimer;
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+import org.sonatype.scheduling.timers.TaskTimer;
 
 /**
- * A simple facade to ScheduledThreadPoolExecutor as Plexus component.
+ * A simple facade to a {@link TaskTimer} as Plexus component. The timer has one single thread deciding when tasks
+ * are due, and hands them over to a separate pool of worker threads to run the task bodies. Both the timer engine and
+ * the worker pool are set up from Plexus configuration.
  * 
  * @author cstamas
  */
@@ -44,26 +71,424 @@ import org.sonatype.scheduling.schedules.Schedule;
 public class DefaultScheduler
     implements Scheduler
 {
+    public static final String TIMER_ENGINE_EXECUTOR = "executor";
+
+    public static final String TIMER_ENGINE_WHEEL = "wheel";
+
+    public static final String WORKER_MODE_POOL = "pool";
+
+    public static final String WORKER_MODE_VIRTUAL = "virtual";
+
+    public static final String WORKER_MODE_FORK_JOIN = "fork-join";
+
+    public static final String WORKER_QUEUE_UNBOUNDED = "unbounded";
+
+    public static final String WORKER_QUEUE_BOUNDED = "bounded";
+
+    public static final String WORKER_QUEUE_SYNCHRONOUS = "synchronous";
+
+    public static final String WORKER_QUEUE_PRIORITY = "priority";
+
+    public static final String WORKER_QUEUE_FAIR = "fair";
+
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
     @Requirement
     private TaskConfigManager taskConfig;
 
+    /**
+     * The timer engine: {@link #TIMER_ENGINE_EXECUTOR} (a ScheduledThreadPoolExecutor) or {@link #TIMER_ENGINE_WHEEL}
+     * (a hierarchical timing wheel, better suited for huge count of pending tasks).
+     */
+    @Configuration( value = TIMER_ENGINE_EXECUTOR )
+    private String timerEngine = TIMER_ENGINE_EXECUTOR;
+
+    /**
+     * The tick duration of {@link #TIMER_ENGINE_WHEEL} timer, in milliseconds.
+     */
+    @Configuration( value = "10" )
+    private long timerTickMillis = HashedWheelTaskTimer.DEFAULT_TICK_MILLIS;
+
+    /**
+     * How the task bodies are run: {@link #WORKER_MODE_POOL} (by a pool of {@link #workerThreads} threads),
+     * {@link #WORKER_MODE_VIRTUAL} (each on it's own virtual thread, suited for I/O bound tasks) or
+     * {@link #WORKER_MODE_FORK_JOIN} (by a work-stealing fork/join pool of {@link #workerThreads} parallelism, suited for
+     * tasks splitting CPU bound work into {@link CancellableRecursiveTask}s). Virtual threads need Java 21, on older
+     * JVMs a new platform thread is used for each task instead. Fork/join pool needs Java 7, on older JVMs a pool is
+     * used instead. The fork/join pool has it's own queue, hence {@link #workerQueue} is used only if it is
+     * {@link #WORKER_QUEUE_FAIR}.
+     */
+    @Configuration( value = WORKER_MODE_POOL )
+    private String workerMode = WORKER_MODE_POOL;
+
+    /**
+     * The count of worker threads running the task bodies in {@link #WORKER_MODE_POOL} and
+     * {@link #WORKER_MODE_FORK_JOIN} modes.
+     */
+    @Configuration( value = "20" )
+    private int workerThreads = 20;
+
+    /**
+     * The queue holding due tasks waiting for a free worker thread: {@link #WORKER_QUEUE_PRIORITY} (unbounded, ordered
+     * by {@link TaskPriority} with aging), {@link #WORKER_QUEUE_FAIR} (unbounded queue per task type, sharing the
+     * {@link #workerThreads} by {@link #typeWeights}, and ordered as the former within a type),
+     * {@link #WORKER_QUEUE_UNBOUNDED} (unbounded, FIFO), {@link #WORKER_QUEUE_BOUNDED} (FIFO of
+     * {@link #workerQueueCapacity} size) or {@link #WORKER_QUEUE_SYNCHRONOUS} (no queueing at all). With the latter
+     * two, the due tasks are handed over again with a backoff delay while the worker pool is saturated.
+     */
+    @Configuration( value = WORKER_QUEUE_PRIORITY )
+    private String workerQueue = WORKER_QUEUE_PRIORITY;
+
+    @Configuration( value = "1000" )
+    private int workerQueueCapacity = 1000;
+
+    /**
+     * The aging of tasks waiting in {@link #WORKER_QUEUE_PRIORITY} queue, in milliseconds: a task is run before the
+     * tasks of one level higher priority that became due more than this time after it.
+     */
+    @Configuration( value = "60000" )
+    private long priorityAgingMillis = 60000;
+
+    /**
+     * The weights of task types sharing the worker threads in {@link #WORKER_QUEUE_FAIR} queue, as comma separated
+     * list of {@code type=weight} pairs, like {@code "ReindexTask=1,DownloadTask=4"}. Tasks run in lanes are weighted
+     * by their lane key instead of their type.
+     */
+    @Configuration( value = "" )
+    private String typeWeights = "";
+
+    /**
+     * The weight of task types not listed in {@link #typeWeights}.
+     */
+    @Configuration( value = "1" )
+    private int defaultTypeWeight = 1;
+
+    /**
+     * The bulkheads: task types (or lane keys) run by their own bounded pool of threads instead of the shared worker
+     * threads, hence they cannot exhaust the latter, nor be held up by other types. Each bulkhead has it's own queue
+     * capacity and rejection policy, see {@link Bulkhead}.
+     */
+    @Configuration( value = "" )
+    private List<Bulkhead> bulkheads = new ArrayList<Bulkhead>();
+
+    /**
+     * The count of pending tasks (submitted for immediate execution, but not yet started running) accepted by the
+     * scheduler, zero means no limit. See {@link AdmissionControl}.
+     */
+    @Configuration( value = "0" )
+    private int admissionLimit = 0;
+
+    /**
+     * The count of pending tasks accepted per task type, as comma separated list of {@code type=limit} pairs, like
+     * {@code "ReindexTask=100"}.
+     */
+    @Configuration( value = "" )
+    private String typeAdmissionLimits = "";
+
+    /**
+     * The count of pending tasks accepted per task priority, as comma separated list of {@code priority=limit} pairs,
+     * like {@code "LOW=1000,NORMAL=5000"}.
+     */
+    @Configuration( value = "" )
+    private String priorityAdmissionLimits = "";
+
+    /**
+     * What to do with a task not fitting in the admission limits: {@link AdmissionControl#ADMISSION_POLICY_REJECT},
+     * {@link AdmissionControl#ADMISSION_POLICY_BLOCK}, {@link AdmissionControl#ADMISSION_POLICY_CALLER_RUNS} or
+     * {@link AdmissionControl#ADMISSION_POLICY_DROP_OLDEST}.
+     */
+    @Configuration( value = AdmissionControl.ADMISSION_POLICY_REJECT )
+    private String admissionPolicy = AdmissionControl.ADMISSION_POLICY_REJECT;
+
+    /**
+     * The longest time the submitter is blocked with {@link AdmissionControl#ADMISSION_POLICY_BLOCK} policy, in
+     * milliseconds.
+     */
+    @Configuration( value = "10000" )
+    private long admissionTimeoutMillis = 10000;
+
+    /**
+     * The priority of scheduler threads.
+     */
+    @Configuration( value = "1" )
+    private int threadPriority = Thread.MIN_PRIORITY;
+
+    /**
+     * The initial delay after which a task blocked by other tasks (SLEEPING) retries, in milliseconds. Sleeping tasks
+     * are woken up as soon as some other task finishes execution, so this is only a fallback.
+     */
+    @Configuration( value = "10000" )
+    private long sleepingBackoffMillis = 10000;
+
+    /**
+     * The delay is doubled on each consecutive retry, up to this value, in milliseconds.
+     */
+    @Configuration( value = "60000" )
+    private long sleepingBackoffMaxMillis = 60000;
+
+    /**
+     * The random jitter applied to the retry delay, as percentage of it, to spread the retries of tasks blocked at the
+     * same time.
+     */
+    @Configuration( value = "10" )
+    private int sleepingBackoffJitterPercent = 10;
+
+    /**
+     * The count of the last results retained per task (see {@link ScheduledTask#getResults()}) unless set otherwise for
+     * the task, negative means all the results are retained.
+     */
+    @Configuration( value = "100" )
+    private int retainedResults = 100;
+
+    /**
+     * The time the results of tasks are retained for in milliseconds, zero means forever.
+     */
+    @Configuration( value = "0" )
+    private long resultTimeToLiveMillis = 0;
+
+    /**
+     * The count of task events buffered for the {@link SchedulerListener}s, events fired while the buffer is full are
+     * dropped. Rounded up to a power of two.
+     */
+    @Configuration( value = "1024" )
+    private int eventBufferSize = 1024;
+
+    /**
+     * The interval the changes of tasks are written to the task config manager in, in milliseconds. Zero means the
+     * changes are written right away, otherwise they are written behind, see {@link WriteBehindTaskConfigManager}.
+     */
+    @Configuration( value = "0" )
+    private long taskConfigFlushMillis = 0;
+
+    /**
+     * The count of pending changes of tasks written behind that triggers writing them before the interval elapses.
+     */
+    @Configuration( value = "500" )
+    private int taskConfigFlushSize = 500;
+
+    /**
+     * The count of tasks initialized together on bootup, see {@link #initializeAll(List)}. Each batch is handed over
+     * to the initializing threads at once, and it's tasks are registered at once.
+     */
+    @Configuration( value = "1000" )
+    private int initializationBatchSize = 1000;
+
+    /**
+     * The count of threads initializing the tasks on bootup, zero means the count of available processors.
+     */
+    @Configuration( value = "0" )
+    private int initializationThreads = 0;
+
+    /**
+     * The file the runs of tasks are recorded into, see {@link ExecutionHistory}. Empty means the runs are not
+     * recorded.
+     */
+    @Configuration( value = "" )
+    private String executionHistoryFile = "";
+
+    /**
+     * The count of tasks whose runs are recorded, the runs of the task recorded least recently are dropped for a new
+     * one.
+     */
+    @Configuration( value = "1024" )
+    private int executionHistoryTasks = 1024;
+
+    /**
+     * The count of the last runs recorded per task.
+     */
+    @Configuration( value = "32" )
+    private int executionHistoryRuns = 32;
+
     private final AtomicInteger idGen;
 
-    private final ScheduledThreadPoolExecutor scheduledExecutorService;
+    private volatile TaskTimer taskTimer;
 
     private final ConcurrentHashMap<String, List<ScheduledTask<?>>> tasksMap;
 
+    private final ConcurrentHashMap<String, ScheduledTask<?>> tasksById;
+
+    private final EnumMap<TaskState, ConcurrentHashMap<ScheduledTask<?>, Boolean>> tasksByState;
+
+    private final ConcurrentHashMap<DefaultScheduledTask<?>, Boolean> sleepingTasks;
+
+    private final AtomicLong finishedExecutionCount;
+
+    private final ResourceLockManager resourceLockManager;
+
+    /**
+     * The lanes by their keys. Lanes are tiny and kept once created, as the keys are usually a bounded set (like
+     * repositories).
+     */
+    private final ConcurrentHashMap<String, SerialLane> lanes;
+
+    /**
+     * The latest task of each coalescing key, see {@link CoalescingTask}.
+     */
+    private final ConcurrentHashMap<String, DefaultScheduledTask<?>> tasksByCoalescingKey;
+
+    /**
+     * The workflow steps by their tasks, to notify the workflows when the tasks end.
+     */
+    private final ConcurrentHashMap<ScheduledTask<?>, WorkflowStep<?>> workflowSteps;
+
+    /**
+     * Executes commands by the timer's threads.
+     */
+    private final Executor timerExecutor;
+
+    private volatile FairDispatcher fairDispatcher;
+
+    private volatile Map<String, BulkheadExecutor> bulkheadExecutors;
+
+    private volatile AdmissionControl admissionControl;
+
+    /**
+     * Created with the first listener, as there is nothing to do until then.
+     */
+    private volatile TaskEventDispatcher eventDispatcher;
+
+    private volatile WriteBehindTaskConfigManager writeBehindTaskConfig;
+
+    private volatile ExecutionHistory executionHistory;
+
+    /**
+     * Set if the execution history could not be opened, to not try again on each run.
+     */
+    private volatile boolean executionHistoryFailed;
+
+    private final EnumMap<TaskPriority, QueueWaitStatistics> queueWaitStatistics;
+
+    private final AtomicLong dispatchSequence;
+
+    private final Random random;
+
     public DefaultScheduler()
+    {
+        this( null );
+    }
+
+    /**
+     * Creates a scheduler using given timer. If it is {@code null}, the timer is created from configuration when
+     * needed.
+     * 
+     * @param taskTimer
+     */
+    public DefaultScheduler( final TaskTimer taskTimer )
     {
         idGen = new AtomicInteger( 0 );
         tasksMap = new ConcurrentHashMap<String, List<ScheduledTask<?>>>();
-        scheduledExecutorService =
-            (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool( 20, new PlexusThreadFactory(
-                Thread.MIN_PRIORITY ) );
-        scheduledExecutorService.setExecuteExistingDelayedTasksAfterShutdownPolicy( false );
-        scheduledExecutorService.setContinueExistingPeriodicTasksAfterShutdownPolicy( false );
+        tasksById = new ConcurrentHashMap<String, ScheduledTask<?>>();
+        tasksByState = new EnumMap<TaskState, ConcurrentHashMap<ScheduledTask<?>, Boolean>>( TaskState.class );
+        for ( TaskState state : TaskState.values() )
+        {
+            tasksByState.put( state, new ConcurrentHashMap<ScheduledTask<?>, Boolean>() );
+        }
+        sleepingTasks = new ConcurrentHashMap<DefaultScheduledTask<?>, Boolean>();
+        finishedExecutionCount = new AtomicLong( 0 );
+        resourceLockManager = new ResourceLockManager();
+        lanes = new ConcurrentHashMap<String, SerialLane>();
+        tasksByCoalescingKey = new ConcurrentHashMap<String, DefaultScheduledTask<?>>();
+        workflowSteps = new ConcurrentHashMap<ScheduledTask<?>, WorkflowStep<?>>();
+        timerExecutor = new Executor()
+        {
+            public void execute( final Runnable command )
+            {
+                getTaskTimer().execute( command );
+            }
+        };
+        queueWaitStatistics = new EnumMap<TaskPriority, QueueWaitStatistics>( TaskPriority.class );
+        for ( TaskPriority priority : TaskPriority.values() )
+        {
+            queueWaitStatistics.put( priority, new QueueWaitStatistics() );
+        }
+        dispatchSequence = new AtomicLong( 0 );
+        random = new Random();
+        this.taskTimer = taskTimer;
+    }
+
+    /**
+     * Returns the retention of results of the tasks, unless set otherwise for the task.
+     * 
+     * @return
+     */
+    public ResultRetention getDefaultResultRetention()
+    {
+        if ( retainedResults < 0 )
+        {
+            return resultTimeToLiveMillis == 0 ? ResultRetention.unlimited()
+                            : ResultRetention.lastResults( Integer.MAX_VALUE, resultTimeToLiveMillis );
+        }
+
+        return ResultRetention.lastResults( retainedResults, resultTimeToLiveMillis );
+    }
+
+    /**
+     * Returns the task config manager the changes of tasks are written to: the required one, or the one writing behind
+     * to it if so configured.
+     * 
+     * @return
+     */
+    protected TaskConfigManager getTaskConfig()
+    {
+        if ( taskConfigFlushMillis <= 0 )
+        {
+            return taskConfig;
+        }
+
+        // configuration is injected after construction, hence the write behind manager is created lazily
+        if ( writeBehindTaskConfig == null )
+        {
+            synchronized ( this )
+            {
+                if ( writeBehindTaskConfig == null )
+                {
+                    writeBehindTaskConfig =
+                        new WriteBehindTaskConfigManager( taskConfig, taskConfigFlushMillis, taskConfigFlushSize );
+                }
+            }
+        }
+
+        return writeBehindTaskConfig;
+    }
+
+    /**
+     * Returns the history the runs of tasks are recorded into, or {@code null} if no history file is configured or it
+     * cannot be opened.
+     * 
+     * @return
+     */
+    public ExecutionHistory getExecutionHistory()
+    {
+        if ( StringUtils.isBlank( executionHistoryFile ) || executionHistoryFailed )
+        {
+            return null;
+        }
+
+        // configuration is injected after construction, hence the history is opened lazily
+        if ( executionHistory == null )
+        {
+            synchronized ( this )
+            {
+                if ( executionHistory == null && !executionHistoryFailed )
+                {
+                    try
+                    {
+                        executionHistory =
+                            new ExecutionHistory( new File( executionHistoryFile ), executionHistoryTasks,
+                                executionHistoryRuns );
+                    }
+                    catch ( IOException e )
+                    {
+                        getLogger().warn( "Cannot open execution history " + executionHistoryFile
+                                              + ", runs of tasks are not recorded.", e );
+
+                        executionHistoryFailed = true;
+                    }
+                }
+            }
+        }
+
+        return executionHistory;
     }
 
     protected Logger getLogger()
@@ -81,35 +506,24 @@ public class DefaultScheduler
         // and performs a series of callbacks to this to make them "alive"
         taskConfig.initializeTasks( this );
 
-        // wind up the "idGen" source, to the max ID we got loaded up from config (the generated IDs are persisted)
-        int maxId = 0;
-        for ( Map.Entry<String, List<ScheduledTask<?>>> entry : getAllTasks().entrySet() )
+        // the "idGen" source is wound up to the max ID loaded up from config as the tasks are initialized, and above
+        // the IDs of removed tasks too if the config keeps track of them
+        if ( taskConfig instanceof TaskIdHighWaterMark )
         {
-            for ( ScheduledTask<?> task : entry.getValue() )
-            {
-                try
-                {
-                    maxId = Math.max( maxId, Integer.parseInt( task.getId() ) );
-                }
-                catch ( NumberFormatException e )
-                {
-                    // be forgiving about non number IDs
-                    // hint1: sadly, some Nexus ITs does have them
-                    // hint2: they will not clash with numbers anyway
-                }
-            }
+            raiseIdGen( ( (TaskIdHighWaterMark) taskConfig ).getTaskIdHighWaterMark() );
         }
-        idGen.set( maxId );
     }
 
     public void shutdown()
     {
         getLogger().info( "Shutting down Scheduler..." );
 
-        getScheduledExecutorService().shutdown();
+        // the workers are stopped first, as the runs ending meanwhile still write the config, fire events and record
+        // their execution
+        getTaskTimer().shutdown();
         try
         {
-            boolean stopped = getScheduledExecutorService().awaitTermination( 1, TimeUnit.SECONDS );
+            boolean stopped = getTaskTimer().awaitTermination( 1, TimeUnit.SECONDS );
 
             if ( !stopped )
             {
@@ -117,7 +531,7 @@ public class DefaultScheduler
 
                 if ( !runningTasks.isEmpty() )
                 {
-                    getScheduledExecutorService().shutdownNow();
+                    getTaskTimer().shutdownNow();
                     getLogger().warn( "Scheduler shut down forcedly with tasks running." );
                 }
                 else
@@ -125,76 +539,1102 @@ public class DefaultScheduler
                     getLogger().info( "Scheduler shut down cleanly with tasks scheduled." );
                 }
             }
+
+            for ( BulkheadExecutor bulkheadExecutor : getBulkheadExecutors().values() )
+            {
+                bulkheadExecutor.shutdown();
+
+                if ( !bulkheadExecutor.awaitTermination( 1, TimeUnit.SECONDS ) )
+                {
+                    bulkheadExecutor.shutdownNow();
+                    getLogger().warn( "Bulkhead \"{}\" shut down forcedly with tasks running.",
+                                      bulkheadExecutor.getType() );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            getLogger().info( "Termination interrupted", e );
+        }
+        finally
+        {
+            if ( writeBehindTaskConfig != null )
+            {
+                writeBehindTaskConfig.shutdown();
+            }
+
+            if ( eventDispatcher != null )
+            {
+                eventDispatcher.shutdown();
+            }
+
+            if ( executionHistory != null )
+            {
+                executionHistory.close();
+            }
+        }
+    }
+
+    @Deprecated
+    public SchedulerTask<?> createTaskInstance( String taskType )
+        throws IllegalArgumentException
+    {
+        return taskConfig.createTaskInstance( taskType );
+    }
+
+    public <T> T createTaskInstance( Class<T> taskType )
+        throws IllegalArgumentException
+    {
+        return taskConfig.createTaskInstance( taskType );
+    }
+
+    public TaskTimer getTaskTimer()
+    {
+        // configuration is injected after construction, hence timer is created lazily
+        TaskTimer result = taskTimer;
+
+        if ( result == null )
+        {
+            synchronized ( this )
+            {
+                result = taskTimer;
+
+                if ( result == null )
+                {
+                    taskTimer = result = createTaskTimer();
+                }
+            }
+        }
+
+        return result;
+    }
+
+    protected TaskTimer createTaskTimer()
+    {
+        getLogger().debug( "Creating \"{}\" timer with {} worker threads.", timerEngine, workerThreads );
+
+        if ( TIMER_ENGINE_WHEEL.equals( timerEngine ) )
+        {
+            return new HashedWheelTaskTimer( createWorkerExecutor(), new PlexusThreadFactory( threadPriority ),
+                timerTickMillis, TimeUnit.MILLISECONDS, HashedWheelTaskTimer.DEFAULT_TICKS_PER_WHEEL,
+                HashedWheelTaskTimer.DEFAULT_LEVELS );
+        }
+        else if ( TIMER_ENGINE_EXECUTOR.equals( timerEngine ) )
+        {
+            final ScheduledThreadPoolExecutor timer =
+                (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool( 1, new PlexusThreadFactory(
+                    threadPriority ) );
+            timer.setExecuteExistingDelayedTasksAfterShutdownPolicy( false );
+            timer.setContinueExistingPeriodicTasksAfterShutdownPolicy( false );
+
+            return new ExecutorTaskTimer( timer, createWorkerExecutor() );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown timer engine: " + timerEngine );
+        }
+    }
+
+    protected ExecutorService createWorkerExecutor()
+    {
+        if ( WORKER_MODE_VIRTUAL.equals( workerMode ) )
+        {
+            return createVirtualThreadExecutor();
+        }
+        else if ( WORKER_MODE_FORK_JOIN.equals( workerMode ) )
+        {
+            return createForkJoinExecutor();
+        }
+        else if ( !WORKER_MODE_POOL.equals( workerMode ) )
+        {
+            throw new IllegalArgumentException( "Unknown worker mode: " + workerMode );
+        }
+
+        return createThreadPoolExecutor();
+    }
+
+    protected ExecutorService createThreadPoolExecutor()
+    {
+        final BlockingQueue<Runnable> queue;
+
+        if ( WORKER_QUEUE_UNBOUNDED.equals( workerQueue ) )
+        {
+            queue = new LinkedBlockingQueue<Runnable>();
+        }
+        else if ( WORKER_QUEUE_BOUNDED.equals( workerQueue ) )
+        {
+            queue = new ArrayBlockingQueue<Runnable>( workerQueueCapacity );
+        }
+        else if ( WORKER_QUEUE_SYNCHRONOUS.equals( workerQueue ) )
+        {
+            queue = new SynchronousQueue<Runnable>();
+        }
+        else if ( WORKER_QUEUE_PRIORITY.equals( workerQueue ) )
+        {
+            queue = new PriorityBlockingQueue<Runnable>( 11, PrioritizedCommand.DISPATCH_ORDER );
+        }
+        else if ( WORKER_QUEUE_FAIR.equals( workerQueue ) )
+        {
+            // tasks are queued by the fair dispatcher, and handed over only when there is free worker thread
+            queue = new LinkedBlockingQueue<Runnable>();
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown worker queue type: " + workerQueue );
+        }
+
+        return new ThreadPoolExecutor( workerThreads, workerThreads, 60L, TimeUnit.SECONDS, queue,
+            new PlexusThreadFactory( threadPriority ) );
+    }
+
+    protected ExecutorService createForkJoinExecutor()
+    {
+        try
+        {
+            // the fork/join classes are referenced from a separate class, as we are built for older Java versions
+            return new PlexusForkJoinThreadFactory( threadPriority ).newPool( workerThreads );
+        }
+        catch ( NoClassDefFoundError e )
+        {
+            getLogger().warn( "Fork/join pool is not supported by this JVM, using a pool of worker threads instead." );
+
+            return createThreadPoolExecutor();
+        }
+    }
+
+    protected ExecutorService createVirtualThreadExecutor()
+    {
+        try
+        {
+            // looked up reflectively, as we are built for (and may run on) older Java versions
+            return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        }
+        catch ( Exception e )
+        {
+            getLogger().warn( "Virtual threads are not supported by this JVM, using a new platform thread per task." );
+
+            return Executors.newCachedThreadPool( new PlexusThreadFactory( threadPriority ) );
+        }
+    }
+
+    /**
+     * Returns the scheduled executor of this scheduler's timer. Note: by default it is used for timing only, the task
+     * bodies are run by the worker threads.
+     * 
+     * @return
+     * @throws IllegalStateException if this scheduler does not use an executor backed timer.
+     * @deprecated Use {@link #getTaskTimer()} instead.
+     */
+    @Deprecated
+    public ScheduledThreadPoolExecutor getScheduledExecutorService()
+        throws IllegalStateException
+    {
+        final TaskTimer timer = getTaskTimer();
+
+        if ( timer instanceof ExecutorTaskTimer )
+        {
+            return ( (ExecutorTaskTimer) timer ).getScheduledExecutorService();
+        }
+
+        throw new IllegalStateException( "Scheduler timer is not executor backed: " + timer );
+    }
+
+    protected <T> void addToTasksMap( ScheduledTask<T> task, boolean store )
+    {
+        getTasksOfType( task.getType() ).add( task );
+
+        addToIndexes( task );
+
+        if ( store )
+        {
+            getTaskConfig().addTask( task );
+        }
+    }
+
+    /**
+     * Registers the tasks loaded up on startup, adding the tasks of each type at once, as the lists of tasks are
+     * copied on each change.
+     * 
+     * @param tasks
+     */
+    protected void addAllToTasksMap( final List<? extends ScheduledTask<?>> tasks )
+    {
+        final Map<String, List<ScheduledTask<?>>> tasksByType = new HashMap<String, List<ScheduledTask<?>>>();
+
+        for ( ScheduledTask<?> task : tasks )
+        {
+            List<ScheduledTask<?>> typeTasks = tasksByType.get( task.getType() );
+
+            if ( typeTasks == null )
+            {
+                typeTasks = new ArrayList<ScheduledTask<?>>();
+
+                tasksByType.put( task.getType(), typeTasks );
+            }
+
+            typeTasks.add( task );
+        }
+
+        for ( Map.Entry<String, List<ScheduledTask<?>>> entry : tasksByType.entrySet() )
+        {
+            getTasksOfType( entry.getKey() ).addAll( entry.getValue() );
+        }
+
+        for ( ScheduledTask<?> task : tasks )
+        {
+            addToIndexes( task );
+        }
+    }
+
+    protected List<ScheduledTask<?>> getTasksOfType( final String type )
+    {
+        final List<ScheduledTask<?>> tasks = tasksMap.get( type );
+
+        if ( tasks != null )
+        {
+            return tasks;
+        }
+
+        tasksMap.putIfAbsent( type, new CopyOnWriteArrayList<ScheduledTask<?>>() );
+
+        return tasksMap.get( type );
+    }
+
+    private void addToIndexes( final ScheduledTask<?> task )
+    {
+        tasksById.put( task.getId(), task );
+
+        // state is stable while holding the task's monitor, see DefaultScheduledTask#setTaskState
+        synchronized ( task )
+        {
+            tasksByState.get( task.getTaskState() ).put( task, Boolean.TRUE );
+        }
+    }
+
+    protected <T> void removeFromTasksMap( ScheduledTask<T> task )
+    {
+        final List<ScheduledTask<?>> tasks = tasksMap.get( task.getType() );
+
+        synchronized ( task )
+        {
+            tasksByState.get( task.getTaskState() ).remove( task );
+        }
+
+        getAdmissionControl().release( task );
+
+        if ( task instanceof DefaultScheduledTask<?> && ( (DefaultScheduledTask<?>) task ).getCoalescingKey() != null )
+        {
+            tasksByCoalescingKey.remove( ( (DefaultScheduledTask<?>) task ).getCoalescingKey(), task );
+        }
+
+        if ( tasks != null )
+        {
+            tasks.remove( task );
+
+            if ( tasksById.remove( task.getId(), task ) )
+            {
+                // a task re-initialized with same ID may still be around, it takes over the index entry
+                for ( ScheduledTask<?> other : tasks )
+                {
+                    if ( other.getId().equals( task.getId() ) )
+                    {
+                        tasksById.putIfAbsent( other.getId(), other );
+                        break;
+                    }
+                }
+            }
+
+            // this is potentially problematic, might _remove_ concurrently added new task
+            // but, this is only here to keep map keys small, but the keys (task types) are actually
+            // rather small, so I see no point of pruning map for keys
+            // if ( tasks.size() == 0 )
+            // {
+            // tasksMap.remove( task.getType() );
+            // }
+        }
+
+        getTaskConfig().removeTask( task );
+
+        final WorkflowStep<?> step = workflowSteps.remove( task );
+
+        if ( step != null )
+        {
+            step.getWorkflow().stepEnded( step, task.getTaskState() );
+        }
+    }
+
+    /**
+     * Registers the task of a workflow step, to notify the workflow when the task ends.
+     * 
+     * @param task
+     * @param step
+     */
+    protected void addWorkflowStep( final ScheduledTask<?> task, final WorkflowStep<?> step )
+    {
+        workflowSteps.put( task, step );
+
+        // the task may have ended already, like when run by the caller
+        final TaskState state = task.getTaskState();
+
+        if ( ( state.isEndingState() || TaskState.BROKEN.equals( state ) ) && workflowSteps.remove( task, step ) )
+        {
+            step.getWorkflow().stepEnded( step, state );
+        }
+    }
+
+    /**
+     * Keeps the state index up to date, invoked by tasks on every state transition while holding the task's monitor.
+     * 
+     * @param task
+     * @param oldState
+     * @param newState
+     */
+    protected void taskStateChanged( ScheduledTask<?> task, TaskState oldState, TaskState newState )
+    {
+        // tasks not (or not anymore) in task map are not indexed
+        if ( oldState != newState && tasksByState.get( oldState ).remove( task ) != null )
+        {
+            tasksByState.get( newState ).put( task, Boolean.TRUE );
+        }
+
+        // a started (or ended) task is no more pending
+        if ( TaskState.RUNNING.equals( newState ) || newState.isEndingState() )
+        {
+            getAdmissionControl().release( task );
+        }
+
+        if ( oldState != newState && TaskState.RUNNING.equals( newState ) )
+        {
+            fireTaskEvent( TaskEvent.Type.STARTED, task, null, null );
+        }
+        else if ( TaskState.CANCELLED.equals( newState ) )
+        {
+            fireTaskEvent( TaskEvent.Type.CANCELLED, task, null, null );
+        }
+    }
+
+    /**
+     * Returns the delay after which a task blocked by other tasks retries, if not woken up earlier.
+     * 
+     * @param sleepCount the count of consecutive blocked runs of the task, starting with 1.
+     * @return
+     */
+    protected long getSleepingBackoffDelay( final int sleepCount )
+    {
+        long delay = sleepingBackoffMillis;
+
+        for ( int i = 1; i < sleepCount && delay < sleepingBackoffMaxMillis; i++ )
+        {
+            delay *= 2;
+        }
+
+        delay = Math.min( delay, sleepingBackoffMaxMillis );
+
+        if ( sleepingBackoffJitterPercent > 0 )
+        {
+            final long jitter = delay * sleepingBackoffJitterPercent / 100;
+
+            delay += (long) ( ( random.nextDouble() * 2 - 1 ) * jitter );
+        }
+
+        return Math.max( 0, delay );
+    }
+
+    protected long getFinishedExecutionCount()
+    {
+        return finishedExecutionCount.get();
+    }
+
+    /**
+     * Parks a task that went SLEEPING, to be woken up once some execution finishes.
+     * 
+     * @param task
+     * @param finishedExecutions the finished execution count seen before the task decided it is blocked.
+     */
+    protected void taskSleeping( final DefaultScheduledTask<?> task, final long finishedExecutions )
+    {
+        sleepingTasks.put( task, Boolean.TRUE );
+
+        // some execution finished while the task was deciding, it may have missed the wake up
+        if ( finishedExecutions != finishedExecutionCount.get() && sleepingTasks.remove( task ) != null )
+        {
+            task.wakeUp();
+        }
+    }
+
+    /**
+     * Invoked when a new task (not loaded up from the configuration) is created. Runs recorded under it's ID belong to
+     * an earlier task, as IDs are reused after a restart unless the configuration keeps their high water mark (see
+     * {@link TaskIdHighWaterMark}), hence they are dropped.
+     * 
+     * @param task
+     */
+    protected void taskCreated( final DefaultScheduledTask<?> task )
+    {
+        final ExecutionHistory history = getExecutionHistory();
+
+        if ( history != null )
+        {
+            history.remove( task.getId() );
+        }
+    }
+
+    /**
+     * Invoked when a task ended an execution, before {@link #executionFinished(DefaultScheduledTask, Throwable)}, to
+     * record the run into the execution history.
+     * 
+     * @param task
+     * @param startTime
+     * @param queueDelay the time the run started late, in milliseconds.
+     * @param failure
+     */
+    protected void recordExecution( final DefaultScheduledTask<?> task, final long startTime, final long queueDelay,
+                                    final Throwable failure )
+    {
+        final ExecutionHistory history = getExecutionHistory();
+
+        if ( history == null )
+        {
+            return;
+        }
+
+        final TaskState status;
+
+        if ( failure == null )
+        {
+            status = TaskState.FINISHED;
+        }
+        else if ( failure instanceof TaskInterruptedException || failure instanceof InterruptedException
+            || TaskState.CANCELLING.equals( task.getTaskState() ) || TaskState.CANCELLED.equals( task.getTaskState() ) )
+        {
+            status = TaskState.CANCELLED;
+        }
+        else
+        {
+            status = TaskState.BROKEN;
+        }
+
+        history.record( task.getId(), startTime, System.currentTimeMillis(), Math.max( 0, queueDelay ), status,
+                        failure );
+    }
+
+    /**
+     * Invoked when a task finished an execution, wakes up the sleeping tasks as they might have been blocked by it.
+     * 
+     * @param task
+     */
+    protected void executionFinished( final DefaultScheduledTask<?> task, final Throwable failure )
+    {
+        finishedExecutionCount.incrementAndGet();
+
+        if ( failure == null )
+        {
+            fireTaskEvent( TaskEvent.Type.FINISHED, task, null, null );
+        }
+        else
+        {
+            fireTaskEvent( TaskEvent.Type.BROKEN, task, null, failure );
+        }
+
+        for ( Iterator<DefaultScheduledTask<?>> i = sleepingTasks.keySet().iterator(); i.hasNext(); )
+        {
+            final DefaultScheduledTask<?> sleepingTask = i.next();
+
+            i.remove();
+
+            sleepingTask.wakeUp();
+        }
+    }
+
+    /**
+     * Returns the manager granting the resource locks declared by {@link ResourceLockingTask}s.
+     * 
+     * @return
+     */
+    public ResourceLockManager getResourceLockManager()
+    {
+        return resourceLockManager;
+    }
+
+    /**
+     * Returns the executor running the subtasks of the task bodies (see {@link ParallelSubtasks}) by the worker threads.
+     * Subtasks are not subject to priorities, fair sharing or bulkheads, as the task they belong to already was.
+     * 
+     * @return
+     */
+    public Executor getSubtaskExecutor()
+    {
+        return timerExecutor;
+    }
+
+    /**
+     * Schedules the next execution of the task on timer, or in its lane, if any.
+     * 
+     * @param task
+     * @param delay the delay in milliseconds.
+     * @return
+     */
+    protected <T> Future<T> scheduleExecution( final DefaultScheduledTask<T> task, final long delay )
+    {
+        if ( task.getLaneKey() == null )
+        {
+            return getTaskTimer().schedule( task, delay, TimeUnit.MILLISECONDS, task.getDispatcher() );
+        }
+
+        return getLane( task.getLaneKey() ).schedule( task, delay, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Hands over a due command to the workers (or to the bulkhead of the type), with given type and priority.
+     * 
+     * @param command
+     * @param type
+     * @param priority
+     * @param task the task whose run the command is, to skip the run if it is dropped, or {@code null}.
+     * @throws RejectedExecutionException if the workers (or the bulkhead) cannot take the command.
+     */
+    protected void dispatch( final Runnable command, final String type, final TaskPriority priority,
+                             final DefaultScheduledTask<?> task )
+        throws RejectedExecutionException
+    {
+        final long now = System.nanoTime();
+
+        // aging: being of higher priority is worth of waiting since earlier
+        final long key = now - priority.ordinal() * TimeUnit.MILLISECONDS.toNanos( priorityAgingMillis );
+
+        final PrioritizedCommand prioritizedCommand =
+            new PrioritizedCommand( command, key, dispatchSequence.getAndIncrement(), now,
+                                    queueWaitStatistics.get( priority ), task );
+
+        final BulkheadExecutor bulkheadExecutor = getBulkheadExecutors().get( type );
+
+        if ( bulkheadExecutor != null )
+        {
+            bulkheadExecutor.execute( prioritizedCommand );
+
+            return;
+        }
+
+        final FairDispatcher fairDispatcher = getFairDispatcher();
+
+        if ( fairDispatcher != null )
+        {
+            fairDispatcher.dispatch( type, prioritizedCommand );
+        }
+        else
+        {
+            getTaskTimer().execute( prioritizedCommand );
+        }
+    }
+
+    /**
+     * Returns the dispatcher sharing the worker threads between task types, or {@code null} if the worker queue is not
+     * {@link #WORKER_QUEUE_FAIR}.
+     * 
+     * @return
+     */
+    public FairDispatcher getFairDispatcher()
+    {
+        if ( !WORKER_QUEUE_FAIR.equals( workerQueue ) )
+        {
+            return null;
+        }
+
+        if ( fairDispatcher == null )
+        {
+            synchronized ( this )
+            {
+                if ( fairDispatcher == null )
+                {
+                    fairDispatcher =
+                        new FairDispatcher( timerExecutor, workerThreads, parseTypeWeights( typeWeights ),
+                                            defaultTypeWeight, PrioritizedCommand.DISPATCH_ORDER, getTaskTimer() );
+                }
+            }
+        }
+
+        return fairDispatcher;
+    }
+
+    /**
+     * Returns the executors of the configured bulkheads, by task type.
+     * 
+     * @return
+     */
+    public Map<String, BulkheadExecutor> getBulkheadExecutors()
+    {
+        // configuration is injected after construction, hence executors are created lazily
+        if ( bulkheadExecutors == null )
+        {
+            synchronized ( this )
+            {
+                if ( bulkheadExecutors == null )
+                {
+                    final Map<String, BulkheadExecutor> executors = new HashMap<String, BulkheadExecutor>();
+
+                    for ( Bulkhead bulkhead : bulkheads )
+                    {
+                        if ( executors.containsKey( bulkhead.getType() ) )
+                        {
+                            throw new IllegalArgumentException( "Duplicate bulkhead of type: " + bulkhead.getType() );
+                        }
+
+                        executors.put( bulkhead.getType(),
+                                       new BulkheadExecutor( bulkhead, new PlexusThreadFactory( threadPriority ),
+                                                             timerExecutor ) );
+                    }
+
+                    bulkheadExecutors = Collections.unmodifiableMap( executors );
+                }
+            }
+        }
+
+        return bulkheadExecutors;
+    }
+
+    /**
+     * Returns the admission control limiting the count of pending tasks.
+     * 
+     * @return
+     */
+    public AdmissionControl getAdmissionControl()
+    {
+        // configuration is injected after construction, hence admission control is created lazily
+        if ( admissionControl == null )
+        {
+            synchronized ( this )
+            {
+                if ( admissionControl == null )
+                {
+                    final Map<TaskPriority, Integer> priorityLimits = new HashMap<TaskPriority, Integer>();
+
+                    final Map<String, Integer> limits = parseIntegers( "admission limit", priorityAdmissionLimits );
+
+                    for ( Map.Entry<String, Integer> entry : limits.entrySet() )
+                    {
+                        try
+                        {
+                            priorityLimits.put( TaskPriority.valueOf( entry.getKey() ), entry.getValue() );
+                        }
+                        catch ( IllegalArgumentException e )
+                        {
+                            throw new IllegalArgumentException( "Unknown priority: \"" + entry.getKey() + "\"", e );
+                        }
+                    }
+
+                    admissionControl =
+                        new AdmissionControl( admissionLimit, parseIntegers( "admission limit", typeAdmissionLimits ),
+                                              priorityLimits, admissionPolicy, admissionTimeoutMillis );
+                }
+            }
+        }
+
+        return admissionControl;
+    }
+
+    protected Map<String, Integer> parseTypeWeights( final String typeWeights )
+    {
+        return parseIntegers( "type weight", typeWeights );
+    }
+
+    /**
+     * Parses a comma separated list of {@code key=integer} pairs.
+     * 
+     * @param what the name of the values, for error reporting.
+     * @param pairs
+     * @return
+     */
+    protected Map<String, Integer> parseIntegers( final String what, final String pairs )
+    {
+        final Map<String, Integer> result = new HashMap<String, Integer>();
+
+        if ( StringUtils.isBlank( pairs ) )
+        {
+            return result;
+        }
+
+        for ( String pair : pairs.split( "," ) )
+        {
+            final int separator = pair.indexOf( '=' );
+
+            try
+            {
+                result.put( pair.substring( 0, separator ).trim(),
+                            Integer.valueOf( pair.substring( separator + 1 ).trim() ) );
+            }
+            catch ( RuntimeException e )
+            {
+                throw new IllegalArgumentException( "Invalid " + what + ": \"" + pair + "\"", e );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the statistics of waiting for a free worker thread, per task priority.
+     * 
+     * @return
+     */
+    public Map<TaskPriority, QueueWaitStatistics> getQueueWaitStatistics()
+    {
+        return Collections.unmodifiableMap( queueWaitStatistics );
+    }
+
+    protected SerialLane getLane( final String laneKey )
+    {
+        SerialLane lane = lanes.get( laneKey );
+
+        if ( lane == null )
+        {
+            final SerialLane newLane = new SerialLane( laneKey, new Executor()
+            {
+                public void execute( final Runnable command )
+                {
+                    dispatch( command, laneKey, TaskPriority.NORMAL, null );
+                }
+            }, getTaskTimer() );
+
+            lane = lanes.putIfAbsent( laneKey, newLane );
+
+            if ( lane == null )
+            {
+                lane = newLane;
+            }
+        }
+
+        return lane;
+    }
+
+    /**
+     * Returns the count of due executions waiting in the lane, including the one being run.
+     * 
+     * @param laneKey
+     * @return
+     */
+    public int getLanePendingCount( final String laneKey )
+    {
+        final SerialLane lane = lanes.get( laneKey );
+
+        return lane == null ? 0 : lane.getPendingCount();
+    }
+
+    protected void taskRescheduled( ScheduledTask<?> task )
+    {
+        getTaskConfig().addTask( task );
+
+        fireTaskEvent( TaskEvent.Type.RESCHEDULED, task, task.getNextRun(), null );
+    }
+
+    public void addSchedulerListener( final SchedulerListener listener )
+    {
+        synchronized ( this )
+        {
+            // configuration is injected after construction, hence the dispatcher is created lazily
+            if ( eventDispatcher == null )
+            {
+                eventDispatcher = new TaskEventDispatcher( eventBufferSize );
+            }
+        }
+
+        eventDispatcher.addListener( listener );
+    }
+
+    public void removeSchedulerListener( final SchedulerListener listener )
+    {
+        if ( eventDispatcher != null )
+        {
+            eventDispatcher.removeListener( listener );
+        }
+    }
+
+    /**
+     * Returns the count of task events dropped, as the {@link SchedulerListener}s fell behind.
+     * 
+     * @return
+     */
+    public long getDroppedEventCount()
+    {
+        return eventDispatcher != null ? eventDispatcher.getDroppedCount() : 0;
+    }
+
+    /**
+     * Hands over the event to the listeners, if any. Never blocks.
+     * 
+     * @param type
+     * @param task
+     * @param nextRun
+     * @param failure
+     */
+    protected void fireTaskEvent( final TaskEvent.Type type, final ScheduledTask<?> task, final Date nextRun,
+                                  final Throwable failure )
+    {
+        final TaskEventDispatcher dispatcher = eventDispatcher;
+
+        // nothing to create if nobody listens
+        if ( dispatcher != null && dispatcher.hasListeners() )
+        {
+            dispatcher.fire( new TaskEvent( type, task, nextRun, failure ) );
+        }
+    }
+
+    protected String generateId()
+    {
+        return String.valueOf( idGen.incrementAndGet() );
+    }
+
+    /**
+     * Winds up the ID generator to the loaded up ID, to not generate it again (the generated IDs are persisted).
+     * 
+     * @param id
+     */
+    protected void raiseIdGen( final String id )
+    {
+        try
+        {
+            raiseIdGen( Integer.parseInt( id ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            // be forgiving about non number IDs
+            // hint1: sadly, some Nexus ITs does have them
+            // hint2: they will not clash with numbers anyway
+        }
+    }
+
+    protected void raiseIdGen( final int id )
+    {
+        int current;
+
+        while ( ( current = idGen.get() ) < id )
+        {
+            if ( idGen.compareAndSet( current, id ) )
+            {
+                return;
+            }
+        }
+    }
+
+    public <T> ScheduledTask<T> initialize( String id, String name, String type, Callable<T> callable,
+                                            Schedule schedule, boolean enabled )
+    {
+        return schedule( id, name, type, callable, schedule, enabled, false );
+    }
+
+    /**
+     * Initializes the tasks in batches of {@link #initializationBatchSize}, run in parallel by a pool of
+     * {@link #initializationThreads} threads living for this call only. Each batch is one submission to the pool, and
+     * its tasks are registered and their first runs are scheduled at once, hence the cost per task does not grow with
+     * the count of tasks loaded up already.
+     */
+    public List<ScheduledTask<?>> initializeAll( final List<? extends TaskDefinition<?>> definitions )
+        throws RejectedExecutionException
+    {
+        final ScheduledTask<?>[] initialized = new ScheduledTask<?>[definitions.size()];
+
+        final int batchSize = Math.max( 1, initializationBatchSize );
+
+        final int batchCount = ( definitions.size() + batchSize - 1 ) / batchSize;
+
+        final int threads =
+            Math.min( batchCount, initializationThreads > 0 ? initializationThreads
+                            : Runtime.getRuntime().availableProcessors() );
+
+        if ( threads <= 1 )
+        {
+            for ( int from = 0; from < definitions.size(); from += batchSize )
+            {
+                initializeBatch( definitions, from, Math.min( from + batchSize, definitions.size() ), initialized );
+            }
+        }
+        else
+        {
+            final ExecutorService initializer =
+                Executors.newFixedThreadPool( threads, new PlexusThreadFactory( threadPriority ) );
+
+            try
+            {
+                final List<Future<?>> batches = new ArrayList<Future<?>>( batchCount );
+
+                for ( int from = 0; from < definitions.size(); from += batchSize )
+                {
+                    final int batchFrom = from;
+
+                    final int batchTo = Math.min( from + batchSize, definitions.size() );
+
+                    batches.add( initializer.submit( new Runnable()
+                    {
+                        public void run()
+                        {
+                            initializeBatch( definitions, batchFrom, batchTo, initialized );
+                        }
+                    } ) );
+                }
+
+                for ( Future<?> batch : batches )
+                {
+                    awaitBatch( batch );
+                }
+            }
+            finally
+            {
+                initializer.shutdown();
+            }
+        }
+
+        final List<ScheduledTask<?>> result = new ArrayList<ScheduledTask<?>>( initialized.length );
+
+        for ( ScheduledTask<?> task : initialized )
+        {
+            if ( task != null )
+            {
+                result.add( task );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Initializes the tasks of given range of definitions, and puts them into the same range of the array.
+     * 
+     * @param definitions
+     * @param from
+     * @param to
+     * @param initialized
+     */
+    protected void initializeBatch( final List<? extends TaskDefinition<?>> definitions, final int from,
+                                    final int to, final ScheduledTask<?>[] initialized )
+    {
+        final List<DefaultScheduledTask<?>> tasks = new ArrayList<DefaultScheduledTask<?>>( to - from );
+
+        for ( int i = from; i < to; i++ )
+        {
+            final TaskDefinition<?> definition = definitions.get( i );
+
+            try
+            {
+                final DefaultScheduledTask<?> task = createInitializedTask( definition );
+
+                tasks.add( task );
+
+                initialized[i] = task;
+            }
+            catch ( RuntimeException e )
+            {
+                getLogger().warn( "Cannot initialize task \"" + definition.getName() + "\", skipping it.", e );
+            }
+        }
+
+        addAllToTasksMap( tasks );
+
+        final List<DefaultScheduledTask<?>> timed = new ArrayList<DefaultScheduledTask<?>>( tasks.size() );
+
+        final List<Executor> dispatchers = new ArrayList<Executor>( tasks.size() );
+
+        final long[] delays = new long[tasks.size()];
+
+        for ( DefaultScheduledTask<?> task : tasks )
+        {
+            fireTaskEvent( TaskEvent.Type.SUBMITTED, task, null, null );
+
+            if ( !task.startLoaded() )
+            {
+                continue;
+            }
+
+            if ( task.getLaneKey() != null )
+            {
+                startLoaded( task, scheduleExecution( task, task.getNextRunDelay() ) );
+            }
+            else
+            {
+                delays[timed.size()] = task.getNextRunDelay();
+                timed.add( task );
+                dispatchers.add( task.getDispatcher() );
+            }
         }
-        catch ( InterruptedException e )
-        {
-            getLogger().info( "Termination interrupted", e );
-        }
-    }
 
-    @Deprecated
-    public SchedulerTask<?> createTaskInstance( String taskType )
-        throws IllegalArgumentException
-    {
-        return taskConfig.createTaskInstance( taskType );
-    }
+        // the first runs of the batch are scheduled at once
+        final List<Future<?>> futures =
+            getTaskTimer().scheduleAll( timed, delays, TimeUnit.MILLISECONDS, dispatchers );
 
-    public <T> T createTaskInstance( Class<T> taskType )
-        throws IllegalArgumentException
-    {
-        return taskConfig.createTaskInstance( taskType );
+        for ( int i = 0; i < timed.size(); i++ )
+        {
+            startLoaded( timed.get( i ), futures.get( i ) );
+        }
     }
 
-    public ScheduledThreadPoolExecutor getScheduledExecutorService()
+    @SuppressWarnings( "unchecked" )
+    private static <T> void startLoaded( final DefaultScheduledTask<T> task, final Future<?> future )
     {
-        return scheduledExecutorService;
+        task.setFuture( (Future<T>) future );
     }
 
-    protected <T> void addToTasksMap( ScheduledTask<T> task, boolean store )
+    protected <T> DefaultScheduledTask<T> createInitializedTask( final TaskDefinition<T> definition )
     {
-        tasksMap.putIfAbsent( task.getType(), new CopyOnWriteArrayList<ScheduledTask<?>>() );
-        tasksMap.get( task.getType() ).add( task );
+        final DefaultScheduledTask<T> task;
 
-        if ( store )
+        if ( definition.isLazy() )
+        {
+            task =
+                new DefaultScheduledTask<T>( definition.getId(), definition.getName(), definition.getType(), this,
+                    definition.getTaskFactory(), definition.getTaskParams(), definition.getSchedule() );
+        }
+        else
         {
-            taskConfig.addTask( task );
+            task =
+                new DefaultScheduledTask<T>( definition.getId(), definition.getName(), definition.getType(), this,
+                    definition.getCallable(), definition.getSchedule(), null );
         }
+
+        task.setEnabled( definition.isEnabled() );
+        task.setPriority( definition.getPriority() );
+        task.setResultRetention( getDefaultResultRetention() );
+
+        taskLoaded( task );
+
+        return task;
     }
 
-    protected <T> void removeFromTasksMap( ScheduledTask<T> task )
+    /**
+     * Invoked for the tasks loaded up on startup, before they are registered.
+     * 
+     * @param task
+     */
+    protected void taskLoaded( final DefaultScheduledTask<?> task )
     {
-        final List<ScheduledTask<?>> tasks = tasksMap.get( task.getType() );
+        raiseIdGen( task.getId() );
 
-        if ( tasks != null )
+        // the tasks loaded up on startup are written as they are
+        if ( getTaskConfig() instanceof WriteBehindTaskConfigManager )
         {
-            tasks.remove( task );
-
-            // this is potentially problematic, might _remove_ concurrently added new task
-            // but, this is only here to keep map keys small, but the keys (task types) are actually
-            // rather small, so I see no point of pruning map for keys
-            // if ( tasks.size() == 0 )
-            // {
-            // tasksMap.remove( task.getType() );
-            // }
+            ( (WriteBehindTaskConfigManager) getTaskConfig() ).markWritten( task );
         }
-
-        taskConfig.removeTask( task );
     }
 
-    protected void taskRescheduled( ScheduledTask<?> task )
+    private void awaitBatch( final Future<?> batch )
+        throws RejectedExecutionException
     {
-        taskConfig.addTask( task );
-    }
+        try
+        {
+            batch.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
 
-    protected String generateId()
-    {
-        return String.valueOf( idGen.incrementAndGet() );
-    }
+            throw new RejectedExecutionException( "Interrupted while initializing tasks!", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
 
-    public <T> ScheduledTask<T> initialize( String id, String name, String type, Callable<T> callable,
-                                            Schedule schedule, boolean enabled )
-    {
-        return schedule( id, name, type, callable, schedule, enabled, false );
+            throw new RejectedExecutionException( "Cannot initialize tasks!", e.getCause() );
+        }
     }
 
     public ScheduledTask<Object> submit( String name, Runnable runnable )
@@ -218,6 +1658,28 @@ public class DefaultScheduler
         return schedule( name, callable.getClass().getSimpleName(), callable, schedule );
     }
 
+    public <T> ScheduledTask<T> submit( String name, Callable<T> callable, TaskPriority priority )
+    {
+        return schedule( generateId(), name, callable.getClass().getSimpleName(), callable, new RunNowSchedule(), true,
+                         true, null, priority );
+    }
+
+    public <T> ScheduledTask<T> submit( String name, Callable<T> callable, String laneKey )
+    {
+        return schedule( name, callable, new RunNowSchedule(), laneKey );
+    }
+
+    public <T> ScheduledTask<T> schedule( String name, Callable<T> callable, Schedule schedule, String laneKey )
+    {
+        if ( laneKey == null )
+        {
+            throw new NullPointerException( "Lane key cannot be null!" );
+        }
+
+        return schedule( generateId(), name, callable.getClass().getSimpleName(), callable, schedule, true, true,
+                         laneKey );
+    }
+
     protected <T> ScheduledTask<T> schedule( String name, String type, Callable<T> callable, Schedule schedule )
     {
         return schedule( generateId(), name, type, callable, schedule, true );
@@ -226,24 +1688,207 @@ public class DefaultScheduler
     protected <T> ScheduledTask<T> schedule( String id, String name, String type, Callable<T> callable,
                                              Schedule schedule, boolean enabled, boolean store )
     {
-        DefaultScheduledTask<T> dct = new DefaultScheduledTask<T>( id, name, type, this, callable, schedule );
+        return schedule( id, name, type, callable, schedule, enabled, store, null );
+    }
+
+    protected <T> ScheduledTask<T> schedule( String id, String name, String type, Callable<T> callable,
+                                             Schedule schedule, boolean enabled, boolean store, String laneKey )
+    {
+        return schedule( id, name, type, callable, schedule, enabled, store, laneKey, TaskPriority.NORMAL );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    protected <T> ScheduledTask<T> schedule( String id, String name, String type, Callable<T> callable,
+                                             Schedule schedule, boolean enabled, boolean store, String laneKey,
+                                             TaskPriority priority )
+    {
+        DefaultScheduledTask<T> dct =
+            new DefaultScheduledTask<T>( id, name, type, this, callable, schedule, laneKey );
         dct.setEnabled( enabled );
+        dct.setPriority( priority );
+        dct.setResultRetention( getDefaultResultRetention() );
+
+        // only the runs due right away are pending: tasks scheduled for later neither take room nor get dropped
+        final boolean immediate = schedule instanceof RunNowSchedule;
+
+        // the tasks loaded up on startup (hence not stored) are neither coalesced nor subject to admission, and only the
+        // immediate ones are coalesced, as coalescing a scheduled one would lose it's schedule
+        if ( store && immediate && callable instanceof CoalescingTask )
+        {
+            dct.setCoalescingKey( getCoalescingKey( dct, (CoalescingTask) callable ) );
+
+            final DefaultScheduledTask<?> duplicated = coalesce( dct );
+
+            if ( duplicated != null )
+            {
+                getLogger().debug( "Task \"{}\" coalesced into pending task with ID {}.", name, duplicated.getId() );
+
+                // the submitter asking for higher priority gets it
+                if ( priority.compareTo( duplicated.getPriority() ) > 0 )
+                {
+                    duplicated.setPriority( priority );
+                }
+
+                // duplicates have same type, hence same result type too
+                return (ScheduledTask<T>) duplicated;
+            }
+        }
+
+        final boolean runnableByCaller = laneKey == null && immediate;
+
+        final boolean admitted;
+
+        try
+        {
+            admitted = !store || !immediate || getAdmissionControl().admit( dct, runnableByCaller );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            if ( dct.getCoalescingKey() != null )
+            {
+                tasksByCoalescingKey.remove( dct.getCoalescingKey(), dct );
+            }
+
+            throw e;
+        }
+
+        if ( !store )
+        {
+            taskLoaded( dct );
+        }
+        else
+        {
+            taskCreated( dct );
+        }
+
         addToTasksMap( dct, store );
-        dct.start();
+
+        fireTaskEvent( TaskEvent.Type.SUBMITTED, dct, null, null );
+
+        if ( admitted )
+        {
+            dct.start();
+        }
+        else
+        {
+            dct.startByCaller();
+        }
+
         return dct;
     }
 
+    /**
+     * Returns the coalescing key of the task: the one it supplies, or the one derived from its parameters, prefixed
+     * with its type and lane key, as tasks in different lanes (or in none) must not be coalesced. Each part is prefixed
+     * with its length, hence distinct keys never collide.
+     * 
+     * @param task
+     * @param coalescingTask
+     * @return
+     */
+    protected String getCoalescingKey( final DefaultScheduledTask<?> task, final CoalescingTask coalescingTask )
+    {
+        final StringBuilder result = new StringBuilder();
+
+        appendKeyPart( result, task.getType() );
+
+        appendKeyPart( result, task.getLaneKey() );
+
+        final String coalescingKey = coalescingTask.getCoalescingKey();
+
+        if ( coalescingKey != null )
+        {
+            result.append( 'K' );
+
+            appendKeyPart( result, coalescingKey );
+
+            return result.toString();
+        }
+
+        result.append( 'P' );
+
+        // sorted, to not depend on the order parameters were added
+        for ( Map.Entry<String, String> param : new TreeMap<String, String>( task.getTaskParams() ).entrySet() )
+        {
+            appendKeyPart( result, param.getKey() );
+            appendKeyPart( result, param.getValue() );
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Appends the part of a coalescing key prefixed by its length, -1 standing for {@code null}.
+     */
+    protected static void appendKeyPart( final StringBuilder key, final String part )
+    {
+        if ( part == null )
+        {
+            key.append( "-1:" );
+        }
+        else
+        {
+            key.append( part.length() ).append( ':' ).append( part );
+        }
+    }
+
+    /**
+     * Registers the task as the latest one of its coalescing key, unless there is a duplicate of it still to be run no
+     * later than the first run of the task.
+     * 
+     * @param task
+     * @return the duplicate the task is to be coalesced into, or {@code null} if the task got registered.
+     */
+    protected DefaultScheduledTask<?> coalesce( final DefaultScheduledTask<?> task )
+    {
+        final Date firstRun = task.getScheduleIterator().peekNext();
+
+        while ( true )
+        {
+            final DefaultScheduledTask<?> latest = tasksByCoalescingKey.putIfAbsent( task.getCoalescingKey(), task );
+
+            if ( latest == null )
+            {
+                return null;
+            }
+
+            final TaskState state = latest.getTaskState();
+
+            // a later run (like the next one of a recurring task) would delay the submitted one
+            if ( firstRun != null && latest.isEnabled()
+                && ( TaskState.SUBMITTED.equals( state ) || TaskState.WAITING.equals( state ) ) )
+            {
+                final long pendingRunTime = latest.getPendingRunTime();
+
+                if ( pendingRunTime >= 0 && pendingRunTime <= firstRun.getTime() )
+                {
+                    return latest;
+                }
+            }
+
+            if ( tasksByCoalescingKey.replace( task.getCoalescingKey(), latest, task ) )
+            {
+                return null;
+            }
+        }
+    }
+
     protected <T> ScheduledTask<T> schedule( String id, String name, String type, Callable<T> callable,
                                              Schedule schedule, boolean store )
     {
         return schedule( id, name, type, callable, schedule, true, store );
     }
 
+    public Workflow createWorkflow( final String name )
+    {
+        return new Workflow( this, name );
+    }
+
     public <T> ScheduledTask<T> updateSchedule( ScheduledTask<T> task )
         throws RejectedExecutionException, NullPointerException
     {
         // Simply add the task to config, will find existing by id, remove, then store new
-        taskConfig.addTask( task );
+        getTaskConfig().addTask( task );
         return task;
     }
 
@@ -272,80 +1917,253 @@ public class DefaultScheduler
             throw new IllegalArgumentException( "The Tasks cannot have null IDs!" );
         }
 
-        final Collection<List<ScheduledTask<?>>> activeTasks = getAllTasks().values();
+        final ScheduledTask<?> task = tasksById.get( id );
 
-        for ( List<ScheduledTask<?>> tasks : activeTasks )
+        if ( task == null )
         {
-            for ( ScheduledTask<?> task : tasks )
+            throw new NoSuchTaskException( id );
+        }
+
+        return task;
+    }
+
+    public Map<String, List<ScheduledTask<?>>> getActiveTasks()
+    {
+        return getTasksByType( TaskState.SUBMITTED, TaskState.RUNNING, TaskState.SLEEPING, TaskState.WAITING,
+            TaskState.CANCELLING );
+    }
+
+    public Map<String, List<ScheduledTask<?>>> getRunningTasks()
+    {
+        return getTasksByType( TaskState.RUNNING );
+    }
+
+    public int getTaskCount( final TaskState state )
+    {
+        return tasksByState.get( state ).size();
+    }
+
+    public Collection<ScheduledTask<?>> getTasks( final TaskState state )
+    {
+        return Collections.unmodifiableSet( tasksByState.get( state ).keySet() );
+    }
+
+    public int getPendingTaskCount()
+    {
+        return getAdmissionControl().getPendingCount();
+    }
+
+    public int getPendingTaskCount( final String type )
+    {
+        return getAdmissionControl().getPendingCount( type );
+    }
+
+    public int getPendingTaskCount( final TaskPriority priority )
+    {
+        return getAdmissionControl().getPendingCount( priority );
+    }
+
+    public long getRejectedTaskCount()
+    {
+        return getAdmissionControl().getRejectedCount();
+    }
+
+    public long getDroppedTaskCount()
+    {
+        return getAdmissionControl().getDroppedCount();
+    }
+
+    /**
+     * Returns a read-only map of active tasks, that computes the tasks of a type only when asked for. Meant for the
+     * {@link SchedulerTask#allowConcurrentExecution(Map)} checks, that usually look up only a few types.
+     * 
+     * @return
+     */
+    protected Map<String, List<ScheduledTask<?>>> getActiveTasksView()
+    {
+        return new ActiveTasksView();
+    }
+
+    protected Map<String, List<ScheduledTask<?>>> getTasksByType( final TaskState... states )
+    {
+        final Map<String, List<ScheduledTask<?>>> result = new HashMap<String, List<ScheduledTask<?>>>();
+
+        for ( TaskState state : states )
+        {
+            for ( ScheduledTask<?> task : tasksByState.get( state ).keySet() )
             {
-                if ( task.getId().equals( id ) )
+                List<ScheduledTask<?>> tasks = result.get( task.getType() );
+
+                if ( tasks == null )
                 {
-                    return task;
+                    tasks = new ArrayList<ScheduledTask<?>>();
+
+                    result.put( task.getType(), tasks );
                 }
+
+                tasks.add( task );
             }
         }
 
-        throw new NoSuchTaskException( id );
+        return result;
     }
 
-    public Map<String, List<ScheduledTask<?>>> getActiveTasks()
-    {
-        Map<String, List<ScheduledTask<?>>> result = getAllTasks();
+    // ==
 
-        List<ScheduledTask<?>> tasks = null;
+    protected class ActiveTasksView
+        extends AbstractMap<String, List<ScheduledTask<?>>>
+    {
+        private Map<String, List<ScheduledTask<?>>> snapshot;
 
-        // filter for activeOrSubmitted
-        for ( Iterator<String> c = result.keySet().iterator(); c.hasNext(); )
+        @Override
+        public List<ScheduledTask<?>> get( final Object type )
         {
-            String cls = c.next();
-            tasks = result.get( cls );
+            final List<ScheduledTask<?>> tasks = tasksMap.get( type );
 
-            for ( Iterator<ScheduledTask<?>> i = tasks.iterator(); i.hasNext(); )
+            if ( tasks == null )
             {
-                ScheduledTask<?> task = i.next();
+                return null;
+            }
 
-                if ( !task.getTaskState().isActiveOrSubmitted() )
+            List<ScheduledTask<?>> result = null;
+
+            for ( ScheduledTask<?> task : tasks )
+            {
+                if ( task.getTaskState().isActiveOrSubmitted() )
                 {
-                    i.remove();
+                    if ( result == null )
+                    {
+                        result = new ArrayList<ScheduledTask<?>>();
+                    }
+
+                    result.add( task );
                 }
             }
 
-            if ( tasks.isEmpty() )
+            return result == null ? null : Collections.unmodifiableList( result );
+        }
+
+        @Override
+        public boolean containsKey( final Object type )
+        {
+            return get( type ) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, List<ScheduledTask<?>>>> entrySet()
+        {
+            // the whole map is needed, compute it once
+            if ( snapshot == null )
             {
-                c.remove();
+                snapshot = Collections.unmodifiableMap( getActiveTasks() );
             }
-        }
 
-        return result;
+            return snapshot.entrySet();
+        }
     }
 
-    public Map<String, List<ScheduledTask<?>>> getRunningTasks()
+    /**
+     * A due command waiting for a free worker thread, ordered by it's dispatch key (the time it became due, lessened
+     * by it's priority) and then by the order of dispatching.
+     */
+    protected static class PrioritizedCommand
+        implements Runnable
     {
-        Map<String, List<ScheduledTask<?>>> result = getAllTasks();
-        List<ScheduledTask<?>> tasks = null;
-
-        // filter for RUNNING
-        for ( Iterator<String> c = result.keySet().iterator(); c.hasNext(); )
+        /**
+         * Orders the commands of worker queue. Other commands (not dispatched by scheduler) go first.
+         */
+        protected static final Comparator<Runnable> DISPATCH_ORDER = new Comparator<Runnable>()
         {
-            String cls = c.next();
-            tasks = result.get( cls );
-
-            for ( Iterator<ScheduledTask<?>> i = tasks.iterator(); i.hasNext(); )
+            public int compare( final Runnable r1, final Runnable r2 )
             {
-                ScheduledTask<?> task = i.next();
+                if ( !( r1 instanceof PrioritizedCommand ) || !( r2 instanceof PrioritizedCommand ) )
+                {
+                    return ( r1 instanceof PrioritizedCommand ? 1 : 0 ) - ( r2 instanceof PrioritizedCommand ? 1 : 0 );
+                }
+
+                final PrioritizedCommand c1 = (PrioritizedCommand) r1;
+                final PrioritizedCommand c2 = (PrioritizedCommand) r2;
+
+                // nanoTime based, compare by difference
+                final long diff = c1.key - c2.key;
 
-                if ( !TaskState.RUNNING.equals( task.getTaskState() ) )
+                if ( diff != 0 )
                 {
-                    i.remove();
+                    return diff < 0 ? -1 : 1;
                 }
+
+                return c1.sequence < c2.sequence ? -1 : ( c1.sequence == c2.sequence ? 0 : 1 );
             }
+        };
+
+        private final Runnable command;
+
+        private final long key;
+
+        private final long sequence;
+
+        private final long dispatchedNanos;
+
+        private final QueueWaitStatistics statistics;
+
+        private final DefaultScheduledTask<?> task;
+
+        public PrioritizedCommand( final Runnable command, final long key, final long sequence,
+                                   final long dispatchedNanos, final QueueWaitStatistics statistics,
+                                   final DefaultScheduledTask<?> task )
+        {
+            this.command = command;
+            this.key = key;
+            this.sequence = sequence;
+            this.dispatchedNanos = dispatchedNanos;
+            this.statistics = statistics;
+            this.task = task;
+        }
+
+        public Runnable getCommand()
+        {
+            return command;
+        }
+
+        /**
+         * Returns true if the command is a run of a task (as opposed to the commands of lanes), hence it may be
+         * skipped.
+         * 
+         * @param command
+         * @return
+         */
+        public static boolean isSkippable( final Runnable command )
+        {
+            return command instanceof PrioritizedCommand && ( (PrioritizedCommand) command ).task != null
+                && ( (PrioritizedCommand) command ).command instanceof Future<?>;
+        }
 
-            if ( tasks.isEmpty() )
+        /**
+         * Skips the run of a task dropped before it was run: the task moves on to its next run, see
+         * {@link DefaultScheduledTask#runSkipped(Future)}.
+         * 
+         * @param command
+         * @return false if the command is not skippable, hence it was left intact.
+         */
+        public static boolean skip( final Runnable command )
+        {
+            if ( !isSkippable( command ) )
             {
-                c.remove();
+                return false;
             }
+
+            final PrioritizedCommand prioritizedCommand = (PrioritizedCommand) command;
+
+            prioritizedCommand.task.runSkipped( (Future<?>) prioritizedCommand.command );
+
+            return true;
         }
 
-        return result;
+        public void run()
+        {
+            statistics.record( System.nanoTime() - dispatchedNanos );
+
+            command.run();
+        }
     }
 }
@@ -0,0 +1,613 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The history of task runs, kept in a memory-mapped file hence surviving restarts: each task has a slot of fixed size,
+ * holding the last runs of it in a ring of fixed size records (start, end, queue delay, status and failure summary).
+ * Recording a run writes into the mapped memory in place, allocating nothing once the task has a slot. When all the
+ * slots are taken, the slot of the task recorded least recently is reused.
+ * <p>
+ * A run is written into the record past the retained ones, and then the count of runs of the slot is incremented,
+ * making it visible. The ring has one record more than retained, hence a write cut by a crash is never visible. The
+ * file is written back by the OS even if the JVM dies, and is forced on {@link #close()}. If the file has other
+ * geometry than the one asked for, it is started afresh.
+ */
+public class ExecutionHistory
+{
+    public static final int MAX_TASK_ID_BYTES = 64;
+
+    private static final int MAGIC = 0x50584831;
+
+    private static final int HEADER_SIZE = 64;
+
+    // slot header: id length (short), id, run count (long), last recorded (long)
+
+    private static final int SLOT_ID_LENGTH = 0;
+
+    private static final int SLOT_ID = 2;
+
+    private static final int SLOT_RUN_COUNT = SLOT_ID + MAX_TASK_ID_BYTES;
+
+    private static final int SLOT_LAST_RECORDED = SLOT_RUN_COUNT + 8;
+
+    private static final int SLOT_HEADER_SIZE = SLOT_LAST_RECORDED + 8;
+
+    // record: start, end, queue delay (longs), status (byte), failure length (short), failure
+
+    private static final int RECORD_START = 0;
+
+    private static final int RECORD_END = 8;
+
+    private static final int RECORD_QUEUE_DELAY = 16;
+
+    private static final int RECORD_STATUS = 24;
+
+    private static final int RECORD_FAILURE_LENGTH = 25;
+
+    private static final int RECORD_FAILURE = 27;
+
+    private static final int RECORD_SIZE = 176;
+
+    public static final int MAX_FAILURE_BYTES = RECORD_SIZE - RECORD_FAILURE;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final File file;
+
+    private final int maxTasks;
+
+    private final int runsPerTask;
+
+    private final int slotSize;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The slot index of each task, guarded by this.
+     */
+    private final Map<String, Integer> slots;
+
+    /**
+     * Guarded by this.
+     */
+    private boolean closed;
+
+    /**
+     * @param file the file, created if needed.
+     * @param maxTasks the count of tasks having a slot.
+     * @param runsPerTask the count of the last runs retained per task.
+     * @throws IOException
+     */
+    public ExecutionHistory( final File file, final int maxTasks, final int runsPerTask )
+        throws IOException
+    {
+        if ( maxTasks < 1 || runsPerTask < 1 )
+        {
+            throw new IllegalArgumentException( "Task and run counts must be positive: " + maxTasks + ", "
+                + runsPerTask );
+        }
+
+        this.file = file;
+        this.maxTasks = maxTasks;
+        this.runsPerTask = runsPerTask;
+        this.slotSize = SLOT_HEADER_SIZE + ( runsPerTask + 1 ) * RECORD_SIZE;
+
+        final long size = HEADER_SIZE + (long) maxTasks * slotSize;
+
+        if ( size > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "Execution history of " + maxTasks + " tasks and " + runsPerTask
+                + " runs is too big to map" );
+        }
+
+        if ( file.getParentFile() != null && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs() )
+        {
+            throw new IOException( "Cannot create directory " + file.getParentFile() );
+        }
+
+        this.raf = new RandomAccessFile( file, "rw" );
+
+        try
+        {
+            final boolean matching =
+                raf.length() == size && raf.readInt() == MAGIC && raf.readInt() == maxTasks
+                    && raf.readInt() == runsPerTask;
+
+            if ( !matching )
+            {
+                if ( raf.length() > 0 )
+                {
+                    logger.warn( "Execution history {} has other geometry, starting it afresh.", file );
+                }
+
+                raf.setLength( 0 );
+                raf.setLength( size );
+            }
+
+            this.buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+
+            if ( !matching )
+            {
+                buffer.putInt( 0, MAGIC );
+                buffer.putInt( 4, maxTasks );
+                buffer.putInt( 8, runsPerTask );
+            }
+        }
+        catch ( IOException e )
+        {
+            raf.close();
+
+            throw e;
+        }
+
+        this.slots = new HashMap<String, Integer>( maxTasks * 2 );
+
+        for ( int slot = 0; slot < maxTasks; slot++ )
+        {
+            final String taskId = readTaskId( slot );
+
+            if ( taskId != null && !slots.containsKey( taskId ) )
+            {
+                slots.put( taskId, slot );
+            }
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public int getMaxTasks()
+    {
+        return maxTasks;
+    }
+
+    public int getRunsPerTask()
+    {
+        return runsPerTask;
+    }
+
+    /**
+     * Records a run of the task. Task IDs longer than {@link #MAX_TASK_ID_BYTES} are not recorded.
+     * 
+     * @param taskId
+     * @param startTime
+     * @param endTime
+     * @param queueDelay the time the run started late, in milliseconds.
+     * @param status how the run ended: FINISHED, BROKEN or CANCELLED.
+     * @param failure the failure of the run, or {@code null}.
+     */
+    public synchronized void record( final String taskId, final long startTime, final long endTime,
+                                     final long queueDelay, final TaskState status, final Throwable failure )
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        final int slot = getSlot( taskId );
+
+        if ( slot < 0 )
+        {
+            return;
+        }
+
+        final int slotOffset = slotOffset( slot );
+
+        final long runCount = buffer.getLong( slotOffset + SLOT_RUN_COUNT );
+
+        final int offset = recordOffset( slotOffset, runCount );
+
+        buffer.putLong( offset + RECORD_START, startTime );
+        buffer.putLong( offset + RECORD_END, endTime );
+        buffer.putLong( offset + RECORD_QUEUE_DELAY, Math.max( 0, queueDelay ) );
+        buffer.put( offset + RECORD_STATUS, encodeStatus( status ) );
+
+        int failureLength = -1;
+
+        if ( failure != null )
+        {
+            failureLength = putChars( offset + RECORD_FAILURE, 0, MAX_FAILURE_BYTES, failure.getClass().getName() );
+
+            if ( failure.getMessage() != null )
+            {
+                failureLength = putChars( offset + RECORD_FAILURE, failureLength, MAX_FAILURE_BYTES, ": " );
+                failureLength =
+                    putChars( offset + RECORD_FAILURE, failureLength, MAX_FAILURE_BYTES, failure.getMessage() );
+            }
+        }
+
+        buffer.putShort( offset + RECORD_FAILURE_LENGTH, (short) failureLength );
+
+        // makes the run visible
+        buffer.putLong( slotOffset + SLOT_LAST_RECORDED, endTime );
+        buffer.putLong( slotOffset + SLOT_RUN_COUNT, runCount + 1 );
+    }
+
+    /**
+     * Returns the last runs of the task, the latest first.
+     * 
+     * @param taskId
+     * @param count the count of runs to return at most.
+     * @return
+     */
+    public synchronized List<ExecutionRecord> getLastRuns( final String taskId, final int count )
+    {
+        final Integer slot = slots.get( taskId );
+
+        if ( slot == null )
+        {
+            return Collections.emptyList();
+        }
+
+        final int slotOffset = slotOffset( slot );
+
+        final long runCount = buffer.getLong( slotOffset + SLOT_RUN_COUNT );
+
+        final int retained = (int) Math.min( Math.min( runCount, runsPerTask ), Math.max( 0, count ) );
+
+        final List<ExecutionRecord> result = new ArrayList<ExecutionRecord>( retained );
+
+        for ( int i = 1; i <= retained; i++ )
+        {
+            result.add( readRecord( taskId, recordOffset( slotOffset, runCount - i ) ) );
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the aggregates of the retained runs of the task.
+     * 
+     * @param taskId
+     * @return
+     */
+    public ExecutionStatistics getStatistics( final String taskId )
+    {
+        return new ExecutionStatistics( getLastRuns( taskId, runsPerTask ) );
+    }
+
+    /**
+     * Returns the IDs of the tasks having runs recorded.
+     * 
+     * @return
+     */
+    public synchronized List<String> getTaskIds()
+    {
+        return new ArrayList<String>( slots.keySet() );
+    }
+
+    /**
+     * Drops the runs of the task, freeing it's slot.
+     * 
+     * @param taskId
+     */
+    public synchronized void remove( final String taskId )
+    {
+        final Integer slot = slots.remove( taskId );
+
+        if ( slot != null )
+        {
+            buffer.putShort( slotOffset( slot ) + SLOT_ID_LENGTH, (short) 0 );
+        }
+    }
+
+    /**
+     * Writes the mapped file back to the storage device.
+     */
+    public synchronized void force()
+    {
+        buffer.force();
+    }
+
+    /**
+     * Forces and closes the file, no more runs can be recorded afterwards.
+     */
+    public synchronized void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+
+        buffer.force();
+
+        try
+        {
+            raf.close();
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Cannot close execution history " + file, e );
+        }
+    }
+
+    // ==
+
+    /**
+     * Returns the slot of the task, assigning one if it has none, or -1 if the ID is too long. Must be called while
+     * holding the lock of this.
+     * 
+     * @param taskId
+     * @return
+     */
+    protected int getSlot( final String taskId )
+    {
+        final Integer existing = slots.get( taskId );
+
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        final int idLength = utf8Length( taskId );
+
+        if ( idLength == 0 || idLength > MAX_TASK_ID_BYTES )
+        {
+            logger.debug( "Task ID \"{}\" is empty or too long, not recording it's runs.", taskId );
+
+            return -1;
+        }
+
+        int slot = -1;
+
+        for ( int i = 0; i < maxTasks && slot < 0 && slots.size() < maxTasks; i++ )
+        {
+            if ( buffer.getShort( slotOffset( i ) + SLOT_ID_LENGTH ) == 0 )
+            {
+                slot = i;
+            }
+        }
+
+        if ( slot < 0 )
+        {
+            slot = leastRecentlyRecorded();
+
+            final String evicted = readTaskId( slot );
+
+            if ( evicted != null && Integer.valueOf( slot ).equals( slots.get( evicted ) ) )
+            {
+                slots.remove( evicted );
+            }
+        }
+
+        final int slotOffset = slotOffset( slot );
+
+        // freed first, and taken once reset
+        buffer.putShort( slotOffset + SLOT_ID_LENGTH, (short) 0 );
+        buffer.putLong( slotOffset + SLOT_RUN_COUNT, 0 );
+        buffer.putLong( slotOffset + SLOT_LAST_RECORDED, 0 );
+
+        putChars( slotOffset + SLOT_ID, 0, MAX_TASK_ID_BYTES, taskId );
+
+        buffer.putShort( slotOffset + SLOT_ID_LENGTH, (short) idLength );
+
+        slots.put( taskId, slot );
+
+        return slot;
+    }
+
+    protected int leastRecentlyRecorded()
+    {
+        int result = 0;
+
+        long oldest = Long.MAX_VALUE;
+
+        for ( int i = 0; i < maxTasks; i++ )
+        {
+            final long lastRecorded = buffer.getLong( slotOffset( i ) + SLOT_LAST_RECORDED );
+
+            if ( lastRecorded < oldest )
+            {
+                oldest = lastRecorded;
+
+                result = i;
+            }
+        }
+
+        return result;
+    }
+
+    protected ExecutionRecord readRecord( final String taskId, final int offset )
+    {
+        final int failureLength = buffer.getShort( offset + RECORD_FAILURE_LENGTH );
+
+        return new ExecutionRecord( taskId, buffer.getLong( offset + RECORD_START ),
+            buffer.getLong( offset + RECORD_END ), buffer.getLong( offset + RECORD_QUEUE_DELAY ),
+            decodeStatus( buffer.get( offset + RECORD_STATUS ) ), failureLength < 0 ? null
+                            : getString( offset + RECORD_FAILURE, failureLength ) );
+    }
+
+    protected String readTaskId( final int slot )
+    {
+        final int slotOffset = slotOffset( slot );
+
+        final int length = buffer.getShort( slotOffset + SLOT_ID_LENGTH );
+
+        return length <= 0 || length > MAX_TASK_ID_BYTES ? null : getString( slotOffset + SLOT_ID, length );
+    }
+
+    private int slotOffset( final int slot )
+    {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    private int recordOffset( final int slotOffset, final long run )
+    {
+        return slotOffset + SLOT_HEADER_SIZE + (int) ( run % ( runsPerTask + 1 ) ) * RECORD_SIZE;
+    }
+
+    /**
+     * Puts the chars encoded as UTF-8 at given position of the field, as many whole chars as fit into it's limit, and
+     * returns the new position. Allocates nothing.
+     * 
+     * @param offset the offset of the field.
+     * @param position the position within the field.
+     * @param limit the size of the field.
+     * @param chars
+     * @return
+     */
+    private int putChars( final int offset, final int position, final int limit, final String chars )
+    {
+        int result = position;
+
+        for ( int i = 0; i < chars.length(); i++ )
+        {
+            final char c = chars.charAt( i );
+
+            final int length = utf8Length( chars, i );
+
+            if ( result + length > limit )
+            {
+                break;
+            }
+
+            if ( length == 1 )
+            {
+                buffer.put( offset + result, (byte) c );
+            }
+            else if ( length == 2 )
+            {
+                buffer.put( offset + result, (byte) ( 0xc0 | ( c >> 6 ) ) );
+                buffer.put( offset + result + 1, (byte) ( 0x80 | ( c & 0x3f ) ) );
+            }
+            else if ( length == 3 )
+            {
+                buffer.put( offset + result, (byte) ( 0xe0 | ( c >> 12 ) ) );
+                buffer.put( offset + result + 1, (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) ) );
+                buffer.put( offset + result + 2, (byte) ( 0x80 | ( c & 0x3f ) ) );
+            }
+            else
+            {
+                final int codePoint = Character.toCodePoint( c, chars.charAt( ++i ) );
+
+                buffer.put( offset + result, (byte) ( 0xf0 | ( codePoint >> 18 ) ) );
+                buffer.put( offset + result + 1, (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3f ) ) );
+                buffer.put( offset + result + 2, (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3f ) ) );
+                buffer.put( offset + result + 3, (byte) ( 0x80 | ( codePoint & 0x3f ) ) );
+            }
+
+            result += length;
+        }
+
+        return result;
+    }
+
+    private String getString( final int offset, final int length )
+    {
+        final byte[] bytes = new byte[length];
+
+        for ( int i = 0; i < length; i++ )
+        {
+            bytes[i] = buffer.get( offset + i );
+        }
+
+        try
+        {
+            return new String( bytes, "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            // UTF-8 is always supported
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Returns the count of UTF-8 bytes of the char at given index, 4 for surrogate pairs.
+     * 
+     * @param chars
+     * @param index
+     * @return
+     */
+    private static int utf8Length( final String chars, final int index )
+    {
+        final char c = chars.charAt( index );
+
+        if ( c < 0x80 )
+        {
+            return 1;
+        }
+        else if ( c < 0x800 )
+        {
+            return 2;
+        }
+        else if ( Character.isHighSurrogate( c ) && index + 1 < chars.length()
+            && Character.isLowSurrogate( chars.charAt( index + 1 ) ) )
+        {
+            return 4;
+        }
+
+        // lone surrogates are replaced when decoded
+        return 3;
+    }
+
+    private static int utf8Length( final String chars )
+    {
+        int result = 0;
+
+        for ( int i = 0; i < chars.length(); i++ )
+        {
+            final int length = utf8Length( chars, i );
+
+            if ( length == 4 )
+            {
+                i++;
+            }
+
+            result += length;
+        }
+
+        return result;
+    }
+
+    private static byte encodeStatus( final TaskState status )
+    {
+        if ( TaskState.FINISHED.equals( status ) )
+        {
+            return 1;
+        }
+        else if ( TaskState.BROKEN.equals( status ) )
+        {
+            return 2;
+        }
+
+        return 3;
+    }
+
+    private static TaskState decodeStatus( final byte status )
+    {
+        return status == 1 ? TaskState.FINISHED : status == 2 ? TaskState.BROKEN : TaskState.CANCELLED;
+    }
+}
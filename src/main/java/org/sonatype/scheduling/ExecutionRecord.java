@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Date;
+
+/**
+ * A run of a task, as recorded by {@link ExecutionHistory}.
+ */
+public class ExecutionRecord
+{
+    private final String taskId;
+
+    private final long startTime;
+
+    private final long endTime;
+
+    private final long queueDelay;
+
+    private final TaskState status;
+
+    private final String failureSummary;
+
+    public ExecutionRecord( final String taskId, final long startTime, final long endTime, final long queueDelay,
+                            final TaskState status, final String failureSummary )
+    {
+        this.taskId = taskId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.queueDelay = queueDelay;
+        this.status = status;
+        this.failureSummary = failureSummary;
+    }
+
+    public String getTaskId()
+    {
+        return taskId;
+    }
+
+    public Date getStarted()
+    {
+        return new Date( startTime );
+    }
+
+    public Date getEnded()
+    {
+        return new Date( endTime );
+    }
+
+    /**
+     * Returns the duration of the run, in milliseconds.
+     * 
+     * @return
+     */
+    public long getDuration()
+    {
+        return endTime - startTime;
+    }
+
+    /**
+     * Returns the time the run started late, as it waited for the timer or for a free worker thread, in milliseconds.
+     * 
+     * @return
+     */
+    public long getQueueDelay()
+    {
+        return queueDelay;
+    }
+
+    /**
+     * Returns how the run ended: {@link TaskState#FINISHED}, {@link TaskState#BROKEN} or {@link TaskState#CANCELLED}.
+     * 
+     * @return
+     */
+    public TaskState getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns the failure of the run (class and message, possibly cut), or {@code null} if it did not fail.
+     * 
+     * @return
+     */
+    public String getFailureSummary()
+    {
+        return failureSummary;
+    }
+
+    @Override
+    public String toString()
+    {
+        return taskId + " " + getStarted() + " " + status + " in " + getDuration() + " ms";
+    }
+}
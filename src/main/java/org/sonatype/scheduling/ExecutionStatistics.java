@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Aggregates of the runs of a task retained by {@link ExecutionHistory}.
+ */
+public class ExecutionStatistics
+{
+    private int runCount;
+
+    private int finishedCount;
+
+    private int brokenCount;
+
+    private int cancelledCount;
+
+    private long totalDuration;
+
+    private long minDuration;
+
+    private long maxDuration;
+
+    private long totalQueueDelay;
+
+    private long maxQueueDelay;
+
+    private long lastFinished;
+
+    public ExecutionStatistics( final List<ExecutionRecord> records )
+    {
+        for ( ExecutionRecord record : records )
+        {
+            final long duration = record.getDuration();
+
+            minDuration = runCount == 0 ? duration : Math.min( minDuration, duration );
+            maxDuration = Math.max( maxDuration, duration );
+            totalDuration += duration;
+            totalQueueDelay += record.getQueueDelay();
+            maxQueueDelay = Math.max( maxQueueDelay, record.getQueueDelay() );
+            runCount++;
+
+            if ( TaskState.FINISHED.equals( record.getStatus() ) )
+            {
+                finishedCount++;
+
+                lastFinished = Math.max( lastFinished, record.getEnded().getTime() );
+            }
+            else if ( TaskState.BROKEN.equals( record.getStatus() ) )
+            {
+                brokenCount++;
+            }
+            else
+            {
+                cancelledCount++;
+            }
+        }
+    }
+
+    public int getRunCount()
+    {
+        return runCount;
+    }
+
+    public int getFinishedCount()
+    {
+        return finishedCount;
+    }
+
+    public int getBrokenCount()
+    {
+        return brokenCount;
+    }
+
+    public int getCancelledCount()
+    {
+        return cancelledCount;
+    }
+
+    /**
+     * Returns the ratio of the runs that did not finish successfully, between 0 and 1.
+     * 
+     * @return
+     */
+    public double getFailureRatio()
+    {
+        return runCount == 0 ? 0 : (double) ( runCount - finishedCount ) / runCount;
+    }
+
+    public long getMinDuration()
+    {
+        return minDuration;
+    }
+
+    public long getMaxDuration()
+    {
+        return maxDuration;
+    }
+
+    public long getAverageDuration()
+    {
+        return runCount == 0 ? 0 : totalDuration / runCount;
+    }
+
+    public long getAverageQueueDelay()
+    {
+        return runCount == 0 ? 0 : totalQueueDelay / runCount;
+    }
+
+    public long getMaxQueueDelay()
+    {
+        return maxQueueDelay;
+    }
+
+    /**
+     * Returns the end of the latest successful run, or {@code null} if none is retained.
+     * 
+     * @return
+     */
+    public Date getLastFinished()
+    {
+        return lastFinished == 0 ? null : new Date( lastFinished );
+    }
+
+    @Override
+    public String toString()
+    {
+        return runCount + " runs (" + brokenCount + " broken, " + cancelledCount + " cancelled), average "
+            + getAverageDuration() + " ms, average queue delay " + getAverageQueueDelay() + " ms";
+    }
+}
@@ -0,0 +1,454 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.scheduling.timers.ExecutorTaskTimer;
+import org.sonatype.scheduling.timers.TaskTimer;
+
+/**
+ * Shares the capacity of an executor (like the count of worker threads) between task types by their weights. At most
+ * {@code capacity} commands are handed over to the executor at once, the others wait in per type queues. Whenever a
+ * slot frees up, it is given to the type having the least running commands relative to its weight, hence a type
+ * flooding the workers cannot starve the others: they get their share as soon as running commands finish. Capacity
+ * not used by a type is borrowed by the others.
+ * <p>
+ * Within a type, commands are taken in the order given by the comparator (and in FIFO order if they are equal).
+ * Picking the next type costs O(count of types having waiting commands).
+ * <p>
+ * A command refused by the executor (as it is saturated) is put back in its place, and handed over again when a slot
+ * frees up or a command is dispatched, or by the retry timer with a backoff delay if nothing is running.
+ */
+public class FairDispatcher
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Executor executor;
+
+    private final int capacity;
+
+    private final Map<String, Integer> weights;
+
+    private final int defaultWeight;
+
+    private final Comparator<Entry> entryOrder;
+
+    private final TaskTimer retryTimer;
+
+    private final Callable<Object> retrier;
+
+    /**
+     * The types having running or waiting commands. Guarded by this.
+     */
+    private final Map<String, TypeQueue> queues;
+
+    /**
+     * Guarded by this.
+     */
+    private int running;
+
+    /**
+     * Guarded by this.
+     */
+    private long sequence;
+
+    /**
+     * The count of refusals of the executor in a row. Guarded by this.
+     */
+    private int rejections;
+
+    /**
+     * True while a retry is scheduled on the retry timer. Guarded by this.
+     */
+    private boolean retryScheduled;
+
+    /**
+     * @param executor the executor to run the commands.
+     * @param capacity the count of commands to run at once.
+     * @param weights the weights of types, positive integers.
+     * @param defaultWeight the weight of types not having weight set.
+     * @param order the order of commands within a type, or {@code null} for FIFO.
+     */
+    public FairDispatcher( final Executor executor, final int capacity, final Map<String, Integer> weights,
+                           final int defaultWeight, final Comparator<Runnable> order )
+    {
+        this( executor, capacity, weights, defaultWeight, order, null );
+    }
+
+    /**
+     * @param executor the executor to run the commands.
+     * @param capacity the count of commands to run at once.
+     * @param weights the weights of types, positive integers.
+     * @param defaultWeight the weight of types not having weight set.
+     * @param order the order of commands within a type, or {@code null} for FIFO.
+     * @param retryTimer the timer retrying the commands refused by the executor while nothing is running, or
+     *            {@code null} to retry them only when a command is dispatched.
+     */
+    public FairDispatcher( final Executor executor, final int capacity, final Map<String, Integer> weights,
+                           final int defaultWeight, final Comparator<Runnable> order, final TaskTimer retryTimer )
+    {
+        if ( capacity < 1 || defaultWeight < 1 )
+        {
+            throw new IllegalArgumentException( "Capacity and default weight must be positive!" );
+        }
+
+        for ( Map.Entry<String, Integer> weight : weights.entrySet() )
+        {
+            if ( weight.getValue() == null || weight.getValue() < 1 )
+            {
+                throw new IllegalArgumentException( "Weight of type \"" + weight.getKey() + "\" must be positive!" );
+            }
+        }
+
+        this.executor = executor;
+        this.capacity = capacity;
+        this.weights = new HashMap<String, Integer>( weights );
+        this.defaultWeight = defaultWeight;
+        this.entryOrder = new Comparator<Entry>()
+        {
+            public int compare( final Entry e1, final Entry e2 )
+            {
+                final int result = order == null ? 0 : order.compare( e1.command, e2.command );
+
+                if ( result != 0 )
+                {
+                    return result;
+                }
+
+                return e1.sequence < e2.sequence ? -1 : ( e1.sequence == e2.sequence ? 0 : 1 );
+            }
+        };
+        this.queues = new HashMap<String, TypeQueue>();
+        this.retryTimer = retryTimer;
+        this.retrier = new Callable<Object>()
+        {
+            public Object call()
+            {
+                retry();
+
+                return null;
+            }
+        };
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getWeight( final String type )
+    {
+        final Integer weight = weights.get( type );
+
+        return weight == null ? defaultWeight : weight;
+    }
+
+    /**
+     * Returns the count of commands of given type handed over to executor and not finished yet.
+     *
+     * @param type
+     * @return
+     */
+    public synchronized int getRunningCount( final String type )
+    {
+        final TypeQueue queue = queues.get( type );
+
+        return queue == null ? 0 : queue.running;
+    }
+
+    /**
+     * Returns the count of commands of given type waiting for a free slot.
+     *
+     * @param type
+     * @return
+     */
+    public synchronized int getQueuedCount( final String type )
+    {
+        final TypeQueue queue = queues.get( type );
+
+        return queue == null ? 0 : queue.entries.size();
+    }
+
+    /**
+     * Runs the command of given type when it gets a free slot.
+     *
+     * @param type
+     * @param command
+     */
+    public void dispatch( final String type, final Runnable command )
+    {
+        synchronized ( this )
+        {
+            TypeQueue queue = queues.get( type );
+
+            if ( queue == null )
+            {
+                queue = new TypeQueue( type, getWeight( type ), entryOrder );
+
+                queues.put( type, queue );
+            }
+
+            queue.entries.add( new Entry( command, sequence++ ) );
+        }
+
+        drain();
+    }
+
+    // ==
+
+    protected void completed( final TypeQueue queue )
+    {
+        synchronized ( this )
+        {
+            release( queue );
+        }
+
+        drain();
+    }
+
+    protected void retry()
+    {
+        synchronized ( this )
+        {
+            retryScheduled = false;
+        }
+
+        drain();
+    }
+
+    /**
+     * Hands over commands while there are free slots, as refused commands may have left more than one slot free.
+     */
+    protected void drain()
+    {
+        while ( true )
+        {
+            final FairCommand next;
+
+            synchronized ( this )
+            {
+                next = pollNext();
+            }
+
+            if ( next == null || !execute( next ) )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands over the command to the executor, or puts it back in its place if refused.
+     * 
+     * @param command
+     * @return false if the executor refused the command.
+     */
+    protected boolean execute( final FairCommand command )
+    {
+        try
+        {
+            executor.execute( command );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            final int retries;
+
+            final boolean idle;
+
+            synchronized ( this )
+            {
+                // back in its place, with its sequence kept
+                command.queue.entries.add( command.entry );
+
+                release( command.queue );
+
+                retries = ++rejections;
+
+                idle = running == 0 && !retryScheduled && retryTimer != null;
+
+                retryScheduled |= idle;
+            }
+
+            if ( retries == 1 )
+            {
+                logger.warn( "Executor refused the command, it is handed over again later: {}", e.getMessage() );
+            }
+
+            if ( idle )
+            {
+                scheduleRetry( retries );
+            }
+
+            return false;
+        }
+
+        synchronized ( this )
+        {
+            rejections = 0;
+        }
+
+        return true;
+    }
+
+    protected void scheduleRetry( final int retries )
+    {
+        try
+        {
+            retryTimer.schedule( retrier, ExecutorTaskTimer.getRetryDelayMillis( retries ), TimeUnit.MILLISECONDS,
+                                 new Executor()
+                                 {
+                                     public void execute( final Runnable command )
+                                     {
+                                         command.run();
+                                     }
+                                 } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // shut down, the queued commands are not run anymore
+            synchronized ( this )
+            {
+                retryScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Takes the next command to run, if there is a free slot. Must be called holding the lock of this.
+     */
+    protected FairCommand pollNext()
+    {
+        if ( running >= capacity )
+        {
+            return null;
+        }
+
+        TypeQueue best = null;
+
+        for ( TypeQueue queue : queues.values() )
+        {
+            if ( queue.entries.isEmpty() )
+            {
+                continue;
+            }
+
+            if ( best == null )
+            {
+                best = queue;
+
+                continue;
+            }
+
+            // running / weight compared without division
+            final long share = (long) queue.running * best.weight;
+            final long bestShare = (long) best.running * queue.weight;
+
+            if ( share < bestShare
+                || ( share == bestShare && entryOrder.compare( queue.entries.peek(), best.entries.peek() ) < 0 ) )
+            {
+                best = queue;
+            }
+        }
+
+        if ( best == null )
+        {
+            return null;
+        }
+
+        best.running++;
+        running++;
+
+        return new FairCommand( best, best.entries.poll() );
+    }
+
+    /**
+     * Frees the slot taken by a command of given type. Must be called holding the lock of this.
+     */
+    protected void release( final TypeQueue queue )
+    {
+        queue.running--;
+        running--;
+
+        if ( queue.running == 0 && queue.entries.isEmpty() )
+        {
+            queues.remove( queue.type );
+        }
+    }
+
+    protected static class TypeQueue
+    {
+        private final String type;
+
+        private final int weight;
+
+        private final PriorityQueue<Entry> entries;
+
+        private int running;
+
+        protected TypeQueue( final String type, final int weight, final Comparator<Entry> entryOrder )
+        {
+            this.type = type;
+            this.weight = weight;
+            this.entries = new PriorityQueue<Entry>( 11, entryOrder );
+        }
+    }
+
+    protected static class Entry
+    {
+        private final Runnable command;
+
+        private final long sequence;
+
+        protected Entry( final Runnable command, final long sequence )
+        {
+            this.command = command;
+            this.sequence = sequence;
+        }
+    }
+
+    protected class FairCommand
+        implements Runnable
+    {
+        private final TypeQueue queue;
+
+        private final Entry entry;
+
+        protected FairCommand( final TypeQueue queue, final Entry entry )
+        {
+            this.queue = queue;
+            this.entry = entry;
+        }
+
+        public void run()
+        {
+            try
+            {
+                entry.command.run();
+            }
+            finally
+            {
+                completed( queue );
+            }
+        }
+    }
+}
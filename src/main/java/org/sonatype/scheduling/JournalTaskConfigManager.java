@@ -0,0 +1,1045 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.scheduling.schedules.AbstractSchedule;
+import org.sonatype.scheduling.schedules.CronSchedule;
+import org.sonatype.scheduling.schedules.DailySchedule;
+import org.sonatype.scheduling.schedules.HourlySchedule;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+import org.sonatype.scheduling.schedules.MonthlySchedule;
+import org.sonatype.scheduling.schedules.OnceSchedule;
+import org.sonatype.scheduling.schedules.RunNowSchedule;
+import org.sonatype.scheduling.schedules.Schedule;
+import org.sonatype.scheduling.schedules.WeeklySchedule;
+
+/**
+ * A {@link TaskConfigManager} persisting the tasks into a directory: each added or removed task is one compact binary
+ * record appended to a journal file, hence a change costs one sequential write instead of rewriting the whole
+ * configuration. Once the journal holds more records than the compaction threshold and than there are tasks, the
+ * tasks are compacted into a snapshot file, and the journal is emptied. On startup the snapshot is loaded and the
+ * journal replayed on top of it; a torn record at the end of the journal (the write being cut by a crash) is detected
+ * by it's checksum, dropped and truncated away.
+ * <p>
+ * Each record is framed by it's length and CRC32. The snapshot is written aside and renamed over the previous one, and
+ * the journal is emptied only then: replaying a journal already compacted into the snapshot is harmless, as the latest
+ * record of each task wins. Adding a task whose persistent properties did not change is skipped. Only the schedules of
+ * this library ({@link ManualRunSchedule}, {@link RunNowSchedule}, {@link OnceSchedule}, {@link HourlySchedule},
+ * {@link DailySchedule}, {@link WeeklySchedule}, {@link MonthlySchedule} and {@link CronSchedule}) can be persisted,
+ * tasks having other schedules are not. Subclasses provide the task factory, used to recreate the tasks by
+ * {@link #initializeTasks(Scheduler)}. The highest task ID ever added is kept in the snapshot, see
+ * {@link TaskIdHighWaterMark}.
+ */
+public abstract class JournalTaskConfigManager
+    implements TaskConfigManager, TaskIdHighWaterMark
+{
+    public static final String JOURNAL_FILE = "tasks.journal";
+
+    public static final String SNAPSHOT_FILE = "tasks.snapshot";
+
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    private static final int MAGIC = 0x5058544a;
+
+    private static final int HEADER_LENGTH = 4;
+
+    private static final int FRAME_LENGTH = 8;
+
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte ADD = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final byte END = 3;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final File journalFile;
+
+    private final File snapshotFile;
+
+    private final File snapshotTempFile;
+
+    private final int compactionThreshold;
+
+    private final boolean forceWrites;
+
+    /**
+     * The latest add record of each task, in order of first add, guarded by this.
+     */
+    private final LinkedHashMap<String, byte[]> liveRecords;
+
+    /**
+     * Guarded by this.
+     */
+    private FileChannel journal;
+
+    /**
+     * The count of records in the journal, guarded by this.
+     */
+    private int journalRecords;
+
+    /**
+     * Guarded by this.
+     */
+    private long compactionCount;
+
+    /**
+     * The highest numeric ID of the tasks ever added, guarded by this.
+     */
+    private int idHighWaterMark;
+
+    private volatile boolean lazyInstantiation = true;
+
+    public JournalTaskConfigManager( final File directory )
+        throws IOException
+    {
+        this( directory, DEFAULT_COMPACTION_THRESHOLD, true );
+    }
+
+    /**
+     * @param directory the directory of the journal and snapshot files, created if needed.
+     * @param compactionThreshold the count of journal records above which the journal may be compacted.
+     * @param forceWrites true to force each append to the storage device before returning.
+     * @throws IOException
+     */
+    public JournalTaskConfigManager( final File directory, final int compactionThreshold, final boolean forceWrites )
+        throws IOException
+    {
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory " + directory );
+        }
+
+        this.journalFile = new File( directory, JOURNAL_FILE );
+        this.snapshotFile = new File( directory, SNAPSHOT_FILE );
+        this.snapshotTempFile = new File( directory, SNAPSHOT_FILE + ".tmp" );
+        this.compactionThreshold = Math.max( 1, compactionThreshold );
+        this.forceWrites = forceWrites;
+        this.liveRecords = new LinkedHashMap<String, byte[]>();
+
+        synchronized ( this )
+        {
+            load();
+        }
+    }
+
+    public <T> void addTask( final ScheduledTask<T> task )
+    {
+        final byte[] record;
+
+        try
+        {
+            record = encode( task );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            logger.warn( "Task \"{}\" is not persisted: {}", task.getName(), e.getMessage() );
+
+            return;
+        }
+
+        synchronized ( this )
+        {
+            if ( Arrays.equals( record, liveRecords.get( task.getId() ) ) )
+            {
+                return;
+            }
+
+            append( record );
+
+            liveRecords.put( task.getId(), record );
+
+            raiseIdHighWaterMark( task.getId() );
+
+            compactIfNeeded();
+        }
+    }
+
+    public <T> void removeTask( final ScheduledTask<T> task )
+    {
+        synchronized ( this )
+        {
+            if ( !liveRecords.containsKey( task.getId() ) )
+            {
+                return;
+            }
+
+            append( encodeRemoval( task.getId() ) );
+
+            liveRecords.remove( task.getId() );
+
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Initializes the persisted tasks with the scheduler at once. If the instantiation is lazy (the default), the tasks
+     * are recreated by the task factory when first needed, and the tasks whose type is not known by the factory get
+     * broken once they fire. Otherwise they are recreated right away, and the ones whose type is not known are skipped.
+     * Either way they are kept persisted.
+     */
+    public void initializeTasks( final Scheduler scheduler )
+    {
+        final List<byte[]> records;
+
+        synchronized ( this )
+        {
+            records = new ArrayList<byte[]>( liveRecords.values() );
+        }
+
+        final List<TaskDefinition<?>> definitions = new ArrayList<TaskDefinition<?>>( records.size() );
+
+        for ( byte[] record : records )
+        {
+            final TaskRecord taskRecord;
+
+            try
+            {
+                taskRecord = decode( record );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Cannot read persisted task record, skipping it.", e );
+
+                continue;
+            }
+
+            if ( lazyInstantiation )
+            {
+                definitions.add( new TaskDefinition<Object>( taskRecord.getId(), taskRecord.getName(),
+                    taskRecord.getType(), this, taskRecord.getParams(), taskRecord.getSchedule(),
+                    taskRecord.isEnabled(), taskRecord.getPriority() ) );
+
+                continue;
+            }
+
+            final SchedulerTask<?> callable;
+
+            try
+            {
+                callable = createTaskInstance( taskRecord.getType() );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                logger.warn( "Cannot create task \"{}\" of type \"{}\", skipping it: {}",
+                             new Object[] { taskRecord.getName(), taskRecord.getType(), e.getMessage() } );
+
+                continue;
+            }
+
+            for ( Map.Entry<String, String> param : taskRecord.getParams().entrySet() )
+            {
+                callable.addParameter( param.getKey(), param.getValue() );
+            }
+
+            definitions.add( createDefinition( taskRecord, callable ) );
+        }
+
+        scheduler.initializeAll( definitions );
+    }
+
+    public synchronized int getTaskIdHighWaterMark()
+    {
+        return idHighWaterMark;
+    }
+
+    public boolean isLazyInstantiation()
+    {
+        return lazyInstantiation;
+    }
+
+    /**
+     * Sets whether the tasks are recreated by the task factory only when first needed on startup, see
+     * {@link #initializeTasks(Scheduler)}.
+     * 
+     * @param lazyInstantiation
+     */
+    public void setLazyInstantiation( final boolean lazyInstantiation )
+    {
+        this.lazyInstantiation = lazyInstantiation;
+    }
+
+    /**
+     * Writes the persisted tasks into a new snapshot, and empties the journal.
+     * 
+     * @throws IllegalStateException if the files cannot be written.
+     */
+    public synchronized void compact()
+        throws IllegalStateException
+    {
+        try
+        {
+            writeSnapshot();
+
+            journal.truncate( HEADER_LENGTH );
+            journal.position( HEADER_LENGTH );
+            journal.force( false );
+
+            journalRecords = 0;
+            compactionCount++;
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Cannot compact the task journal " + journalFile, e );
+        }
+    }
+
+    /**
+     * Closes the journal file, no more changes can be persisted afterwards.
+     */
+    public synchronized void close()
+    {
+        try
+        {
+            journal.close();
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Cannot close the task journal " + journalFile, e );
+        }
+    }
+
+    /**
+     * Returns the count of persisted tasks.
+     * 
+     * @return
+     */
+    public synchronized int getTaskCount()
+    {
+        return liveRecords.size();
+    }
+
+    /**
+     * Returns the count of records appended to the journal since the last compaction.
+     * 
+     * @return
+     */
+    public synchronized int getJournalRecordCount()
+    {
+        return journalRecords;
+    }
+
+    /**
+     * Returns the count of compactions since this manager was created.
+     * 
+     * @return
+     */
+    public synchronized long getCompactionCount()
+    {
+        return compactionCount;
+    }
+
+    // ==
+
+    /**
+     * Loads the snapshot and replays the journal, truncating it's torn tail if any. Must be called while holding the
+     * lock of this.
+     * 
+     * @throws IOException
+     */
+    protected void load()
+        throws IOException
+    {
+        if ( snapshotTempFile.isFile() )
+        {
+            // the snapshot was being written: the previous one is deleted only once the new one is complete
+            if ( !snapshotFile.isFile() && readFile( snapshotTempFile, true ) >= 0 )
+            {
+                rename( snapshotTempFile, snapshotFile );
+            }
+            else
+            {
+                liveRecords.clear();
+
+                snapshotTempFile.delete();
+            }
+        }
+
+        if ( snapshotFile.isFile() && readFile( snapshotFile, true ) < 0 )
+        {
+            throw new IOException( "Task snapshot " + snapshotFile + " is corrupt!" );
+        }
+
+        journal = new RandomAccessFile( journalFile, "rw" ).getChannel();
+
+        final long validLength = journal.size() < HEADER_LENGTH ? -1 : readFile( journalFile, false );
+
+        if ( validLength < 0 )
+        {
+            // crashed while being created, or not a journal
+            writeHeader();
+        }
+        else if ( validLength < journal.size() )
+        {
+            logger.warn( "Task journal {} has a torn record at offset {}, dropping it.", journalFile, validLength );
+
+            journal.truncate( validLength );
+            journal.force( false );
+        }
+
+        journal.position( journal.size() );
+    }
+
+    /**
+     * Applies the records of the file, and returns the length of it's valid part, or -1 if it is not valid: has no
+     * header, or it is a snapshot not ending with it's end record.
+     * 
+     * @param file
+     * @param snapshot
+     * @return
+     * @throws IOException
+     */
+    protected long readFile( final File file, final boolean snapshot )
+        throws IOException
+    {
+        final ByteBuffer buffer;
+
+        final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+
+        try
+        {
+            final FileChannel channel = raf.getChannel();
+
+            buffer = ByteBuffer.allocate( (int) channel.size() );
+
+            while ( buffer.hasRemaining() && channel.read( buffer ) >= 0 )
+            {
+                // read it whole
+            }
+
+            buffer.flip();
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        if ( buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC )
+        {
+            return -1;
+        }
+
+        final CRC32 crc = new CRC32();
+
+        int records = 0;
+
+        while ( buffer.remaining() >= FRAME_LENGTH )
+        {
+            final int start = buffer.position();
+
+            final int length = buffer.getInt();
+
+            final int checksum = buffer.getInt();
+
+            if ( length <= 0 || length > MAX_RECORD_LENGTH || length > buffer.remaining() )
+            {
+                buffer.position( start );
+
+                break;
+            }
+
+            final byte[] record = new byte[length];
+
+            buffer.get( record );
+
+            crc.reset();
+            crc.update( record );
+
+            if ( (int) crc.getValue() != checksum )
+            {
+                buffer.position( start );
+
+                break;
+            }
+
+            if ( record[0] == END )
+            {
+                if ( snapshot )
+                {
+                    final ByteBuffer end = ByteBuffer.wrap( record );
+
+                    if ( record.length != 9 || end.getInt( 1 ) != records )
+                    {
+                        return -1;
+                    }
+
+                    idHighWaterMark = Math.max( idHighWaterMark, end.getInt( 5 ) );
+
+                    return buffer.position();
+                }
+
+                // never written into journals
+                buffer.position( start );
+
+                break;
+            }
+
+            apply( record );
+
+            records++;
+        }
+
+        if ( snapshot )
+        {
+            return -1;
+        }
+
+        journalRecords = records;
+
+        return buffer.position();
+    }
+
+    protected void apply( final byte[] record )
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) );
+
+        final byte op = in.readByte();
+
+        final String id = readString( in );
+
+        if ( op == ADD )
+        {
+            liveRecords.put( id, record );
+
+            raiseIdHighWaterMark( id );
+        }
+        else if ( op == REMOVE )
+        {
+            liveRecords.remove( id );
+        }
+        else
+        {
+            throw new IOException( "Unknown task record type " + op );
+        }
+    }
+
+    /**
+     * Appends the record to the journal. If the append fails, the journal is cut back to it's previous end, to not
+     * leave a torn record before the next ones. Must be called while holding the lock of this.
+     * 
+     * @param record
+     * @throws IllegalStateException if the record cannot be written.
+     */
+    protected void append( final byte[] record )
+        throws IllegalStateException
+    {
+        long end = -1;
+
+        try
+        {
+            end = journal.position();
+
+            final ByteBuffer buffer = frame( record );
+
+            while ( buffer.hasRemaining() )
+            {
+                journal.write( buffer );
+            }
+
+            if ( forceWrites )
+            {
+                journal.force( false );
+            }
+
+            journalRecords++;
+        }
+        catch ( IOException e )
+        {
+            if ( end >= 0 )
+            {
+                try
+                {
+                    journal.truncate( end );
+                    journal.position( end );
+                }
+                catch ( IOException ignore )
+                {
+                    // the torn record is dropped on next startup
+                }
+            }
+
+            throw new IllegalStateException( "Cannot append to the task journal " + journalFile, e );
+        }
+    }
+
+    /**
+     * Compacts the journal once it holds more records than the threshold and than there are tasks, hence the
+     * compactions cost constant time per change. Must be called while holding the lock of this.
+     */
+    protected void compactIfNeeded()
+    {
+        if ( journalRecords >= compactionThreshold && journalRecords >= liveRecords.size() )
+        {
+            try
+            {
+                compact();
+            }
+            catch ( IllegalStateException e )
+            {
+                // the journal is still complete, retried by the next change
+                logger.warn( "Cannot compact the task journal, will retry.", e );
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock of this.
+     * 
+     * @throws IOException
+     */
+    protected void writeSnapshot()
+        throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( snapshotTempFile, "rw" );
+
+        try
+        {
+            final FileChannel channel = raf.getChannel();
+
+            channel.truncate( 0 );
+
+            final ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+
+            header.putInt( MAGIC ).flip();
+
+            write( channel, header );
+
+            for ( byte[] record : liveRecords.values() )
+            {
+                write( channel, frame( record ) );
+            }
+
+            write( channel, frame( encodeEnd( liveRecords.size(), idHighWaterMark ) ) );
+
+            channel.force( true );
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        rename( snapshotTempFile, snapshotFile );
+    }
+
+    protected void writeHeader()
+        throws IOException
+    {
+        journal.truncate( 0 );
+
+        final ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+
+        header.putInt( MAGIC ).flip();
+
+        journal.position( 0 );
+
+        write( journal, header );
+
+        journal.force( false );
+
+        journalRecords = 0;
+    }
+
+    protected byte[] encode( final ScheduledTask<?> task )
+        throws IllegalArgumentException
+    {
+        try
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+
+            final DataOutputStream out = new DataOutputStream( bytes );
+
+            out.writeByte( ADD );
+            writeString( out, task.getId() );
+            writeString( out, task.getName() );
+            writeString( out, task.getType() );
+            out.writeBoolean( task.isEnabled() );
+            out.writeByte( task.getPriority().ordinal() );
+            writeSchedule( out, task.getSchedule() );
+
+            // sorted, to have the same bytes for the same parameters
+            final Map<String, String> params = new TreeMap<String, String>( task.getTaskParams() );
+
+            out.writeInt( params.size() );
+
+            for ( Map.Entry<String, String> param : params.entrySet() )
+            {
+                writeString( out, param.getKey() );
+                writeString( out, param.getValue() );
+            }
+
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+        catch ( IOException e )
+        {
+            // not happening with byte arrays
+            throw new IllegalStateException( e );
+        }
+    }
+
+    protected TaskRecord decode( final byte[] record )
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) );
+
+        in.readByte();
+
+        final String id = readString( in );
+        final String name = readString( in );
+        final String type = readString( in );
+        final boolean enabled = in.readBoolean();
+        final TaskPriority priority = TaskPriority.values()[in.readByte()];
+        final Schedule schedule = readSchedule( in );
+
+        final int paramCount = in.readInt();
+
+        final Map<String, String> params = new HashMap<String, String>( paramCount * 2 );
+
+        for ( int i = 0; i < paramCount; i++ )
+        {
+            params.put( readString( in ), readString( in ) );
+        }
+
+        return new TaskRecord( id, name, type, enabled, priority, schedule, params );
+    }
+
+    protected void writeSchedule( final DataOutputStream out, final Schedule schedule )
+        throws IOException, IllegalArgumentException
+    {
+        final Class<?> clazz = schedule == null ? null : schedule.getClass();
+
+        // exact classes only, subclasses would be recreated as their superclass
+        if ( ManualRunSchedule.class.equals( clazz ) )
+        {
+            out.writeByte( 1 );
+        }
+        else if ( RunNowSchedule.class.equals( clazz ) )
+        {
+            out.writeByte( 2 );
+        }
+        else if ( OnceSchedule.class.equals( clazz ) )
+        {
+            out.writeByte( 3 );
+            writeDate( out, ( (OnceSchedule) schedule ).getStartDate() );
+        }
+        else if ( HourlySchedule.class.equals( clazz ) || DailySchedule.class.equals( clazz ) )
+        {
+            out.writeByte( HourlySchedule.class.equals( clazz ) ? 4 : 5 );
+            writeDate( out, ( (AbstractSchedule) schedule ).getStartDate() );
+            writeDate( out, ( (AbstractSchedule) schedule ).getEndDate() );
+        }
+        else if ( WeeklySchedule.class.equals( clazz ) || MonthlySchedule.class.equals( clazz ) )
+        {
+            final boolean weekly = WeeklySchedule.class.equals( clazz );
+
+            final Set<Integer> days =
+                new TreeSet<Integer>( weekly ? ( (WeeklySchedule) schedule ).getDaysToRun()
+                                : ( (MonthlySchedule) schedule ).getDaysToRun() );
+
+            out.writeByte( weekly ? 6 : 7 );
+            writeDate( out, ( (AbstractSchedule) schedule ).getStartDate() );
+            writeDate( out, ( (AbstractSchedule) schedule ).getEndDate() );
+            out.writeInt( days.size() );
+
+            for ( Integer day : days )
+            {
+                out.writeInt( day );
+            }
+        }
+        else if ( CronSchedule.class.equals( clazz ) )
+        {
+            out.writeByte( 8 );
+            writeString( out, ( (CronSchedule) schedule ).getCronString() );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Schedule " + clazz + " cannot be persisted" );
+        }
+    }
+
+    protected Schedule readSchedule( final DataInputStream in )
+        throws IOException
+    {
+        final byte kind = in.readByte();
+
+        switch ( kind )
+        {
+            case 1:
+                return new ManualRunSchedule();
+            case 2:
+                return new RunNowSchedule();
+            case 3:
+                return new OnceSchedule( readDate( in ) );
+            case 4:
+                return new HourlySchedule( readDate( in ), readDate( in ) );
+            case 5:
+                return new DailySchedule( readDate( in ), readDate( in ) );
+            case 6:
+            case 7:
+                final Date startDate = readDate( in );
+                final Date endDate = readDate( in );
+                final Set<Integer> days = new TreeSet<Integer>();
+                final int dayCount = in.readInt();
+
+                for ( int i = 0; i < dayCount; i++ )
+                {
+                    days.add( in.readInt() );
+                }
+
+                return kind == 6 ? new WeeklySchedule( startDate, endDate, days )
+                                : new MonthlySchedule( startDate, endDate, days );
+            case 8:
+                final String cronString = readString( in );
+
+                try
+                {
+                    return new CronSchedule( cronString );
+                }
+                catch ( ParseException e )
+                {
+                    throw new IOException( "Invalid persisted cron expression \"" + cronString + "\": "
+                        + e.getMessage() );
+                }
+            default:
+                throw new IOException( "Unknown persisted schedule type " + kind );
+        }
+    }
+
+    // ==
+
+    private void rename( final File from, final File to )
+        throws IOException
+    {
+        // renaming over an existing file fails on some platforms
+        if ( !from.renameTo( to ) && !( to.delete() && from.renameTo( to ) ) )
+        {
+            throw new IOException( "Cannot rename " + from + " to " + to );
+        }
+    }
+
+    private static void write( final FileChannel channel, final ByteBuffer buffer )
+        throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+    }
+
+    private static ByteBuffer frame( final byte[] record )
+    {
+        final CRC32 crc = new CRC32();
+
+        crc.update( record );
+
+        final ByteBuffer buffer = ByteBuffer.allocate( FRAME_LENGTH + record.length );
+
+        buffer.putInt( record.length ).putInt( (int) crc.getValue() ).put( record ).flip();
+
+        return buffer;
+    }
+
+    private static byte[] encodeRemoval( final String id )
+    {
+        try
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 32 );
+
+            final DataOutputStream out = new DataOutputStream( bytes );
+
+            out.writeByte( REMOVE );
+            writeString( out, id );
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static byte[] encodeEnd( final int count, final int idHighWaterMark )
+    {
+        return ByteBuffer.allocate( 9 ).put( END ).putInt( count ).putInt( idHighWaterMark ).array();
+    }
+
+    private static <T> TaskDefinition<T> createDefinition( final TaskRecord taskRecord, final SchedulerTask<T> callable )
+    {
+        return new TaskDefinition<T>( taskRecord.getId(), taskRecord.getName(), taskRecord.getType(), callable,
+            taskRecord.getSchedule(), taskRecord.isEnabled(), taskRecord.getPriority() );
+    }
+
+    /**
+     * Must be called while holding the lock of this.
+     * 
+     * @param id
+     */
+    private void raiseIdHighWaterMark( final String id )
+    {
+        try
+        {
+            idHighWaterMark = Math.max( idHighWaterMark, Integer.parseInt( id ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            // non number IDs do not clash with the generated ones
+        }
+    }
+
+    private static void writeString( final DataOutputStream out, final String value )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            // not writeUTF(), limited to 64k bytes
+            final byte[] bytes = value.getBytes( "UTF-8" );
+
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    private static String readString( final DataInputStream in )
+        throws IOException
+    {
+        final int length = in.readInt();
+
+        if ( length < 0 )
+        {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+
+        in.readFully( bytes );
+
+        return new String( bytes, "UTF-8" );
+    }
+
+    private static void writeDate( final DataOutputStream out, final Date date )
+        throws IOException
+    {
+        out.writeBoolean( date != null );
+
+        if ( date != null )
+        {
+            out.writeLong( date.getTime() );
+        }
+    }
+
+    private static Date readDate( final DataInputStream in )
+        throws IOException
+    {
+        return in.readBoolean() ? new Date( in.readLong() ) : null;
+    }
+
+    /**
+     * The persisted properties of a task.
+     */
+    protected static class TaskRecord
+    {
+        private final String id;
+
+        private final String name;
+
+        private final String type;
+
+        private final boolean enabled;
+
+        private final TaskPriority priority;
+
+        private final Schedule schedule;
+
+        private final Map<String, String> params;
+
+        public TaskRecord( final String id, final String name, final String type, final boolean enabled,
+                           final TaskPriority priority, final Schedule schedule, final Map<String, String> params )
+        {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.enabled = enabled;
+            this.priority = priority;
+            this.schedule = schedule;
+            this.params = params;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public TaskPriority getPriority()
+        {
+            return priority;
+        }
+
+        public Schedule getSchedule()
+        {
+            return schedule;
+        }
+
+        public Map<String, String> getParams()
+        {
+            return params;
+        }
+    }
+}
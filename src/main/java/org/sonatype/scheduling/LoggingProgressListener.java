@@ -4,12 +4,14 @@ import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A simple progress listener that logs messages into SLF4J API at Info level.
+ * A simple progress listener that logs messages into SLF4J API at Info level. It is thread safe, so it may be shared by
+ * the subtasks of a task (see {@link ParallelSubtasks}).
  * 
  * @author cstamas
  */
@@ -20,6 +22,9 @@ public class LoggingProgressListener
 
     private final Logger logger;
 
+    /**
+     * The stack of workunits, guarded by itself.
+     */
     private final Deque<Workunit> workunits;
 
     private volatile boolean canceled = false;
@@ -43,15 +48,22 @@ public class LoggingProgressListener
 
     public void beginTask( final String name, final int toDo )
     {
-        workunits.push( new Workunit( name, toDo ) );
+        final String wus;
+
+        synchronized ( workunits )
+        {
+            workunits.push( new Workunit( name, toDo ) );
+
+            wus = getStackedWorkunitNames();
+        }
 
         if ( UNKNOWN_WORKUNITS != toDo )
         {
-            log( "{}: started ({} steps).", getStackedWorkunitNames(), toDo );
+            log( "{}: started ({} steps).", wus, toDo );
         }
         else
         {
-            log( "{}: started.", getStackedWorkunitNames() );
+            log( "{}: started.", wus );
         }
     }
 
@@ -67,34 +79,48 @@ public class LoggingProgressListener
 
     public void working( final String message, final int workDone )
     {
-        final Workunit wu = workunits.peek();
+        final Workunit wu;
+
+        final String wus;
+
+        synchronized ( workunits )
+        {
+            wu = workunits.peek();
+
+            wus = getStackedWorkunitNames();
+        }
 
-        wu.done( workDone );
+        final int done = wu.done( workDone );
 
         if ( message != null && message.trim().length() > 0 )
         {
             if ( UNKNOWN_WORKUNITS != wu.getToDo() )
             {
-                log(
-                    "{}: {} ({}/{})",
-                    new Object[] { getStackedWorkunitNames(), nvl( message ), String.valueOf( wu.getDone() ),
-                        String.valueOf( wu.getToDo() ) } );
+                log( "{}: {} ({}/{})",
+                    new Object[] { wus, nvl( message ), String.valueOf( done ), String.valueOf( wu.getToDo() ) } );
             }
             else
             {
-                log( "{}: {} ({})", new Object[] { getStackedWorkunitNames(), nvl( message ), wu.getDone() } );
+                log( "{}: {} ({})", new Object[] { wus, nvl( message ), done } );
             }
         }
     }
 
     public void endTask( final String message )
     {
-        log( "{}: finished: {}", getStackedWorkunitNames(), nvl( message ) );
+        final String wus;
 
-        if ( workunits.size() > 1 )
+        synchronized ( workunits )
         {
-            workunits.pop();
+            wus = getStackedWorkunitNames();
+
+            if ( workunits.size() > 1 )
+            {
+                workunits.pop();
+            }
         }
+
+        log( "{}: finished: {}", wus, nvl( message ) );
     }
 
     public boolean isCanceled()
@@ -104,7 +130,12 @@ public class LoggingProgressListener
 
     public void cancel()
     {
-        final String wus = getStackedWorkunitNames();
+        final String wus;
+
+        synchronized ( workunits )
+        {
+            wus = getStackedWorkunitNames();
+        }
 
         if ( wus != null && wus.trim().length() > 0 )
         {
@@ -125,6 +156,11 @@ public class LoggingProgressListener
         return String.valueOf( str );
     }
 
+    /**
+     * Returns the names of the stacked workunits, must be called while holding the lock of {@link #workunits}.
+     * 
+     * @return
+     */
     protected String getStackedWorkunitNames()
     {
         Iterator<Workunit> wi = workunits.descendingIterator();
@@ -168,13 +204,13 @@ public class LoggingProgressListener
 
         private final int toDo;
 
-        private int done;
+        private final AtomicInteger done;
 
         public Workunit( final String name, final int toDo )
         {
             this.name = name;
             this.toDo = toDo;
-            this.done = 0;
+            this.done = new AtomicInteger( 0 );
         }
 
         public String getName()
@@ -189,12 +225,18 @@ public class LoggingProgressListener
 
         public int getDone()
         {
-            return done;
+            return done.get();
         }
 
-        public void done( int done )
+        /**
+         * Adds the given count to the done work-units, and returns the sum.
+         * 
+         * @param done
+         * @return
+         */
+        public int done( int done )
         {
-            this.done += done;
+            return this.done.addAndGet( done );
         }
     }
 }
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the chunks of the work of a task in parallel, on the scheduler's worker threads, and collects their results in
+ * order of the chunks. Meant to be created and called by the task body (or by a chunk of it), as the executor and the
+ * progress listener of the current task are captured on creation.
+ * <p>
+ * Each chunk runs with it's own {@link SubtaskProgressListener} as current, rolling up into the progress listener of
+ * the task, hence {@link TaskUtil#checkInterruption()} and {@link TaskUtil#getCurrentProgressListener()} called from
+ * the chunk behave as in the task body. The thread calling {@link #call()} runs chunks too instead of just waiting, so
+ * the chunks progress even if all the worker threads are busy. If some chunk fails, the chunks not yet started are
+ * skipped, the running ones are canceled, and the failure is thrown once all of them are done.
+ */
+public class ParallelSubtasks<R>
+    implements Callable<List<R>>
+{
+    private final String name;
+
+    private final List<? extends Callable<R>> chunks;
+
+    private final int parallelism;
+
+    private final Executor executor;
+
+    private final ProgressListener progressListener;
+
+    private final AtomicInteger nextChunk;
+
+    private final CountDownLatch chunksDone;
+
+    private final AtomicReference<Throwable> failure;
+
+    private final Object[] results;
+
+    /**
+     * Creates the subtasks of current task.
+     *
+     * @param name the name of subtasks, the chunks are reported as "name #index".
+     * @param chunks
+     * @param parallelism the maximal count of threads running the chunks at once, including the calling one.
+     */
+    public ParallelSubtasks( final String name, final List<? extends Callable<R>> chunks, final int parallelism )
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "Parallelism must be positive: " + parallelism );
+        }
+
+        this.name = name;
+        this.chunks = new ArrayList<Callable<R>>( chunks );
+        this.parallelism = parallelism;
+        this.executor = TaskUtil.getCurrentExecutor();
+        this.progressListener = TaskUtil.getCurrentProgressListener();
+        this.nextChunk = new AtomicInteger( 0 );
+        this.chunksDone = new CountDownLatch( this.chunks.size() );
+        this.failure = new AtomicReference<Throwable>();
+        this.results = new Object[this.chunks.size()];
+    }
+
+    /**
+     * Runs the chunks, and returns their results in order of the chunks. Must be called once.
+     *
+     * @return
+     * @throws Exception the failure of the first failed chunk.
+     */
+    @SuppressWarnings( "unchecked" )
+    public List<R> call()
+        throws Exception
+    {
+        final int helpers = Math.min( parallelism, chunks.size() ) - 1;
+
+        for ( int i = 0; i < helpers; i++ )
+        {
+            try
+            {
+                executor.execute( new ChunkRunner() );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // scheduler is shutting down, the calling thread runs the rest
+                break;
+            }
+        }
+
+        new ChunkRunner().run();
+
+        try
+        {
+            chunksDone.await();
+        }
+        catch ( InterruptedException e )
+        {
+            failure.compareAndSet( null, e );
+
+            Thread.currentThread().interrupt();
+
+            throw new TaskInterruptedException( "Thread \"" + Thread.currentThread().getName()
+                + "\" is interrupted!", false );
+        }
+
+        final Throwable cause = failure.get();
+
+        if ( cause instanceof Exception )
+        {
+            throw (Exception) cause;
+        }
+        else if ( cause != null )
+        {
+            throw new TaskExecutionException( cause );
+        }
+
+        return (List<R>) Arrays.asList( results );
+    }
+
+    // ==
+
+    protected void runChunk( final int index )
+    {
+        final ProgressListener chunkProgressListener =
+            new SubtaskProgressListener( progressListener, name + " #" + index )
+            {
+                @Override
+                public boolean isCanceled()
+                {
+                    return failure.get() != null || super.isCanceled();
+                }
+            };
+
+        // the chunk may be run by the thread of the task body, hence it's current ones are restored afterwards
+        final ProgressListener previousProgressListener = TaskUtil.swapCurrent( chunkProgressListener );
+
+        final Executor previousExecutor = TaskUtil.swapCurrentExecutor( executor );
+
+        try
+        {
+            TaskUtil.checkInterruption();
+
+            results[index] = chunks.get( index ).call();
+        }
+        catch ( Throwable e )
+        {
+            failure.compareAndSet( null, e );
+        }
+        finally
+        {
+            TaskUtil.swapCurrent( previousProgressListener );
+
+            TaskUtil.swapCurrentExecutor( previousExecutor );
+
+            chunksDone.countDown();
+        }
+    }
+
+    /**
+     * Runs the chunks not yet taken by other threads, one by one.
+     */
+    protected class ChunkRunner
+        implements Runnable
+    {
+        public void run()
+        {
+            for ( int index = nextChunk.getAndIncrement(); index < chunks.size(); index = nextChunk.getAndIncrement() )
+            {
+                runChunk( index );
+            }
+        }
+    }
+}
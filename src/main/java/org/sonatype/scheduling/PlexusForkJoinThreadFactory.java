@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the worker threads of a {@link ForkJoinPool} the way {@link PlexusThreadFactory} does for other pools. Kept
+ * apart from the scheduler, as this class (needing Java 7) is loaded only when a fork/join pool is used.
+ */
+public class PlexusForkJoinThreadFactory
+    implements ForkJoinPool.ForkJoinWorkerThreadFactory
+{
+    private static final AtomicInteger poolNumber = new AtomicInteger( 1 );
+
+    private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+    private final String namePrefix;
+
+    private final int threadPriority;
+
+    public PlexusForkJoinThreadFactory( final int threadPriority )
+    {
+        this.namePrefix = "pxfj-" + poolNumber.getAndIncrement() + "-thread-";
+
+        this.threadPriority = threadPriority;
+    }
+
+    public ForkJoinWorkerThread newThread( final ForkJoinPool pool )
+    {
+        final ForkJoinWorkerThread result = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+
+        result.setName( namePrefix + threadNumber.getAndIncrement() );
+
+        result.setDaemon( false );
+
+        result.setPriority( threadPriority );
+
+        return result;
+    }
+
+    /**
+     * Creates a fork/join pool of given parallelism having threads made by this factory.
+     * 
+     * @param parallelism
+     * @return
+     */
+    public ExecutorService newPool( final int parallelism )
+    {
+        return new ForkJoinPool( parallelism, this, null, false );
+    }
+}
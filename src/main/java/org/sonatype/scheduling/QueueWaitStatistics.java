@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the time due tasks spent waiting for a free worker thread.
+ */
+public class QueueWaitStatistics
+{
+    private final AtomicLong count = new AtomicLong( 0 );
+
+    private final AtomicLong totalWaitNanos = new AtomicLong( 0 );
+
+    private final AtomicLong maxWaitNanos = new AtomicLong( 0 );
+
+    protected void record( final long waitNanos )
+    {
+        count.incrementAndGet();
+        totalWaitNanos.addAndGet( waitNanos );
+
+        long max = maxWaitNanos.get();
+
+        while ( waitNanos > max && !maxWaitNanos.compareAndSet( max, waitNanos ) )
+        {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Returns the count of tasks started.
+     *
+     * @return
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the total time the started tasks waited, in milliseconds.
+     *
+     * @return
+     */
+    public long getTotalWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( totalWaitNanos.get() );
+    }
+
+    /**
+     * Returns the longest time a started task waited, in milliseconds.
+     *
+     * @return
+     */
+    public long getMaxWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxWaitNanos.get() );
+    }
+
+    /**
+     * Returns the average time the started tasks waited, in milliseconds.
+     *
+     * @return
+     */
+    public long getAverageWaitMillis()
+    {
+        final long count = getCount();
+
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis( totalWaitNanos.get() / count );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count=" + getCount() + ", avg=" + getAverageWaitMillis() + "ms, max=" + getMaxWaitMillis() + "ms";
+    }
+}
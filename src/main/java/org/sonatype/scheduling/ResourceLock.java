@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * A lock on a resource needed by a task to run, like {@code "repo:central"}. Shared locks of a resource may be held by
+ * any number of tasks at once, while an exclusive lock excludes any other lock of the same resource.
+ *
+ * @see ResourceLockingTask
+ */
+public class ResourceLock
+{
+    public enum Mode
+    {
+        SHARED, EXCLUSIVE;
+    }
+
+    private final String key;
+
+    private final Mode mode;
+
+    public ResourceLock( final String key, final Mode mode )
+    {
+        if ( key == null || mode == null )
+        {
+            throw new NullPointerException( "Resource lock key and mode cannot be null!" );
+        }
+
+        this.key = key;
+        this.mode = mode;
+    }
+
+    public static ResourceLock shared( final String key )
+    {
+        return new ResourceLock( key, Mode.SHARED );
+    }
+
+    public static ResourceLock exclusive( final String key )
+    {
+        return new ResourceLock( key, Mode.EXCLUSIVE );
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    public boolean isExclusive()
+    {
+        return Mode.EXCLUSIVE.equals( mode );
+    }
+
+    @Override
+    public boolean equals( final Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+
+        if ( !( o instanceof ResourceLock ) )
+        {
+            return false;
+        }
+
+        final ResourceLock other = (ResourceLock) o;
+
+        return key.equals( other.key ) && mode.equals( other.mode );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * key.hashCode() + mode.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return key + "(" + mode + ")";
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grants {@link ResourceLock}s to their owners (tasks). All the locks of an owner are granted at once or none of them,
+ * hence no owner ever holds some locks while waiting for others, and deadlock is not possible. Requests that cannot
+ * be granted are queued per resource in FIFO order, and a request is never granted before an earlier conflicting one,
+ * hence exclusive requests are not starved by a stream of shared ones. Acquiring and releasing costs are proportional
+ * to the count of the requested resources (and the requests waiting for them), not to the count of all tasks.
+ * <p>
+ * Acquiring is not blocking: when a request cannot be granted immediately, it is queued, and it's callback is invoked
+ * once it gets granted on release of some other request. The callback is invoked outside of any lock held by this
+ * manager.
+ */
+public class ResourceLockManager
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    /**
+     * The requests (granted or waiting) by their owners. Guarded by this.
+     */
+    private final Map<Object, Request> requests = new HashMap<Object, Request>();
+
+    /**
+     * The state of every resource being held or waited for. Guarded by this.
+     */
+    private final Map<String, Resource> resources = new HashMap<String, Resource>();
+
+    /**
+     * The arrival order of the requests. Guarded by this.
+     */
+    private long sequenceGenerator = 0;
+
+    /**
+     * Tries to acquire all the locks at once for the given owner. If the owner already has a request, no new request is
+     * made, and the return value tells whether that request has been granted already. Otherwise, if the locks cannot
+     * be granted right now, the request is queued, and the callback is invoked when it gets granted later.
+     *
+     * @param owner the owner of the locks, to be used to release them
+     * @param locks the locks to acquire
+     * @param onGrant the callback to invoke when a queued request gets granted, may be {@code null}
+     * @return {@code true} if the owner holds the locks when the method returns.
+     */
+    public synchronized boolean acquire( final Object owner, final Collection<ResourceLock> locks,
+                                         final Runnable onGrant )
+    {
+        final Request existing = requests.get( owner );
+
+        if ( existing != null )
+        {
+            return existing.granted;
+        }
+
+        final Request request = new Request( sequenceGenerator++, owner, locks, onGrant );
+
+        requests.put( owner, request );
+
+        for ( Map.Entry<String, Boolean> lock : request.locks.entrySet() )
+        {
+            getResource( lock.getKey() ).waiters.add( request );
+        }
+
+        if ( isGrantable( request ) )
+        {
+            grant( request );
+        }
+        else if ( logger.isDebugEnabled() )
+        {
+            logger.debug( "Resource locks {} of {} are queued.", locks, owner );
+        }
+
+        return request.granted;
+    }
+
+    /**
+     * Returns true if the owner holds it's locks.
+     *
+     * @param owner
+     * @return
+     */
+    public synchronized boolean isGranted( final Object owner )
+    {
+        final Request request = requests.get( owner );
+
+        return request != null && request.granted;
+    }
+
+    /**
+     * Releases the locks held by the owner, or cancels it's queued request. Requests that become grantable are granted
+     * and their callbacks are invoked. Does nothing if the owner has no request.
+     *
+     * @param owner
+     */
+    public void release( final Object owner )
+    {
+        final List<Request> granted = new ArrayList<Request>();
+
+        synchronized ( this )
+        {
+            final Request request = requests.remove( owner );
+
+            if ( request == null )
+            {
+                return;
+            }
+
+            // the requests that might be waiting for the released resources, in FIFO order per resource
+            final Set<Request> candidates = new HashSet<Request>();
+
+            for ( Map.Entry<String, Boolean> lock : request.locks.entrySet() )
+            {
+                final Resource resource = resources.get( lock.getKey() );
+
+                if ( request.granted )
+                {
+                    if ( lock.getValue() )
+                    {
+                        resource.exclusiveHolder = null;
+                    }
+                    else
+                    {
+                        resource.sharedHolders--;
+                    }
+                }
+                else
+                {
+                    resource.waiters.remove( request );
+                }
+
+                candidates.addAll( resource.waiters );
+
+                if ( resource.isUnused() )
+                {
+                    resources.remove( lock.getKey() );
+                }
+            }
+
+            // grant in arrival order, as earlier grants may prevent later ones
+            final List<Request> ordered = new ArrayList<Request>( candidates );
+
+            Collections.sort( ordered, Request.ARRIVAL_ORDER );
+
+            for ( Request candidate : ordered )
+            {
+                if ( isGrantable( candidate ) )
+                {
+                    grant( candidate );
+
+                    granted.add( candidate );
+                }
+            }
+        }
+
+        for ( Request request : granted )
+        {
+            if ( request.onGrant != null )
+            {
+                try
+                {
+                    request.onGrant.run();
+                }
+                catch ( RuntimeException e )
+                {
+                    logger.warn( "Resource lock grant callback of " + request.owner + " failed!", e );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the count of owners holding their locks.
+     *
+     * @return
+     */
+    public synchronized int getGrantedCount()
+    {
+        int count = 0;
+
+        for ( Request request : requests.values() )
+        {
+            if ( request.granted )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the count of owners waiting for their locks.
+     *
+     * @return
+     */
+    public synchronized int getWaitingCount()
+    {
+        return requests.size() - getGrantedCount();
+    }
+
+    // ==
+
+    private Resource getResource( final String key )
+    {
+        Resource resource = resources.get( key );
+
+        if ( resource == null )
+        {
+            resource = new Resource();
+
+            resources.put( key, resource );
+        }
+
+        return resource;
+    }
+
+    /**
+     * A request is grantable if none of it's locks conflicts with the holders, nor with the requests queued before it.
+     */
+    private boolean isGrantable( final Request request )
+    {
+        for ( Map.Entry<String, Boolean> lock : request.locks.entrySet() )
+        {
+            final Resource resource = resources.get( lock.getKey() );
+
+            final boolean exclusive = lock.getValue();
+
+            if ( resource.exclusiveHolder != null || ( exclusive && resource.sharedHolders > 0 ) )
+            {
+                return false;
+            }
+
+            for ( Request waiter : resource.waiters )
+            {
+                if ( waiter == request )
+                {
+                    break;
+                }
+
+                if ( exclusive || waiter.locks.get( lock.getKey() ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void grant( final Request request )
+    {
+        for ( Map.Entry<String, Boolean> lock : request.locks.entrySet() )
+        {
+            final Resource resource = resources.get( lock.getKey() );
+
+            resource.waiters.remove( request );
+
+            if ( lock.getValue() )
+            {
+                resource.exclusiveHolder = request;
+            }
+            else
+            {
+                resource.sharedHolders++;
+            }
+        }
+
+        request.granted = true;
+    }
+
+    private static class Resource
+    {
+        private Request exclusiveHolder;
+
+        private int sharedHolders;
+
+        private final LinkedList<Request> waiters = new LinkedList<Request>();
+
+        private boolean isUnused()
+        {
+            return exclusiveHolder == null && sharedHolders == 0 && waiters.isEmpty();
+        }
+    }
+
+    private static class Request
+    {
+        private static final Comparator<Request> ARRIVAL_ORDER = new Comparator<Request>()
+        {
+            public int compare( final Request r1, final Request r2 )
+            {
+                return r1.sequence < r2.sequence ? -1 : ( r1.sequence == r2.sequence ? 0 : 1 );
+            }
+        };
+
+        private final long sequence;
+
+        private final Object owner;
+
+        /**
+         * The resource keys, mapped to whether they are locked exclusively. A key requested both shared and exclusive
+         * is locked exclusively.
+         */
+        private final Map<String, Boolean> locks = new LinkedHashMap<String, Boolean>();
+
+        private final Runnable onGrant;
+
+        private boolean granted;
+
+        private Request( final long sequence, final Object owner, final Collection<ResourceLock> locks,
+                         final Runnable onGrant )
+        {
+            this.sequence = sequence;
+            this.owner = owner;
+            this.onGrant = onGrant;
+
+            for ( Iterator<ResourceLock> i = locks.iterator(); i.hasNext(); )
+            {
+                final ResourceLock lock = i.next();
+
+                final Boolean exclusive = this.locks.get( lock.getKey() );
+
+                this.locks.put( lock.getKey(), ( exclusive != null && exclusive ) || lock.isExclusive() );
+            }
+        }
+    }
+}
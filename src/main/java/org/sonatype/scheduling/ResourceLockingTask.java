@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A task (the callable submitted to scheduler) that declares the resources it needs to run. All the locks are granted
+ * to the task at once by the {@link ResourceLockManager} before it starts, and are released when it's run finishes.
+ * Until then, the task is SLEEPING. For tasks declaring locks, this replaces the
+ * {@link SchedulerTask#allowConcurrentExecution(Map)} check.
+ */
+public interface ResourceLockingTask
+{
+    /**
+     * Returns the locks this task needs to run. Returning {@code null} means the task does not use locking, and the
+     * {@link SchedulerTask#allowConcurrentExecution(Map)} check applies.
+     *
+     * @return
+     */
+    Collection<ResourceLock> getResourceLocks();
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a task retained as it's {@link ResultRetention} tells: a ring buffer overwriting the oldest result
+ * once full, hence a recurring task keeps a bounded count of results. The buffer grows up to it's capacity as needed,
+ * so tasks returning few results do not hold a large array.
+ */
+public class ResultBuffer<T>
+{
+    private static final int INITIAL_SIZE = 8;
+
+    private final ResultRetention retention;
+
+    private Object[] results;
+
+    private long[] timestamps;
+
+    /**
+     * The index of the oldest result.
+     */
+    private int head;
+
+    private int size;
+
+    public ResultBuffer( final ResultRetention retention )
+    {
+        this.retention = retention;
+        this.results = new Object[0];
+        this.timestamps = new long[0];
+        this.head = 0;
+        this.size = 0;
+    }
+
+    public ResultRetention getRetention()
+    {
+        return retention;
+    }
+
+    /**
+     * Retains the result, dropping the oldest one if the buffer is full.
+     *
+     * @param result
+     */
+    public synchronized void add( final T result )
+    {
+        add( result, System.currentTimeMillis() );
+    }
+
+    /**
+     * Returns the results retained, oldest first.
+     *
+     * @return
+     */
+    public synchronized List<T> toList()
+    {
+        expire( System.currentTimeMillis() );
+
+        if ( size == 0 )
+        {
+            return Collections.emptyList();
+        }
+
+        final List<T> list = new ArrayList<T>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            list.add( get( i ) );
+        }
+
+        return list;
+    }
+
+    public synchronized int size()
+    {
+        expire( System.currentTimeMillis() );
+
+        return size;
+    }
+
+    /**
+     * Returns a buffer of the given retention, retaining the results of this buffer it allows.
+     *
+     * @param retention
+     * @return
+     */
+    public synchronized ResultBuffer<T> withRetention( final ResultRetention retention )
+    {
+        final ResultBuffer<T> buffer = new ResultBuffer<T>( retention );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            buffer.add( get( i ), timestamps[index( i )] );
+        }
+
+        buffer.expire( System.currentTimeMillis() );
+
+        return buffer;
+    }
+
+    // ==
+
+    @SuppressWarnings( "unchecked" )
+    protected T get( final int i )
+    {
+        return (T) results[index( i )];
+    }
+
+    protected int index( final int i )
+    {
+        return ( head + i ) % results.length;
+    }
+
+    protected void add( final T result, final long timestamp )
+    {
+        final int capacity = retention.getMaxResults();
+
+        if ( capacity == 0 )
+        {
+            return;
+        }
+
+        expire( timestamp );
+
+        if ( size == results.length && size < capacity )
+        {
+            grow( capacity );
+        }
+
+        if ( size < results.length )
+        {
+            results[index( size )] = result;
+            timestamps[index( size )] = timestamp;
+            size++;
+        }
+        else
+        {
+            // full: overwrite the oldest
+            results[head] = result;
+            timestamps[head] = timestamp;
+            head = ( head + 1 ) % results.length;
+        }
+    }
+
+    protected void grow( final int capacity )
+    {
+        final int length = (int) Math.min( capacity, Math.max( INITIAL_SIZE, results.length * 2L ) );
+
+        final Object[] grownResults = new Object[length];
+        final long[] grownTimestamps = new long[length];
+
+        for ( int i = 0; i < size; i++ )
+        {
+            grownResults[i] = results[index( i )];
+            grownTimestamps[i] = timestamps[index( i )];
+        }
+
+        results = grownResults;
+        timestamps = grownTimestamps;
+        head = 0;
+    }
+
+    /**
+     * Drops the results older than the time to live.
+     *
+     * @param now
+     */
+    protected void expire( final long now )
+    {
+        final long timeToLive = retention.getTimeToLiveMillis();
+
+        if ( timeToLive == 0 )
+        {
+            return;
+        }
+
+        while ( size > 0 && now - timestamps[head] > timeToLive )
+        {
+            results[head] = null;
+            head = ( head + 1 ) % results.length;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Tells which results of a task are retained, see {@link ScheduledTask#getResults()}: up to a count of the last
+ * results, and optionally those younger than a time to live only. To have the results streamed instead of retained,
+ * use {@link #none()} and consume them with {@link ScheduledTaskListener#runCompleted(ScheduledTask, Object, Throwable)}.
+ */
+public class ResultRetention
+{
+    private static final ResultRetention NONE = new ResultRetention( 0, 0 );
+
+    private static final ResultRetention UNLIMITED = new ResultRetention( Integer.MAX_VALUE, 0 );
+
+    private final int maxResults;
+
+    private final long timeToLiveMillis;
+
+    protected ResultRetention( final int maxResults, final long timeToLiveMillis )
+    {
+        if ( maxResults < 0 )
+        {
+            throw new IllegalArgumentException( "Count of retained results cannot be negative: " + maxResults );
+        }
+
+        if ( timeToLiveMillis < 0 )
+        {
+            throw new IllegalArgumentException( "Time to live of results cannot be negative: " + timeToLiveMillis );
+        }
+
+        this.maxResults = maxResults;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * No result is retained.
+     *
+     * @return
+     */
+    public static ResultRetention none()
+    {
+        return NONE;
+    }
+
+    /**
+     * All the results are retained, for the lifetime of the task.
+     *
+     * @return
+     */
+    public static ResultRetention unlimited()
+    {
+        return UNLIMITED;
+    }
+
+    /**
+     * The last given count of results are retained.
+     *
+     * @param maxResults
+     * @return
+     */
+    public static ResultRetention lastResults( final int maxResults )
+    {
+        return lastResults( maxResults, 0 );
+    }
+
+    /**
+     * The last given count of results are retained, for given time at most.
+     *
+     * @param maxResults
+     * @param timeToLiveMillis the time a result is retained for, zero means forever.
+     * @return
+     */
+    public static ResultRetention lastResults( final int maxResults, final long timeToLiveMillis )
+    {
+        return new ResultRetention( maxResults, timeToLiveMillis );
+    }
+
+    /**
+     * Returns the count of the last results retained, {@link Integer#MAX_VALUE} if not limited.
+     *
+     * @return
+     */
+    public int getMaxResults()
+    {
+        return maxResults;
+    }
+
+    /**
+     * Returns the time a result is retained for in milliseconds, zero if forever.
+     *
+     * @return
+     */
+    public long getTimeToLiveMillis()
+    {
+        return timeToLiveMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ResultRetention(maxResults=" + ( maxResults == Integer.MAX_VALUE ? "unlimited" : maxResults )
+            + ", timeToLiveMillis=" + timeToLiveMillis + ")";
+    }
+}
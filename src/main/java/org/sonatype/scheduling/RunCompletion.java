@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The completion of one run of a task, see {@link #getRunCompletion(ScheduledTask)}. Kept apart from the task and its
+ * interface, as this class (needing Java 8) is loaded only when a completion stage is asked for, while the scheduler
+ * itself runs on Java 5.
+ */
+public class RunCompletion<T>
+{
+    private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+    /**
+     * Returns a stage completed when the run of the task ending next ends: with its result, or exceptionally with its
+     * failure. Unlike {@link ScheduledTask#get()}, it follows the runs of recurring tasks too, as each run has a stage
+     * of its own, and the stage returned while the task runs is the one of the current run. The stage is completed by
+     * the worker thread that ran the task, hence dependent actions not given an executor are run by that thread. If no
+     * run is to come (the task ended), the stage is completed exceptionally with
+     * {@link java.util.concurrent.CancellationException}. Needs Java 8.
+     * 
+     * @param task a task of {@link DefaultScheduler}.
+     * @return
+     * @throws IllegalArgumentException if the task is not one of {@link DefaultScheduler}.
+     */
+    public static <T> CompletionStage<T> getRunCompletion( final ScheduledTask<T> task )
+        throws IllegalArgumentException
+    {
+        if ( !( task instanceof DefaultScheduledTask<?> ) )
+        {
+            throw new IllegalArgumentException( "Task \"" + task.getName() + "\" is not one of DefaultScheduler!" );
+        }
+
+        return ( (DefaultScheduledTask<T>) task ).getPendingRunCompletion().getStage();
+    }
+
+    public CompletionStage<T> getStage()
+    {
+        return future;
+    }
+
+    /**
+     * Completes the stage with the result of the run, running the dependent stages by the calling thread.
+     *
+     * @param result
+     */
+    public void completed( final T result )
+    {
+        future.complete( result );
+    }
+
+    /**
+     * Completes the stage exceptionally with the failure of the run.
+     *
+     * @param failure
+     */
+    public void failed( final Throwable failure )
+    {
+        future.completeExceptionally( failure );
+    }
+
+    /**
+     * Completes the stage exceptionally with a {@link java.util.concurrent.CancellationException}, as there is no run
+     * to come.
+     */
+    public void cancelled()
+    {
+        future.cancel( false );
+    }
+}
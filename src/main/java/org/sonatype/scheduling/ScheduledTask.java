@@ -73,6 +73,20 @@ public interface ScheduledTask<T>
      */
     String getType();
 
+    /**
+     * Returns the priority of the task, deciding the order of due tasks waiting for a free worker thread.
+     * 
+     * @return
+     */
+    TaskPriority getPriority();
+
+    /**
+     * Sets the priority of the task. It applies from the next time the task becomes due.
+     * 
+     * @param priority
+     */
+    void setPriority( TaskPriority priority );
+
     /**
      * Returns the task state.
      * 
@@ -88,7 +102,8 @@ public interface ScheduledTask<T>
     Date getScheduledAt();
 
     /**
-     * Runs the task right now, putting schedule on hold until complete
+     * Runs the task right now, putting schedule on hold until complete. Such run is of at least
+     * {@link TaskPriority#HIGH} priority.
      */
     void runNow();
 
@@ -140,6 +155,20 @@ public interface ScheduledTask<T>
      */
     T getIfDone();
 
+    /**
+     * Registers a listener to be notified of the state changes and run completions of the task.
+     * 
+     * @param listener
+     */
+    void addListener( ScheduledTaskListener<T> listener );
+
+    /**
+     * Unregisters a listener.
+     * 
+     * @param listener
+     */
+    void removeListener( ScheduledTaskListener<T> listener );
+
     /**
      * Returns the last run date of task, if any. Null otherwise.
      * 
@@ -184,12 +213,27 @@ public interface ScheduledTask<T>
     void setEnabled( boolean enabled );
 
     /**
-     * Returns the list of accumulated results.
+     * Returns the list of accumulated results, oldest first, as retained by the result retention of the task.
      * 
      * @return
      */
     List<T> getResults();
 
+    /**
+     * Returns the retention of the results of the task.
+     * 
+     * @return
+     */
+    ResultRetention getResultRetention();
+
+    /**
+     * Sets the retention of the results of the task. The results already retained are kept as far as the new
+     * retention allows.
+     * 
+     * @param resultRetention
+     */
+    void setResultRetention( ResultRetention resultRetention );
+
     /**
      * Returns the iterator that is being used to repeat the task
      * 
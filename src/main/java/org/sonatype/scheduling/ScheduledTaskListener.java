@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Callbacks of a {@link ScheduledTask}, registered with {@link ScheduledTask#addListener(ScheduledTaskListener)}.
+ * They are invoked synchronously by the thread doing the change (usually the worker thread running the task), hence
+ * they should be short and must not block. Exceptions thrown by them are logged and ignored.
+ *
+ * @see AbstractScheduledTaskListener
+ */
+public interface ScheduledTaskListener<T>
+{
+    /**
+     * Invoked on every state transition of the task, in the order of the transitions, once the thread doing the
+     * transition left the monitor of the task. The task may have moved on to a later state by then.
+     *
+     * @param task
+     * @param oldState
+     * @param newState
+     */
+    void taskStateChanged( ScheduledTask<T> task, TaskState oldState, TaskState newState );
+
+    /**
+     * Invoked when a run of the task ended, once the task is moved into it's state following the run.
+     *
+     * @param task
+     * @param result the result of the run, or {@code null} if it failed.
+     * @param failure the failure of the run, or {@code null} if it succeeded.
+     */
+    void runCompleted( ScheduledTask<T> task, T result, Throwable failure );
+}
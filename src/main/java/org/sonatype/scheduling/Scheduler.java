@@ -12,6 +12,7 @@
  */
 package org.sonatype.scheduling;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -48,6 +49,17 @@ public interface Scheduler
                                      boolean enabled )
         throws RejectedExecutionException, NullPointerException;
 
+    /**
+     * Initialize many tasks on bootup at once, possibly in parallel. Tasks failing to initialize are logged and left
+     * out.
+     *
+     * @param definitions
+     * @return the initialized tasks, in order of their definitions.
+     * @throws RejectedExecutionException
+     */
+    List<ScheduledTask<?>> initializeAll( List<? extends TaskDefinition<?>> definitions )
+        throws RejectedExecutionException;
+
     /**
      * Issue a Runnable for immediate execution, but have a control over it.
      * 
@@ -96,6 +108,67 @@ public interface Scheduler
     <T> ScheduledTask<T> schedule( String name, Callable<T> callable, Schedule schedule )
         throws RejectedExecutionException, NullPointerException;
 
+    /**
+     * Issue a Callable for immediate execution with given priority. Unlike setting the priority of the returned task,
+     * the task is admitted with given priority: it is counted against the limit of pending tasks of that priority (see
+     * {@link #getPendingTaskCount(TaskPriority)}).
+     * 
+     * @param name
+     * @param callable
+     * @param priority
+     * @return
+     */
+    <T> ScheduledTask<T> submit( String name, Callable<T> callable, TaskPriority priority )
+        throws RejectedExecutionException, NullPointerException;
+
+    /**
+     * Issue a Callable for immediate execution in a lane. The executions of tasks in the same lane never overlap, and
+     * happen in the order they became due, while different lanes run in parallel. Tasks due at the same time run in the
+     * order they were submitted.
+     * 
+     * @param name
+     * @param callable
+     * @param laneKey the key of the lane, like the ID of the repository the task works on.
+     * @return
+     */
+    <T> ScheduledTask<T> submit( String name, Callable<T> callable, String laneKey )
+        throws RejectedExecutionException, NullPointerException;
+
+    /**
+     * Issue a Callable for scheduled execution in a lane. The executions of tasks in the same lane never overlap, and
+     * happen in the order they became due, while different lanes run in parallel.
+     * 
+     * @param name
+     * @param callable
+     * @param schedule
+     * @param laneKey the key of the lane, like the ID of the repository the task works on.
+     * @return
+     */
+    <T> ScheduledTask<T> schedule( String name, Callable<T> callable, Schedule schedule, String laneKey )
+        throws RejectedExecutionException, NullPointerException;
+
+    /**
+     * Creates a workflow: tasks depending on each other, each submitted as soon as it's predecessors finished.
+     * 
+     * @param name
+     * @return
+     */
+    Workflow createWorkflow( String name );
+
+    /**
+     * Registers a listener receiving the lifecycle events of all the tasks, asynchronously.
+     * 
+     * @param listener
+     */
+    void addSchedulerListener( SchedulerListener listener );
+
+    /**
+     * Unregisters a listener.
+     * 
+     * @param listener
+     */
+    void removeSchedulerListener( SchedulerListener listener );
+
     /**
      * Issue a Runnable for scheduled execution.
      * 
@@ -121,6 +194,64 @@ public interface Scheduler
      */
     Map<String, List<ScheduledTask<?>>> getAllTasks();
 
+    /**
+     * Returns the count of tasks currently in given state. Unlike the maps above, it is cheap to call as it is
+     * maintained on every state transition.
+     * 
+     * @param state
+     * @return
+     */
+    int getTaskCount( TaskState state );
+
+    /**
+     * Returns a read-only live view of the tasks currently in given state. The view reflects the state transitions
+     * happening while iterating it.
+     * 
+     * @param state
+     * @return
+     */
+    Collection<ScheduledTask<?>> getTasks( TaskState state );
+
+    /**
+     * Returns the count of pending tasks: tasks submitted for immediate execution but not yet started running (tasks
+     * scheduled for later are not counted). Submitting a task while the pending tasks hit their limit is refused,
+     * blocked, run by the caller, or makes room by dropping the oldest pending task, depending on the admission policy
+     * of the scheduler.
+     * 
+     * @return
+     */
+    int getPendingTaskCount();
+
+    /**
+     * Returns the count of pending tasks of given type.
+     * 
+     * @param type
+     * @return
+     */
+    int getPendingTaskCount( String type );
+
+    /**
+     * Returns the count of pending tasks admitted with given priority.
+     * 
+     * @param priority
+     * @return
+     */
+    int getPendingTaskCount( TaskPriority priority );
+
+    /**
+     * Returns the count of tasks refused so far, as the pending tasks hit their limit.
+     * 
+     * @return
+     */
+    long getRejectedTaskCount();
+
+    /**
+     * Returns the count of pending tasks dropped so far to make room for newly submitted ones.
+     * 
+     * @return
+     */
+    long getDroppedTaskCount();
+
     /**
      * Returns an active task by it's ID.
      * 
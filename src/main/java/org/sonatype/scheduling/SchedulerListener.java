@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Receives the lifecycle events of all the tasks of a scheduler, registered with
+ * {@link Scheduler#addSchedulerListener(SchedulerListener)}. The events are delivered asynchronously, by a single
+ * thread of the scheduler and in the order they happened, hence a slow listener holds up the other listeners but never
+ * the tasks. If the listeners fall too far behind, events are dropped (see {@link TaskEventDispatcher}).
+ */
+public interface SchedulerListener
+{
+    /**
+     * Invoked with each event of each task.
+     *
+     * @param event
+     */
+    void taskEvent( TaskEvent event );
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.scheduling.timers.TaskTimer;
+
+/**
+ * Executor running the commands of one lane key strictly one at a time, on the threads of the delegate executor. The
+ * commands are queued in the lane as soon as they are scheduled, and run in the order they become due, or in the order
+ * they were scheduled if due at the same time. Only the next command of a lane is handed over to the delegate (by the
+ * timer, once due), and the next one is handed over when it finished, so lanes do not hog the worker threads. If the
+ * delegate refuses the hand over (is saturated), the timer retries it with a backoff delay, the commands stay queued.
+ */
+public class SerialLane
+    implements Executor
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final String key;
+
+    private final Executor delegate;
+
+    private final TaskTimer timer;
+
+    private final PriorityQueue<LaneFuture<?>> queue;
+
+    private final Callable<Object> drainer;
+
+    private long sequence;
+
+    /**
+     * True while a command of this lane is being run.
+     */
+    private boolean running;
+
+    /**
+     * The pending hand over of the next command by the timer, if any.
+     */
+    private Future<?> drain;
+
+    private long drainDueMillis;
+
+    /**
+     * @param key
+     * @param delegate
+     * @param timer the timer handing over the due commands to the delegate.
+     */
+    public SerialLane( final String key, final Executor delegate, final TaskTimer timer )
+    {
+        this.key = key;
+        this.delegate = delegate;
+        this.timer = timer;
+        this.queue = new PriorityQueue<LaneFuture<?>>();
+        this.drainer = new Callable<Object>()
+        {
+            public Object call()
+            {
+                runNext();
+
+                return null;
+            }
+        };
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Returns the count of commands waiting in this lane, including the one being run.
+     *
+     * @return
+     */
+    public synchronized int getPendingCount()
+    {
+        return queue.size() + ( running ? 1 : 0 );
+    }
+
+    /**
+     * Queues the command in this lane, due now.
+     */
+    public void execute( final Runnable command )
+    {
+        schedule( new LaneFuture<Object>( command, System.currentTimeMillis(), null ) );
+    }
+
+    /**
+     * Queues the callable in this lane, due after given delay. Cancelling the returned future removes it from the lane.
+     *
+     * @param callable
+     * @param delay
+     * @param unit
+     * @return the future of the execution.
+     */
+    public <T> Future<T> schedule( final Callable<T> callable, final long delay, final TimeUnit unit )
+    {
+        return schedule( new LaneFuture<T>( callable, System.currentTimeMillis() + unit.toMillis( delay ) ) );
+    }
+
+    // ==
+
+    protected <T> LaneFuture<T> schedule( final LaneFuture<T> future )
+    {
+        synchronized ( this )
+        {
+            future.sequence = sequence++;
+
+            queue.offer( future );
+
+            scheduleDrain();
+        }
+
+        return future;
+    }
+
+    protected void runNext()
+    {
+        final LaneFuture<?> next;
+
+        synchronized ( this )
+        {
+            drain = null;
+
+            next = queue.peek();
+
+            if ( next == null )
+            {
+                return;
+            }
+
+            if ( next.dueMillis > System.currentTimeMillis() )
+            {
+                // the due one got cancelled meanwhile
+                scheduleDrain();
+
+                return;
+            }
+
+            queue.poll();
+
+            running = true;
+        }
+
+        try
+        {
+            next.run();
+        }
+        catch ( RuntimeException e )
+        {
+            logger.warn( "Command of lane \"" + key + "\" failed!", e );
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                running = false;
+
+                scheduleDrain();
+            }
+        }
+    }
+
+    /**
+     * Has the timer hand over the next command once due, unless a command is being run, or the hand over is pending for
+     * it already. Must be called while holding the lock of this.
+     */
+    protected void scheduleDrain()
+    {
+        final LaneFuture<?> head = queue.peek();
+
+        if ( running || head == null )
+        {
+            return;
+        }
+
+        if ( drain != null )
+        {
+            // the pending hand over picks the head anyway, unless it is for a later time
+            if ( drainDueMillis <= head.dueMillis || !drain.cancel( false ) )
+            {
+                return;
+            }
+        }
+
+        try
+        {
+            drain =
+                timer.schedule( drainer, head.dueMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS, delegate );
+
+            drainDueMillis = head.dueMillis;
+        }
+        catch ( RejectedExecutionException e )
+        {
+            drain = null;
+
+            abandon( e );
+        }
+    }
+
+    /**
+     * Drops the queued commands when the lane cannot continue, as the timer is shut down.
+     */
+    protected void abandon( final RejectedExecutionException e )
+    {
+        logger.warn( "Lane \"{}\" cannot continue, its queued commands are cancelled: {}", key, e.getMessage() );
+
+        final List<LaneFuture<?>> commands = new ArrayList<LaneFuture<?>>( queue );
+
+        queue.clear();
+
+        for ( LaneFuture<?> command : commands )
+        {
+            command.cancel( false );
+        }
+    }
+
+    protected synchronized void remove( final LaneFuture<?> future )
+    {
+        queue.remove( future );
+    }
+
+    /**
+     * A command queued in the lane, ordered by due time, then by order of scheduling.
+     */
+    protected class LaneFuture<T>
+        extends FutureTask<T>
+        implements Comparable<LaneFuture<?>>
+    {
+        private final long dueMillis;
+
+        private long sequence;
+
+        public LaneFuture( final Callable<T> callable, final long dueMillis )
+        {
+            super( callable );
+
+            this.dueMillis = dueMillis;
+        }
+
+        public LaneFuture( final Runnable command, final long dueMillis, final T result )
+        {
+            super( command, result );
+
+            this.dueMillis = dueMillis;
+        }
+
+        public int compareTo( final LaneFuture<?> other )
+        {
+            if ( dueMillis != other.dueMillis )
+            {
+                return dueMillis < other.dueMillis ? -1 : 1;
+            }
+
+            return sequence < other.sequence ? -1 : ( sequence == other.sequence ? 0 : 1 );
+        }
+
+        @Override
+        protected void done()
+        {
+            if ( isCancelled() )
+            {
+                remove( this );
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * The progress listener of a subtask, rolling up into the progress listener of it's parent task. The work-units done
+ * by the subtask are added to the current (sub)task of parent, while the (sub)tasks begun and ended by the subtask are
+ * reported as messages prefixed by the name of the subtask, as the subtasks run in parallel cannot share the stack of
+ * parent's (sub)tasks. The parent must be thread safe, like {@link LoggingProgressListener} is.
+ * <p>
+ * Cancelling the subtask cancels the whole task-run, and the subtask is canceled if the parent is.
+ */
+public class SubtaskProgressListener
+    implements ProgressListener
+{
+    private final ProgressListener parent;
+
+    private final String name;
+
+    public SubtaskProgressListener( final ProgressListener parent, final String name )
+    {
+        this.parent = parent;
+        this.name = name;
+    }
+
+    public ProgressListener getParent()
+    {
+        return parent;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void beginTask( final String name )
+    {
+        parent.working( getName() + " - " + name + ": started." );
+    }
+
+    public void beginTask( final String name, final int toDo )
+    {
+        if ( UNKNOWN_WORKUNITS != toDo )
+        {
+            parent.working( getName() + " - " + name + ": started (" + toDo + " steps)." );
+        }
+        else
+        {
+            beginTask( name );
+        }
+    }
+
+    public void working( final int workDone )
+    {
+        parent.working( workDone );
+    }
+
+    public void working( final String message )
+    {
+        working( message, 0 );
+    }
+
+    public void working( final String message, final int workDone )
+    {
+        if ( message != null && message.trim().length() > 0 )
+        {
+            parent.working( getName() + ": " + message, workDone );
+        }
+        else
+        {
+            parent.working( workDone );
+        }
+    }
+
+    public void endTask( final String message )
+    {
+        parent.working( getName() + ": finished: " + message );
+    }
+
+    public boolean isCanceled()
+    {
+        return parent.isCanceled();
+    }
+
+    public void cancel()
+    {
+        parent.cancel();
+    }
+}
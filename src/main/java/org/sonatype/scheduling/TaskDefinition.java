@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.sonatype.scheduling.schedules.Schedule;
+
+/**
+ * A persisted task to be initialized on bootup, see {@link Scheduler#initializeAll(java.util.List)}. The definition
+ * either has the callable of the task, or the factory and the parameters to instantiate it lazily with, only when the
+ * task fires or it's callable is asked for.
+ */
+public class TaskDefinition<T>
+{
+    private final String id;
+
+    private final String name;
+
+    private final String type;
+
+    private final Callable<T> callable;
+
+    private final Schedule schedule;
+
+    private final boolean enabled;
+
+    private final TaskPriority priority;
+
+    private final TaskConfigManager taskFactory;
+
+    private final Map<String, String> taskParams;
+
+    public TaskDefinition( final String id, final String name, final String type, final Callable<T> callable,
+                           final Schedule schedule, final boolean enabled )
+    {
+        this( id, name, type, callable, schedule, enabled, TaskPriority.NORMAL );
+    }
+
+    public TaskDefinition( final String id, final String name, final String type, final Callable<T> callable,
+                           final Schedule schedule, final boolean enabled, final TaskPriority priority )
+    {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.callable = callable;
+        this.schedule = schedule;
+        this.enabled = enabled;
+        this.priority = priority;
+        this.taskFactory = null;
+        this.taskParams = null;
+    }
+
+    /**
+     * Creates the definition of a task to be initialized lazily: it's callable is instantiated by the factory's
+     * {@link TaskConfigManager#createTaskInstance(String)} with given parameters, when first needed.
+     * 
+     * @param id
+     * @param name
+     * @param type
+     * @param taskFactory
+     * @param taskParams
+     * @param schedule
+     * @param enabled
+     * @param priority
+     */
+    public TaskDefinition( final String id, final String name, final String type,
+                           final TaskConfigManager taskFactory, final Map<String, String> taskParams,
+                           final Schedule schedule, final boolean enabled, final TaskPriority priority )
+    {
+        if ( taskFactory == null )
+        {
+            throw new NullPointerException( "Task factory cannot be null!" );
+        }
+
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.callable = null;
+        this.schedule = schedule;
+        this.enabled = enabled;
+        this.priority = priority;
+        this.taskFactory = taskFactory;
+        this.taskParams = taskParams;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the callable, or {@code null} if the task is to be initialized lazily.
+     * 
+     * @return
+     */
+    public Callable<T> getCallable()
+    {
+        return callable;
+    }
+
+    /**
+     * Returns true if the task is to be initialized lazily.
+     * 
+     * @return
+     */
+    public boolean isLazy()
+    {
+        return taskFactory != null;
+    }
+
+    public TaskConfigManager getTaskFactory()
+    {
+        return taskFactory;
+    }
+
+    public Map<String, String> getTaskParams()
+    {
+        return taskParams;
+    }
+
+    public Schedule getSchedule()
+    {
+        return schedule;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public TaskPriority getPriority()
+    {
+        return priority;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + id + ")";
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Date;
+
+/**
+ * An event in the lifecycle of a task, delivered to the {@link SchedulerListener}s.
+ */
+public class TaskEvent
+{
+    public enum Type
+    {
+        /**
+         * The task was submitted (or scheduled) to the scheduler.
+         */
+        SUBMITTED,
+
+        /**
+         * A run of the task started.
+         */
+        STARTED,
+
+        /**
+         * A run of the task finished successfully.
+         */
+        FINISHED,
+
+        /**
+         * A run of the task failed, see {@link TaskEvent#getFailure()}.
+         */
+        BROKEN,
+
+        /**
+         * The task was cancelled.
+         */
+        CANCELLED,
+
+        /**
+         * The next run of the task was scheduled, see {@link TaskEvent#getNextRun()}.
+         */
+        RESCHEDULED;
+    }
+
+    private final Type type;
+
+    private final ScheduledTask<?> task;
+
+    private final long timestamp;
+
+    private final Date nextRun;
+
+    private final Throwable failure;
+
+    public TaskEvent( final Type type, final ScheduledTask<?> task, final Date nextRun, final Throwable failure )
+    {
+        this.type = type;
+        this.task = task;
+        this.timestamp = System.currentTimeMillis();
+        this.nextRun = nextRun;
+        this.failure = failure;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public ScheduledTask<?> getTask()
+    {
+        return task;
+    }
+
+    /**
+     * Returns the time the event happened at, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Returns the next run of the task for {@link Type#RESCHEDULED} events, {@code null} otherwise.
+     *
+     * @return
+     */
+    public Date getNextRun()
+    {
+        return nextRun;
+    }
+
+    /**
+     * Returns the failure of the run for {@link Type#BROKEN} events, {@code null} otherwise.
+     *
+     * @return
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type + " " + task.getName() + " (" + task.getId() + ") at " + timestamp;
+    }
+}
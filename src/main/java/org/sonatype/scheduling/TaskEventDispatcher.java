@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the {@link TaskEvent}s to the {@link SchedulerListener}s by a thread of it's own, hence slow listeners never
+ * hold up the threads firing the events. The events are handed over through a bounded ring buffer: the firing threads
+ * claim their slot with a compare-and-set, and never block nor lock. Once the buffer is full (the listeners fell
+ * behind), the events are dropped and counted instead.
+ */
+public class TaskEventDispatcher
+    implements Runnable
+{
+    /**
+     * The longest time the idle dispatcher thread parks for, as fallback of the unparking by firing threads.
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 100 );
+
+    private static final AtomicInteger dispatcherNumber = new AtomicInteger( 1 );
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final List<SchedulerListener> listeners;
+
+    private final AtomicReferenceArray<TaskEvent> events;
+
+    /**
+     * The sequence of each slot: equal to the position of the slot when it is free to be claimed by a firing thread,
+     * and one more when the event in it is published to the dispatcher thread.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /**
+     * The position of the next slot to claim.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * The position of the next event to deliver, used by the dispatcher thread only.
+     */
+    private long head;
+
+    private final AtomicLong droppedCount;
+
+    private volatile Thread thread;
+
+    private volatile boolean waiting;
+
+    private volatile boolean stopped;
+
+    public TaskEventDispatcher( final int capacity )
+    {
+        int size = 1;
+
+        while ( size < capacity )
+        {
+            size <<= 1;
+        }
+
+        this.listeners = new CopyOnWriteArrayList<SchedulerListener>();
+        this.events = new AtomicReferenceArray<TaskEvent>( size );
+        this.sequences = new AtomicLongArray( size );
+        this.mask = size - 1;
+        this.tail = new AtomicLong( 0 );
+        this.head = 0;
+        this.droppedCount = new AtomicLong( 0 );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            sequences.set( i, i );
+        }
+    }
+
+    /**
+     * Registers a listener, starting the dispatcher thread with the first one.
+     *
+     * @param listener
+     */
+    public synchronized void addListener( final SchedulerListener listener )
+    {
+        if ( listener == null )
+        {
+            throw new NullPointerException( "Scheduler listener cannot be null!" );
+        }
+
+        listeners.add( listener );
+
+        if ( thread == null && !stopped )
+        {
+            final Thread dispatcherThread = new Thread( this, "pxevents-" + dispatcherNumber.getAndIncrement() );
+
+            dispatcherThread.setDaemon( true );
+
+            thread = dispatcherThread;
+
+            dispatcherThread.start();
+        }
+    }
+
+    public void removeListener( final SchedulerListener listener )
+    {
+        listeners.remove( listener );
+    }
+
+    /**
+     * Returns true if there are listeners, meant to skip creating the events nobody listens to.
+     *
+     * @return
+     */
+    public boolean hasListeners()
+    {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Hands over the event to the dispatcher thread, or drops it if the buffer is full. Never blocks.
+     *
+     * @param event
+     */
+    public void fire( final TaskEvent event )
+    {
+        if ( !offer( event ) )
+        {
+            droppedCount.incrementAndGet();
+
+            return;
+        }
+
+        if ( waiting )
+        {
+            LockSupport.unpark( thread );
+        }
+    }
+
+    /**
+     * Returns the count of events dropped, as the listeners fell behind.
+     *
+     * @return
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * Stops the dispatcher thread once it delivered the events already fired.
+     */
+    public synchronized void shutdown()
+    {
+        stopped = true;
+
+        if ( thread != null )
+        {
+            LockSupport.unpark( thread );
+        }
+    }
+
+    public void run()
+    {
+        while ( true )
+        {
+            TaskEvent event = poll();
+
+            if ( event == null )
+            {
+                if ( stopped )
+                {
+                    return;
+                }
+
+                waiting = true;
+
+                // an event fired meanwhile may have seen the dispatcher not waiting
+                event = poll();
+
+                if ( event == null )
+                {
+                    LockSupport.parkNanos( this, MAX_PARK_NANOS );
+                }
+
+                waiting = false;
+
+                if ( event == null )
+                {
+                    continue;
+                }
+            }
+
+            deliver( event );
+        }
+    }
+
+    // ==
+
+    protected void deliver( final TaskEvent event )
+    {
+        for ( SchedulerListener listener : listeners )
+        {
+            try
+            {
+                listener.taskEvent( event );
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Scheduler listener failed on event " + event, e );
+            }
+        }
+    }
+
+    protected boolean offer( final TaskEvent event )
+    {
+        while ( true )
+        {
+            final long position = tail.get();
+
+            final int index = (int) position & mask;
+
+            final long difference = sequences.get( index ) - position;
+
+            if ( difference == 0 )
+            {
+                if ( tail.compareAndSet( position, position + 1 ) )
+                {
+                    events.set( index, event );
+
+                    // publish
+                    sequences.set( index, position + 1 );
+
+                    return true;
+                }
+            }
+            else if ( difference < 0 )
+            {
+                // the slot still holds an event not yet delivered: full
+                return false;
+            }
+
+            // else an other thread claimed the slot meanwhile, try the next one
+        }
+    }
+
+    protected TaskEvent poll()
+    {
+        final int index = (int) head & mask;
+
+        if ( sequences.get( index ) != head + 1 )
+        {
+            return null;
+        }
+
+        final TaskEvent event = events.get( index );
+
+        events.set( index, null );
+
+        // free the slot for the position it has in the next round
+        sequences.set( index, head + mask + 1 );
+
+        head++;
+
+        return event;
+    }
+}
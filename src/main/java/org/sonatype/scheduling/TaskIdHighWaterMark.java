@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Implemented by the {@link TaskConfigManager}s persisting the highest numeric task ID ever added, including the IDs
+ * of tasks removed since. The scheduler generates IDs above it after startup, hence the IDs of removed tasks are not
+ * handed out again.
+ */
+public interface TaskIdHighWaterMark
+{
+    /**
+     * Returns the highest numeric task ID ever added, or 0 if none.
+     * 
+     * @return
+     */
+    int getTaskIdHighWaterMark();
+}
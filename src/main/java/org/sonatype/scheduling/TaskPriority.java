@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Enum for describing task priority. When more tasks are due than free worker threads, higher priority tasks are run
+ * first. To prevent starvation, waiting tasks age: a task waiting long enough is run before higher priority tasks that
+ * became due after it.
+ */
+public enum TaskPriority
+{
+    /**
+     * Background work, like housekeeping.
+     */
+    LOW,
+
+    /**
+     * The default priority of tasks.
+     */
+    NORMAL,
+
+    /**
+     * Work someone waits for, like a task run manually.
+     */
+    HIGH;
+}
@@ -12,10 +12,16 @@
  */
 package org.sonatype.scheduling;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Enum for describing task state. It is a state machine: starting state is SUBMITTED, finishing states are FINISHED and
- * CANCELLED. Scheduled tasks are jumping between RUNNING and WAITING until finished, cancelled or error (broken).
+ * CANCELLED. Scheduled tasks are jumping between RUNNING and WAITING until finished, cancelled or error (broken). The
+ * valid transitions are listed next to each state, see {@link #canTransitionTo(TaskState)}.
  * 
  * @author cstamas
  */
@@ -24,27 +30,27 @@ public enum TaskState
     /**
      * Submitted, not runned yet.
      */
-    SUBMITTED, // -> RUNNING, CANCELLING
+    SUBMITTED, // -> RUNNING, SLEEPING, WAITING, BROKEN, CANCELLED
 
     /**
      * Is currently running.
      */
-    RUNNING, // -> WAITING, FINISHED, BROKEN, CANCELLING, SLEEPING
+    RUNNING, // -> SUBMITTED, WAITING, FINISHED, BROKEN, CANCELLING, CANCELLED, SLEEPING
 
     /**
      * Was cancelled but is currently running.
      */
-    CANCELLING, // -> WAITING, BROKEN, CANCELLED
+    CANCELLING, // -> SUBMITTED, WAITING, BROKEN, CANCELLED
 
     /**
      * Should run but is blocked by another clashing task. Will try to run later.
      */
-    SLEEPING, // -> RUNNING, CANCELLING
+    SLEEPING, // -> SUBMITTED, RUNNING, WAITING, BROKEN, CANCELLING, CANCELLED
 
     /**
      * Was running and is finished. Waiting for next execution.
      */
-    WAITING, // -> RUNNING, CANCELLING
+    WAITING, // -> SUBMITTED, RUNNING, SLEEPING, BROKEN, CANCELLED
 
     /**
      * Was running and is finished. No more execution scheduled.
@@ -54,13 +60,65 @@ public enum TaskState
     /**
      * Was running and is broken.
      */
-    BROKEN, // END
+    BROKEN, // -> SUBMITTED, RUNNING, SLEEPING, CANCELLED
 
     /**
      * Was running and is cancelled.
      */
     CANCELLED, ; // END
 
+    private static final Map<TaskState, Set<TaskState>> NEXT_STATES = new EnumMap<TaskState, Set<TaskState>>(
+        TaskState.class );
+
+    static
+    {
+        // every state but the ending ones may "transition" to itself too, like a rescheduled WAITING task does, and
+        // may be marked BROKEN
+        transitions( SUBMITTED, RUNNING, SLEEPING, WAITING, BROKEN, CANCELLED );
+        transitions( RUNNING, SUBMITTED, WAITING, FINISHED, BROKEN, CANCELLING, CANCELLED, SLEEPING );
+        transitions( CANCELLING, SUBMITTED, WAITING, BROKEN, CANCELLED );
+        transitions( SLEEPING, SUBMITTED, RUNNING, WAITING, BROKEN, CANCELLING, CANCELLED );
+        transitions( WAITING, SUBMITTED, RUNNING, SLEEPING, BROKEN, CANCELLED );
+        transitions( FINISHED );
+        transitions( BROKEN, SUBMITTED, RUNNING, SLEEPING, CANCELLED );
+        transitions( CANCELLED );
+    }
+
+    private static void transitions( final TaskState state, final TaskState... nextStates )
+    {
+        final Set<TaskState> result = EnumSet.noneOf( TaskState.class );
+
+        Collections.addAll( result, nextStates );
+
+        if ( !result.isEmpty() )
+        {
+            result.add( state );
+        }
+
+        NEXT_STATES.put( state, Collections.unmodifiableSet( result ) );
+    }
+
+    /**
+     * Returns the states this state may transition to, empty for ending states.
+     * 
+     * @return
+     */
+    public Set<TaskState> getNextStates()
+    {
+        return NEXT_STATES.get( this );
+    }
+
+    /**
+     * Returns true if the transition from this state to the given one is valid.
+     * 
+     * @param nextState
+     * @return
+     */
+    public boolean canTransitionTo( final TaskState nextState )
+    {
+        return getNextStates().contains( nextState );
+    }
+
     public boolean isRunnable()
     {
         return this.equals( SUBMITTED ) || this.equals( RUNNING ) || this.equals( SLEEPING ) || this.equals( WAITING ) || this.equals( BROKEN );
@@ -1,7 +1,22 @@
 package org.sonatype.scheduling;
 
+import java.util.concurrent.Executor;
+
 public class TaskUtil
 {
+    /**
+     * Runs the command by the calling thread, used when there is no scheduler around.
+     */
+    private static final Executor CALLER_RUNS = new Executor()
+    {
+        public void execute( final Runnable command )
+        {
+            command.run();
+        }
+    };
+
+    private static final ThreadLocal<Executor> CURRENT_EXECUTOR = new ThreadLocal<Executor>();
+
     private static final ThreadLocal<ProgressListener> CURRENT = new ThreadLocal<ProgressListener>()
     {
         protected ProgressListener initialValue()
@@ -22,6 +37,59 @@ public class TaskUtil
         }
     }
 
+    /**
+     * Sets the given {@link ProgressListener} instance as current as is, and returns the former one. Used to carry the
+     * progress listener of a task over to it's subtasks run by other threads.
+     * 
+     * @param progressListener
+     * @return
+     */
+    protected static ProgressListener swapCurrent( final ProgressListener progressListener )
+    {
+        final ProgressListener result = CURRENT.get();
+
+        CURRENT.set( progressListener );
+
+        return result;
+    }
+
+    /**
+     * Sets the given {@link Executor} instance as current, and returns the former one (or {@code null} if none was
+     * set).
+     * 
+     * @param executor
+     * @return
+     */
+    protected static Executor swapCurrentExecutor( final Executor executor )
+    {
+        final Executor result = CURRENT_EXECUTOR.get();
+
+        if ( executor != null )
+        {
+            CURRENT_EXECUTOR.set( executor );
+        }
+        else
+        {
+            CURRENT_EXECUTOR.remove();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the {@link Executor} running the subtasks of current task on the scheduler's worker threads, never
+     * returns null. If current thread does not run a task body, the returned executor runs the commands by the calling
+     * thread.
+     * 
+     * @return
+     */
+    public static Executor getCurrentExecutor()
+    {
+        final Executor result = CURRENT_EXECUTOR.get();
+
+        return result != null ? result : CALLER_RUNS;
+    }
+
     /**
      * Returns current {@link ProgressListener} instance, never returns null.
      * 
@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A graph of tasks depending on each other: each {@link WorkflowStep} is submitted to the scheduler as soon as all of
+ * it's predecessors finished, hence the independent branches run in parallel. Predecessors must be added before their
+ * dependents, so the graph cannot have cycles. If a step fails or gets cancelled, the steps depending on it (directly
+ * or not) are cancelled, while the independent branches keep running.
+ *
+ * <pre>
+ * Workflow workflow = scheduler.createWorkflow( &quot;publish&quot; );
+ * WorkflowStep&lt;?&gt; download = workflow.addStep( &quot;download&quot;, downloadTask );
+ * WorkflowStep&lt;?&gt; merge = workflow.addStep( &quot;merge&quot;, mergeTask, download );
+ * workflow.addStep( &quot;publish&quot;, publishTask, merge );
+ * workflow.start();
+ * </pre>
+ */
+public class Workflow
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final DefaultScheduler scheduler;
+
+    private final String name;
+
+    /**
+     * Guarded by this.
+     */
+    private final List<WorkflowStep<?>> steps;
+
+    /**
+     * Guarded by this.
+     */
+    private boolean cancelled;
+
+    private volatile CountDownLatch stepsEnded;
+
+    public Workflow( final DefaultScheduler scheduler, final String name )
+    {
+        this.scheduler = scheduler;
+        this.name = name;
+        this.steps = new ArrayList<WorkflowStep<?>>();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public synchronized List<WorkflowStep<?>> getSteps()
+    {
+        return Collections.unmodifiableList( new ArrayList<WorkflowStep<?>>( steps ) );
+    }
+
+    /**
+     * Adds a step to this workflow, to be run once the given predecessors finished.
+     *
+     * @param name
+     * @param callable
+     * @param predecessors the steps of this workflow the new step depends on.
+     * @return
+     * @throws IllegalStateException if this workflow is already started.
+     * @throws IllegalArgumentException if some predecessor is not a step of this workflow.
+     */
+    public synchronized <T> WorkflowStep<T> addStep( final String name, final Callable<T> callable,
+                                                     final WorkflowStep<?>... predecessors )
+        throws IllegalStateException, IllegalArgumentException
+    {
+        if ( stepsEnded != null )
+        {
+            throw new IllegalStateException( "Workflow \"" + getName() + "\" is already started!" );
+        }
+
+        if ( callable == null )
+        {
+            throw new NullPointerException( "Callable of step \"" + name + "\" cannot be null!" );
+        }
+
+        for ( WorkflowStep<?> predecessor : predecessors )
+        {
+            if ( predecessor.getWorkflow() != this )
+            {
+                throw new IllegalArgumentException( "Step \"" + predecessor.getName() + "\" is not part of workflow \""
+                    + getName() + "\"!" );
+            }
+        }
+
+        final WorkflowStep<T> step = new WorkflowStep<T>( this, name, callable, Arrays.asList( predecessors ) );
+
+        for ( WorkflowStep<?> predecessor : step.getPredecessors() )
+        {
+            predecessor.getDependents().add( step );
+        }
+
+        steps.add( step );
+
+        return step;
+    }
+
+    /**
+     * Starts this workflow by submitting the steps having no predecessors.
+     *
+     * @throws IllegalStateException if this workflow is already started.
+     */
+    public void start()
+        throws IllegalStateException
+    {
+        final List<WorkflowStep<?>> ready = new ArrayList<WorkflowStep<?>>();
+
+        synchronized ( this )
+        {
+            if ( stepsEnded != null )
+            {
+                throw new IllegalStateException( "Workflow \"" + getName() + "\" is already started!" );
+            }
+
+            stepsEnded = new CountDownLatch( steps.size() );
+
+            for ( WorkflowStep<?> step : steps )
+            {
+                if ( step.getPredecessors().isEmpty() )
+                {
+                    step.setState( WorkflowStep.State.SUBMITTED );
+
+                    ready.add( step );
+                }
+            }
+        }
+
+        submit( ready );
+    }
+
+    /**
+     * Cancels this workflow: the steps not yet submitted will not be, and the submitted ones are cancelled.
+     */
+    public void cancel()
+    {
+        final List<WorkflowStep<?>> submitted = new ArrayList<WorkflowStep<?>>();
+
+        synchronized ( this )
+        {
+            cancelled = true;
+
+            for ( WorkflowStep<?> step : steps )
+            {
+                if ( WorkflowStep.State.BLOCKED.equals( step.getState() ) )
+                {
+                    ended( step, WorkflowStep.State.CANCELLED );
+                }
+                else if ( WorkflowStep.State.SUBMITTED.equals( step.getState() ) )
+                {
+                    submitted.add( step );
+                }
+            }
+        }
+
+        for ( WorkflowStep<?> step : submitted )
+        {
+            // not yet there if being submitted right now, but it is cancelled once submitted
+            final ScheduledTask<?> task = step.getScheduledTask();
+
+            if ( task != null )
+            {
+                task.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns true if all the steps of this started workflow ended.
+     *
+     * @return
+     */
+    public boolean isDone()
+    {
+        final CountDownLatch latch = stepsEnded;
+
+        return latch != null && latch.getCount() == 0;
+    }
+
+    /**
+     * Returns true if all the steps of this workflow finished successfully.
+     *
+     * @return
+     */
+    public synchronized boolean isFinished()
+    {
+        for ( WorkflowStep<?> step : steps )
+        {
+            if ( !WorkflowStep.State.FINISHED.equals( step.getState() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits until all the steps of this started workflow ended, or the timeout elapses.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if all the steps ended.
+     * @throws InterruptedException
+     * @throws IllegalStateException if this workflow is not started.
+     */
+    public boolean await( final long timeout, final TimeUnit unit )
+        throws InterruptedException, IllegalStateException
+    {
+        final CountDownLatch latch = stepsEnded;
+
+        if ( latch == null )
+        {
+            throw new IllegalStateException( "Workflow \"" + getName() + "\" is not started!" );
+        }
+
+        return latch.await( timeout, unit );
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + " " + getSteps();
+    }
+
+    // ==
+
+    /**
+     * Invoked by the scheduler when the task of the step ended, in given state.
+     *
+     * @param step
+     * @param taskState
+     */
+    protected void stepEnded( final WorkflowStep<?> step, final TaskState taskState )
+    {
+        final List<WorkflowStep<?>> ready = new ArrayList<WorkflowStep<?>>();
+
+        synchronized ( this )
+        {
+            if ( TaskState.FINISHED.equals( taskState ) )
+            {
+                ended( step, WorkflowStep.State.FINISHED );
+
+                for ( WorkflowStep<?> dependent : step.getDependents() )
+                {
+                    if ( dependent.predecessorFinished() == 0 && !cancelled
+                        && WorkflowStep.State.BLOCKED.equals( dependent.getState() ) )
+                    {
+                        dependent.setState( WorkflowStep.State.SUBMITTED );
+
+                        ready.add( dependent );
+                    }
+                }
+            }
+            else
+            {
+                logger.info( "Step \"{}\" of workflow \"{}\" ended as {}, cancelling the steps depending on it.",
+                             new Object[] { step.getName(), getName(), taskState } );
+
+                ended( step, TaskState.BROKEN.equals( taskState ) ? WorkflowStep.State.BROKEN
+                                : WorkflowStep.State.CANCELLED );
+            }
+        }
+
+        submit( ready );
+    }
+
+    /**
+     * Moves the step into given ending state, and cancels it's blocked dependents if it did not finish. Must be called
+     * while holding the lock of this.
+     *
+     * @param step
+     * @param state
+     */
+    protected void ended( final WorkflowStep<?> step, final WorkflowStep.State state )
+    {
+        if ( step.getState().isEndingState() )
+        {
+            return;
+        }
+
+        step.setState( state );
+
+        stepsEnded.countDown();
+
+        if ( !WorkflowStep.State.FINISHED.equals( state ) )
+        {
+            for ( WorkflowStep<?> dependent : step.getDependents() )
+            {
+                if ( WorkflowStep.State.BLOCKED.equals( dependent.getState() ) )
+                {
+                    ended( dependent, WorkflowStep.State.CANCELLED );
+                }
+            }
+        }
+    }
+
+    protected void submit( final List<WorkflowStep<?>> ready )
+    {
+        for ( WorkflowStep<?> step : ready )
+        {
+            submit( step );
+        }
+    }
+
+    protected <T> void submit( final WorkflowStep<T> step )
+    {
+        final ScheduledTask<T> task;
+
+        try
+        {
+            task = scheduler.submit( step.getName(), step.getCallable() );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            step.setBrokenCause( e );
+
+            stepEnded( step, TaskState.BROKEN );
+
+            return;
+        }
+
+        step.setScheduledTask( task );
+
+        scheduler.addWorkflowStep( task, step );
+
+        final boolean cancel;
+
+        synchronized ( this )
+        {
+            cancel = cancelled;
+        }
+
+        if ( cancel )
+        {
+            task.cancel();
+        }
+    }
+}
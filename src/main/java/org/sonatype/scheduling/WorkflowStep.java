@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A step of a {@link Workflow}: a task submitted to the scheduler once all of it's predecessors finished.
+ */
+public class WorkflowStep<T>
+{
+    public enum State
+    {
+        /**
+         * Waiting for the predecessors to finish.
+         */
+        BLOCKED,
+
+        /**
+         * Handed over to the scheduler, see {@link WorkflowStep#getScheduledTask()}.
+         */
+        SUBMITTED,
+
+        /**
+         * The task finished.
+         */
+        FINISHED,
+
+        /**
+         * The task failed (or was refused by the scheduler).
+         */
+        BROKEN,
+
+        /**
+         * The task, or some predecessor of it, was cancelled or failed.
+         */
+        CANCELLED;
+
+        public boolean isEndingState()
+        {
+            return this.equals( FINISHED ) || this.equals( BROKEN ) || this.equals( CANCELLED );
+        }
+    }
+
+    private final Workflow workflow;
+
+    private final String name;
+
+    private final Callable<T> callable;
+
+    private final List<WorkflowStep<?>> predecessors;
+
+    /**
+     * Guarded by the workflow.
+     */
+    private final List<WorkflowStep<?>> dependents;
+
+    /**
+     * The count of predecessors not yet finished, guarded by the workflow.
+     */
+    private int pendingPredecessors;
+
+    private volatile State state;
+
+    private volatile ScheduledTask<T> scheduledTask;
+
+    private volatile Throwable brokenCause;
+
+    protected WorkflowStep( final Workflow workflow, final String name, final Callable<T> callable,
+                            final List<WorkflowStep<?>> predecessors )
+    {
+        this.workflow = workflow;
+        this.name = name;
+        this.callable = callable;
+        this.predecessors = Collections.unmodifiableList( new ArrayList<WorkflowStep<?>>( predecessors ) );
+        this.dependents = new ArrayList<WorkflowStep<?>>();
+        this.pendingPredecessors = predecessors.size();
+        this.state = State.BLOCKED;
+    }
+
+    public Workflow getWorkflow()
+    {
+        return workflow;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Callable<T> getCallable()
+    {
+        return callable;
+    }
+
+    public List<WorkflowStep<?>> getPredecessors()
+    {
+        return predecessors;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Returns the task of this step, or {@code null} if it is not submitted (yet).
+     *
+     * @return
+     */
+    public ScheduledTask<T> getScheduledTask()
+    {
+        return scheduledTask;
+    }
+
+    /**
+     * Returns the failure of this step, or {@code null} if it did not fail.
+     *
+     * @return
+     */
+    public Throwable getBrokenCause()
+    {
+        final ScheduledTask<T> task = getScheduledTask();
+
+        if ( brokenCause == null && task != null )
+        {
+            return task.getBrokenCause();
+        }
+
+        return brokenCause;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + state + ")";
+    }
+
+    // ==
+
+    protected List<WorkflowStep<?>> getDependents()
+    {
+        return dependents;
+    }
+
+    /**
+     * Marks one predecessor finished, and returns the count of predecessors not yet finished.
+     *
+     * @return
+     */
+    protected int predecessorFinished()
+    {
+        return --pendingPredecessors;
+    }
+
+    protected void setState( final State state )
+    {
+        this.state = state;
+    }
+
+    protected void setScheduledTask( final ScheduledTask<T> scheduledTask )
+    {
+        this.scheduledTask = scheduledTask;
+    }
+
+    protected void setBrokenCause( final Throwable brokenCause )
+    {
+        this.brokenCause = brokenCause;
+    }
+}
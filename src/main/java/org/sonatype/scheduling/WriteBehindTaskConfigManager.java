@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.scheduling.schedules.Schedule;
+
+/**
+ * A {@link TaskConfigManager} writing the changes of tasks behind: the changes are buffered and coalesced per task ID,
+ * and handed over to the decorated manager in batches, every flush interval or once the count of pending changes
+ * reaches the flush size, by a thread of it's own. Adding a task whose persistent properties (name, type, enabled,
+ * priority, schedule and parameters) did not change since it was last written is skipped, hence the rescheduling of
+ * recurring tasks, changing runtime properties only (like the next run), costs no write. The pending changes are
+ * flushed on {@link #shutdown()}.
+ */
+public class WriteBehindTaskConfigManager
+    implements TaskConfigManager
+{
+    private static final AtomicInteger flusherNumber = new AtomicInteger( 1 );
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final TaskConfigManager delegate;
+
+    private final int flushSize;
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * The latest change of each task not yet flushed, in order of first change, guarded by this.
+     */
+    private final LinkedHashMap<String, Change> pendingChanges;
+
+    /**
+     * The persistent properties of each task as last added, guarded by this.
+     */
+    private final Map<String, PersistentState> addedStates;
+
+    /**
+     * Serializes the flushes, to hand over the batches in order.
+     */
+    private final Object flushLock;
+
+    private final AtomicLong skippedCount;
+
+    private final AtomicLong flushedCount;
+
+    private final Runnable flushCommand = new Runnable()
+    {
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    public WriteBehindTaskConfigManager( final TaskConfigManager delegate, final long flushIntervalMillis,
+                                         final int flushSize )
+    {
+        if ( flushIntervalMillis <= 0 )
+        {
+            throw new IllegalArgumentException( "Flush interval must be positive: " + flushIntervalMillis );
+        }
+
+        this.delegate = delegate;
+        this.flushSize = Math.max( 1, flushSize );
+        this.flusher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( final Runnable r )
+            {
+                final Thread thread = new Thread( r, "pxconfig-" + flusherNumber.getAndIncrement() );
+
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+        this.pendingChanges = new LinkedHashMap<String, Change>();
+        this.addedStates = new HashMap<String, PersistentState>();
+        this.flushLock = new Object();
+        this.skippedCount = new AtomicLong( 0 );
+        this.flushedCount = new AtomicLong( 0 );
+
+        flusher.scheduleWithFixedDelay( flushCommand, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS );
+    }
+
+    public TaskConfigManager getDelegate()
+    {
+        return delegate;
+    }
+
+    public <T> void addTask( final ScheduledTask<T> task )
+    {
+        final PersistentState state = new PersistentState( task );
+
+        synchronized ( this )
+        {
+            if ( state.equals( addedStates.get( task.getId() ) ) )
+            {
+                skippedCount.incrementAndGet();
+
+                return;
+            }
+
+            addedStates.put( task.getId(), state );
+
+            enqueue( new Change( task, false ) );
+        }
+    }
+
+    public <T> void removeTask( final ScheduledTask<T> task )
+    {
+        synchronized ( this )
+        {
+            addedStates.remove( task.getId() );
+
+            enqueue( new Change( task, true ) );
+        }
+    }
+
+    /**
+     * Records the task as written as it is now, like the tasks loaded up by the decorated manager on startup, hence
+     * adding it unchanged is skipped.
+     * 
+     * @param task
+     */
+    public synchronized void markWritten( final ScheduledTask<?> task )
+    {
+        addedStates.put( task.getId(), new PersistentState( task ) );
+    }
+
+    public void initializeTasks( final Scheduler scheduler )
+    {
+        delegate.initializeTasks( scheduler );
+    }
+
+    public SchedulerTask<?> createTaskInstance( final String taskType )
+        throws IllegalArgumentException
+    {
+        return delegate.createTaskInstance( taskType );
+    }
+
+    public <T> T createTaskInstance( final Class<T> taskType )
+        throws IllegalArgumentException
+    {
+        return delegate.createTaskInstance( taskType );
+    }
+
+    /**
+     * Hands over the pending changes to the decorated manager, by the calling thread.
+     */
+    public void flush()
+    {
+        synchronized ( flushLock )
+        {
+            final List<Change> batch;
+
+            synchronized ( this )
+            {
+                if ( pendingChanges.isEmpty() )
+                {
+                    return;
+                }
+
+                batch = new ArrayList<Change>( pendingChanges.values() );
+
+                pendingChanges.clear();
+            }
+
+            for ( Change change : batch )
+            {
+                try
+                {
+                    if ( change.isRemoval() )
+                    {
+                        delegate.removeTask( change.getTask() );
+                    }
+                    else
+                    {
+                        delegate.addTask( change.getTask() );
+                    }
+
+                    flushedCount.incrementAndGet();
+                }
+                catch ( RuntimeException e )
+                {
+                    logger.warn( "Could not write task \"" + change.getTask().getName() + "\", will retry.", e );
+
+                    retry( change );
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending changes, and stops the flushing thread.
+     */
+    public void shutdown()
+    {
+        flusher.shutdown();
+
+        flush();
+    }
+
+    /**
+     * Returns the count of changes not yet flushed.
+     * 
+     * @return
+     */
+    public synchronized int getPendingCount()
+    {
+        return pendingChanges.size();
+    }
+
+    /**
+     * Returns the count of added tasks skipped, as their persistent properties did not change.
+     * 
+     * @return
+     */
+    public long getSkippedCount()
+    {
+        return skippedCount.get();
+    }
+
+    /**
+     * Returns the count of changes handed over to the decorated manager.
+     * 
+     * @return
+     */
+    public long getFlushedCount()
+    {
+        return flushedCount.get();
+    }
+
+    // ==
+
+    /**
+     * Replaces the pending change of the task, if any. Must be called while holding the lock of this.
+     * 
+     * @param change
+     */
+    protected void enqueue( final Change change )
+    {
+        // the latest change wins, but keeps the place of the first one
+        pendingChanges.put( change.getTask().getId(), change );
+
+        if ( pendingChanges.size() == flushSize )
+        {
+            try
+            {
+                flusher.execute( flushCommand );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // shut down, the changes are flushed by shutdown()
+            }
+        }
+    }
+
+    /**
+     * Puts back the failed change, unless the task changed meanwhile.
+     * 
+     * @param change
+     */
+    protected synchronized void retry( final Change change )
+    {
+        final String id = change.getTask().getId();
+
+        if ( !pendingChanges.containsKey( id ) )
+        {
+            pendingChanges.put( id, change );
+        }
+
+        if ( !change.isRemoval() )
+        {
+            // make the next add write it, even if unchanged
+            addedStates.remove( id );
+        }
+    }
+
+    protected static class Change
+    {
+        private final ScheduledTask<?> task;
+
+        private final boolean removal;
+
+        public Change( final ScheduledTask<?> task, final boolean removal )
+        {
+            this.task = task;
+            this.removal = removal;
+        }
+
+        public ScheduledTask<?> getTask()
+        {
+            return task;
+        }
+
+        public boolean isRemoval()
+        {
+            return removal;
+        }
+    }
+
+    /**
+     * The properties of a task that are persisted, unlike it's runtime properties. Schedules are immutable, hence
+     * compared by identity.
+     */
+    protected static class PersistentState
+    {
+        private final String name;
+
+        private final String type;
+
+        private final boolean enabled;
+
+        private final TaskPriority priority;
+
+        private final Schedule schedule;
+
+        private final Map<String, String> params;
+
+        public PersistentState( final ScheduledTask<?> task )
+        {
+            this.name = task.getName();
+            this.type = task.getType();
+            this.enabled = task.isEnabled();
+            this.priority = task.getPriority();
+            this.schedule = task.getSchedule();
+            this.params = new HashMap<String, String>( task.getTaskParams() );
+        }
+
+        @Override
+        public boolean equals( final Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof PersistentState ) )
+            {
+                return false;
+            }
+
+            final PersistentState other = (PersistentState) obj;
+
+            return eq( name, other.name ) && eq( type, other.type ) && enabled == other.enabled
+                && priority == other.priority && schedule == other.schedule && params.equals( other.params );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ( name == null ? 0 : name.hashCode() ) * 31 + params.hashCode();
+        }
+
+        private static boolean eq( final Object a, final Object b )
+        {
+            return a == null ? b == null : a.equals( b );
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling.timers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TaskTimer} backed by a {@link ScheduledThreadPoolExecutor}. Scheduling and cancellation cost O(log n), as
+ * the executor uses a binary heap. If no worker executor is given, the pool threads both wait for the tasks to become
+ * due and execute them. Otherwise, the scheduled executor is used for timing only (one thread is plenty for that), and
+ * due tasks are handed over to the workers.
+ */
+public class ExecutorTaskTimer
+    implements TaskTimer
+{
+    /**
+     * The delay of the first retry of a hand over refused by the worker executor, in milliseconds.
+     */
+    public static final long RETRY_DELAY_MILLIS = 10;
+
+    /**
+     * The longest delay of retrying a hand over refused by the worker executor, in milliseconds.
+     */
+    public static final long MAX_RETRY_DELAY_MILLIS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ScheduledThreadPoolExecutor scheduledExecutorService;
+
+    private final ExecutorService workerExecutor;
+
+    public ExecutorTaskTimer( final ScheduledThreadPoolExecutor scheduledExecutorService )
+    {
+        this( scheduledExecutorService, null );
+    }
+
+    public ExecutorTaskTimer( final ScheduledThreadPoolExecutor scheduledExecutorService,
+                              final ExecutorService workerExecutor )
+    {
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.workerExecutor = workerExecutor;
+    }
+
+    public ScheduledThreadPoolExecutor getScheduledExecutorService()
+    {
+        return scheduledExecutorService;
+    }
+
+    /**
+     * Returns the executor running the task bodies, or {@code null} if they are run by scheduled executor itself.
+     *
+     * @return
+     */
+    public ExecutorService getWorkerExecutor()
+    {
+        return workerExecutor;
+    }
+
+    public <T> Future<T> schedule( final Callable<T> callable, final long delay, final TimeUnit unit )
+        throws RejectedExecutionException
+    {
+        if ( workerExecutor == null )
+        {
+            return scheduledExecutorService.schedule( callable, delay, unit );
+        }
+
+        return schedule( callable, delay, unit, workerExecutor );
+    }
+
+    public <T> Future<T> schedule( final Callable<T> callable, final long delay, final TimeUnit unit,
+                                   final Executor executor )
+        throws RejectedExecutionException
+    {
+        final DispatchedFuture<T> result = new DispatchedFuture<T>( callable, executor );
+        result.trigger = scheduledExecutorService.schedule( result, delay, unit );
+        return result;
+    }
+
+    public List<Future<?>> scheduleAll( final List<? extends Callable<?>> callables, final long[] delays,
+                                        final TimeUnit unit, final List<? extends Executor> executors )
+        throws RejectedExecutionException
+    {
+        // the heap of the executor has no bulk insertion, hence one by one
+        final List<Future<?>> result = new ArrayList<Future<?>>( callables.size() );
+
+        for ( int i = 0; i < callables.size(); i++ )
+        {
+            result.add( schedule( callables.get( i ), delays[i], unit, executors.get( i ) ) );
+        }
+
+        return result;
+    }
+
+    public void execute( final Runnable command )
+        throws RejectedExecutionException
+    {
+        if ( workerExecutor == null )
+        {
+            scheduledExecutorService.execute( command );
+        }
+        else
+        {
+            workerExecutor.execute( command );
+        }
+    }
+
+    public int getPendingCount()
+    {
+        return scheduledExecutorService.getQueue().size();
+    }
+
+    public void shutdown()
+    {
+        scheduledExecutorService.shutdown();
+
+        if ( workerExecutor != null )
+        {
+            workerExecutor.shutdown();
+        }
+    }
+
+    public void shutdownNow()
+    {
+        scheduledExecutorService.shutdownNow();
+
+        if ( workerExecutor != null )
+        {
+            workerExecutor.shutdownNow();
+        }
+    }
+
+    public boolean awaitTermination( final long timeout, final TimeUnit unit )
+        throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos( timeout );
+
+        if ( !scheduledExecutorService.awaitTermination( timeout, unit ) )
+        {
+            return false;
+        }
+
+        return workerExecutor == null
+            || workerExecutor.awaitTermination( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+    }
+
+    // ==
+
+    /**
+     * Returns the delay of retrying a hand over refused by the executor: doubled on each refusal, from
+     * {@link #RETRY_DELAY_MILLIS} up to {@link #MAX_RETRY_DELAY_MILLIS}.
+     *
+     * @param retryCount the count of refusals so far, starting with 1.
+     * @return
+     */
+    public static long getRetryDelayMillis( final int retryCount )
+    {
+        return Math.min( MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << Math.min( retryCount - 1, 16 ) );
+    }
+
+    /**
+     * The future of the task body, that is itself scheduled as "trigger" on scheduled executor: when due, it hands
+     * over itself to the executor (usually the workers).
+     */
+    protected class DispatchedFuture<T>
+        extends FutureTask<T>
+        implements Runnable
+    {
+        private final Executor executor;
+
+        private volatile Future<?> trigger;
+
+        private volatile boolean dispatched;
+
+        /**
+         * The count of hand overs refused by the executor, accessed by the timer thread only.
+         */
+        private int retryCount;
+
+        public DispatchedFuture( final Callable<T> callable, final Executor executor )
+        {
+            super( callable );
+
+            this.executor = executor;
+        }
+
+        @Override
+        public void run()
+        {
+            if ( dispatched )
+            {
+                super.run();
+            }
+            else
+            {
+                dispatched = true;
+
+                try
+                {
+                    executor.execute( this );
+                }
+                catch ( RejectedExecutionException e )
+                {
+                    retry( e );
+                }
+            }
+        }
+
+        /**
+         * Hands over this future again after a backoff delay, as the executor refused it (is saturated). The future is
+         * not cancelled, as the task would never run again: it reschedules itself only when it runs.
+         */
+        protected void retry( final RejectedExecutionException e )
+        {
+            if ( scheduledExecutorService.isShutdown() )
+            {
+                cancel( false );
+
+                return;
+            }
+
+            if ( retryCount++ == 0 )
+            {
+                logger.warn( "Worker executor saturated, task firing retried later: {}", e.getMessage() );
+            }
+
+            dispatched = false;
+
+            try
+            {
+                trigger = scheduledExecutorService.schedule( this, getRetryDelayMillis( retryCount ),
+                                                             TimeUnit.MILLISECONDS );
+            }
+            catch ( RejectedExecutionException shutdown )
+            {
+                cancel( false );
+
+                return;
+            }
+
+            // cancelled meanwhile, but the new trigger was not there to be cancelled too
+            if ( isCancelled() )
+            {
+                trigger.cancel( false );
+            }
+        }
+
+        @Override
+        public boolean cancel( final boolean mayInterruptIfRunning )
+        {
+            final Future<?> trigger = this.trigger;
+
+            if ( trigger != null )
+            {
+                trigger.cancel( false );
+            }
+
+            return super.cancel( mayInterruptIfRunning );
+        }
+    }
+}
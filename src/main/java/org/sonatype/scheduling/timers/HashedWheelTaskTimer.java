@@ -0,0 +1,577 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling.timers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TaskTimer} implemented as a hierarchical hashed timing wheel (Varghese and Lauck). Scheduling and
+ * cancellation are O(1) and lock-free for the callers: they only enqueue the request, while all the wheel
+ * bookkeeping is done by one single "ticker" thread. Due tasks are handed over to the executor passed in, so the
+ * ticker itself never runs task bodies.
+ * <p>
+ * The wheel has a number of levels, each of {@code ticksPerWheel} buckets. Level 0 buckets span one tick each, and
+ * every upper level bucket spans a whole revolution of the level below it. Tasks are placed into the lowest level
+ * able to hold their deadline, and are cascaded down as the time passes. Tasks further in future than the top level
+ * can hold are simply re-placed whenever their bucket comes around. A task never fires before its deadline, but may
+ * fire up to one tick late.
+ */
+public class HashedWheelTaskTimer
+    implements TaskTimer
+{
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    public static final int DEFAULT_LEVELS = 4;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ExecutorService executor;
+
+    private final long tickNanos;
+
+    private final int wheelBits;
+
+    private final long wheelMask;
+
+    private final Bucket[][] wheels;
+
+    private final Queue<WheelFuture<?>> additions;
+
+    private final Queue<WheelFuture<?>> cancellations;
+
+    private final AtomicInteger pendingCount;
+
+    private final long startTime;
+
+    private final Thread ticker;
+
+    private volatile boolean shutdown;
+
+    /**
+     * The tick being processed, accessed by ticker thread only.
+     */
+    private long currentTick;
+
+    public HashedWheelTaskTimer( final ExecutorService executor, final ThreadFactory threadFactory )
+    {
+        this( executor, threadFactory, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL,
+            DEFAULT_LEVELS );
+    }
+
+    public HashedWheelTaskTimer( final ExecutorService executor, final ThreadFactory threadFactory,
+                                 final long tickDuration, final TimeUnit unit, final int ticksPerWheel,
+                                 final int levels )
+    {
+        if ( tickDuration <= 0 )
+        {
+            throw new IllegalArgumentException( "Tick duration must be greater than 0: " + tickDuration );
+        }
+        if ( ticksPerWheel < 2 || Integer.bitCount( ticksPerWheel ) != 1 )
+        {
+            throw new IllegalArgumentException( "Ticks per wheel must be a power of two greater than 1: "
+                + ticksPerWheel );
+        }
+        if ( levels < 1 || levels * Integer.numberOfTrailingZeros( ticksPerWheel ) > 62 )
+        {
+            throw new IllegalArgumentException( "Level count out of range: " + levels );
+        }
+
+        this.executor = executor;
+        this.tickNanos = unit.toNanos( tickDuration );
+        this.wheelBits = Integer.numberOfTrailingZeros( ticksPerWheel );
+        this.wheelMask = ticksPerWheel - 1;
+        this.wheels = new Bucket[levels][ticksPerWheel];
+        for ( Bucket[] wheel : wheels )
+        {
+            for ( int i = 0; i < wheel.length; i++ )
+            {
+                wheel[i] = new Bucket();
+            }
+        }
+        this.additions = new ConcurrentLinkedQueue<WheelFuture<?>>();
+        this.cancellations = new ConcurrentLinkedQueue<WheelFuture<?>>();
+        this.pendingCount = new AtomicInteger( 0 );
+        this.currentTick = 0;
+        this.startTime = System.nanoTime();
+        this.ticker = threadFactory.newThread( new Ticker() );
+        this.ticker.start();
+    }
+
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    public <T> Future<T> schedule( final Callable<T> callable, final long delay, final TimeUnit unit )
+        throws RejectedExecutionException
+    {
+        return schedule( callable, delay, unit, executor );
+    }
+
+    public <T> Future<T> schedule( final Callable<T> callable, final long delay, final TimeUnit unit,
+                                   final Executor executor )
+        throws RejectedExecutionException
+    {
+        if ( callable == null )
+        {
+            throw new NullPointerException( "Callable to schedule cannot be null!" );
+        }
+        if ( shutdown )
+        {
+            throw new RejectedExecutionException( "Timer is shut down!" );
+        }
+
+        final WheelFuture<T> result =
+            new WheelFuture<T>( callable, executor, getDeadlineTick( System.nanoTime(), delay, unit ) );
+        pendingCount.incrementAndGet();
+        additions.offer( result );
+
+        if ( shutdown && additions.remove( result ) )
+        {
+            // raced with shutdown, and ticker will not pick it up anymore
+            pendingCount.decrementAndGet();
+            throw new RejectedExecutionException( "Timer is shut down!" );
+        }
+
+        return result;
+    }
+
+    public List<Future<?>> scheduleAll( final List<? extends Callable<?>> callables, final long[] delays,
+                                        final TimeUnit unit, final List<? extends Executor> executors )
+        throws RejectedExecutionException
+    {
+        if ( shutdown )
+        {
+            throw new RejectedExecutionException( "Timer is shut down!" );
+        }
+
+        final long now = System.nanoTime();
+
+        final List<WheelFuture<?>> futures = new ArrayList<WheelFuture<?>>( callables.size() );
+
+        for ( int i = 0; i < callables.size(); i++ )
+        {
+            if ( callables.get( i ) == null )
+            {
+                throw new NullPointerException( "Callable to schedule cannot be null!" );
+            }
+
+            futures.add( newWheelFuture( callables.get( i ), executors.get( i ),
+                                         getDeadlineTick( now, delays[i], unit ) ) );
+        }
+
+        // one hand over to the ticker for the whole batch
+        pendingCount.addAndGet( futures.size() );
+        additions.addAll( futures );
+
+        if ( shutdown )
+        {
+            // raced with shutdown, the ones not picked up by ticker will not be anymore
+            for ( WheelFuture<?> future : futures )
+            {
+                if ( additions.remove( future ) )
+                {
+                    future.cancel( false );
+                    pendingCount.decrementAndGet();
+                }
+            }
+            throw new RejectedExecutionException( "Timer is shut down!" );
+        }
+
+        return new ArrayList<Future<?>>( futures );
+    }
+
+    public void execute( final Runnable command )
+        throws RejectedExecutionException
+    {
+        executor.execute( command );
+    }
+
+    public int getPendingCount()
+    {
+        return pendingCount.get();
+    }
+
+    public void shutdown()
+    {
+        shutdown = true;
+        ticker.interrupt();
+        executor.shutdown();
+    }
+
+    public void shutdownNow()
+    {
+        shutdown = true;
+        ticker.interrupt();
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination( final long timeout, final TimeUnit unit )
+        throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos( timeout );
+        ticker.join( Math.max( 1, TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ) ) );
+        if ( ticker.isAlive() )
+        {
+            return false;
+        }
+        return executor.awaitTermination( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+    }
+
+    // ==
+
+    protected void place( final WheelFuture<?> future )
+    {
+        if ( future.isCancelled() )
+        {
+            pendingCount.decrementAndGet();
+            return;
+        }
+
+        final long deadlineTick = Math.max( future.deadlineTick, currentTick );
+
+        // find the lowest level that can hold the deadline, or use the top one if none
+        int level = 0;
+        while ( level < wheels.length - 1
+            && ( deadlineTick >>> ( level * wheelBits ) ) - ( currentTick >>> ( level * wheelBits ) ) > wheelMask )
+        {
+            level++;
+        }
+
+        wheels[level][(int) ( ( deadlineTick >>> ( level * wheelBits ) ) & wheelMask )].add( future );
+    }
+
+    /**
+     * Returns the tick when the firing after given delay from given time is due.
+     *
+     * @param now
+     * @param delay
+     * @param unit
+     * @return
+     */
+    protected long getDeadlineTick( final long now, final long delay, final TimeUnit unit )
+    {
+        long deadline = now - startTime + unit.toNanos( Math.max( 0, delay ) );
+        if ( deadline < 0 )
+        {
+            // overflow, it will never fire anyway
+            deadline = Long.MAX_VALUE;
+        }
+
+        return ( deadline / tickNanos ) + 1;
+    }
+
+    private <T> WheelFuture<T> newWheelFuture( final Callable<T> callable, final Executor executor,
+                                               final long deadlineTick )
+    {
+        return new WheelFuture<T>( callable, executor, deadlineTick );
+    }
+
+    protected void tick()
+    {
+        for ( WheelFuture<?> future = cancellations.poll(); future != null; future = cancellations.poll() )
+        {
+            if ( future.bucket != null )
+            {
+                future.bucket.remove( future );
+                pendingCount.decrementAndGet();
+            }
+        }
+
+        for ( WheelFuture<?> future = additions.poll(); future != null; future = additions.poll() )
+        {
+            place( future );
+        }
+
+        // cascade the upper levels whose bucket boundary we just crossed, top-down
+        for ( int level = wheels.length - 1; level > 0; level-- )
+        {
+            final int shift = level * wheelBits;
+
+            if ( ( currentTick & ( ( 1L << shift ) - 1 ) ) == 0 )
+            {
+                WheelFuture<?> future = wheels[level][(int) ( ( currentTick >>> shift ) & wheelMask )].detach();
+
+                while ( future != null )
+                {
+                    final WheelFuture<?> next = future.next;
+                    future.next = null;
+                    place( future );
+                    future = next;
+                }
+            }
+        }
+
+        WheelFuture<?> future = wheels[0][(int) ( currentTick & wheelMask )].detach();
+
+        while ( future != null )
+        {
+            final WheelFuture<?> next = future.next;
+            future.next = null;
+
+            if ( future.deadlineTick <= currentTick )
+            {
+                pendingCount.decrementAndGet();
+
+                if ( !future.isCancelled() )
+                {
+                    try
+                    {
+                        future.executor.execute( future );
+                    }
+                    catch ( RejectedExecutionException e )
+                    {
+                        retry( future, e );
+                    }
+                }
+            }
+            else
+            {
+                place( future );
+            }
+
+            future = next;
+        }
+    }
+
+    /**
+     * Places the future again to be handed over after a backoff delay, as the executor refused it (is saturated). The
+     * future is not cancelled, as the task would never run again: it reschedules itself only when it runs.
+     *
+     * @param future
+     * @param e
+     */
+    protected void retry( final WheelFuture<?> future, final RejectedExecutionException e )
+    {
+        if ( shutdown )
+        {
+            future.cancel( false );
+
+            return;
+        }
+
+        if ( future.retryCount++ == 0 )
+        {
+            logger.warn( "Worker executor saturated, task firing retried later: {}", e.getMessage() );
+        }
+
+        final long delayNanos =
+            TimeUnit.MILLISECONDS.toNanos( ExecutorTaskTimer.getRetryDelayMillis( future.retryCount ) );
+
+        future.deadlineTick = currentTick + Math.max( 1, ( delayNanos + tickNanos - 1 ) / tickNanos );
+
+        pendingCount.incrementAndGet();
+
+        place( future );
+    }
+
+    protected void cancelAll()
+    {
+        for ( Bucket[] wheel : wheels )
+        {
+            for ( Bucket bucket : wheel )
+            {
+                WheelFuture<?> future = bucket.detach();
+
+                while ( future != null )
+                {
+                    final WheelFuture<?> next = future.next;
+                    future.next = null;
+                    future.cancel( false );
+                    pendingCount.decrementAndGet();
+                    future = next;
+                }
+            }
+        }
+
+        for ( WheelFuture<?> future = additions.poll(); future != null; future = additions.poll() )
+        {
+            future.cancel( false );
+            pendingCount.decrementAndGet();
+        }
+
+        cancellations.clear();
+    }
+
+    // ==
+
+    protected class Ticker
+        implements Runnable
+    {
+        public void run()
+        {
+            try
+            {
+                while ( !shutdown )
+                {
+                    final long sleepNanos = ( startTime + currentTick * tickNanos ) - System.nanoTime();
+
+                    if ( sleepNanos > 0 )
+                    {
+                        try
+                        {
+                            Thread.sleep( TimeUnit.NANOSECONDS.toMillis( sleepNanos ), (int) ( sleepNanos % 1000000 ) );
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            // shutdown is checked in loop condition
+                        }
+
+                        continue;
+                    }
+
+                    tick();
+
+                    currentTick++;
+                }
+            }
+            finally
+            {
+                cancelAll();
+            }
+        }
+    }
+
+    protected class WheelFuture<T>
+        extends FutureTask<T>
+    {
+        private final Executor executor;
+
+        /**
+         * Moved on when the hand over is retried, accessed by ticker thread only then.
+         */
+        private long deadlineTick;
+
+        /**
+         * The count of hand overs refused by the executor, accessed by ticker thread only.
+         */
+        private int retryCount;
+
+        private Bucket bucket;
+
+        private WheelFuture<?> prev;
+
+        private WheelFuture<?> next;
+
+        public WheelFuture( final Callable<T> callable, final Executor executor, final long deadlineTick )
+        {
+            super( callable );
+
+            this.executor = executor;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean cancel( final boolean mayInterruptIfRunning )
+        {
+            final boolean cancelled = super.cancel( mayInterruptIfRunning );
+
+            if ( cancelled )
+            {
+                // let the ticker unlink it from the wheel
+                cancellations.offer( this );
+            }
+
+            return cancelled;
+        }
+    }
+
+    /**
+     * Doubly linked list of wheel entries, accessed by ticker thread only.
+     */
+    protected static class Bucket
+    {
+        private WheelFuture<?> head;
+
+        private WheelFuture<?> tail;
+
+        public void add( final WheelFuture<?> future )
+        {
+            future.bucket = this;
+            future.prev = tail;
+            future.next = null;
+
+            if ( tail == null )
+            {
+                head = future;
+            }
+            else
+            {
+                tail.next = future;
+            }
+
+            tail = future;
+        }
+
+        public void remove( final WheelFuture<?> future )
+        {
+            if ( future.prev == null )
+            {
+                head = future.next;
+            }
+            else
+            {
+                future.prev.next = future.next;
+            }
+
+            if ( future.next == null )
+            {
+                tail = future.prev;
+            }
+            else
+            {
+                future.next.prev = future.prev;
+            }
+
+            future.bucket = null;
+            future.prev = null;
+            future.next = null;
+        }
+
+        /**
+         * Empties this bucket, returning the first entry of the (still linked by {@code next}) detached entries.
+         */
+        public WheelFuture<?> detach()
+        {
+            final WheelFuture<?> result = head;
+
+            for ( WheelFuture<?> future = head; future != null; future = future.next )
+            {
+                future.bucket = null;
+                future.prev = null;
+            }
+
+            head = null;
+            tail = null;
+
+            return result;
+        }
+    }
+}
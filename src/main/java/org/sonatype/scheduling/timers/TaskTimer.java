@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling.timers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timer engine used by scheduler: it keeps track of pending task firings and executes them once they are due.
+ */
+public interface TaskTimer
+{
+    /**
+     * Schedules the callable for one-shot execution after given delay.
+     *
+     * @param callable
+     * @param delay
+     * @param unit
+     * @return the future of the execution, that may be used to cancel it too.
+     * @throws RejectedExecutionException if this timer is shut down.
+     */
+    <T> Future<T> schedule( Callable<T> callable, long delay, TimeUnit unit )
+        throws RejectedExecutionException;
+
+    /**
+     * Schedules the callable for one-shot execution after given delay, but once due, it is handed over to the given
+     * executor instead of the one of this timer. The given executor usually delegates to {@link #execute(Runnable)}.
+     * If the executor refuses the callable (is saturated), the hand over is retried with a backoff delay until it is
+     * accepted, the future is cancelled or this timer is shut down.
+     *
+     * @param callable
+     * @param delay
+     * @param unit
+     * @param executor
+     * @return the future of the execution, that may be used to cancel it too.
+     * @throws RejectedExecutionException if this timer is shut down.
+     */
+    <T> Future<T> schedule( Callable<T> callable, long delay, TimeUnit unit, Executor executor )
+        throws RejectedExecutionException;
+
+    /**
+     * Schedules the callables at once, as {@link #schedule(Callable, long, TimeUnit, Executor)} would do one by one,
+     * each with the delay and the executor at the same index. Used to load up many tasks on startup.
+     *
+     * @param callables
+     * @param delays
+     * @param unit
+     * @param executors
+     * @return the futures of the executions, in the order of the callables.
+     * @throws RejectedExecutionException if this timer is shut down.
+     */
+    List<Future<?>> scheduleAll( List<? extends Callable<?>> callables, long[] delays, TimeUnit unit,
+                                 List<? extends Executor> executors )
+        throws RejectedExecutionException;
+
+    /**
+     * Executes the command without delay, by the same threads executing the due callables.
+     *
+     * @param command
+     * @throws RejectedExecutionException if this timer is shut down.
+     */
+    void execute( Runnable command )
+        throws RejectedExecutionException;
+
+    /**
+     * Returns the count of firings waiting for their time to come (not yet handed over for execution).
+     *
+     * @return
+     */
+    int getPendingCount();
+
+    /**
+     * Initiates an orderly shutdown: currently running executions are let to finish, but pending ones will not be
+     * executed.
+     */
+    void shutdown();
+
+    /**
+     * Initiates a forced shutdown: as {@link #shutdown()}, but tries to interrupt running executions too.
+     */
+    void shutdownNow();
+
+    /**
+     * Blocks until all executions finished after a shutdown, or the timeout occurs.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if this timer terminated, false if timeout elapsed before termination.
+     * @throws InterruptedException
+     */
+    boolean awaitTermination( long timeout, TimeUnit unit )
+        throws InterruptedException;
+}
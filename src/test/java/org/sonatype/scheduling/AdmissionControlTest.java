@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.DailySchedule;
+
+/**
+ * Tests the admission of tasks while the only worker thread is busy, hence the submitted tasks stay pending (see
+ * AdmissionControlTest.xml).
+ */
+public class AdmissionControlTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    protected CountDownLatch blockerStarted;
+
+    protected CountDownLatch blockerRelease;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        blockerStarted = new CountDownLatch( 1 );
+
+        blockerRelease = new CountDownLatch( 1 );
+
+        // occupy the only worker thread
+        defaultScheduler.submit( "blocker", new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                blockerStarted.countDown();
+
+                blockerRelease.await();
+
+                return null;
+            }
+        } );
+
+        blockerStarted.await();
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception
+    {
+        blockerRelease.countDown();
+
+        super.tearDown();
+    }
+
+    public void testCallerRunsOverLimit()
+        throws Exception
+    {
+        final AdmissionControl admissionControl = defaultScheduler.getAdmissionControl();
+
+        final ScheduledTask<String> first = defaultScheduler.submit( "first", new ThreadNameCallable() );
+        final ScheduledTask<String> second = defaultScheduler.submit( "second", new ThreadNameCallable() );
+
+        assertEquals( 2, admissionControl.getPendingCount() );
+        assertEquals( 2, admissionControl.getPendingCount( "ThreadNameCallable" ) );
+
+        final ScheduledTask<String> third = defaultScheduler.submit( "third", new ThreadNameCallable() );
+
+        assertEquals( TaskState.FINISHED, third.getTaskState() );
+        assertEquals( Thread.currentThread().getName(), third.get() );
+        assertEquals( 1, admissionControl.getCallerRunsCount() );
+        assertEquals( 2, admissionControl.getPendingCount() );
+
+        blockerRelease.countDown();
+
+        Utils.awaitTaskState( first, 3000, TaskState.FINISHED );
+        Utils.awaitTaskState( second, 3000, TaskState.FINISHED );
+
+        assertEquals( 0, admissionControl.getPendingCount() );
+    }
+
+    public void testLaneTaskOverLimitIsRefused()
+        throws Exception
+    {
+        defaultScheduler.submit( "first", new ThreadNameCallable() );
+        defaultScheduler.submit( "second", new ThreadNameCallable() );
+
+        try
+        {
+            defaultScheduler.submit( "third", new ThreadNameCallable(), "lane" );
+
+            fail( "Lane tasks cannot be run by the caller" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // good
+        }
+
+        assertEquals( 1, defaultScheduler.getAdmissionControl().getRejectedCount() );
+        assertEquals( 1, defaultScheduler.getRejectedTaskCount() );
+        assertEquals( 2, defaultScheduler.getPendingTaskCount() );
+        assertEquals( 2, defaultScheduler.getPendingTaskCount( "ThreadNameCallable" ) );
+        assertEquals( 2, defaultScheduler.getAllTasks().get( "ThreadNameCallable" ).size() );
+    }
+
+    public void testPriorityLimit()
+        throws Exception
+    {
+        final AdmissionControl admissionControl = defaultScheduler.getAdmissionControl();
+
+        final ScheduledTask<String> low =
+            defaultScheduler.submit( "low", new ThreadNameCallable(), TaskPriority.LOW );
+
+        assertEquals( TaskPriority.LOW, low.getPriority() );
+        assertEquals( 1, admissionControl.getPendingCount( TaskPriority.LOW ) );
+
+        final ScheduledTask<String> normal = defaultScheduler.submit( "normal", new ThreadNameCallable() );
+
+        assertEquals( TaskState.SUBMITTED, normal.getTaskState() );
+
+        final ScheduledTask<String> otherLow =
+            defaultScheduler.submit( "otherLow", new ThreadNameCallable(), TaskPriority.LOW );
+
+        assertEquals( TaskState.FINISHED, otherLow.getTaskState() );
+        assertEquals( 1, admissionControl.getPendingCount( TaskPriority.LOW ) );
+        assertEquals( 1, admissionControl.getPendingCount( TaskPriority.NORMAL ) );
+    }
+
+    public void testBlockPolicy()
+        throws Exception
+    {
+        final AdmissionControl admissionControl =
+            new AdmissionControl( 1, Collections.<String, Integer> emptyMap(),
+                                  Collections.<TaskPriority, Integer> emptyMap(),
+                                  AdmissionControl.ADMISSION_POLICY_BLOCK, 5000 );
+
+        final ScheduledTask<String> first = defaultScheduler.submit( "first", new ThreadNameCallable() );
+        final ScheduledTask<String> second = defaultScheduler.submit( "second", new ThreadNameCallable() );
+
+        assertTrue( admissionControl.admit( first, true ) );
+
+        final CountDownLatch admitted = new CountDownLatch( 1 );
+
+        new Thread()
+        {
+            public void run()
+            {
+                admissionControl.admit( second, true );
+
+                admitted.countDown();
+            }
+        }.start();
+
+        assertFalse( admitted.await( 200, TimeUnit.MILLISECONDS ) );
+
+        admissionControl.release( first );
+
+        assertTrue( admitted.await( 1, TimeUnit.SECONDS ) );
+        assertEquals( 1, admissionControl.getPendingCount() );
+    }
+
+    public void testBlockPolicyTimesOut()
+        throws Exception
+    {
+        final AdmissionControl admissionControl =
+            new AdmissionControl( 0, Collections.singletonMap( "ThreadNameCallable", 1 ),
+                                  Collections.<TaskPriority, Integer> emptyMap(),
+                                  AdmissionControl.ADMISSION_POLICY_BLOCK, 100 );
+
+        assertTrue( admissionControl.admit( defaultScheduler.submit( "first", new ThreadNameCallable() ), true ) );
+
+        try
+        {
+            admissionControl.admit( defaultScheduler.submit( "second", new ThreadNameCallable() ), true );
+
+            fail( "No room for second task" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // good
+        }
+
+        assertEquals( 1, admissionControl.getRejectedCount() );
+    }
+
+    public void testDropOldestPolicy()
+        throws Exception
+    {
+        final AdmissionControl admissionControl =
+            new AdmissionControl( 1, Collections.<String, Integer> emptyMap(),
+                                  Collections.<TaskPriority, Integer> emptyMap(),
+                                  AdmissionControl.ADMISSION_POLICY_DROP_OLDEST, 0 );
+
+        final ScheduledTask<String> first = defaultScheduler.submit( "first", new ThreadNameCallable() );
+        final ScheduledTask<String> second = defaultScheduler.submit( "second", new ThreadNameCallable() );
+
+        assertTrue( admissionControl.admit( first, true ) );
+        assertTrue( admissionControl.admit( second, false ) );
+
+        assertEquals( TaskState.CANCELLED, first.getTaskState() );
+        assertEquals( TaskState.SUBMITTED, second.getTaskState() );
+        assertEquals( 1, admissionControl.getPendingCount() );
+        assertEquals( 1, admissionControl.getDroppedCount() );
+    }
+
+    public void testDropOldestKeepsScheduledTasks()
+        throws Exception
+    {
+        final DefaultScheduler droppingScheduler =
+            (DefaultScheduler) lookup( Scheduler.class.getName(), "drop-oldest" );
+
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        // occupy the only worker thread of this scheduler too
+        droppingScheduler.submit( "blocker", new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                started.countDown();
+
+                blockerRelease.await();
+
+                return null;
+            }
+        } );
+
+        started.await();
+
+        final ScheduledTask<String> daily =
+            droppingScheduler.schedule( "daily", new ThreadNameCallable(),
+                                        new DailySchedule( new Date( System.currentTimeMillis() + 60000 ), null ) );
+
+        assertEquals( 0, droppingScheduler.getPendingTaskCount() );
+
+        final ScheduledTask<String> first = droppingScheduler.submit( "first", new ThreadNameCallable() );
+        droppingScheduler.submit( "second", new ThreadNameCallable() );
+        droppingScheduler.submit( "third", new ThreadNameCallable() );
+
+        assertEquals( TaskState.CANCELLED, first.getTaskState() );
+        assertEquals( 1, droppingScheduler.getDroppedTaskCount() );
+        assertEquals( 2, droppingScheduler.getPendingTaskCount() );
+
+        assertEquals( TaskState.SUBMITTED, daily.getTaskState() );
+        assertSame( daily, droppingScheduler.getTaskById( daily.getId() ) );
+    }
+
+    // ==
+
+    protected static class ThreadNameCallable
+        implements Callable<String>
+    {
+        public String call()
+        {
+            return Thread.currentThread().getName();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.DailySchedule;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Tests the initialization of tasks in parallel batches on bootup.
+ */
+public class BulkInitializationTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+    }
+
+    public void testTasksAreInitialized()
+        throws Exception
+    {
+        final Date tomorrow = new Date( System.currentTimeMillis() + 24 * 3600000L );
+
+        final List<TaskDefinition<?>> definitions = new ArrayList<TaskDefinition<?>>();
+
+        for ( int i = 1; i <= 250; i++ )
+        {
+            definitions.add( new TaskDefinition<Integer>( String.valueOf( i ), "task" + i, "type" + ( i % 3 ),
+                new NoopCallable(), i % 2 == 0 ? new ManualRunSchedule() : new DailySchedule( tomorrow, null ),
+                i % 5 != 0, TaskPriority.HIGH ) );
+        }
+
+        definitions.add( new TaskDefinition<Integer>( "custom", "custom", "type0", new NoopCallable(),
+            new ManualRunSchedule(), true ) );
+
+        final List<ScheduledTask<?>> tasks = defaultScheduler.initializeAll( definitions );
+
+        assertEquals( 251, tasks.size() );
+
+        for ( int i = 0; i < 250; i++ )
+        {
+            assertEquals( String.valueOf( i + 1 ), tasks.get( i ).getId() );
+        }
+
+        assertEquals( 84, defaultScheduler.getAllTasks().get( "type0" ).size() );
+        assertEquals( 84, defaultScheduler.getAllTasks().get( "type1" ).size() );
+        assertEquals( 83, defaultScheduler.getAllTasks().get( "type2" ).size() );
+
+        final ScheduledTask<?> daily = defaultScheduler.getTaskById( "5" );
+
+        assertFalse( daily.isEnabled() );
+        assertEquals( TaskPriority.HIGH, daily.getPriority() );
+        assertEquals( tomorrow, daily.getNextRun() );
+
+        // no generated ID clashes with the loaded up ones
+        assertEquals( "251", defaultScheduler.submit( "new", new NoopCallable() ).getId() );
+    }
+
+    public void testFailingTaskIsSkipped()
+        throws Exception
+    {
+        final List<TaskDefinition<?>> definitions = new ArrayList<TaskDefinition<?>>();
+
+        definitions.add( new TaskDefinition<Integer>( "1", "task1", "type", new NoopCallable(),
+            new ManualRunSchedule(), true ) );
+        definitions.add( new TaskDefinition<Integer>( "2", "broken", "type", new NoopCallable(),
+            new ManualRunSchedule(), true, null ) );
+        definitions.add( new TaskDefinition<Integer>( "3", "task3", "type", new NoopCallable(),
+            new ManualRunSchedule(), true ) );
+
+        final List<ScheduledTask<?>> tasks = defaultScheduler.initializeAll( definitions );
+
+        assertEquals( 2, tasks.size() );
+        assertEquals( "1", tasks.get( 0 ).getId() );
+        assertEquals( "3", tasks.get( 1 ).getId() );
+
+        try
+        {
+            defaultScheduler.getTaskById( "2" );
+
+            fail( "Task was skipped" );
+        }
+        catch ( NoSuchTaskException e )
+        {
+            // good
+        }
+    }
+
+    public void testLazyTasksAreInstantiatedWhenFired()
+        throws Exception
+    {
+        final CountingTaskFactory factory = new CountingTaskFactory();
+
+        final List<TaskDefinition<?>> definitions = new ArrayList<TaskDefinition<?>>();
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            definitions.add( new TaskDefinition<Object>( String.valueOf( i ), "task" + i, "type", factory,
+                Collections.singletonMap( "repositoryId", "repo" + i ), new ManualRunSchedule(), true,
+                TaskPriority.NORMAL ) );
+        }
+
+        defaultScheduler.initializeAll( definitions );
+
+        final ScheduledTask<?> task = defaultScheduler.getTaskById( "7" );
+
+        assertEquals( "repo7", task.getTaskParams().get( "repositoryId" ) );
+        assertEquals( 0, factory.created.get() );
+
+        final CompletionStage<?> run = RunCompletion.getRunCompletion( task );
+
+        task.runNow();
+
+        assertEquals( "repo7", run.toCompletableFuture().get( 3, TimeUnit.SECONDS ) );
+        assertEquals( 1, factory.created.get() );
+        assertEquals( "repo7", ( (DefaultScheduledTask<?>) task ).getSchedulerTask().getParameter( "repositoryId" ) );
+        assertEquals( 1, factory.created.get() );
+    }
+
+    // ==
+
+    protected static class CountingTaskFactory
+        extends SimpleTaskConfigManager
+    {
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public SchedulerTask<?> createTaskInstance( final String taskType )
+        {
+            created.incrementAndGet();
+
+            return new AbstractSchedulerTask<String>()
+            {
+                public boolean allowConcurrentSubmission( final Map<String, List<ScheduledTask<?>>> activeTasks )
+                {
+                    return true;
+                }
+
+                public boolean allowConcurrentExecution( final Map<String, List<ScheduledTask<?>>> activeTasks )
+                {
+                    return true;
+                }
+
+                @Override
+                public String call()
+                {
+                    return getParameter( "repositoryId" );
+                }
+            };
+        }
+    }
+
+    protected static class NoopCallable
+        implements Callable<Integer>
+    {
+        public Integer call()
+        {
+            return 0;
+        }
+    }
+}
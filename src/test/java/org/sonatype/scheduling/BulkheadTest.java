@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.HourlySchedule;
+
+/**
+ * Tests the bulkheads set up in BulkheadTest.xml: each of the bulkhead types has one thread.
+ */
+public class BulkheadTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+    }
+
+    public void testConfiguration()
+    {
+        assertEquals( 3, defaultScheduler.getBulkheadExecutors().size() );
+
+        final BulkheadExecutor bulkheadExecutor = defaultScheduler.getBulkheadExecutors().get( "DiscardingCallable" );
+
+        assertEquals( "DiscardingCallable", bulkheadExecutor.getType() );
+        assertEquals( BulkheadExecutor.REJECTION_POLICY_DISCARD_OLDEST, bulkheadExecutor.getRejectionPolicy() );
+    }
+
+    public void testIsolationAndAbort()
+        throws Exception
+    {
+        final BulkheadExecutor bulkheadExecutor = defaultScheduler.getBulkheadExecutors().get( "AbortingCallable" );
+
+        final AbortingCallable running = new AbortingCallable();
+        final AbortingCallable queued = new AbortingCallable();
+        final AbortingCallable rejected = new AbortingCallable();
+
+        defaultScheduler.submit( "running", running );
+        assertTrue( running.started.await( 5, TimeUnit.SECONDS ) );
+        final ScheduledTask<Object> queuedTask = defaultScheduler.submit( "queued", queued );
+        awaitQueued( bulkheadExecutor, 1 );
+        final ScheduledTask<Object> rejectedTask = defaultScheduler.submit( "rejected", rejected );
+        awaitRejected( bulkheadExecutor, 1 );
+
+        // the dropped run was the only one of the task
+        Utils.awaitTaskState( rejectedTask, 5000, TaskState.CANCELLED );
+
+        assertEquals( 1, bulkheadExecutor.getActiveCount() );
+        assertEquals( 1, bulkheadExecutor.getQueuedCount() );
+
+        // other types are not held up by the saturated bulkhead
+        final OtherCallable other = new OtherCallable();
+        defaultScheduler.submit( "other", other );
+        assertTrue( other.started.await( 5, TimeUnit.SECONDS ) );
+        other.finish.countDown();
+
+        running.finish.countDown();
+        assertTrue( queued.started.await( 5, TimeUnit.SECONDS ) );
+        queued.finish.countDown();
+        Utils.awaitTaskState( queuedTask, 5000, TaskState.FINISHED );
+
+        assertEquals( 1, rejected.started.getCount() );
+        assertEquals( 1, bulkheadExecutor.getRejectedCount() );
+    }
+
+    public void testAbortedRunIsSkipped()
+        throws Exception
+    {
+        final BulkheadExecutor bulkheadExecutor = defaultScheduler.getBulkheadExecutors().get( "AbortingCallable" );
+
+        final AbortingCallable running = new AbortingCallable();
+        final AbortingCallable queued = new AbortingCallable();
+        final AbortingCallable recurring = new AbortingCallable();
+
+        defaultScheduler.submit( "running", running );
+        assertTrue( running.started.await( 5, TimeUnit.SECONDS ) );
+        defaultScheduler.submit( "queued", queued );
+        awaitQueued( bulkheadExecutor, 1 );
+
+        final long start = System.currentTimeMillis() + 200;
+        final ScheduledTask<Object> recurringTask =
+            defaultScheduler.schedule( "recurring", recurring, new HourlySchedule( new Date( start ), null ) );
+        awaitRejected( bulkheadExecutor, 1 );
+
+        // the task moves on to its next run
+        Utils.awaitTaskState( recurringTask, 5000, TaskState.WAITING );
+        assertTrue( recurringTask.getNextRun().getTime() >= start + 60 * 60 * 1000 - 1000 );
+        assertEquals( 1, recurring.started.getCount() );
+
+        running.finish.countDown();
+        queued.finish.countDown();
+        recurringTask.cancel();
+    }
+
+    public void testDiscardOldest()
+        throws Exception
+    {
+        final BulkheadExecutor bulkheadExecutor = defaultScheduler.getBulkheadExecutors().get( "DiscardingCallable" );
+
+        final DiscardingCallable running = new DiscardingCallable();
+        final DiscardingCallable discarded = new DiscardingCallable();
+        final DiscardingCallable newest = new DiscardingCallable();
+
+        defaultScheduler.submit( "running", running );
+        assertTrue( running.started.await( 5, TimeUnit.SECONDS ) );
+        final ScheduledTask<Object> discardedTask = defaultScheduler.submit( "discarded", discarded );
+        awaitQueued( bulkheadExecutor, 1 );
+        final ScheduledTask<Object> newestTask = defaultScheduler.submit( "newest", newest );
+        awaitRejected( bulkheadExecutor, 1 );
+
+        // the dropped run was the only one of the task
+        Utils.awaitTaskState( discardedTask, 5000, TaskState.CANCELLED );
+
+        running.finish.countDown();
+        newest.finish.countDown();
+        assertTrue( newest.started.await( 5, TimeUnit.SECONDS ) );
+        Utils.awaitTaskState( newestTask, 5000, TaskState.FINISHED );
+
+        assertEquals( 1, discarded.started.getCount() );
+    }
+
+    public void testCallerRuns()
+        throws Exception
+    {
+        final BulkheadExecutor bulkheadExecutor = defaultScheduler.getBulkheadExecutors().get( "CallerRunsCallable" );
+
+        final CallerRunsCallable running = new CallerRunsCallable();
+        final CallerRunsCallable overflow = new CallerRunsCallable();
+
+        defaultScheduler.submit( "running", running );
+        assertTrue( running.started.await( 5, TimeUnit.SECONDS ) );
+        final ScheduledTask<Object> overflowTask = defaultScheduler.submit( "overflow", overflow );
+
+        // run by the shared workers, while the bulkhead thread is still busy
+        assertTrue( overflow.started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, bulkheadExecutor.getRejectedCount() );
+        assertEquals( 1, bulkheadExecutor.getActiveCount() );
+
+        // the overflowing run does not hold up the timer
+        final OtherCallable other = new OtherCallable();
+        defaultScheduler.submit( "other", other );
+        assertTrue( other.started.await( 5, TimeUnit.SECONDS ) );
+        other.finish.countDown();
+
+        overflow.finish.countDown();
+        running.finish.countDown();
+        Utils.awaitTaskState( overflowTask, 5000, TaskState.FINISHED );
+    }
+
+    // ==
+
+    protected static void awaitQueued( final BulkheadExecutor bulkheadExecutor, final int count )
+        throws InterruptedException
+    {
+        for ( int i = 0; i < 500 && bulkheadExecutor.getQueuedCount() < count; i++ )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( count, bulkheadExecutor.getQueuedCount() );
+    }
+
+    protected static void awaitRejected( final BulkheadExecutor bulkheadExecutor, final long count )
+        throws InterruptedException
+    {
+        for ( int i = 0; i < 500 && bulkheadExecutor.getRejectedCount() < count; i++ )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( count, bulkheadExecutor.getRejectedCount() );
+    }
+
+    public static class BlockingCallable
+        implements Callable<Object>
+    {
+        public final CountDownLatch started = new CountDownLatch( 1 );
+
+        public final CountDownLatch finish = new CountDownLatch( 1 );
+
+        public Object call()
+            throws Exception
+        {
+            started.countDown();
+
+            finish.await();
+
+            return null;
+        }
+    }
+
+    public static class AbortingCallable
+        extends BlockingCallable
+    {
+    }
+
+    public static class DiscardingCallable
+        extends BlockingCallable
+    {
+    }
+
+    public static class CallerRunsCallable
+        extends BlockingCallable
+    {
+    }
+
+    public static class OtherCallable
+        extends BlockingCallable
+    {
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.DailySchedule;
+import org.sonatype.scheduling.schedules.HourlySchedule;
+import org.sonatype.scheduling.schedules.RunNowSchedule;
+
+/**
+ * Tests the coalescing of duplicate submissions.
+ */
+public class CoalescingTaskTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    protected AtomicInteger runCount;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        runCount = new AtomicInteger();
+    }
+
+    public void testDuplicatesAreCoalesced()
+        throws Exception
+    {
+        final ScheduledTask<Integer> first = defaultScheduler.submit( "first", createTask( "repo1", null ) );
+        final ScheduledTask<Integer> second = defaultScheduler.submit( "second", createTask( "repo1", null ) );
+        final ScheduledTask<Integer> other = defaultScheduler.submit( "other", createTask( "repo2", null ) );
+
+        assertSame( first, second );
+        assertNotSame( first, other );
+        assertEquals( "first", second.getName() );
+
+        Utils.awaitTaskState( first, 3000, TaskState.FINISHED );
+        Utils.awaitTaskState( other, 3000, TaskState.FINISHED );
+
+        assertEquals( 2, runCount.get() );
+    }
+
+    public void testExplicitKey()
+        throws Exception
+    {
+        final ScheduledTask<Integer> first = defaultScheduler.submit( "first", createTask( "repo1", "key" ) );
+        final ScheduledTask<Integer> second = defaultScheduler.submit( "second", createTask( "repo2", "key" ) );
+
+        assertSame( first, second );
+    }
+
+    public void testRunningTaskIsNotCoalesced()
+        throws Exception
+    {
+        final ScheduledTask<Integer> first = defaultScheduler.submit( "first", createTask( "repo1", null ) );
+
+        Utils.awaitTaskState( first, 3000, TaskState.FINISHED );
+
+        final ScheduledTask<Integer> second = defaultScheduler.submit( "second", createTask( "repo1", null ) );
+
+        assertNotSame( first, second );
+
+        Utils.awaitTaskState( second, 3000, TaskState.FINISHED );
+
+        assertEquals( 2, runCount.get() );
+    }
+
+    public void testLaterRunIsNotCoalescedInto()
+        throws Exception
+    {
+        final ScheduledTask<Integer> recurring =
+            defaultScheduler.schedule( "recurring", createTask( "repo1", null ),
+                                       new HourlySchedule( new Date( System.currentTimeMillis() + 60 * 60 * 1000 ),
+                                                           null ) );
+
+        // would be delayed by an hour otherwise
+        final ScheduledTask<Integer> immediate = defaultScheduler.submit( "immediate", createTask( "repo1", null ) );
+
+        assertNotSame( recurring, immediate );
+
+        Utils.awaitTaskState( immediate, 3000, TaskState.FINISHED );
+
+        assertEquals( 1, runCount.get() );
+
+        recurring.cancel();
+    }
+
+    public void testScheduledTaskIsNotCoalesced()
+        throws Exception
+    {
+        final CountDownLatch release = blockLane( "lane" );
+
+        try
+        {
+            final ScheduledTask<Integer> pending =
+                defaultScheduler.submit( "pending", createTask( "repo1", null ), "lane" );
+
+            // the pending run is earlier than the first daily one, still the daily task is to be created
+            final ScheduledTask<Integer> daily =
+                defaultScheduler.schedule( "daily", createTask( "repo1", null ),
+                                           new DailySchedule( new Date( System.currentTimeMillis() + 60000 ), null ),
+                                           "lane" );
+
+            assertEquals( TaskState.SUBMITTED, pending.getTaskState() );
+            assertNotSame( pending, daily );
+            assertSame( daily, defaultScheduler.getTaskById( daily.getId() ) );
+
+            daily.cancel();
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    public void testOtherLaneIsNotCoalescedInto()
+        throws Exception
+    {
+        final CountDownLatch release = blockLane( "lane" );
+
+        try
+        {
+            final ScheduledTask<Integer> pending =
+                defaultScheduler.submit( "pending", createTask( "repo1", null ), "lane" );
+
+            final ScheduledTask<Integer> sameLane =
+                defaultScheduler.submit( "sameLane", createTask( "repo1", null ), "lane" );
+            final ScheduledTask<Integer> otherLane =
+                defaultScheduler.submit( "otherLane", createTask( "repo1", null ), "other" );
+            final ScheduledTask<Integer> noLane = defaultScheduler.submit( "noLane", createTask( "repo1", null ) );
+
+            assertSame( pending, sameLane );
+            assertNotSame( pending, otherLane );
+            assertNotSame( pending, noLane );
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    public void testHigherPriorityIsKept()
+        throws Exception
+    {
+        final CountDownLatch release = blockLane( "lane" );
+
+        try
+        {
+            final ScheduledTask<Integer> pending =
+                defaultScheduler.submit( "pending", createTask( "repo1", null ), "lane" );
+
+            final ScheduledTask<Integer> urgent =
+                defaultScheduler.schedule( defaultScheduler.generateId(), "urgent", CountingTask.class.getSimpleName(),
+                                           createTask( "repo1", null ), new RunNowSchedule(), true, true, "lane",
+                                           TaskPriority.HIGH );
+
+            assertSame( pending, urgent );
+            assertEquals( TaskPriority.HIGH, pending.getPriority() );
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    public void testKeysAreUnambiguous()
+        throws Exception
+    {
+        final CountingTask joined = createTask( "repo1, b=c", null );
+        final CountingTask split = createTask( "repo1", null );
+
+        split.addParameter( "b", "c" );
+
+        final ScheduledTask<Integer> first = defaultScheduler.submit( "first", joined );
+        final ScheduledTask<Integer> second = defaultScheduler.submit( "second", split );
+
+        assertNotSame( first, second );
+        assertFalse( ( (DefaultScheduledTask<?>) first ).getCoalescingKey().equals(
+            ( (DefaultScheduledTask<?>) second ).getCoalescingKey() ) );
+    }
+
+    // ==
+
+    /**
+     * Occupies the lane until the returned latch is counted down, hence the tasks submitted to it stay pending.
+     */
+    protected CountDownLatch blockLane( final String laneKey )
+        throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        defaultScheduler.submit( "blocker", new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                started.countDown();
+
+                release.await();
+
+                return null;
+            }
+        }, laneKey );
+
+        started.await();
+
+        return release;
+    }
+
+    protected CountingTask createTask( final String repositoryId, final String coalescingKey )
+    {
+        final CountingTask result = new CountingTask( coalescingKey );
+
+        result.addParameter( "repositoryId", repositoryId );
+
+        return result;
+    }
+
+    protected class CountingTask
+        extends AbstractSchedulerTask<Integer>
+        implements CoalescingTask
+    {
+        private final String coalescingKey;
+
+        public CountingTask( final String coalescingKey )
+        {
+            this.coalescingKey = coalescingKey;
+        }
+
+        public String getCoalescingKey()
+        {
+            return coalescingKey;
+        }
+
+        public boolean allowConcurrentSubmission( final Map<String, List<ScheduledTask<?>>> currentActiveTasks )
+        {
+            return true;
+        }
+
+        public boolean allowConcurrentExecution( final Map<String, List<ScheduledTask<?>>> currentActiveTasks )
+        {
+            return true;
+        }
+
+        @Override
+        public Integer call()
+        {
+            return runCount.incrementAndGet();
+        }
+    }
+}
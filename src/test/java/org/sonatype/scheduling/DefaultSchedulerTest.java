@@ -12,8 +12,14 @@
  */
 package org.sonatype.scheduling;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -84,6 +90,170 @@ public class DefaultSchedulerTest
         assertEquals( 0, defaultScheduler.getActiveTasks().size() );
     }
 
+    public void testGetTaskById()
+        throws Exception
+    {
+        ScheduledTask<Integer> st = defaultScheduler.schedule( "default", new TestCallable(), new ManualRunSchedule() );
+
+        assertSame( st, defaultScheduler.getTaskById( st.getId() ) );
+
+        // re-initialized task with same ID takes over, and the original is still found once the new one is gone
+        ScheduledTask<Integer> reinitialized =
+            defaultScheduler.initialize( st.getId(), st.getName(), st.getType(), new TestCallable(),
+                new ManualRunSchedule(), true );
+
+        assertSame( reinitialized, defaultScheduler.getTaskById( st.getId() ) );
+
+        reinitialized.cancel();
+
+        assertSame( st, defaultScheduler.getTaskById( st.getId() ) );
+
+        st.cancel();
+
+        try
+        {
+            defaultScheduler.getTaskById( st.getId() );
+
+            fail( "cancelled task should not be found" );
+        }
+        catch ( NoSuchTaskException e )
+        {
+            // good
+        }
+    }
+
+    public void testStateIndex()
+        throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        ScheduledTask<Object> st = defaultScheduler.schedule( "default", new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                started.countDown();
+
+                release.await();
+
+                return null;
+            }
+        }, new ManualRunSchedule() );
+
+        assertEquals( 1, defaultScheduler.getTaskCount( TaskState.SUBMITTED ) );
+        assertTrue( defaultScheduler.getTasks( TaskState.SUBMITTED ).contains( st ) );
+        assertEquals( 0, defaultScheduler.getTaskCount( TaskState.RUNNING ) );
+
+        st.runNow();
+
+        started.await();
+
+        assertEquals( 0, defaultScheduler.getTaskCount( TaskState.SUBMITTED ) );
+        assertEquals( 1, defaultScheduler.getTaskCount( TaskState.RUNNING ) );
+        assertEquals( 1, defaultScheduler.getRunningTasks().size() );
+        assertEquals( 1, defaultScheduler.getActiveTasks().get( st.getType() ).size() );
+
+        release.countDown();
+
+        Utils.awaitTaskState( st, 1000, TaskState.SUBMITTED );
+
+        assertEquals( 1, defaultScheduler.getTaskCount( TaskState.SUBMITTED ) );
+        assertEquals( 0, defaultScheduler.getTaskCount( TaskState.RUNNING ) );
+        assertTrue( defaultScheduler.getRunningTasks().isEmpty() );
+
+        st.cancel();
+
+        for ( TaskState state : TaskState.values() )
+        {
+            assertEquals( state.name(), 0, defaultScheduler.getTaskCount( state ) );
+        }
+    }
+
+    public void testLanes()
+        throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        final AtomicInteger running = new AtomicInteger();
+
+        final AtomicInteger overlaps = new AtomicInteger();
+
+        ScheduledTask<Object> blocker = defaultScheduler.submit( "blocker", new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                started.countDown();
+
+                release.await();
+
+                return null;
+            }
+        }, "repo1" );
+
+        started.await();
+
+        List<ScheduledTask<Integer>> laneTasks = new ArrayList<ScheduledTask<Integer>>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            final int index = i;
+
+            laneTasks.add( defaultScheduler.submit( "lane task " + i, new Callable<Integer>()
+            {
+                public Integer call()
+                    throws Exception
+                {
+                    if ( running.incrementAndGet() > 1 )
+                    {
+                        overlaps.incrementAndGet();
+                    }
+
+                    order.add( index );
+
+                    Thread.sleep( 5 );
+
+                    running.decrementAndGet();
+
+                    return index;
+                }
+            }, "repo1" ) );
+        }
+
+        // other lane is not blocked
+        ScheduledTask<String> other = defaultScheduler.submit( "other", new Callable<String>()
+        {
+            public String call()
+                throws Exception
+            {
+                return "other";
+            }
+        }, "repo2" );
+
+        Utils.awaitTaskState( other, 1000, TaskState.FINISHED );
+
+        assertEquals( TaskState.RUNNING, blocker.getTaskState() );
+        assertTrue( order.isEmpty() );
+        assertEquals( 11, defaultScheduler.getLanePendingCount( "repo1" ) );
+
+        release.countDown();
+
+        for ( ScheduledTask<Integer> laneTask : laneTasks )
+        {
+            Utils.awaitTaskState( laneTask, 3000, TaskState.FINISHED );
+        }
+
+        assertEquals( 0, overlaps.get() );
+        assertEquals( Arrays.asList( 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 ), order );
+        assertEquals( 0, defaultScheduler.getLanePendingCount( "repo1" ) );
+    }
+
     public void testManual()
         throws Exception
     {
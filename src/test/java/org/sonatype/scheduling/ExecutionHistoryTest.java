@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Tests the recording of the runs of tasks into the execution history.
+ */
+public class ExecutionHistoryTest
+    extends PlexusTestCase
+{
+    protected File directory;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        directory = new File( getBasedir(), "target/history/" + getName() );
+
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testLastRunsAreRetained()
+        throws Exception
+    {
+        final ExecutionHistory history = new ExecutionHistory( new File( directory, "history" ), 8, 4 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            history.record( "1", 1000 * i, 1000 * i + i, i, TaskState.FINISHED, null );
+        }
+
+        final List<ExecutionRecord> runs = history.getLastRuns( "1", 10 );
+
+        assertEquals( 4, runs.size() );
+
+        // the latest first
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertEquals( 9000 - 1000 * i, runs.get( i ).getStarted().getTime() );
+            assertEquals( 9 - i, runs.get( i ).getDuration() );
+            assertEquals( 9 - i, runs.get( i ).getQueueDelay() );
+            assertEquals( TaskState.FINISHED, runs.get( i ).getStatus() );
+            assertNull( runs.get( i ).getFailureSummary() );
+        }
+
+        assertEquals( 2, history.getLastRuns( "1", 2 ).size() );
+        assertTrue( history.getLastRuns( "2", 2 ).isEmpty() );
+
+        history.close();
+    }
+
+    public void testStatistics()
+        throws Exception
+    {
+        final ExecutionHistory history = new ExecutionHistory( new File( directory, "history" ), 8, 8 );
+
+        history.record( "1", 0, 100, 10, TaskState.FINISHED, null );
+        history.record( "1", 1000, 1300, 30, TaskState.BROKEN, new IOException( "disk full" ) );
+        history.record( "1", 2000, 2200, 20, TaskState.CANCELLED, new TaskInterruptedException( "cancelled", true ) );
+        history.record( "1", 3000, 3200, 0, TaskState.FINISHED, null );
+
+        final ExecutionStatistics statistics = history.getStatistics( "1" );
+
+        assertEquals( 4, statistics.getRunCount() );
+        assertEquals( 2, statistics.getFinishedCount() );
+        assertEquals( 1, statistics.getBrokenCount() );
+        assertEquals( 1, statistics.getCancelledCount() );
+        assertEquals( 0.5, statistics.getFailureRatio(), 0.001 );
+        assertEquals( 100, statistics.getMinDuration() );
+        assertEquals( 300, statistics.getMaxDuration() );
+        assertEquals( 200, statistics.getAverageDuration() );
+        assertEquals( 15, statistics.getAverageQueueDelay() );
+        assertEquals( 30, statistics.getMaxQueueDelay() );
+        assertEquals( 3200, statistics.getLastFinished().getTime() );
+
+        assertEquals( "java.io.IOException: disk full", history.getLastRuns( "1", 3 ).get( 2 ).getFailureSummary() );
+
+        history.close();
+    }
+
+    public void testRunsArePersisted()
+        throws Exception
+    {
+        final File file = new File( directory, "history" );
+
+        ExecutionHistory history = new ExecutionHistory( file, 8, 4 );
+
+        history.record( "1", 0, 100, 0, TaskState.FINISHED, null );
+        history.record( "2", 0, 200, 0, TaskState.BROKEN, new IllegalStateException( "\u00fcber \u20ac \ud83d\ude00" ) );
+        history.remove( "1" );
+        history.close();
+
+        history = new ExecutionHistory( file, 8, 4 );
+
+        assertEquals( 1, history.getTaskIds().size() );
+        assertTrue( history.getLastRuns( "1", 4 ).isEmpty() );
+        assertEquals( "java.lang.IllegalStateException: \u00fcber \u20ac \ud83d\ude00",
+                      history.getLastRuns( "2", 4 ).get( 0 ).getFailureSummary() );
+
+        history.close();
+
+        // other geometry starts afresh
+        history = new ExecutionHistory( file, 8, 16 );
+
+        assertTrue( history.getTaskIds().isEmpty() );
+
+        history.close();
+    }
+
+    public void testLeastRecentlyRecordedTaskIsEvicted()
+        throws Exception
+    {
+        final ExecutionHistory history = new ExecutionHistory( new File( directory, "history" ), 2, 4 );
+
+        history.record( "1", 0, 100, 0, TaskState.FINISHED, null );
+        history.record( "2", 0, 200, 0, TaskState.FINISHED, null );
+        history.record( "1", 300, 400, 0, TaskState.FINISHED, null );
+        history.record( "3", 500, 600, 0, TaskState.FINISHED, null );
+
+        assertEquals( 2, history.getLastRuns( "1", 4 ).size() );
+        assertTrue( history.getLastRuns( "2", 4 ).isEmpty() );
+        assertEquals( 1, history.getLastRuns( "3", 4 ).size() );
+
+        history.close();
+    }
+
+    public void testLongValuesAreCut()
+        throws Exception
+    {
+        final ExecutionHistory history = new ExecutionHistory( new File( directory, "history" ), 2, 4 );
+
+        final StringBuilder message = new StringBuilder();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            message.append( "\u20ac" );
+        }
+
+        history.record( "1", 0, 100, 0, TaskState.BROKEN, new RuntimeException( message.toString() ) );
+
+        final String summary = history.getLastRuns( "1", 1 ).get( 0 ).getFailureSummary();
+
+        // cut at a character boundary
+        assertTrue( summary.startsWith( "java.lang.RuntimeException: \u20ac" ) );
+        assertTrue( summary.length() < message.length() );
+        assertTrue( summary.getBytes( "UTF-8" ).length <= ExecutionHistory.MAX_FAILURE_BYTES );
+        assertTrue( summary.endsWith( "\u20ac" ) );
+
+        // too long IDs are not recorded
+        final StringBuilder id = new StringBuilder();
+
+        for ( int i = 0; i <= ExecutionHistory.MAX_TASK_ID_BYTES; i++ )
+        {
+            id.append( 'x' );
+        }
+
+        history.record( id.toString(), 0, 100, 0, TaskState.FINISHED, null );
+
+        assertEquals( 1, history.getTaskIds().size() );
+
+        history.close();
+    }
+
+    public void testSchedulerRecordsRuns()
+        throws Exception
+    {
+        final DefaultScheduler defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        final ExecutionHistory history = defaultScheduler.getExecutionHistory();
+
+        assertNotNull( history );
+
+        final ScheduledTask<Integer> finishing = defaultScheduler.submit( "finishing", new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                return 1;
+            }
+        } );
+
+        final ScheduledTask<Integer> failing = defaultScheduler.submit( "failing", new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                throw new IOException( "failed" );
+            }
+        } );
+
+        Utils.awaitTaskState( finishing, 3000, TaskState.FINISHED );
+        Utils.awaitTaskState( failing, 3000, TaskState.BROKEN );
+
+        // recorded before the run completes, but the state may be switched sooner
+        TimeUnit.MILLISECONDS.sleep( 100 );
+
+        assertEquals( TaskState.FINISHED, history.getLastRuns( finishing.getId(), 1 ).get( 0 ).getStatus() );
+
+        final ExecutionRecord failed = history.getLastRuns( failing.getId(), 1 ).get( 0 );
+
+        assertEquals( TaskState.BROKEN, failed.getStatus() );
+        assertEquals( "java.io.IOException: failed", failed.getFailureSummary() );
+        assertTrue( failed.getQueueDelay() >= 0 );
+
+        defaultScheduler.shutdown();
+    }
+
+    public void testNewTaskDropsRunsOfReusedId()
+        throws Exception
+    {
+        final DefaultScheduler defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        final ExecutionHistory history = defaultScheduler.getExecutionHistory();
+
+        // runs of an earlier task having the same ID
+        history.record( "reused", 1, 2, 0, TaskState.FINISHED, null );
+
+        final ScheduledTask<Integer> task =
+            defaultScheduler.schedule( "reused", "new", "Integer", new Callable<Integer>()
+            {
+                public Integer call()
+                {
+                    return 1;
+                }
+            }, new ManualRunSchedule(), true, true );
+
+        assertTrue( history.getLastRuns( task.getId(), 1 ).isEmpty() );
+
+        task.cancel();
+
+        defaultScheduler.shutdown();
+    }
+
+    public void testRunEndingDuringShutdownIsRecorded()
+        throws Exception
+    {
+        // the IDs of tasks start over, as the config is not persisted
+        FileUtils.forceDelete( new File( getBasedir(), "target/history/scheduler" ) );
+
+        final DefaultScheduler defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        final File file = defaultScheduler.getExecutionHistory().getFile();
+
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        final ScheduledTask<Integer> running = defaultScheduler.submit( "running", new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                started.countDown();
+
+                TimeUnit.MILLISECONDS.sleep( 300 );
+
+                return 1;
+            }
+        } );
+
+        assertTrue( started.await( 3, TimeUnit.SECONDS ) );
+
+        // the history is closed once the running task ended
+        defaultScheduler.shutdown();
+
+        final ExecutionHistory history = new ExecutionHistory( file, 16, 4 );
+
+        assertEquals( TaskState.FINISHED, history.getLastRuns( running.getId(), 1 ).get( 0 ).getStatus() );
+
+        history.close();
+    }
+}
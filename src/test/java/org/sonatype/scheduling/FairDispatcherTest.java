@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+
+public class FairDispatcherTest
+    extends PlexusTestCase
+{
+    protected ExecutorService executor;
+
+    protected Map<String, CountDownLatch> finishLatches;
+
+    protected List<String> started;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        executor = Executors.newCachedThreadPool();
+
+        finishLatches = new ConcurrentHashMap<String, CountDownLatch>();
+
+        started = Collections.synchronizedList( new ArrayList<String>() );
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception
+    {
+        for ( CountDownLatch finishLatch : finishLatches.values() )
+        {
+            finishLatch.countDown();
+        }
+
+        executor.shutdown();
+
+        executor.awaitTermination( 5, TimeUnit.SECONDS );
+
+        super.tearDown();
+    }
+
+    public void testFloodingTypeDoesNotStarveOthers()
+        throws Exception
+    {
+        final FairDispatcher dispatcher =
+            new FairDispatcher( executor, 2, Collections.<String, Integer> emptyMap(), 1, null );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            dispatcher.dispatch( "flood", new BlockingCommand( "flood" + i ) );
+        }
+
+        dispatcher.dispatch( "minority", new BlockingCommand( "minority" ) );
+
+        // idle capacity was borrowed by the flooding type
+        awaitStarted( 2 );
+        assertEquals( 2, dispatcher.getRunningCount( "flood" ) );
+        assertEquals( 8, dispatcher.getQueuedCount( "flood" ) );
+        assertEquals( 1, dispatcher.getQueuedCount( "minority" ) );
+
+        // first free slot goes to the minority, not to the next of the flood
+        finish( "flood0" );
+        awaitStarted( 3 );
+        assertEquals( "minority", started.get( 2 ) );
+        assertEquals( 1, dispatcher.getRunningCount( "minority" ) );
+    }
+
+    public void testWeights()
+        throws Exception
+    {
+        final Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put( "heavy", 3 );
+
+        final FairDispatcher dispatcher = new FairDispatcher( executor, 4, weights, 1, null );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            dispatcher.dispatch( "light", new BlockingCommand( "light" + i ) );
+        }
+        awaitStarted( 4 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            dispatcher.dispatch( "heavy", new BlockingCommand( "heavy" + i ) );
+        }
+
+        // the slots freed up by light type are taken by heavy one until the shares are 3:1
+        for ( int i = 0; i < 3; i++ )
+        {
+            finish( "light" + i );
+            awaitStarted( 5 + i );
+            assertEquals( "heavy" + i, started.get( 4 + i ) );
+        }
+
+        assertEquals( 3, dispatcher.getRunningCount( "heavy" ) );
+        assertEquals( 1, dispatcher.getRunningCount( "light" ) );
+
+        // and kept so
+        finish( "heavy0" );
+        awaitStarted( 8 );
+        assertEquals( "heavy3", started.get( 7 ) );
+
+        finish( "light3" );
+        awaitStarted( 9 );
+        assertEquals( "light4", started.get( 8 ) );
+    }
+
+    public void testFifoWithinType()
+        throws Exception
+    {
+        final FairDispatcher dispatcher =
+            new FairDispatcher( executor, 1, Collections.<String, Integer> emptyMap(), 1, null );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            dispatcher.dispatch( "type", new BlockingCommand( "c" + i ) );
+        }
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            awaitStarted( i + 1 );
+            finish( "c" + i );
+        }
+
+        assertEquals( "[c0, c1, c2, c3, c4]", started.toString() );
+    }
+
+    public void testRefusedCommandsStayQueued()
+        throws Exception
+    {
+        final HashedWheelTaskTimer timer = new HashedWheelTaskTimer( executor, new PlexusThreadFactory() );
+
+        final AtomicInteger refusals = new AtomicInteger( 3 );
+
+        final FairDispatcher dispatcher = new FairDispatcher( new Executor()
+        {
+            public void execute( final Runnable command )
+            {
+                if ( refusals.get() > 0 )
+                {
+                    refusals.decrementAndGet();
+
+                    throw new RejectedExecutionException( "Saturated" );
+                }
+
+                executor.execute( command );
+            }
+        }, 2, Collections.<String, Integer> emptyMap(), 1, null, timer );
+
+        try
+        {
+            dispatcher.dispatch( "a", new BlockingCommand( "a0" ) );
+            dispatcher.dispatch( "b", new BlockingCommand( "b0" ) );
+            dispatcher.dispatch( "a", new BlockingCommand( "a1" ) );
+
+            // none of the refused commands is dropped, nor loses its place
+            awaitStarted( 2 );
+            assertEquals( "[a0, b0]", started.toString() );
+            assertEquals( 1, dispatcher.getQueuedCount( "a" ) );
+
+            finish( "a0" );
+            awaitStarted( 3 );
+            assertEquals( "a1", started.get( 2 ) );
+            assertEquals( 0, refusals.get() );
+        }
+        finally
+        {
+            timer.shutdown();
+        }
+    }
+
+    public void testInvalidWeight()
+    {
+        try
+        {
+            new FairDispatcher( executor, 1, Collections.singletonMap( "type", 0 ), 1, null );
+
+            fail( "zero weight should be refused" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // good
+        }
+    }
+
+    // ==
+
+    protected void finish( final String name )
+    {
+        finishLatches.get( name ).countDown();
+    }
+
+    protected void awaitStarted( final int count )
+        throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 3000;
+
+        while ( started.size() < count )
+        {
+            assertTrue( "only " + started + " started", System.currentTimeMillis() < deadline );
+
+            Thread.sleep( 5 );
+        }
+
+        // let the dispatcher settle
+        Thread.sleep( 20 );
+    }
+
+    protected class BlockingCommand
+        implements Runnable
+    {
+        private final String name;
+
+        private final CountDownLatch finishLatch;
+
+        public BlockingCommand( final String name )
+        {
+            this.name = name;
+            this.finishLatch = new CountDownLatch( 1 );
+
+            finishLatches.put( name, finishLatch );
+        }
+
+        public void run()
+        {
+            started.add( name );
+
+            try
+            {
+                finishLatch.await();
+            }
+            catch ( InterruptedException e )
+            {
+                // finish
+            }
+        }
+    }
+}
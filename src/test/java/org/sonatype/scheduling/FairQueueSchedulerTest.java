@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+/**
+ * Runs the {@link DefaultSchedulerTest} against a scheduler configured (see FairQueueSchedulerTest.xml) to share the
+ * worker threads fairly between task types.
+ */
+public class FairQueueSchedulerTest
+    extends DefaultSchedulerTest
+{
+    public void testConfiguration()
+    {
+        final FairDispatcher fairDispatcher = defaultScheduler.getFairDispatcher();
+
+        assertNotNull( fairDispatcher );
+        assertEquals( 4, fairDispatcher.getCapacity() );
+        assertEquals( 3, fairDispatcher.getWeight( "TestCallable" ) );
+        assertEquals( 2, fairDispatcher.getWeight( "TestRunnable" ) );
+        assertEquals( 1, fairDispatcher.getWeight( "OtherTask" ) );
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queue wait of a minority task type while a majority type floods the workers: 400 tasks of 20 ms are
+ * due at once on 4 worker threads, and a 1 ms task of another type becomes due every 40 ms meanwhile. Compares the
+ * FIFO worker queue with the fair dispatcher. Not a unit test, run it manually with it's main method.
+ */
+public class FairSharingBenchmark
+{
+    public static void main( final String[] args )
+        throws Exception
+    {
+        for ( int round = 0; round < 2; round++ )
+        {
+            run( "fifo", false );
+            run( "fair", true );
+        }
+    }
+
+    protected static void run( final String name, final boolean fair )
+        throws Exception
+    {
+        final int workerThreads = 4;
+        final int floodCount = 400;
+        final int minorityCount = 50;
+
+        final ThreadPoolExecutor workers =
+            new ThreadPoolExecutor( workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                                    new LinkedBlockingQueue<Runnable>(), new PlexusThreadFactory() );
+
+        final FairDispatcher fairDispatcher =
+            new FairDispatcher( workers, workerThreads, Collections.<String, Integer> emptyMap(), 1, null );
+
+        final CountDownLatch done = new CountDownLatch( floodCount + minorityCount );
+
+        final List<Long> minorityWaits = Collections.synchronizedList( new ArrayList<Long>() );
+
+        for ( int i = 0; i < floodCount; i++ )
+        {
+            dispatch( fair, fairDispatcher, workers, "ReindexTask", new Sleeping( 20, done, null ) );
+        }
+
+        for ( int i = 0; i < minorityCount; i++ )
+        {
+            dispatch( fair, fairDispatcher, workers, "UserTask", new Sleeping( 1, done, minorityWaits ) );
+
+            Thread.sleep( 40 );
+        }
+
+        done.await();
+
+        final List<Long> waits = new ArrayList<Long>( minorityWaits );
+        Collections.sort( waits );
+
+        System.out.println( String.format( "%-5s minority queue wait: p50 %4d ms, p99 %4d ms, max %4d ms", name,
+            waits.get( waits.size() / 2 ), waits.get( waits.size() * 99 / 100 ), waits.get( waits.size() - 1 ) ) );
+
+        workers.shutdown();
+        workers.awaitTermination( 10, TimeUnit.SECONDS );
+    }
+
+    protected static void dispatch( final boolean fair, final FairDispatcher fairDispatcher, final Executor workers,
+                                    final String type, final Runnable command )
+    {
+        if ( fair )
+        {
+            fairDispatcher.dispatch( type, command );
+        }
+        else
+        {
+            workers.execute( command );
+        }
+    }
+
+    protected static class Sleeping
+        implements Runnable
+    {
+        private final long dispatched = System.nanoTime();
+
+        private final long sleepMillis;
+
+        private final CountDownLatch done;
+
+        private final List<Long> waits;
+
+        public Sleeping( final long sleepMillis, final CountDownLatch done, final List<Long> waits )
+        {
+            this.sleepMillis = sleepMillis;
+            this.done = done;
+            this.waits = waits;
+        }
+
+        public void run()
+        {
+            if ( waits != null )
+            {
+                waits.add( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - dispatched ) );
+            }
+
+            try
+            {
+                Thread.sleep( sleepMillis );
+            }
+            catch ( InterruptedException e )
+            {
+                // done
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+    }
+}
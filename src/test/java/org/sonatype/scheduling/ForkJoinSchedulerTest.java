@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the {@link DefaultSchedulerTest} against a scheduler configured (see ForkJoinSchedulerTest.xml) to run the task
+ * bodies on a fork/join pool.
+ */
+public class ForkJoinSchedulerTest
+    extends DefaultSchedulerTest
+{
+    public void testSubtasksAreRunByWorkers()
+        throws Exception
+    {
+        final Set<String> threadNames = Collections.synchronizedSet( new HashSet<String>() );
+
+        final ScheduledTask<Long> task = defaultScheduler.submit( "sum", new Callable<Long>()
+        {
+            public Long call()
+                throws Exception
+            {
+                return new SumTask( 0, 1024, threadNames ).invoke();
+            }
+        } );
+
+        assertEquals( Long.valueOf( 1023L * 1024L / 2L ), task.get() );
+
+        // slow leaves are stolen by the idle workers
+        assertTrue( "Subtasks were not stolen: " + threadNames, threadNames.size() > 1 );
+
+        for ( String threadName : threadNames )
+        {
+            assertTrue( threadName, threadName.startsWith( "pxfj-" ) );
+        }
+    }
+
+    public void testCancellationReachesSubtasks()
+        throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( 4 );
+
+        final AtomicInteger running = new AtomicInteger();
+
+        final ScheduledTask<Integer> task = defaultScheduler.submit( "endless", new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                return new EndlessTask( 4, started, running ).invoke();
+            }
+        } );
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+        task.cancel();
+
+        Utils.awaitTaskState( task, 5000, TaskState.CANCELLED );
+
+        assertEquals( 0, running.get() );
+    }
+
+    // ==
+
+    protected static class SumTask
+        extends CancellableRecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int to;
+
+        private final Set<String> threadNames;
+
+        public SumTask( final int from, final int to, final Set<String> threadNames )
+        {
+            this.from = from;
+            this.to = to;
+            this.threadNames = threadNames;
+        }
+
+        @Override
+        protected Long doCompute()
+        {
+            if ( to - from <= 16 )
+            {
+                threadNames.add( Thread.currentThread().getName() );
+
+                LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( 5 ) );
+
+                long result = 0;
+
+                for ( int i = from; i < to; i++ )
+                {
+                    result += i;
+                }
+
+                return result;
+            }
+
+            final int middle = ( from + to ) / 2;
+
+            final SumTask left = new SumTask( from, middle, threadNames );
+
+            left.fork();
+
+            return new SumTask( middle, to, threadNames ).compute() + left.join();
+        }
+    }
+
+    protected static class EndlessTask
+        extends CancellableRecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int count;
+
+        private final CountDownLatch started;
+
+        private final AtomicInteger running;
+
+        public EndlessTask( final int count, final CountDownLatch started, final AtomicInteger running )
+        {
+            this.count = count;
+            this.started = started;
+            this.running = running;
+        }
+
+        @Override
+        protected Integer doCompute()
+        {
+            if ( count > 1 )
+            {
+                final EndlessTask left = new EndlessTask( count / 2, started, running );
+
+                left.fork();
+
+                return new EndlessTask( count - count / 2, started, running ).compute() + left.join();
+            }
+
+            running.incrementAndGet();
+
+            try
+            {
+                started.countDown();
+
+                while ( true )
+                {
+                    // throws once the task is cancelled, even if run by some other thread than the task body
+                    TaskUtil.checkInterruption();
+
+                    LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( 1 ) );
+                }
+            }
+            finally
+            {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.timers.ExecutorTaskTimer;
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+import org.sonatype.scheduling.timers.TaskTimer;
+
+public class HashedWheelTaskTimerTest
+    extends PlexusTestCase
+{
+    protected HashedWheelTaskTimer timer;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        // small wheel, to have cascading and overflow re-placement exercised with short delays
+        timer =
+            new HashedWheelTaskTimer( Executors.newSingleThreadExecutor(), new PlexusThreadFactory(), 1,
+                TimeUnit.MILLISECONDS, 4, 2 );
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception
+    {
+        timer.shutdownNow();
+
+        super.tearDown();
+    }
+
+    public void testFiresInDeadlineOrderAndNotEarly()
+        throws Exception
+    {
+        final List<Integer> fired = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+        final long start = System.nanoTime();
+
+        for ( final int delay : new int[] { 70, 3, 40, 15, 0 } )
+        {
+            futures.add( timer.schedule( new Callable<Long>()
+            {
+                public Long call()
+                {
+                    fired.add( delay );
+
+                    return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+                }
+            }, delay, TimeUnit.MILLISECONDS ) );
+        }
+
+        final int[] delays = new int[] { 70, 3, 40, 15, 0 };
+
+        for ( int i = 0; i < delays.length; i++ )
+        {
+            assertTrue( "fired early", futures.get( i ).get( 5, TimeUnit.SECONDS ) >= delays[i] );
+        }
+
+        assertEquals( 0, timer.getPendingCount() );
+        assertEquals( 0, fired.get( 0 ).intValue() );
+        assertEquals( 3, fired.get( 1 ).intValue() );
+        assertEquals( 15, fired.get( 2 ).intValue() );
+        assertEquals( 40, fired.get( 3 ).intValue() );
+        assertEquals( 70, fired.get( 4 ).intValue() );
+    }
+
+    public void testCancel()
+        throws Exception
+    {
+        final List<Integer> fired = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        final Future<Object> cancelled = timer.schedule( new Callable<Object>()
+        {
+            public Object call()
+            {
+                fired.add( 1 );
+
+                return null;
+            }
+        }, 50, TimeUnit.MILLISECONDS );
+
+        final Future<Object> kept = timer.schedule( new Callable<Object>()
+        {
+            public Object call()
+            {
+                fired.add( 2 );
+
+                return null;
+            }
+        }, 100, TimeUnit.MILLISECONDS );
+
+        assertTrue( cancelled.cancel( false ) );
+
+        kept.get( 5, TimeUnit.SECONDS );
+
+        assertEquals( Collections.singletonList( 2 ), fired );
+        assertEquals( 0, timer.getPendingCount() );
+
+        try
+        {
+            cancelled.get();
+
+            fail( "cancelled future should not have a result" );
+        }
+        catch ( CancellationException e )
+        {
+            // good
+        }
+    }
+
+    public void testShutdownCancelsPending()
+        throws Exception
+    {
+        final Future<Object> future = timer.schedule( new Callable<Object>()
+        {
+            public Object call()
+            {
+                return null;
+            }
+        }, 1, TimeUnit.HOURS );
+
+        timer.shutdown();
+
+        assertTrue( timer.awaitTermination( 5, TimeUnit.SECONDS ) );
+        assertTrue( future.isCancelled() );
+        assertEquals( 0, timer.getPendingCount() );
+    }
+
+    public void testRefusedFiringIsRetried()
+        throws Exception
+    {
+        assertRefusedFiringIsRetried( timer );
+    }
+
+    public void testRefusedFiringIsRetriedByExecutorTimer()
+        throws Exception
+    {
+        final ExecutorTaskTimer executorTimer =
+            new ExecutorTaskTimer( new ScheduledThreadPoolExecutor( 1 ), Executors.newSingleThreadExecutor() );
+
+        try
+        {
+            assertRefusedFiringIsRetried( executorTimer );
+        }
+        finally
+        {
+            executorTimer.shutdownNow();
+        }
+    }
+
+    // ==
+
+    protected void assertRefusedFiringIsRetried( final TaskTimer timer )
+        throws Exception
+    {
+        final AtomicInteger refusals = new AtomicInteger( 3 );
+
+        // saturated for the first few hand overs
+        final Executor executor = new Executor()
+        {
+            public void execute( final Runnable command )
+            {
+                if ( refusals.getAndDecrement() > 0 )
+                {
+                    throw new RejectedExecutionException( "saturated" );
+                }
+
+                new Thread( command ).start();
+            }
+        };
+
+        final Future<String> future = timer.schedule( new Callable<String>()
+        {
+            public String call()
+            {
+                return "fired";
+            }
+        }, 5, TimeUnit.MILLISECONDS, executor );
+
+        assertEquals( "fired", future.get( 5, TimeUnit.SECONDS ) );
+        assertEquals( -1, refusals.get() );
+        assertEquals( 0, timer.getPendingCount() );
+    }
+}
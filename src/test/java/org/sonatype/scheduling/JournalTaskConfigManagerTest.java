@@ -0,0 +1,351 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.sonatype.scheduling.schedules.CronSchedule;
+import org.sonatype.scheduling.schedules.DailySchedule;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+import org.sonatype.scheduling.schedules.Schedule;
+import org.sonatype.scheduling.schedules.WeeklySchedule;
+
+/**
+ * Tests the journal persistence of tasks.
+ */
+public class JournalTaskConfigManagerTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    protected File directory;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        directory = new File( getBasedir(), "target/journal/" + getName() );
+
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testTasksAreReplayed()
+        throws Exception
+    {
+        final Date start = new Date( System.currentTimeMillis() + 3600000 );
+        final Set<Integer> days = new HashSet<Integer>( Collections.singleton( 2 ) );
+
+        TestJournalTaskConfigManager manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        final DefaultScheduledTask<Integer> daily = createTask( "1", new DailySchedule( start, null ) );
+        final DefaultScheduledTask<Integer> weekly = createTask( "2", new WeeklySchedule( start, start, days ) );
+        final DefaultScheduledTask<Integer> cron = createTask( "3", new CronSchedule( "0 0 12 * * ?" ) );
+        final DefaultScheduledTask<Integer> removed = createTask( "4", new ManualRunSchedule() );
+
+        manager.addTask( daily );
+        manager.addTask( weekly );
+        manager.addTask( cron );
+        manager.addTask( removed );
+
+        daily.setName( "renamed" );
+        daily.setEnabled( false );
+        daily.setPriority( TaskPriority.HIGH );
+        ( (SchedulerTask<?>) daily.getCallable() ).addParameter( "repositoryId", "central" );
+
+        manager.addTask( daily );
+        manager.removeTask( removed );
+
+        // unchanged, skipped
+        manager.addTask( cron );
+
+        assertEquals( 6, manager.getJournalRecordCount() );
+
+        manager.close();
+
+        manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        assertEquals( 3, manager.getTaskCount() );
+
+        manager.initializeTasks( defaultScheduler );
+
+        final ScheduledTask<?> loadedDaily = defaultScheduler.getTaskById( "1" );
+
+        // not instantiated for inspecting the persisted properties
+        assertFalse( ( (DefaultScheduledTask<?>) loadedDaily ).isInstantiated() );
+        assertEquals( "renamed", loadedDaily.getName() );
+        assertFalse( loadedDaily.isEnabled() );
+        assertEquals( TaskPriority.HIGH, loadedDaily.getPriority() );
+        assertEquals( "central", loadedDaily.getTaskParams().get( "repositoryId" ) );
+
+        try
+        {
+            loadedDaily.getTaskParams().put( "repositoryId", "changed" );
+
+            fail( "Parameters of a task not instantiated yet cannot be changed" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // good
+        }
+
+        assertTrue( loadedDaily.getSchedule() instanceof DailySchedule );
+        assertEquals( start, ( (DailySchedule) loadedDaily.getSchedule() ).getStartDate() );
+        assertNull( ( (DailySchedule) loadedDaily.getSchedule() ).getEndDate() );
+        assertFalse( ( (DefaultScheduledTask<?>) loadedDaily ).isInstantiated() );
+
+        final SchedulerTask<?> callable = ( (DefaultScheduledTask<?>) loadedDaily ).getSchedulerTask();
+
+        assertTrue( callable instanceof TestTask );
+        assertEquals( "central", callable.getParameter( "repositoryId" ) );
+        assertTrue( ( (DefaultScheduledTask<?>) loadedDaily ).isInstantiated() );
+        assertSame( callable.getParameters(), loadedDaily.getTaskParams() );
+
+        final WeeklySchedule loadedWeekly = (WeeklySchedule) defaultScheduler.getTaskById( "2" ).getSchedule();
+
+        assertEquals( days, loadedWeekly.getDaysToRun() );
+        assertEquals( start, loadedWeekly.getEndDate() );
+
+        assertEquals( "0 0 12 * * ?",
+                      ( (CronSchedule) defaultScheduler.getTaskById( "3" ).getSchedule() ).getCronString() );
+
+        try
+        {
+            defaultScheduler.getTaskById( "4" );
+
+            fail( "Task was removed" );
+        }
+        catch ( NoSuchTaskException e )
+        {
+            // good
+        }
+
+        manager.close();
+    }
+
+    public void testTornRecordIsDropped()
+        throws Exception
+    {
+        TestJournalTaskConfigManager manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        manager.addTask( createTask( "1", new ManualRunSchedule() ) );
+        manager.addTask( createTask( "2", new ManualRunSchedule() ) );
+        manager.close();
+
+        final File journalFile = new File( directory, JournalTaskConfigManager.JOURNAL_FILE );
+
+        // cut the last record as a crash while writing it would
+        final RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" );
+        raf.setLength( raf.length() - 3 );
+        raf.close();
+
+        manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        assertEquals( 1, manager.getTaskCount() );
+        assertEquals( 1, manager.getJournalRecordCount() );
+
+        // appended after the valid records
+        manager.addTask( createTask( "3", new ManualRunSchedule() ) );
+        manager.close();
+
+        manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        assertEquals( 2, manager.getTaskCount() );
+
+        manager.close();
+    }
+
+    public void testCompaction()
+        throws Exception
+    {
+        TestJournalTaskConfigManager manager = new TestJournalTaskConfigManager( directory, 10 );
+
+        final DefaultScheduledTask<Integer> task = createTask( "1", new ManualRunSchedule() );
+
+        manager.addTask( createTask( "2", new ManualRunSchedule() ) );
+
+        for ( int i = 0; i < 25; i++ )
+        {
+            task.setName( "task" + i );
+
+            manager.addTask( task );
+        }
+
+        assertEquals( 2, manager.getCompactionCount() );
+        assertEquals( 6, manager.getJournalRecordCount() );
+        assertTrue( new File( directory, JournalTaskConfigManager.SNAPSHOT_FILE ).isFile() );
+
+        manager.close();
+
+        // a snapshot left behind by a crash while compacting is ignored
+        FileUtils.fileWrite( new File( directory, JournalTaskConfigManager.SNAPSHOT_FILE + ".tmp" ).getPath(),
+                             "torn" );
+
+        manager = new TestJournalTaskConfigManager( directory, 10 );
+
+        assertEquals( 2, manager.getTaskCount() );
+
+        manager.initializeTasks( defaultScheduler );
+
+        assertEquals( "task24", defaultScheduler.getTaskById( "1" ).getName() );
+
+        manager.close();
+    }
+
+    public void testUnknownTypeBreaksWhenFired()
+        throws Exception
+    {
+        TestJournalTaskConfigManager manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        manager.addTask( new DefaultScheduledTask<Integer>( "1", "unknown", "unknown", null, new TestTask(),
+            new ManualRunSchedule() ) );
+        manager.close();
+
+        manager = new TestJournalTaskConfigManager( directory, 100 );
+        manager.initializeTasks( defaultScheduler );
+
+        final ScheduledTask<?> task = defaultScheduler.getTaskById( "1" );
+
+        task.runNow();
+
+        Utils.awaitTaskState( task, 3000, TaskState.BROKEN );
+
+        assertTrue( task.getBrokenCause() instanceof TaskExecutionException );
+
+        manager.close();
+    }
+
+    public void testEagerInstantiation()
+        throws Exception
+    {
+        TestJournalTaskConfigManager manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        manager.addTask( createTask( "1", new ManualRunSchedule() ) );
+        manager.addTask( new DefaultScheduledTask<Integer>( "2", "unknown", "unknown", null, new TestTask(),
+            new ManualRunSchedule() ) );
+        manager.close();
+
+        manager = new TestJournalTaskConfigManager( directory, 100 );
+        manager.setLazyInstantiation( false );
+        manager.initializeTasks( defaultScheduler );
+
+        assertTrue( ( (DefaultScheduledTask<?>) defaultScheduler.getTaskById( "1" ) ).isInstantiated() );
+
+        try
+        {
+            defaultScheduler.getTaskById( "2" );
+
+            fail( "Task of unknown type is skipped" );
+        }
+        catch ( NoSuchTaskException e )
+        {
+            // good
+        }
+
+        // but kept persisted
+        assertEquals( 2, manager.getTaskCount() );
+
+        manager.close();
+    }
+
+    public void testIdHighWaterMark()
+        throws Exception
+    {
+        TestJournalTaskConfigManager manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        final DefaultScheduledTask<Integer> removed = createTask( "7", new ManualRunSchedule() );
+
+        manager.addTask( createTask( "3", new ManualRunSchedule() ) );
+        manager.addTask( removed );
+        manager.removeTask( removed );
+
+        assertEquals( 7, manager.getTaskIdHighWaterMark() );
+
+        // the removed task is gone from the snapshot, but not it's ID
+        manager.compact();
+        manager.close();
+
+        manager = new TestJournalTaskConfigManager( directory, 100 );
+
+        assertEquals( 1, manager.getTaskCount() );
+        assertEquals( 7, manager.getTaskIdHighWaterMark() );
+
+        manager.close();
+    }
+
+    // ==
+
+    protected DefaultScheduledTask<Integer> createTask( final String id, final Schedule schedule )
+    {
+        return new DefaultScheduledTask<Integer>( id, "task" + id, "test", null, new TestTask(), schedule );
+    }
+
+    protected static class TestTask
+        extends AbstractSchedulerTask<Integer>
+    {
+        public boolean allowConcurrentSubmission( final Map<String, List<ScheduledTask<?>>> currentActiveTasks )
+        {
+            return true;
+        }
+
+        public boolean allowConcurrentExecution( final Map<String, List<ScheduledTask<?>>> currentActiveTasks )
+        {
+            return true;
+        }
+
+        @Override
+        public Integer call()
+        {
+            return 0;
+        }
+    }
+
+    protected static class TestJournalTaskConfigManager
+        extends JournalTaskConfigManager
+    {
+        public TestJournalTaskConfigManager( final File directory, final int compactionThreshold )
+            throws Exception
+        {
+            super( directory, compactionThreshold, false );
+        }
+
+        public SchedulerTask<?> createTaskInstance( final String taskType )
+            throws IllegalArgumentException
+        {
+            if ( !"test".equals( taskType ) )
+            {
+                throw new IllegalArgumentException( "Unknown task type " + taskType );
+            }
+
+            return new TestTask();
+        }
+
+        public <T> T createTaskInstance( final Class<T> taskType )
+            throws IllegalArgumentException
+        {
+            throw new IllegalArgumentException( "Unknown task type " + taskType );
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+
+/**
+ * Tests the subtasks run in parallel by the worker threads (see ParallelSubtasksTest.xml).
+ */
+public class ParallelSubtasksTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+    }
+
+    public void testChunksRunInParallel()
+        throws Exception
+    {
+        // all the chunks must be running at once to pass the barrier
+        final CyclicBarrier barrier = new CyclicBarrier( 4 );
+
+        final List<Callable<Integer>> chunks = new ArrayList<Callable<Integer>>();
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            final int chunk = i;
+
+            chunks.add( new Callable<Integer>()
+            {
+                public Integer call()
+                    throws Exception
+                {
+                    barrier.await( 5, TimeUnit.SECONDS );
+
+                    return chunk * 10;
+                }
+            } );
+        }
+
+        final ScheduledTask<Integer> task = defaultScheduler.submit( "parallel", new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                int result = 0;
+
+                for ( Integer chunkResult : new ParallelSubtasks<Integer>( "chunk", chunks, 4 ).call() )
+                {
+                    result += chunkResult;
+                }
+
+                return result;
+            }
+        } );
+
+        assertEquals( Integer.valueOf( 60 ), task.get() );
+    }
+
+    public void testProgressRollsUp()
+        throws Exception
+    {
+        final AtomicInteger workDone = new AtomicInteger();
+
+        final List<String> messages = Collections.synchronizedList( new ArrayList<String>() );
+
+        TaskUtil.setCurrent( new LoggingProgressListener( getClass().getName() )
+        {
+            @Override
+            public void working( final String message, final int work )
+            {
+                workDone.addAndGet( work );
+
+                if ( message != null )
+                {
+                    messages.add( message );
+                }
+
+                super.working( message, work );
+            }
+        } );
+
+        try
+        {
+            final List<Callable<String>> chunks = new ArrayList<Callable<String>>();
+
+            for ( int i = 0; i < 3; i++ )
+            {
+                final String item = "item" + i;
+
+                chunks.add( new Callable<String>()
+                {
+                    public String call()
+                        throws Exception
+                    {
+                        final ProgressListener progressListener = TaskUtil.getCurrentProgressListener();
+
+                        progressListener.beginTask( "scan", 2 );
+                        progressListener.working( item, 1 );
+                        progressListener.working( 1 );
+                        progressListener.endTask( "done" );
+
+                        return item;
+                    }
+                } );
+            }
+
+            // without a scheduler the chunks are run by the calling thread
+            assertEquals( Arrays.asList( "item0", "item1", "item2" ),
+                new ParallelSubtasks<String>( "chunk", chunks, 3 ).call() );
+
+            assertEquals( 6, workDone.get() );
+
+            assertTrue( messages.toString(), messages.contains( "chunk #1: item1" ) );
+        }
+        finally
+        {
+            TaskUtil.setCurrent( null );
+        }
+    }
+
+    public void testFailureCancelsOtherChunks()
+        throws Exception
+    {
+        final AtomicInteger running = new AtomicInteger();
+
+        final List<Callable<Object>> chunks = new ArrayList<Callable<Object>>();
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            chunks.add( new Callable<Object>()
+            {
+                public Object call()
+                    throws Exception
+                {
+                    running.incrementAndGet();
+
+                    try
+                    {
+                        while ( true )
+                        {
+                            TaskUtil.checkInterruption();
+
+                            Thread.sleep( 1 );
+                        }
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                    }
+                }
+            } );
+        }
+
+        chunks.add( new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                Thread.sleep( 100 );
+
+                throw new IOException( "broken chunk" );
+            }
+        } );
+
+        final ScheduledTask<List<Object>> task = defaultScheduler.submit( "failing", new Callable<List<Object>>()
+        {
+            public List<Object> call()
+                throws Exception
+            {
+                return new ParallelSubtasks<Object>( "chunk", chunks, 4 ).call();
+            }
+        } );
+
+        Utils.awaitTaskState( task, 5000, TaskState.BROKEN );
+
+        assertTrue( String.valueOf( task.getBrokenCause() ), task.getBrokenCause() instanceof IOException );
+
+        assertEquals( 0, running.get() );
+    }
+}
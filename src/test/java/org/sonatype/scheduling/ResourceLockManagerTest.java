@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+
+public class ResourceLockManagerTest
+    extends PlexusTestCase
+{
+    protected ResourceLockManager lockManager;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        lockManager = new ResourceLockManager();
+    }
+
+    public void testSharedAndExclusive()
+    {
+        assertTrue( lockManager.acquire( "s1", locks( ResourceLock.shared( "repo:central" ) ), null ) );
+        assertTrue( lockManager.acquire( "s2", locks( ResourceLock.shared( "repo:central" ) ), null ) );
+        assertFalse( lockManager.acquire( "x1", locks( ResourceLock.exclusive( "repo:central" ) ), null ) );
+        assertTrue( lockManager.acquire( "x2", locks( ResourceLock.exclusive( "repo:releases" ) ), null ) );
+
+        assertEquals( 3, lockManager.getGrantedCount() );
+        assertEquals( 1, lockManager.getWaitingCount() );
+
+        // repeated acquire does not queue again
+        assertFalse( lockManager.acquire( "x1", locks( ResourceLock.exclusive( "repo:central" ) ), null ) );
+        assertEquals( 1, lockManager.getWaitingCount() );
+
+        lockManager.release( "s1" );
+        assertFalse( lockManager.isGranted( "x1" ) );
+        lockManager.release( "s2" );
+        assertTrue( lockManager.isGranted( "x1" ) );
+
+        lockManager.release( "x1" );
+        lockManager.release( "x2" );
+        assertEquals( 0, lockManager.getGrantedCount() );
+        assertEquals( 0, lockManager.getWaitingCount() );
+    }
+
+    public void testFifoDoesNotStarveExclusive()
+    {
+        final Recorder recorder = new Recorder();
+
+        assertTrue( lockManager.acquire( "s1", locks( ResourceLock.shared( "a" ) ), null ) );
+        assertFalse( lockManager.acquire( "x1", locks( ResourceLock.exclusive( "a" ) ), recorder.callback( "x1" ) ) );
+        // shared is compatible with the holder, but must not overtake the queued exclusive request
+        assertFalse( lockManager.acquire( "s2", locks( ResourceLock.shared( "a" ) ), recorder.callback( "s2" ) ) );
+
+        lockManager.release( "s1" );
+        assertEquals( "x1,", recorder.toString() );
+
+        lockManager.release( "x1" );
+        assertEquals( "x1,s2,", recorder.toString() );
+        assertTrue( lockManager.isGranted( "s2" ) );
+    }
+
+    public void testAllOrNothing()
+    {
+        final Recorder recorder = new Recorder();
+
+        assertTrue( lockManager.acquire( "t1", locks( ResourceLock.exclusive( "a" ) ), null ) );
+        assertTrue( lockManager.acquire( "t2", locks( ResourceLock.exclusive( "b" ) ), null ) );
+
+        // would deadlock with per-resource locking taken in different order
+        assertFalse( lockManager.acquire( "t3", locks( ResourceLock.exclusive( "a" ), ResourceLock.exclusive( "b" ) ),
+                                          recorder.callback( "t3" ) ) );
+        assertFalse( lockManager.acquire( "t4", locks( ResourceLock.exclusive( "b" ), ResourceLock.exclusive( "a" ) ),
+                                          recorder.callback( "t4" ) ) );
+
+        lockManager.release( "t1" );
+        assertEquals( "", recorder.toString() );
+        lockManager.release( "t2" );
+        assertEquals( "t3,", recorder.toString() );
+        lockManager.release( "t3" );
+        assertEquals( "t3,t4,", recorder.toString() );
+    }
+
+    public void testReleaseOfQueuedRequest()
+    {
+        final Recorder recorder = new Recorder();
+
+        assertTrue( lockManager.acquire( "t1", locks( ResourceLock.exclusive( "a" ) ), null ) );
+        assertFalse( lockManager.acquire( "t2", locks( ResourceLock.exclusive( "a" ) ), recorder.callback( "t2" ) ) );
+        assertFalse( lockManager.acquire( "t3", locks( ResourceLock.shared( "a" ) ), recorder.callback( "t3" ) ) );
+
+        // cancelled waiter does not block the ones behind it
+        lockManager.release( "t2" );
+        lockManager.release( "t1" );
+        assertEquals( "t3,", recorder.toString() );
+    }
+
+    public void testSchedulerRunsExclusiveTasksOneByOne()
+        throws Exception
+    {
+        final DefaultScheduler scheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        final LockingCallable first = new LockingCallable( ResourceLock.exclusive( "repo:central" ) );
+        final LockingCallable second = new LockingCallable( ResourceLock.exclusive( "repo:central" ) );
+        final LockingCallable other = new LockingCallable( ResourceLock.exclusive( "repo:releases" ) );
+
+        final ScheduledTask<Integer> firstTask = scheduler.submit( "first", first );
+        first.started.await();
+
+        final ScheduledTask<Integer> secondTask = scheduler.submit( "second", second );
+        Utils.awaitTaskState( secondTask, 1000, TaskState.SLEEPING );
+
+        // other resources are not blocked
+        final ScheduledTask<Integer> otherTask = scheduler.submit( "other", other );
+        other.started.await();
+        other.finish.countDown();
+        Utils.awaitTaskState( otherTask, 1000, TaskState.FINISHED );
+
+        assertEquals( TaskState.SLEEPING, secondTask.getTaskState() );
+        assertEquals( 1, second.started.getCount() );
+
+        first.finish.countDown();
+        Utils.awaitTaskState( firstTask, 1000, TaskState.FINISHED );
+
+        // woken up by the grant, way before the 10 seconds backoff delay
+        second.started.await();
+        second.finish.countDown();
+        Utils.awaitTaskState( secondTask, 3000, TaskState.FINISHED );
+
+        assertEquals( 1, LockingCallable.maxConcurrent.get() );
+        assertEquals( 0, scheduler.getResourceLockManager().getGrantedCount() );
+    }
+
+    // ==
+
+    protected static Collection<ResourceLock> locks( final ResourceLock... locks )
+    {
+        return Arrays.asList( locks );
+    }
+
+    protected static class Recorder
+    {
+        private final StringBuffer granted = new StringBuffer();
+
+        public Runnable callback( final String owner )
+        {
+            return new Runnable()
+            {
+                public void run()
+                {
+                    granted.append( owner ).append( "," );
+                }
+            };
+        }
+
+        @Override
+        public String toString()
+        {
+            return granted.toString();
+        }
+    }
+
+    public static class LockingCallable
+        implements Callable<Integer>, ResourceLockingTask
+    {
+        private static final AtomicInteger concurrent = new AtomicInteger();
+
+        private static final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        private final ResourceLock lock;
+
+        public final CountDownLatch started = new CountDownLatch( 1 );
+
+        public final CountDownLatch finish = new CountDownLatch( 1 );
+
+        public LockingCallable( final ResourceLock lock )
+        {
+            this.lock = lock;
+        }
+
+        public Collection<ResourceLock> getResourceLocks()
+        {
+            return Collections.singleton( lock );
+        }
+
+        public Integer call()
+            throws Exception
+        {
+            if ( "repo:central".equals( lock.getKey() ) )
+            {
+                final int current = concurrent.incrementAndGet();
+
+                if ( current > maxConcurrent.get() )
+                {
+                    maxConcurrent.set( current );
+                }
+            }
+
+            try
+            {
+                started.countDown();
+
+                finish.await();
+
+                return null;
+            }
+            finally
+            {
+                if ( "repo:central".equals( lock.getKey() ) )
+                {
+                    concurrent.decrementAndGet();
+                }
+            }
+        }
+    }
+}
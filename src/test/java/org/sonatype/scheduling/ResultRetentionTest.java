@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Tests the retention of task results.
+ */
+public class ResultRetentionTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+    }
+
+    public void testRingBuffer()
+    {
+        final ResultBuffer<Integer> buffer = new ResultBuffer<Integer>( ResultRetention.lastResults( 3 ) );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            buffer.add( i );
+        }
+
+        assertEquals( Arrays.asList( 17, 18, 19 ), buffer.toList() );
+
+        // shrinking keeps the newest
+        assertEquals( Arrays.asList( 18, 19 ), buffer.withRetention( ResultRetention.lastResults( 2 ) ).toList() );
+        assertEquals( Collections.emptyList(), buffer.withRetention( ResultRetention.none() ).toList() );
+    }
+
+    public void testTimeToLive()
+        throws Exception
+    {
+        final ResultBuffer<Integer> buffer = new ResultBuffer<Integer>( ResultRetention.lastResults( 10, 100 ) );
+
+        buffer.add( 1 );
+
+        Thread.sleep( 200 );
+
+        buffer.add( 2 );
+
+        assertEquals( Arrays.asList( 2 ), buffer.toList() );
+    }
+
+    public void testRetentionOfTask()
+        throws Exception
+    {
+        final AtomicInteger runCount = new AtomicInteger();
+
+        final ScheduledTask<Integer> task = defaultScheduler.schedule( "manual", new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                return runCount.incrementAndGet();
+            }
+        }, new ManualRunSchedule() );
+
+        assertEquals( defaultScheduler.getDefaultResultRetention().getMaxResults(),
+                      task.getResultRetention().getMaxResults() );
+
+        task.setResultRetention( ResultRetention.lastResults( 2 ) );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            final CompletableFuture<Integer> completion = RunCompletion.getRunCompletion( task ).toCompletableFuture();
+
+            task.runNow();
+
+            assertEquals( Integer.valueOf( i + 1 ), completion.get( 5, TimeUnit.SECONDS ) );
+        }
+
+        assertEquals( Arrays.asList( 4, 5 ), task.getResults() );
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Tests the run completions and listeners of tasks.
+ */
+public class RunCompletionTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+    }
+
+    public void testCompletionOfEachRun()
+        throws Exception
+    {
+        final AtomicInteger runCount = new AtomicInteger();
+
+        final ScheduledTask<Integer> task = defaultScheduler.schedule( "manual", new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                return runCount.incrementAndGet();
+            }
+        }, new ManualRunSchedule() );
+
+        final CompletableFuture<Integer> first = RunCompletion.getRunCompletion( task ).toCompletableFuture();
+
+        assertSame( first, RunCompletion.getRunCompletion( task ).toCompletableFuture() );
+
+        task.runNow();
+
+        assertEquals( Integer.valueOf( 1 ), first.get( 5, TimeUnit.SECONDS ) );
+
+        final CompletableFuture<Integer> second = RunCompletion.getRunCompletion( task ).toCompletableFuture();
+
+        assertNotSame( first, second );
+        assertFalse( second.isDone() );
+
+        task.runNow();
+
+        assertEquals( Integer.valueOf( 2 ), second.get( 5, TimeUnit.SECONDS ) );
+
+        // no run is to come once cancelled
+        final CompletableFuture<Integer> third = RunCompletion.getRunCompletion( task ).toCompletableFuture();
+
+        task.cancel();
+
+        assertTrue( third.isCancelled() );
+        assertTrue( RunCompletion.getRunCompletion( task ).toCompletableFuture().isCancelled() );
+    }
+
+    public void testFailedRun()
+        throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final ScheduledTask<Integer> task = defaultScheduler.submit( "failing", new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                release.await( 5, TimeUnit.SECONDS );
+
+                throw new IOException( "run failed" );
+            }
+        } );
+
+        final CompletableFuture<Integer> completion = RunCompletion.getRunCompletion( task ).toCompletableFuture();
+
+        release.countDown();
+
+        try
+        {
+            completion.get( 5, TimeUnit.SECONDS );
+
+            fail( "The run failed" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof IOException );
+        }
+    }
+
+    public void testListener()
+        throws Exception
+    {
+        final CountDownLatch completed = new CountDownLatch( 1 );
+
+        final List<TaskState> states = Collections.synchronizedList( new ArrayList<TaskState>() );
+
+        final List<Thread> threads = Collections.synchronizedList( new ArrayList<Thread>() );
+
+        final ScheduledTask<String> task = defaultScheduler.schedule( "listened", new Callable<String>()
+        {
+            public String call()
+            {
+                threads.add( Thread.currentThread() );
+
+                return "done";
+            }
+        }, new ManualRunSchedule() );
+
+        task.addListener( new AbstractScheduledTaskListener<String>()
+        {
+            @Override
+            public void taskStateChanged( final ScheduledTask<String> task, final TaskState oldState,
+                                          final TaskState newState )
+            {
+                states.add( newState );
+            }
+
+            @Override
+            public void runCompleted( final ScheduledTask<String> task, final String result, final Throwable failure )
+            {
+                if ( "done".equals( result ) && failure == null )
+                {
+                    threads.add( Thread.currentThread() );
+
+                    completed.countDown();
+                }
+            }
+        } );
+
+        task.runNow();
+
+        assertTrue( completed.await( 5, TimeUnit.SECONDS ) );
+
+        // the listener sees the task parked back once the run completed
+        assertEquals( Arrays.asList( TaskState.RUNNING, TaskState.SUBMITTED ), states );
+
+        // fired by the worker thread that ran the task
+        assertEquals( 2, threads.size() );
+        assertSame( threads.get( 0 ), threads.get( 1 ) );
+    }
+
+    public void testCompletionOfEndedTask()
+        throws Exception
+    {
+        final ScheduledTask<String> task = defaultScheduler.submit( "ended", new Callable<String>()
+        {
+            public String call()
+            {
+                return "done";
+            }
+        } );
+
+        Utils.awaitTaskState( task, 3000, TaskState.FINISHED );
+
+        try
+        {
+            RunCompletion.getRunCompletion( task ).toCompletableFuture().get( 5, TimeUnit.SECONDS );
+
+            fail( "No run is to come" );
+        }
+        catch ( CancellationException e )
+        {
+            // good
+        }
+    }
+}
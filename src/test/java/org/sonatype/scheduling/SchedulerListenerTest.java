@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.PlexusTestCase;
+
+/**
+ * Tests the delivery of task events to scheduler listeners.
+ */
+public class SchedulerListenerTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+    }
+
+    public void testEvents()
+        throws Exception
+    {
+        final RecordingListener listener = new RecordingListener( 2 );
+
+        defaultScheduler.addSchedulerListener( listener );
+
+        final ScheduledTask<String> finishing = defaultScheduler.submit( "finishing", new Callable<String>()
+        {
+            public String call()
+            {
+                return "done";
+            }
+        } );
+
+        final ScheduledTask<String> failing = defaultScheduler.submit( "failing", new Callable<String>()
+        {
+            public String call()
+                throws Exception
+            {
+                throw new IOException( "run failed" );
+            }
+        } );
+
+        assertTrue( listener.ended.await( 5, TimeUnit.SECONDS ) );
+
+        assertEquals( listOf( TaskEvent.Type.SUBMITTED, TaskEvent.Type.RESCHEDULED, TaskEvent.Type.STARTED,
+                              TaskEvent.Type.FINISHED ), listener.getTypes( finishing ) );
+        assertEquals( listOf( TaskEvent.Type.SUBMITTED, TaskEvent.Type.RESCHEDULED, TaskEvent.Type.STARTED,
+                              TaskEvent.Type.BROKEN ), listener.getTypes( failing ) );
+
+        long timestamp = 0;
+
+        for ( TaskEvent event : listener.getEvents() )
+        {
+            assertTrue( event.getTimestamp() >= timestamp );
+
+            timestamp = event.getTimestamp();
+
+            if ( TaskEvent.Type.BROKEN.equals( event.getType() ) )
+            {
+                assertTrue( event.getFailure() instanceof IOException );
+            }
+        }
+
+        // delivered by the dispatcher thread
+        assertTrue( listener.threadName.startsWith( "pxevents-" ) );
+    }
+
+    public void testSlowListenerDoesNotHoldUpTasks()
+        throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        defaultScheduler.addSchedulerListener( new SchedulerListener()
+        {
+            public void taskEvent( final TaskEvent event )
+            {
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    // ignored
+                }
+            }
+        } );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            defaultScheduler.submit( "task" + i, new Callable<Integer>()
+            {
+                public Integer call()
+                {
+                    return 0;
+                }
+            } );
+        }
+
+        Utils.awaitZeroTaskCount( defaultScheduler, 5000 );
+
+        // the buffer of 4 events is full
+        assertTrue( defaultScheduler.getDroppedEventCount() > 0 );
+
+        release.countDown();
+    }
+
+    // ==
+
+    protected static List<TaskEvent.Type> listOf( final TaskEvent.Type... types )
+    {
+        final List<TaskEvent.Type> result = new ArrayList<TaskEvent.Type>();
+
+        Collections.addAll( result, types );
+
+        return result;
+    }
+
+    protected static class RecordingListener
+        implements SchedulerListener
+    {
+        private final List<TaskEvent> events = Collections.synchronizedList( new ArrayList<TaskEvent>() );
+
+        private final CountDownLatch ended;
+
+        private volatile String threadName;
+
+        public RecordingListener( final int runs )
+        {
+            this.ended = new CountDownLatch( runs );
+        }
+
+        public void taskEvent( final TaskEvent event )
+        {
+            threadName = Thread.currentThread().getName();
+
+            events.add( event );
+
+            if ( TaskEvent.Type.FINISHED.equals( event.getType() ) || TaskEvent.Type.BROKEN.equals( event.getType() ) )
+            {
+                ended.countDown();
+            }
+        }
+
+        public List<TaskEvent> getEvents()
+        {
+            synchronized ( events )
+            {
+                return new ArrayList<TaskEvent>( events );
+            }
+        }
+
+        public List<TaskEvent.Type> getTypes( final ScheduledTask<?> task )
+        {
+            final List<TaskEvent.Type> result = new ArrayList<TaskEvent.Type>();
+
+            for ( TaskEvent event : getEvents() )
+            {
+                if ( event.getTask() == task )
+                {
+                    result.add( event.getType() );
+                }
+            }
+
+            return result;
+        }
+    }
+}
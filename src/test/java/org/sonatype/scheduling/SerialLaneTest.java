@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+
+/**
+ * Tests the ordering of the serial lanes, and their hand over to a saturated delegate.
+ */
+public class SerialLaneTest
+    extends PlexusTestCase
+{
+    protected ExecutorService executor;
+
+    protected HashedWheelTaskTimer timer;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        executor = Executors.newCachedThreadPool();
+
+        timer = new HashedWheelTaskTimer( executor, new PlexusThreadFactory() );
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception
+    {
+        timer.shutdown();
+
+        executor.shutdown();
+
+        executor.awaitTermination( 5, TimeUnit.SECONDS );
+
+        super.tearDown();
+    }
+
+    public void testRefusedHandOverIsRetried()
+        throws Exception
+    {
+        final AtomicInteger refusals = new AtomicInteger( 3 );
+
+        final SerialLane lane = new SerialLane( "lane", new RefusingExecutor( refusals ), timer );
+
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            futures.add( lane.schedule( new Recording( i, order ), 0, TimeUnit.MILLISECONDS ) );
+        }
+
+        // kept queued, and handed over again once the delegate accepts
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), futures.get( i ).get( 5, TimeUnit.SECONDS ) );
+        }
+
+        assertEquals( 0, refusals.get() );
+        assertEquals( list( 0, 1, 2, 3, 4 ), order );
+    }
+
+    public void testOrderOfDueTimeThenOfScheduling()
+        throws Exception
+    {
+        final SerialLane lane = new SerialLane( "lane", executor, timer );
+
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        final Future<Integer> later = lane.schedule( new Recording( 0, order ), 300, TimeUnit.MILLISECONDS );
+
+        final Future<Integer> cancelled = lane.schedule( new Recording( 1, order ), 100, TimeUnit.MILLISECONDS );
+
+        for ( int i = 2; i < 10; i++ )
+        {
+            lane.schedule( new Recording( i, order ), 100, TimeUnit.MILLISECONDS );
+        }
+
+        assertEquals( 10, lane.getPendingCount() );
+
+        // removed from the lane right away
+        cancelled.cancel( false );
+
+        assertEquals( 9, lane.getPendingCount() );
+
+        assertEquals( Integer.valueOf( 0 ), later.get( 5, TimeUnit.SECONDS ) );
+        assertEquals( list( 2, 3, 4, 5, 6, 7, 8, 9, 0 ), order );
+    }
+
+    public void testCommandsAreCancelledOnceTimerIsShutDown()
+        throws Exception
+    {
+        final SerialLane lane = new SerialLane( "lane", executor, timer );
+
+        timer.shutdown();
+
+        final Future<Integer> future = lane.schedule( new Recording( 0, null ), 0, TimeUnit.MILLISECONDS );
+
+        assertTrue( future.isCancelled() );
+        assertEquals( 0, lane.getPendingCount() );
+    }
+
+    // ==
+
+    protected static List<Integer> list( final Integer... values )
+    {
+        final List<Integer> result = new ArrayList<Integer>();
+
+        Collections.addAll( result, values );
+
+        return result;
+    }
+
+    protected static class Recording
+        implements Callable<Integer>
+    {
+        private final int index;
+
+        private final List<Integer> order;
+
+        public Recording( final int index, final List<Integer> order )
+        {
+            this.index = index;
+            this.order = order;
+        }
+
+        public Integer call()
+        {
+            order.add( index );
+
+            return index;
+        }
+    }
+
+    protected class RefusingExecutor
+        implements Executor
+    {
+        private final AtomicInteger refusals;
+
+        public RefusingExecutor( final AtomicInteger refusals )
+        {
+            this.refusals = refusals;
+        }
+
+        public void execute( final Runnable command )
+        {
+            if ( refusals.get() > 0 )
+            {
+                refusals.decrementAndGet();
+
+                throw new RejectedExecutionException( "Saturated" );
+            }
+
+            executor.execute( command );
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.scheduling.schedules.CronSchedule;
+import org.sonatype.scheduling.schedules.DailySchedule;
+
+/**
+ * Compares initializing 40k persisted tasks on bootup one by one with {@link Scheduler#initialize} versus in parallel
+ * batches with {@link Scheduler#initializeAll}. Not a unit test, run it manually with it's main method.
+ */
+public class StartupBenchmark
+{
+    public static void main( final String[] args )
+        throws Exception
+    {
+        final int count = 40000;
+
+        for ( int round = 0; round < 3; round++ )
+        {
+            run( "serial", count, false );
+            run( "bulk", count, true );
+        }
+    }
+
+    protected static void run( final String name, final int count, final boolean bulk )
+        throws Exception
+    {
+        final List<TaskDefinition<?>> definitions = createDefinitions( count );
+
+        final DefaultScheduler scheduler = new DefaultScheduler()
+        {
+            private final TaskConfigManager taskConfig = new SimpleTaskConfigManager();
+
+            @Override
+            protected TaskConfigManager getTaskConfig()
+            {
+                return taskConfig;
+            }
+        };
+
+        final long start = System.nanoTime();
+
+        if ( bulk )
+        {
+            scheduler.initializeAll( definitions );
+        }
+        else
+        {
+            for ( TaskDefinition<?> definition : definitions )
+            {
+                scheduler.initialize( definition.getId(), definition.getName(), definition.getType(),
+                    definition.getCallable(), definition.getSchedule(), definition.isEnabled() );
+            }
+        }
+
+        System.out.println( String.format( "%-8s %d tasks initialized: %d ms", name, count,
+            TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ) );
+
+        scheduler.shutdown();
+    }
+
+    protected static List<TaskDefinition<?>> createDefinitions( final int count )
+        throws Exception
+    {
+        final Date tomorrow = new Date( System.currentTimeMillis() + 24 * 3600000L );
+
+        final Callable<Object> noop = new Callable<Object>()
+        {
+            public Object call()
+            {
+                return null;
+            }
+        };
+
+        final List<TaskDefinition<?>> result = new ArrayList<TaskDefinition<?>>( count );
+
+        for ( int i = 1; i <= count; i++ )
+        {
+            // a few types, as usual, and cron schedules being the costly ones to iterate
+            result.add( new TaskDefinition<Object>( String.valueOf( i ), "task" + i, "type" + ( i % 8 ), noop,
+                i % 2 == 0 ? new DailySchedule( tomorrow, null ) : new CronSchedule( "0 0 3 * * ?" ), true ) );
+        }
+
+        return result;
+    }
+}
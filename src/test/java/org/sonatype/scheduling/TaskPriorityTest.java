@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Tests the ordering of due tasks waiting for the only worker thread (see TaskPriorityTest.xml).
+ */
+public class TaskPriorityTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    protected CountDownLatch blockerStarted;
+
+    protected CountDownLatch blockerRelease;
+
+    protected List<String> order;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        blockerStarted = new CountDownLatch( 1 );
+
+        blockerRelease = new CountDownLatch( 1 );
+
+        order = Collections.synchronizedList( new ArrayList<String>() );
+
+        // occupy the only worker thread
+        defaultScheduler.submit( "blocker", new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                blockerStarted.countDown();
+
+                blockerRelease.await();
+
+                return null;
+            }
+        } );
+
+        blockerStarted.await();
+    }
+
+    public void testHigherPriorityRunsFirst()
+        throws Exception
+    {
+        ScheduledTask<String> low1 = submit( "low1", TaskPriority.LOW );
+        ScheduledTask<String> low2 = submit( "low2", TaskPriority.LOW );
+        ScheduledTask<String> high = submit( "high", TaskPriority.HIGH );
+
+        awaitDispatched();
+
+        blockerRelease.countDown();
+
+        awaitFinished( low1, low2, high );
+
+        assertEquals( Arrays.asList( "high", "low1", "low2" ), order );
+    }
+
+    public void testAgingPreventsStarvation()
+        throws Exception
+    {
+        ScheduledTask<String> low = submit( "low", TaskPriority.LOW );
+
+        awaitDispatched();
+
+        // longer than the aging of two priority levels
+        Thread.sleep( 800 );
+
+        ScheduledTask<String> high = submit( "high", TaskPriority.HIGH );
+
+        awaitDispatched();
+
+        blockerRelease.countDown();
+
+        awaitFinished( low, high );
+
+        assertEquals( Arrays.asList( "low", "high" ), order );
+    }
+
+    public void testManualRunIsPrioritized()
+        throws Exception
+    {
+        ScheduledTask<String> normal = submit( "normal", TaskPriority.NORMAL );
+
+        ScheduledTask<String> manual =
+            defaultScheduler.schedule( "manual", new RecordingCallable( "manual" ), new ManualRunSchedule() );
+
+        manual.runNow();
+
+        awaitDispatched();
+
+        blockerRelease.countDown();
+
+        awaitFinished( normal );
+        Utils.awaitTaskState( manual, 1000, TaskState.SUBMITTED );
+
+        assertEquals( Arrays.asList( "manual", "normal" ), order );
+
+        final QueueWaitStatistics highStatistics = defaultScheduler.getQueueWaitStatistics().get( TaskPriority.HIGH );
+
+        assertEquals( 1, highStatistics.getCount() );
+        assertTrue( highStatistics.getMaxWaitMillis() >= 0 );
+        assertEquals( 0, defaultScheduler.getQueueWaitStatistics().get( TaskPriority.LOW ).getCount() );
+
+        manual.cancel();
+    }
+
+    // ==
+
+    protected ScheduledTask<String> submit( final String name, final TaskPriority priority )
+    {
+        final ScheduledTask<String> task = defaultScheduler.submit( name, new RecordingCallable( name ) );
+
+        // before it becomes due
+        task.setPriority( priority );
+
+        return task;
+    }
+
+    protected void awaitDispatched()
+        throws InterruptedException
+    {
+        while ( defaultScheduler.getTaskTimer().getPendingCount() > 0 )
+        {
+            Thread.sleep( 10 );
+        }
+
+        // let the timer hand them over
+        Thread.sleep( 50 );
+    }
+
+    protected void awaitFinished( final ScheduledTask<?>... tasks )
+    {
+        for ( ScheduledTask<?> task : tasks )
+        {
+            Utils.awaitTaskState( task, 3000, TaskState.FINISHED );
+        }
+    }
+
+    protected class RecordingCallable
+        implements Callable<String>
+    {
+        private final String name;
+
+        public RecordingCallable( final String name )
+        {
+            this.name = name;
+        }
+
+        public String call()
+        {
+            order.add( name );
+
+            return name;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Stress tests of the task state transitions racing each other: every iteration fires the racing calls at once, and
+ * checks that no transition was lost.
+ */
+public class TaskStateRaceTest
+    extends PlexusTestCase
+{
+    private static final int ITERATIONS = 100;
+
+    private static final int RACERS = 4;
+
+    protected DefaultScheduler defaultScheduler;
+
+    protected ExecutorService racers;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        racers = Executors.newFixedThreadPool( RACERS );
+    }
+
+    @Override
+    public void tearDown()
+        throws Exception
+    {
+        racers.shutdownNow();
+
+        super.tearDown();
+    }
+
+    public void testValidTransitions()
+    {
+        assertTrue( TaskState.SUBMITTED.canTransitionTo( TaskState.RUNNING ) );
+        assertTrue( TaskState.WAITING.canTransitionTo( TaskState.WAITING ) );
+        assertFalse( TaskState.CANCELLING.canTransitionTo( TaskState.RUNNING ) );
+        assertFalse( TaskState.WAITING.canTransitionTo( TaskState.CANCELLING ) );
+        assertFalse( TaskState.CANCELLING.canTransitionTo( TaskState.SLEEPING ) );
+        assertFalse( TaskState.BROKEN.canTransitionTo( TaskState.WAITING ) );
+        assertFalse( TaskState.FINISHED.canTransitionTo( TaskState.FINISHED ) );
+        assertTrue( TaskState.CANCELLED.getNextStates().isEmpty() );
+    }
+
+    public void testCancelRacingRunNow()
+        throws Exception
+    {
+        final AtomicInteger runCount = new AtomicInteger();
+
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            final ScheduledTask<Integer> task = schedule( runCount, 0 );
+
+            race( new Runnable()
+            {
+                public void run()
+                {
+                    task.runNow();
+                }
+            }, new Runnable()
+            {
+                public void run()
+                {
+                    task.cancel();
+                }
+            } );
+
+            // cancelled before, while or after running, but never left behind
+            Utils.awaitTaskState( task, 5000, TaskState.CANCELLED );
+            Utils.awaitZeroTaskCount( defaultScheduler, 5000 );
+        }
+
+        assertIndexEmpty();
+    }
+
+    public void testCancelRacingCompletion()
+        throws Exception
+    {
+        final Semaphore started = new Semaphore( 0 );
+
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            final ScheduledTask<Integer> task = defaultScheduler.schedule( "racing", new Callable<Integer>()
+            {
+                public Integer call()
+                    throws Exception
+                {
+                    started.release();
+
+                    // the run ends about when cancel() looks at the task
+                    Thread.sleep( 1 );
+
+                    return 0;
+                }
+            }, new ManualRunSchedule() );
+
+            task.runNow();
+
+            assertTrue( started.tryAcquire( 5, TimeUnit.SECONDS ) );
+
+            task.cancel();
+
+            Utils.awaitTaskState( task, 5000, TaskState.CANCELLED );
+            Utils.awaitZeroTaskCount( defaultScheduler, 5000 );
+        }
+
+        assertIndexEmpty();
+    }
+
+    public void testConcurrentRunNow()
+        throws Exception
+    {
+        for ( int i = 0; i < ITERATIONS / 10; i++ )
+        {
+            final AtomicInteger runCount = new AtomicInteger();
+
+            final ScheduledTask<Integer> task = schedule( runCount, 100 );
+
+            final Runnable[] runNows = new Runnable[RACERS];
+
+            for ( int j = 0; j < RACERS; j++ )
+            {
+                runNows[j] = new Runnable()
+                {
+                    public void run()
+                    {
+                        task.runNow();
+                    }
+                };
+            }
+
+            race( runNows );
+
+            Utils.awaitTaskState( task, 5000, TaskState.RUNNING );
+            Utils.awaitTaskState( task, 5000, TaskState.SUBMITTED );
+
+            assertEquals( 1, runCount.get() );
+
+            task.cancel();
+        }
+
+        Utils.awaitZeroTaskCount( defaultScheduler, 5000 );
+
+        assertIndexEmpty();
+    }
+
+    // ==
+
+    protected ScheduledTask<Integer> schedule( final AtomicInteger runCount, final long runMillis )
+    {
+        return defaultScheduler.schedule( "racing", new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                Thread.sleep( runMillis );
+
+                return runCount.incrementAndGet();
+            }
+        }, new ManualRunSchedule() );
+    }
+
+    /**
+     * Runs the given actions at once, each by it's own thread.
+     * 
+     * @param actions
+     * @throws Exception
+     */
+    protected void race( final Runnable... actions )
+        throws Exception
+    {
+        final CyclicBarrier barrier = new CyclicBarrier( actions.length );
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for ( final Runnable action : actions )
+        {
+            futures.add( racers.submit( new Callable<Void>()
+            {
+                public Void call()
+                    throws Exception
+                {
+                    barrier.await( 5, TimeUnit.SECONDS );
+
+                    action.run();
+
+                    return null;
+                }
+            } ) );
+        }
+
+        for ( Future<?> future : futures )
+        {
+            future.get( 5, TimeUnit.SECONDS );
+        }
+    }
+
+    protected void assertIndexEmpty()
+    {
+        for ( TaskState state : TaskState.values() )
+        {
+            assertEquals( "Tasks indexed as " + state, 0, defaultScheduler.getTaskCount( state ) );
+        }
+    }
+}
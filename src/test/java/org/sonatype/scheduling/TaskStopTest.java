@@ -304,6 +304,29 @@ public class TaskStopTest
         assertEquals( 0, defaultScheduler.getAllTasks().size() );
     }
 
+    public void testBlockedTaskWakesUpWhenBlockingTaskFinishes()
+        throws Exception
+    {
+        RunForeverTask callable = new RunForeverTask( 500 );
+
+        ScheduledTask<Integer> task = defaultScheduler.submit( "Test Task", callable );
+
+        callable.blockForStart();
+
+        RunForeverTask blockedCallable = new RunForeverTask( 10 );
+        ScheduledTask<Integer> blockedTask = defaultScheduler.submit( "Blocked Task", blockedCallable );
+
+        Utils.awaitTaskState( blockedTask, 1000, TaskState.SLEEPING );
+
+        callable.blockForDone();
+
+        // way before the 10 seconds backoff delay
+        Utils.awaitTaskState( blockedTask, 3000, TaskState.FINISHED );
+        Utils.awaitTaskState( task, 1000, TaskState.FINISHED );
+
+        assertTrue( blockedCallable.isAllDone() );
+    }
+
     public void testCancelBlockedTask()
         throws Exception
     {
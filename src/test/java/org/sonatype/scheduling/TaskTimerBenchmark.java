@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.sonatype.scheduling.timers.ExecutorTaskTimer;
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+import org.sonatype.scheduling.timers.TaskTimer;
+
+/**
+ * Compares the timer engines at 10k, 100k and 1M pending tasks, handed over by 1 and by 4 concurrent producer threads:
+ * measures the cost of scheduling, of a "reschedule" (cancel plus schedule, what a recurring task does on every
+ * firing) and of cancellation. Each phase lasts until a sentinel scheduled after it without delay fired, hence the
+ * placement of the scheduled tasks (done by the ticker thread of the wheel) is measured too, along with up to one
+ * tick of the wheel waited for by the sentinel (noticeable at 10k tasks only). Not a unit test, run it manually with
+ * its main method.
+ */
+public class TaskTimerBenchmark
+{
+    private static final Callable<Object> NOOP = new Callable<Object>()
+    {
+        public Object call()
+        {
+            return null;
+        }
+    };
+
+    public static void main( final String[] args )
+        throws Exception
+    {
+        for ( int pending : new int[] { 10000, 100000, 1000000 } )
+        {
+            for ( int producers : new int[] { 1, 4 } )
+            {
+                // warm up both, then measure
+                run( "executor", executorTimer(), pending, producers, false );
+                run( "executor", executorTimer(), pending, producers, true );
+                run( "wheel", wheelTimer(), pending, producers, false );
+                run( "wheel", wheelTimer(), pending, producers, true );
+            }
+        }
+    }
+
+    protected static TaskTimer executorTimer()
+    {
+        return new ExecutorTaskTimer( (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool( 20,
+            new PlexusThreadFactory() ) );
+    }
+
+    protected static TaskTimer wheelTimer()
+    {
+        return new HashedWheelTaskTimer( Executors.newFixedThreadPool( 20, new PlexusThreadFactory() ),
+            new PlexusThreadFactory() );
+    }
+
+    protected static void run( final String name, final TaskTimer timer, final int pending, final int producers,
+                               final boolean report )
+        throws Exception
+    {
+        final AtomicReferenceArray<Future<Object>> futures = new AtomicReferenceArray<Future<Object>>( pending );
+
+        // all of them are far in future, so they are pending during whole benchmark
+        final long scheduleNanos = phase( timer, pending, producers, new Phase()
+        {
+            public void run( final int from, final int to, final Random random )
+            {
+                for ( int i = from; i < to; i++ )
+                {
+                    futures.set( i,
+                                 timer.schedule( NOOP, 3600000 + random.nextInt( 3600000 ), TimeUnit.MILLISECONDS ) );
+                }
+            }
+        } );
+
+        final long rescheduleNanos = phase( timer, pending, producers, new Phase()
+        {
+            public void run( final int from, final int to, final Random random )
+            {
+                for ( int i = from; i < to; i++ )
+                {
+                    final int idx = from + random.nextInt( to - from );
+                    futures.get( idx ).cancel( false );
+                    futures.set( idx,
+                                 timer.schedule( NOOP, 3600000 + random.nextInt( 3600000 ), TimeUnit.MILLISECONDS ) );
+                }
+            }
+        } );
+
+        final long cancelNanos = phase( timer, pending, producers, new Phase()
+        {
+            public void run( final int from, final int to, final Random random )
+            {
+                for ( int i = from; i < to; i++ )
+                {
+                    futures.get( i ).cancel( false );
+                }
+            }
+        } );
+
+        timer.shutdownNow();
+        timer.awaitTermination( 10, TimeUnit.SECONDS );
+
+        if ( report )
+        {
+            System.out.println( String.format( "%-8s %8d pending, %d producers: schedule %6d ns/op, reschedule %6d "
+                + "ns/op, cancel %6d ns/op", name, pending, producers, scheduleNanos / pending, rescheduleNanos
+                / pending, cancelNanos / pending ) );
+        }
+    }
+
+    /**
+     * Runs the phase by the producer threads, each on its slice of the tasks, and returns the time it took until a
+     * sentinel scheduled afterwards fired.
+     */
+    protected static long phase( final TaskTimer timer, final int pending, final int producers, final Phase phase )
+        throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final List<Thread> threads = new ArrayList<Thread>( producers );
+
+        for ( int p = 0; p < producers; p++ )
+        {
+            final int from = (int) ( (long) pending * p / producers );
+            final int to = (int) ( (long) pending * ( p + 1 ) / producers );
+            final Random random = new Random( p + 1 );
+
+            final Thread thread = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        return;
+                    }
+
+                    phase.run( from, to, random );
+                }
+            } );
+
+            thread.start();
+            threads.add( thread );
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // placed in order of scheduling, so fires once all the others are placed
+        timer.schedule( NOOP, 0, TimeUnit.MILLISECONDS ).get();
+
+        return System.nanoTime() - startNanos;
+    }
+
+    protected interface Phase
+    {
+        void run( int from, int to, Random random );
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link DefaultSchedulerTest} against a scheduler configured (see VirtualWorkerSchedulerTest.xml) to run
+ * each task body on it's own (virtual) thread.
+ */
+public class VirtualWorkerSchedulerTest
+    extends DefaultSchedulerTest
+{
+    public void testBlockingTasksDoNotExhaustWorkers()
+        throws Exception
+    {
+        // way more than the default pool size: would deadlock if tasks were bound to a pool
+        final int count = 100;
+
+        final CountDownLatch allRunning = new CountDownLatch( count );
+
+        final List<ScheduledTask<Boolean>> tasks = new ArrayList<ScheduledTask<Boolean>>();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            tasks.add( defaultScheduler.submit( "blocking", new Callable<Boolean>()
+            {
+                public Boolean call()
+                    throws Exception
+                {
+                    allRunning.countDown();
+
+                    final boolean result = allRunning.await( 10, TimeUnit.SECONDS );
+
+                    // thread local progress listener is still bound to this run
+                    TaskUtil.checkInterruption();
+
+                    return result && !TaskUtil.getCurrentProgressListener().isCanceled();
+                }
+            } ) );
+        }
+
+        for ( ScheduledTask<Boolean> task : tasks )
+        {
+            assertTrue( task.get() );
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+
+/**
+ * Runs the {@link DefaultSchedulerTest} against a scheduler configured (see WheelTimerSchedulerTest.xml) to use the
+ * timing wheel engine.
+ */
+public class WheelTimerSchedulerTest
+    extends DefaultSchedulerTest
+{
+    public void testConfiguration()
+    {
+        assertTrue( defaultScheduler.getTaskTimer() instanceof HashedWheelTaskTimer );
+
+        final ThreadPoolExecutor workers =
+            (ThreadPoolExecutor) ( (HashedWheelTaskTimer) defaultScheduler.getTaskTimer() ).getExecutor();
+
+        assertEquals( 4, workers.getCorePoolSize() );
+        assertEquals( 4, workers.getMaximumPoolSize() );
+    }
+}
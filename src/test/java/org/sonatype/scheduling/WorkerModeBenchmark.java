@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.scheduling.timers.HashedWheelTaskTimer;
+import org.sonatype.scheduling.timers.TaskTimer;
+
+/**
+ * Compares the worker modes running 10k concurrent blocking (I/O like) tasks: the default pool of 20 threads versus a
+ * (virtual) thread per task. Not a unit test, run it manually with it's main method, on Java 21 to have virtual
+ * threads.
+ */
+public class WorkerModeBenchmark
+{
+    public static void main( final String[] args )
+        throws Exception
+    {
+        final DefaultScheduler scheduler = new DefaultScheduler();
+
+        run( "pool", scheduler.createWorkerExecutor(), 10000, 10 );
+        run( "virtual", scheduler.createVirtualThreadExecutor(), 10000, 10 );
+    }
+
+    protected static void run( final String name, final ExecutorService workers, final int count,
+                               final long blockMillis )
+        throws Exception
+    {
+        final TaskTimer timer = new HashedWheelTaskTimer( workers, new PlexusThreadFactory() );
+
+        final Callable<Object> blocking = new Callable<Object>()
+        {
+            public Object call()
+                throws Exception
+            {
+                Thread.sleep( blockMillis );
+
+                return null;
+            }
+        };
+
+        final long start = System.nanoTime();
+
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            futures.add( timer.schedule( blocking, 0, TimeUnit.MILLISECONDS ) );
+        }
+        for ( Future<Object> future : futures )
+        {
+            future.get();
+        }
+
+        System.out.println( String.format( "%-8s %d tasks blocking %d ms each: %d ms total", name, count,
+            blockMillis, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ) );
+
+        timer.shutdown();
+        timer.awaitTermination( 10, TimeUnit.SECONDS );
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.PlexusTestCase;
+
+/**
+ * Tests the workflows of tasks depending on each other.
+ */
+public class WorkflowTest
+    extends PlexusTestCase
+{
+    protected DefaultScheduler defaultScheduler;
+
+    protected List<String> order;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        defaultScheduler = (DefaultScheduler) lookup( Scheduler.class.getName() );
+
+        order = Collections.synchronizedList( new ArrayList<String>() );
+    }
+
+    public void testDiamond()
+        throws Exception
+    {
+        // the branches must run at once to pass the barrier
+        final CyclicBarrier barrier = new CyclicBarrier( 2 );
+
+        final Workflow workflow = defaultScheduler.createWorkflow( "diamond" );
+
+        final WorkflowStep<String> download = workflow.addStep( "download", new RecordingCallable( "download" ) );
+        final WorkflowStep<String> merge1 =
+            workflow.addStep( "merge1", new RecordingCallable( "merge1", barrier ), download );
+        final WorkflowStep<String> merge2 =
+            workflow.addStep( "merge2", new RecordingCallable( "merge2", barrier ), download );
+        final WorkflowStep<String> publish =
+            workflow.addStep( "publish", new RecordingCallable( "publish" ), merge1, merge2 );
+
+        assertEquals( WorkflowStep.State.BLOCKED, publish.getState() );
+        assertNull( publish.getScheduledTask() );
+
+        workflow.start();
+
+        assertTrue( workflow.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( workflow.isFinished() );
+
+        assertEquals( 4, order.size() );
+        assertEquals( "download", order.get( 0 ) );
+        assertEquals( "publish", order.get( 3 ) );
+        assertEquals( "publish", publish.getScheduledTask().get() );
+    }
+
+    public void testFailureCancelsDependents()
+        throws Exception
+    {
+        final Workflow workflow = defaultScheduler.createWorkflow( "failing" );
+
+        final WorkflowStep<String> download = workflow.addStep( "download", new Callable<String>()
+        {
+            public String call()
+                throws Exception
+            {
+                throw new IOException( "download failed" );
+            }
+        } );
+        final WorkflowStep<String> merge = workflow.addStep( "merge", new RecordingCallable( "merge" ), download );
+        final WorkflowStep<String> publish = workflow.addStep( "publish", new RecordingCallable( "publish" ), merge );
+        final WorkflowStep<String> cleanup = workflow.addStep( "cleanup", new RecordingCallable( "cleanup" ) );
+
+        workflow.start();
+
+        assertTrue( workflow.await( 10, TimeUnit.SECONDS ) );
+        assertFalse( workflow.isFinished() );
+
+        assertEquals( WorkflowStep.State.BROKEN, download.getState() );
+        assertTrue( download.getBrokenCause() instanceof IOException );
+        assertEquals( WorkflowStep.State.CANCELLED, merge.getState() );
+        assertEquals( WorkflowStep.State.CANCELLED, publish.getState() );
+        assertNull( publish.getScheduledTask() );
+
+        // the independent branch is not affected
+        assertEquals( WorkflowStep.State.FINISHED, cleanup.getState() );
+        assertEquals( Arrays.asList( "cleanup" ), order );
+    }
+
+    public void testCancel()
+        throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        final Workflow workflow = defaultScheduler.createWorkflow( "cancelled" );
+
+        final WorkflowStep<String> download = workflow.addStep( "download", new Callable<String>()
+        {
+            public String call()
+                throws Exception
+            {
+                started.countDown();
+
+                while ( true )
+                {
+                    TaskUtil.checkInterruption();
+
+                    Thread.sleep( 10 );
+                }
+            }
+        } );
+        final WorkflowStep<String> publish = workflow.addStep( "publish", new RecordingCallable( "publish" ), download );
+
+        workflow.start();
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+        workflow.cancel();
+
+        assertTrue( workflow.await( 10, TimeUnit.SECONDS ) );
+
+        assertEquals( WorkflowStep.State.CANCELLED, download.getState() );
+        assertEquals( WorkflowStep.State.CANCELLED, publish.getState() );
+        assertTrue( order.isEmpty() );
+    }
+
+    public void testPredecessorOfOtherWorkflow()
+    {
+        final Workflow other = defaultScheduler.createWorkflow( "other" );
+
+        final WorkflowStep<String> foreign = other.addStep( "foreign", new RecordingCallable( "foreign" ) );
+
+        try
+        {
+            defaultScheduler.createWorkflow( "workflow" ).addStep( "step", new RecordingCallable( "step" ), foreign );
+
+            fail( "Predecessor is not part of the workflow" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // good
+        }
+    }
+
+    // ==
+
+    protected class RecordingCallable
+        implements Callable<String>
+    {
+        private final String name;
+
+        private final CyclicBarrier barrier;
+
+        public RecordingCallable( final String name )
+        {
+            this( name, null );
+        }
+
+        public RecordingCallable( final String name, final CyclicBarrier barrier )
+        {
+            this.name = name;
+            this.barrier = barrier;
+        }
+
+        public String call()
+            throws Exception
+        {
+            if ( barrier != null )
+            {
+                barrier.await( 5, TimeUnit.SECONDS );
+            }
+
+            order.add( name );
+
+            return name;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2012 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.sonatype.scheduling.schedules.ManualRunSchedule;
+
+/**
+ * Tests the writing behind of task changes.
+ */
+public class WriteBehindTaskConfigManagerTest
+    extends PlexusTestCase
+{
+    protected RecordingTaskConfigManager delegate;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        delegate = new RecordingTaskConfigManager();
+    }
+
+    public void testChangesAreCoalesced()
+    {
+        final WriteBehindTaskConfigManager manager = new WriteBehindTaskConfigManager( delegate, 60000, 100 );
+
+        final DefaultScheduledTask<Integer> task1 = createTask( "1" );
+        final DefaultScheduledTask<Integer> task2 = createTask( "2" );
+
+        manager.addTask( task1 );
+        manager.addTask( task2 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            task1.setName( "renamed" + i );
+
+            manager.addTask( task1 );
+        }
+
+        manager.removeTask( task2 );
+
+        assertTrue( delegate.writes.isEmpty() );
+        assertEquals( 2, manager.getPendingCount() );
+
+        manager.flush();
+
+        // the latest change of each task, in order of the first change
+        assertEquals( list( "add 1 renamed9", "remove 2 task2" ), delegate.writes );
+
+        manager.shutdown();
+    }
+
+    public void testUnchangedTaskIsSkipped()
+    {
+        final WriteBehindTaskConfigManager manager = new WriteBehindTaskConfigManager( delegate, 60000, 100 );
+
+        final DefaultScheduledTask<Integer> task = createTask( "1" );
+
+        manager.addTask( task );
+        manager.flush();
+
+        // rescheduling changes the runtime properties only
+        manager.addTask( task );
+        manager.flush();
+
+        assertEquals( 1, delegate.writes.size() );
+        assertEquals( 1, manager.getSkippedCount() );
+
+        task.setEnabled( false );
+
+        manager.addTask( task );
+        manager.flush();
+
+        assertEquals( 2, delegate.writes.size() );
+
+        // a task loaded up is written already
+        final DefaultScheduledTask<Integer> loaded = createTask( "2" );
+
+        manager.markWritten( loaded );
+        manager.addTask( loaded );
+        manager.flush();
+
+        assertEquals( 2, delegate.writes.size() );
+
+        manager.shutdown();
+    }
+
+    public void testFlushOnSize()
+        throws Exception
+    {
+        final WriteBehindTaskConfigManager manager = new WriteBehindTaskConfigManager( delegate, 60000, 2 );
+
+        manager.addTask( createTask( "1" ) );
+        manager.addTask( createTask( "2" ) );
+
+        final long start = System.currentTimeMillis();
+
+        while ( delegate.writes.size() < 2 && System.currentTimeMillis() - start < 5000 )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( 2, delegate.writes.size() );
+
+        manager.shutdown();
+    }
+
+    public void testFlushOnShutdown()
+    {
+        final WriteBehindTaskConfigManager manager = new WriteBehindTaskConfigManager( delegate, 60000, 100 );
+
+        manager.addTask( createTask( "1" ) );
+
+        manager.shutdown();
+
+        assertEquals( list( "add 1 task1" ), delegate.writes );
+    }
+
+    public void testFailedWriteIsRetried()
+    {
+        final WriteBehindTaskConfigManager manager = new WriteBehindTaskConfigManager( delegate, 60000, 100 );
+
+        manager.addTask( createTask( "1" ) );
+
+        delegate.failing = true;
+
+        manager.flush();
+
+        assertEquals( 1, manager.getPendingCount() );
+
+        delegate.failing = false;
+
+        manager.shutdown();
+
+        assertEquals( list( "add 1 task1" ), delegate.writes );
+    }
+
+    // ==
+
+    protected DefaultScheduledTask<Integer> createTask( final String id )
+    {
+        return new DefaultScheduledTask<Integer>( id, "task" + id, "type", null, new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                return 0;
+            }
+        }, new ManualRunSchedule() );
+    }
+
+    protected static List<String> list( final String... writes )
+    {
+        final List<String> result = new ArrayList<String>();
+
+        Collections.addAll( result, writes );
+
+        return result;
+    }
+
+    protected static class RecordingTaskConfigManager
+        extends SimpleTaskConfigManager
+    {
+        private final List<String> writes = Collections.synchronizedList( new ArrayList<String>() );
+
+        private volatile boolean failing;
+
+        @Override
+        public <T> void addTask( final ScheduledTask<T> task )
+        {
+            record( "add", task );
+        }
+
+        @Override
+        public <T> void removeTask( final ScheduledTask<T> task )
+        {
+            record( "remove", task );
+        }
+
+        private void record( final String operation, final ScheduledTask<?> task )
+        {
+            if ( failing )
+            {
+                throw new IllegalStateException( "Write failed" );
+            }
+
+            writes.add( operation + " " + task.getId() + " " + task.getName() );
+        }
+    }
+}